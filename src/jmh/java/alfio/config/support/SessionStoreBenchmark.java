@@ -0,0 +1,153 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config.support;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.session.ExpiringSession;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.jdbc.JdbcOperationsSessionRepository;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the session stores (see {@link alfio.config.SessionConfiguration}) by simulating the session access
+ * of a request of the public reservation flow: the session is loaded, read and saved, and one request out of four
+ * modifies an attribute.
+ * <p>
+ * The <tt>statements</tt> counter reports the number of SQL statements per second: divided by the throughput it gives
+ * the number of statements per request. The <tt>jdbc</tt> store needs an alf.io database, which can be configured
+ * using the <tt>alfio.benchmark.jdbc-url</tt>, <tt>alfio.benchmark.jdbc-username</tt> and <tt>alfio.benchmark.jdbc-password</tt>
+ * system properties. Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionStoreBenchmark {
+
+    private static final int SESSIONS = 1_000;
+
+    @Param({"memory", "cookie", "jdbc"})
+    private String store;
+
+    private SessionRepository<ExpiringSession> repository;
+    private final AtomicLong requests = new AtomicLong();
+    private String[] ids;
+    private HikariDataSource pool;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long statements;
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        switch (store) {
+            case "memory":
+                repository = (SessionRepository) new InMemorySessionRepository(SESSIONS * 10, 3600);
+                break;
+            case "cookie":
+                repository = (SessionRepository) new CookieSessionRepository("benchmark", 3600, new InMemorySessionRepository(SESSIONS, 3600));
+                break;
+            default:
+                pool = new HikariDataSource();
+                pool.setJdbcUrl(System.getProperty("alfio.benchmark.jdbc-url", "jdbc:postgresql://localhost:5432/alfio"));
+                pool.setUsername(System.getProperty("alfio.benchmark.jdbc-username", "postgres"));
+                pool.setPassword(System.getProperty("alfio.benchmark.jdbc-password", "password"));
+                CountingDataSource dataSource = new CountingDataSource(pool);
+                repository = (SessionRepository) new JdbcOperationsSessionRepository(new JdbcTemplate(dataSource), new DataSourceTransactionManager(dataSource));
+        }
+        ids = new String[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            ExpiringSession session = repository.createSession();
+            session.setAttribute("org.springframework.web.servlet.i18n.SessionLocaleResolver.LOCALE", Locale.ENGLISH);
+            session.setAttribute("org.springframework.security.web.csrf.HttpSessionCsrfTokenRepository.CSRF_TOKEN", UUID.randomUUID().toString());
+            repository.save(session);
+            ids[i] = session.getId();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if(pool != null) {
+            pool.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object request(Counters counters) {
+        long request = requests.incrementAndGet();
+        int index = (int) (request % SESSIONS);
+        long before = CountingDataSource.count();
+        ExpiringSession session = repository.getSession(ids[index]);
+        session.setLastAccessedTime(System.currentTimeMillis());
+        Object locale = session.getAttribute("org.springframework.web.servlet.i18n.SessionLocaleResolver.LOCALE");
+        session.getAttribute("org.springframework.security.web.csrf.HttpSessionCsrfTokenRepository.CSRF_TOKEN");
+        if(request % 4 == 0) {
+            session.setAttribute("reservationId", Long.toString(request));
+        }
+        repository.save(session);
+        ids[index] = session.getId();
+        counters.statements += CountingDataSource.count() - before;
+        return locale;
+    }
+
+    private static class CountingDataSource extends DelegatingDataSource {
+
+        private static final ThreadLocal<long[]> STATEMENTS = ThreadLocal.withInitial(() -> new long[1]);
+
+        private CountingDataSource(DataSource target) {
+            super(target);
+        }
+
+        private static long count() {
+            return STATEMENTS.get()[0];
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection connection = super.getConnection();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                if(method.getName().startsWith("prepare") || method.getName().equals("createStatement")) {
+                    STATEMENTS.get()[0]++;
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.controller.support;
+
+import alfio.util.ImageUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticket PDF rendering throughput, in tickets per second, using a page which resembles the default ticket template
+ * (custom font, QR code). Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TicketPdfBenchmark {
+
+    private String page;
+
+    @Setup
+    public void setup() {
+        String qrCode = "data:image/png;base64," + Base64.getEncoder().encodeToString(ImageUtil.createQRCode(UUID.randomUUID().toString()));
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            rows.append("<tr><td style=\"width:180px\">Label ").append(i).append("</td><td>Value ").append(i).append("</td></tr>");
+        }
+        page = "<html><head><style>body {font-family:\"DejaVu Sans Mono\";} h1 {font-size:160%;}</style></head><body>"
+            + "<h1>Event</h1><table>" + rows + "</table>"
+            + "<div style=\"text-align:right\"><img src=\"" + qrCode + "\"/></div>"
+            + "</body></html>";
+    }
+
+    @Benchmark
+    public byte[] singleThread() throws IOException {
+        return render();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] allProcessors() throws IOException {
+        return render();
+    }
+
+    private byte[] render() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        TemplateProcessor.renderToPdf(page, os);
+        return os.toByteArray();
+    }
+}
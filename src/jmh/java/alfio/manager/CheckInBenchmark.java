@@ -0,0 +1,137 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the statements executed by the single and the bulk check-in (see {@link CheckInManager#bulkCheckIn}) when
+ * a scanner uploads a batch of scans. The benchmark works on temporary copies of the tables involved, so it can be run
+ * against any PostgreSQL database, configured using the <tt>alfio.benchmark.jdbc-url</tt>, <tt>alfio.benchmark.jdbc-username</tt>
+ * and <tt>alfio.benchmark.jdbc-password</tt> system properties.
+ * <p>
+ * Multiply the throughput by the number of scans to get the check-ins per second. Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CheckInBenchmark {
+
+    private static final String USERNAME = "scanner";
+
+    @Param({"1", "100", "500"})
+    private int scans;
+
+    private HikariDataSource dataSource;
+    private NamedParameterJdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+    private List<String> uuids;
+
+    @Setup
+    public void setup() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(System.getProperty("alfio.benchmark.jdbc-url", "jdbc:postgresql://localhost:5432/alfio"));
+        dataSource.setUsername(System.getProperty("alfio.benchmark.jdbc-username", "postgres"));
+        dataSource.setPassword(System.getProperty("alfio.benchmark.jdbc-password", "password"));
+        // temporary tables are bound to the connection
+        dataSource.setMaximumPoolSize(1);
+        jdbc = new NamedParameterJdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        MapSqlParameterSource empty = new MapSqlParameterSource();
+        jdbc.update("create temporary table bench_ticket(id serial primary key, uuid varchar(255) not null unique, event_id integer not null, category_id integer not null," +
+            " tickets_reservation_id varchar(255) not null, status varchar(255) not null, locked_assignment boolean not null default false)", empty);
+        jdbc.update("create temporary table bench_scan_audit(ticket_uuid varchar(255), event_id_fk integer, scan_ts timestamp, username varchar(255), check_in_status varchar(255), operation varchar(255))", empty);
+        jdbc.update("create temporary table bench_auditing(reservation_id varchar(255), user_id integer, event_id integer, event_type varchar(255), event_time timestamp, entity_type varchar(255), entity_id varchar(255), modifications text)", empty);
+        jdbc.update("create temporary table bench_user(id serial primary key, username varchar(255) not null unique)", empty);
+        jdbc.update("insert into bench_user(username) values (:username)", new MapSqlParameterSource("username", USERNAME));
+        uuids = new ArrayList<>(scans);
+        for (int i = 0; i < scans; i++) {
+            String uuid = UUID.randomUUID().toString();
+            uuids.add(uuid);
+            jdbc.update("insert into bench_ticket(uuid, event_id, category_id, tickets_reservation_id, status) values (:uuid, 1, 1, :reservationId, 'ACQUIRED')",
+                new MapSqlParameterSource("uuid", uuid).addValue("reservationId", UUID.randomUUID().toString()));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        jdbc.update("update bench_ticket set status = 'ACQUIRED', locked_assignment = false", new MapSqlParameterSource());
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    /**
+     * One transaction and ten statements per ticket, as performed by {@link CheckInManager#checkIn(int, String, java.util.Optional, String)}
+     */
+    @Benchmark
+    public int singleCheckIn() {
+        int count = 0;
+        for (String uuid : uuids) {
+            count += transactionTemplate.execute(status -> {
+                MapSqlParameterSource params = new MapSqlParameterSource("uuid", uuid).addValue("username", USERNAME).addValue("now", new Timestamp(System.currentTimeMillis()));
+                jdbc.queryForMap("select * from bench_ticket where uuid = :uuid for update", params);
+                jdbc.queryForMap("select 1 as event", params);
+                jdbc.queryForMap("select 1 as category", params);
+                jdbc.queryForMap("select * from bench_ticket where uuid = :uuid", params);
+                jdbc.update("update bench_ticket set status = 'CHECKED_IN' where uuid = :uuid", params);
+                jdbc.update("update bench_ticket set locked_assignment = true where uuid = :uuid", params);
+                jdbc.queryForMap("select * from bench_ticket where uuid = :uuid", params);
+                jdbc.update("insert into bench_scan_audit select uuid, event_id, :now, :username, 'SUCCESS', 'SCAN' from bench_ticket where uuid = :uuid", params);
+                jdbc.queryForList("select id from bench_user where username = :username", params, Integer.class);
+                return jdbc.update("insert into bench_auditing select tickets_reservation_id, null, event_id, 'CHECK_IN', :now, 'TICKET', concat('', id), null from bench_ticket where uuid = :uuid", params);
+            });
+        }
+        return count;
+    }
+
+    /**
+     * One transaction and a constant number of statements, as performed by {@link CheckInManager#bulkCheckIn}
+     */
+    @Benchmark
+    public int bulkCheckIn() {
+        return transactionTemplate.execute(status -> {
+            MapSqlParameterSource params = new MapSqlParameterSource("uuids", uuids).addValue("username", USERNAME).addValue("now", new Timestamp(System.currentTimeMillis()));
+            jdbc.queryForMap("select 1 as event", params);
+            List<Integer> ids = jdbc.queryForList("select id from bench_ticket where uuid in (:uuids) order by id for update", params, Integer.class);
+            jdbc.queryForList("select 1 as category", params);
+            params.addValue("ids", ids);
+            int count = jdbc.update("update bench_ticket set status = 'CHECKED_IN', locked_assignment = true where id in (:ids) and status = 'ACQUIRED'", params);
+            jdbc.update("insert into bench_scan_audit select uuid, event_id, :now, :username, 'SUCCESS', 'SCAN' from bench_ticket where id in (:ids)", params);
+            Integer userId = jdbc.queryForList("select id from bench_user where username = :username", params, Integer.class).stream().findFirst().orElse(null);
+            jdbc.update("insert into bench_auditing select tickets_reservation_id, :userId, event_id, 'CHECK_IN', :now, 'TICKET', concat('', id), null from bench_ticket where id in (:ids)", params.addValue("userId", userId));
+            jdbc.queryForList("select * from bench_ticket where id in (:ids)", params);
+            return count;
+        });
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent paid checkouts for the same organization, with and without a database transaction open during the
+ * call to the payment provider (see {@link TicketReservationManager#performPayment}). The provider call is simulated
+ * by waiting for <tt>providerLatencyMillis</tt>.
+ * <p>
+ * The benchmark creates and drops its own tables, so it can be run against any PostgreSQL database, configured using
+ * the <tt>alfio.benchmark.jdbc-url</tt>, <tt>alfio.benchmark.jdbc-username</tt> and <tt>alfio.benchmark.jdbc-password</tt>
+ * system properties. Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+@Fork(1)
+public class PaymentPipelineBenchmark {
+
+    private static final int ORGANIZATION_ID = 1;
+
+    @Param({"50", "300"})
+    private long providerLatencyMillis;
+
+    private HikariDataSource dataSource;
+    private NamedParameterJdbcTemplate jdbc;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup
+    public void setup() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(System.getProperty("alfio.benchmark.jdbc-url", "jdbc:postgresql://localhost:5432/alfio"));
+        dataSource.setUsername(System.getProperty("alfio.benchmark.jdbc-username", "postgres"));
+        dataSource.setPassword(System.getProperty("alfio.benchmark.jdbc-password", "password"));
+        dataSource.setMaximumPoolSize(20);
+        jdbc = new NamedParameterJdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        MapSqlParameterSource params = new MapSqlParameterSource("orgId", ORGANIZATION_ID);
+        tearDownTables();
+        jdbc.update("create table bench_invoice_sequences(organization_id_fk integer primary key, invoice_sequence integer not null)", params);
+        jdbc.update("create table bench_reservation(id varchar(255) primary key, status varchar(255) not null, invoice_number varchar(255))", params);
+        jdbc.update("insert into bench_invoice_sequences(organization_id_fk, invoice_sequence) values (:orgId, 1)", params);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tearDownTables();
+        dataSource.close();
+    }
+
+    private void tearDownTables() {
+        MapSqlParameterSource empty = new MapSqlParameterSource();
+        jdbc.update("drop table if exists bench_invoice_sequences", empty);
+        jdbc.update("drop table if exists bench_reservation", empty);
+    }
+
+    @State(Scope.Thread)
+    public static class Checkout {
+        private MapSqlParameterSource params;
+
+        @Setup(Level.Invocation)
+        public void create(PaymentPipelineBenchmark benchmark) {
+            params = new MapSqlParameterSource("id", UUID.randomUUID().toString()).addValue("orgId", ORGANIZATION_ID);
+            benchmark.jdbc.update("insert into bench_reservation(id, status) values (:id, 'PENDING')", params);
+        }
+    }
+
+    /**
+     * The whole payment runs in a single transaction: the invoice sequence is locked during the provider call,
+     * therefore the checkouts of the organization are serialized.
+     */
+    @Benchmark
+    public int singleTransaction(Checkout checkout) {
+        return transactionTemplate.execute(status -> {
+            jdbc.queryForMap("select * from bench_reservation where id = :id for update", checkout.params);
+            int sequence = jdbc.queryForObject("select invoice_sequence from bench_invoice_sequences where organization_id_fk = :orgId for update", checkout.params, Integer.class);
+            jdbc.update("update bench_invoice_sequences set invoice_sequence = invoice_sequence + 1 where organization_id_fk = :orgId", checkout.params);
+            jdbc.update("update bench_reservation set invoice_number = :number where id = :id", checkout.params.addValue("number", Integer.toString(sequence)));
+            callProvider();
+            return jdbc.update("update bench_reservation set status = 'COMPLETE' where id = :id", checkout.params);
+        });
+    }
+
+    /**
+     * Prepare and complete in two short transactions, the provider is called in between. The reservation is claimed
+     * with a conditional update, and the invoice number is allocated at the end of the second transaction.
+     */
+    @Benchmark
+    public int twoPhase(Checkout checkout) {
+        transactionTemplate.execute(status -> jdbc.update("update bench_reservation set status = 'IN_PAYMENT' where id = :id and status = 'PENDING'", checkout.params));
+        callProvider();
+        return transactionTemplate.execute(status -> {
+            int count = jdbc.update("update bench_reservation set status = 'COMPLETE' where id = :id and status = 'IN_PAYMENT'", checkout.params);
+            jdbc.update("update bench_invoice_sequences set invoice_sequence = invoice_sequence + 1 where organization_id_fk = :orgId", checkout.params);
+            int sequence = jdbc.queryForObject("select invoice_sequence - 1 from bench_invoice_sequences where organization_id_fk = :orgId", checkout.params, Integer.class);
+            jdbc.update("update bench_reservation set invoice_number = :number where id = :id", checkout.params.addValue("number", Integer.toString(sequence)));
+            return count;
+        });
+    }
+
+    private void callProvider() {
+        try {
+            Thread.sleep(providerLatencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
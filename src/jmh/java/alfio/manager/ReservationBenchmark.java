@@ -0,0 +1,131 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.TicketCategory;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.repository.user.UserRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static alfio.test.util.IntegrationTestUtil.*;
+
+/**
+ * Measures {@link TicketReservationManager#createTicketReservation} for one bounded and one unbounded category.
+ * The number of statements executed on this path is checked by <tt>ReservationStatementCountIntegrationTest</tt>.
+ * <p>
+ * The benchmark starts the same context as the integration tests: by default an embedded PostgreSQL instance,
+ * or the database configured with the <tt>datasource.url</tt>, <tt>datasource.username</tt> and
+ * <tt>datasource.password</tt> system properties if the <tt>travis</tt> profile is active
+ * (<tt>-Dspring.profiles.active=travis</tt>). Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReservationBenchmark {
+
+    private static final int AVAILABLE_TICKETS = 100_000;
+
+    @Param({"1", "20"})
+    private int quantity;
+
+    private AnnotationConfigApplicationContext context;
+    private TicketReservationManager ticketReservationManager;
+    private ExpiredReservationProcessor expiredReservationProcessor;
+    private Event event;
+    private List<TicketReservationWithOptionalCodeModification> reservation;
+
+    @Setup
+    public void setup() {
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().addActiveProfile(Initializer.PROFILE_DEV);
+        context.getEnvironment().addActiveProfile(Initializer.PROFILE_DISABLE_JOBS);
+        context.getEnvironment().addActiveProfile(Initializer.PROFILE_INTEGRATION_TEST);
+        context.register(DataSourceConfiguration.class, TestConfiguration.class);
+        context.refresh();
+        ticketReservationManager = context.getBean(TicketReservationManager.class);
+        expiredReservationProcessor = context.getBean(ExpiredReservationProcessor.class);
+
+        ensureMinimalConfiguration(context.getBean(ConfigurationRepository.class));
+        initAdminUser(context.getBean(UserRepository.class), context.getBean(AuthorityRepository.class));
+        List<TicketCategoryModification> categories = Arrays.asList(
+            new TicketCategoryModification(null, "bounded", AVAILABLE_TICKETS / 2,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null),
+            new TicketCategoryModification(null, "unbounded", 0,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, BigDecimal.ONE, false, "", false, null, null, null, null, null));
+        event = initEvent(categories, context.getBean(OrganizationRepository.class), context.getBean(UserManager.class),
+            context.getBean(EventManager.class), context.getBean(EventRepository.class), null, AVAILABLE_TICKETS).getKey();
+        reservation = context.getBean(TicketCategoryRepository.class).findByEventId(event.getId()).stream()
+            .map(this::toReservation)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * The reservations are created already expired, so that their tickets can be released after each iteration.
+     */
+    @TearDown(Level.Iteration)
+    public void releaseTickets() {
+        expiredReservationProcessor.cleanupExpiredReservations(new Date());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.getBean(EventManager.class).deleteEvent(event.getId(), UserManager.ADMIN_USERNAME);
+        removeAdminUser(context.getBean(UserRepository.class), context.getBean(AuthorityRepository.class));
+        context.close();
+    }
+
+    @Benchmark
+    public String createReservation() {
+        return ticketReservationManager.createTicketReservation(event, reservation, Collections.emptyList(), new Date(),
+            Optional.empty(), Optional.empty(), Locale.ENGLISH, false);
+    }
+
+    private TicketReservationWithOptionalCodeModification toReservation(TicketCategory category) {
+        TicketReservationModification trm = new TicketReservationModification();
+        trm.setAmount(quantity);
+        trm.setTicketCategoryId(category.getId());
+        return new TicketReservationWithOptionalCodeModification(trm, Optional.empty());
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.manager.system.SmtpMailer.CustomJavaMailSenderImpl;
+import alfio.manager.system.SmtpMailer.PooledJavaMailSenderImpl;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivery throughput of the mail senders used by {@link SmtpMailer}, with and without reusing the connected SMTP
+ * sessions. Messages are sent from 8 threads to a local fake SMTP server, so that only the protocol overhead is
+ * measured. Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class SmtpMailerBenchmark {
+
+    @Param({"pooled", "session per message"})
+    private String transport;
+
+    private FakeSmtpServer server;
+    private JavaMailSenderImpl sender;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new FakeSmtpServer();
+        sender = "pooled".equals(transport) ? new PooledJavaMailSenderImpl() : new CustomJavaMailSenderImpl();
+        sender.setDefaultEncoding("UTF-8");
+        sender.setHost("localhost");
+        sender.setPort(server.getPort());
+        sender.setProtocol("smtp");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if(sender instanceof PooledJavaMailSenderImpl) {
+            ((PooledJavaMailSenderImpl) sender).closeIdleTransports();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public void send() {
+        sender.send(mimeMessage -> {
+            MimeMessageHelper message = new MimeMessageHelper(mimeMessage, "UTF-8");
+            message.setSubject("subject");
+            message.setFrom("noreply@example.com", "Benchmark");
+            message.setTo("attendee@example.com");
+            message.setText("text", false);
+        });
+    }
+
+    private static class FakeSmtpServer implements Closeable {
+
+        private final ServerSocket serverSocket;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+
+        FakeSmtpServer() throws IOException {
+            serverSocket = new ServerSocket(0, 100);
+            executor.submit(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        executor.submit(() -> handle(socket));
+                    } catch (IOException e) {
+                        //server closed
+                    }
+                }
+            });
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private Void handle(Socket socket) throws IOException {
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+                 Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII)) {
+                reply(out, "220 localhost ESMTP fake");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                    switch (command) {
+                        case "EHLO":
+                        case "HELO":
+                            reply(out, "250 localhost");
+                            break;
+                        case "DATA":
+                            reply(out, "354 end data with <CR><LF>.<CR><LF>");
+                            while ((line = in.readLine()) != null && !line.equals(".")) {
+                                //discard message content
+                            }
+                            reply(out, "250 OK");
+                            break;
+                        case "QUIT":
+                            reply(out, "221 bye");
+                            return null;
+                        case "MAIL":
+                        case "RCPT":
+                        case "RSET":
+                        case "NOOP":
+                            reply(out, "250 OK");
+                            break;
+                        default:
+                            reply(out, "502 command not implemented");
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static void reply(Writer out, String line) throws IOException {
+            out.write(line + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model.decorator;
+
+import alfio.model.PriceContainer;
+import alfio.model.PromoCodeDiscount;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the price computations performed while building the order summary of a reservation.
+ * Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriceContainerBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int tickets;
+
+    @Param({"INCLUDED", "NOT_INCLUDED"})
+    private PriceContainer.VatStatus vatStatus;
+
+    private List<PriceContainer> prices;
+
+    @Setup
+    public void setup() {
+        PromoCodeDiscount discount = new PromoCodeDiscount(1, "PROMO", 1, null, ZonedDateTime.now().minusDays(1),
+            ZonedDateTime.now().plusDays(1), 10, PromoCodeDiscount.DiscountType.PERCENTAGE, null, null);
+        prices = new ArrayList<>(tickets);
+        for (int i = 0; i < tickets; i++) {
+            prices.add(new BenchmarkPriceContainer(10_000 + i, new BigDecimal("7.7"), vatStatus, discount));
+        }
+    }
+
+    @Benchmark
+    public BigDecimal[] totalReservationCost() {
+        BigDecimal totalVAT = BigDecimal.ZERO;
+        BigDecimal totalDiscount = BigDecimal.ZERO;
+        BigDecimal totalNET = BigDecimal.ZERO;
+        for (PriceContainer price : prices) {
+            totalVAT = totalVAT.add(price.getVAT());
+            totalDiscount = totalDiscount.add(price.getAppliedDiscount());
+            totalNET = totalNET.add(price.getFinalPrice());
+        }
+        return new BigDecimal[] {totalNET, totalVAT, totalDiscount};
+    }
+
+    private static class BenchmarkPriceContainer implements PriceContainer {
+        private final int srcPriceCts;
+        private final BigDecimal vat;
+        private final VatStatus vatStatus;
+        private final PromoCodeDiscount discount;
+
+        private BenchmarkPriceContainer(int srcPriceCts, BigDecimal vat, VatStatus vatStatus, PromoCodeDiscount discount) {
+            this.srcPriceCts = srcPriceCts;
+            this.vat = vat;
+            this.vatStatus = vatStatus;
+            this.discount = discount;
+        }
+
+        @Override
+        public int getSrcPriceCts() {
+            return srcPriceCts;
+        }
+
+        @Override
+        public Optional<PromoCodeDiscount> getDiscount() {
+            return Optional.of(discount);
+        }
+
+        @Override
+        public String getCurrencyCode() {
+            return "CHF";
+        }
+
+        @Override
+        public Optional<BigDecimal> getOptionalVatPercentage() {
+            return Optional.of(vat);
+        }
+
+        @Override
+        public VatStatus getVatStatus() {
+            return vatStatus;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reservation list of an event with 100k reservations: offset pagination vs keyset pagination
+ * (see {@link TicketSearchRepository#findReservationsForEventAfter}), for the first and the last page.
+ * <p>
+ * The benchmark creates and drops its own tables, so it can be run against any PostgreSQL database, configured using
+ * the <tt>alfio.benchmark.jdbc-url</tt>, <tt>alfio.benchmark.jdbc-username</tt> and <tt>alfio.benchmark.jdbc-password</tt>
+ * system properties. Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class KeysetPaginationBenchmark {
+
+    private static final int EVENT_ID = 1;
+    private static final int RESERVATIONS = 100_000;
+    private static final int PAGE_SIZE = 50;
+
+    private static final String FIND = "select * from bench_keyset_reservation where event_id_fk = :eventId and status in ('COMPLETE') ";
+    private static final String SORT_KEY = " coalesce(confirmation_ts, timestamp with time zone 'epoch'), validity, id ";
+    private static final String ORDER = " order by coalesce(confirmation_ts, timestamp with time zone 'epoch') desc, validity desc, id desc ";
+
+    private HikariDataSource dataSource;
+    private NamedParameterJdbcTemplate jdbc;
+    private MapSqlParameterSource firstPage;
+    private MapSqlParameterSource lastPage;
+
+    @Setup
+    public void setup() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(System.getProperty("alfio.benchmark.jdbc-url", "jdbc:postgresql://localhost:5432/alfio"));
+        dataSource.setUsername(System.getProperty("alfio.benchmark.jdbc-username", "postgres"));
+        dataSource.setPassword(System.getProperty("alfio.benchmark.jdbc-password", "password"));
+        jdbc = new NamedParameterJdbcTemplate(dataSource);
+        MapSqlParameterSource params = new MapSqlParameterSource("eventId", EVENT_ID).addValue("count", RESERVATIONS);
+        tearDownTables();
+        jdbc.update("create table bench_keyset_reservation(id varchar(255) primary key, event_id_fk integer not null, status varchar(255) not null, " +
+            "validity timestamp with time zone not null, confirmation_ts timestamp with time zone, full_name varchar(255), email_address varchar(255))", params);
+        jdbc.update("insert into bench_keyset_reservation(id, event_id_fk, status, validity, confirmation_ts, full_name, email_address) " +
+            "select md5(i::text), :eventId, 'COMPLETE', now() - (i || ' minutes')::interval, now() - (i || ' minutes')::interval, 'Name ' || i, 'user-' || i || '@example.com' " +
+            "from generate_series(1, :count) i", params);
+        jdbc.update("create index on bench_keyset_reservation(event_id_fk, status, coalesce(confirmation_ts, timestamp with time zone 'epoch'), validity, id)", params);
+        jdbc.update("analyze bench_keyset_reservation", params);
+
+        firstPage = new MapSqlParameterSource("eventId", EVENT_ID).addValue("pageSize", PAGE_SIZE).addValue("offset", 0);
+        int lastOffset = RESERVATIONS - PAGE_SIZE;
+        // the element before the last page, as it would be encoded in the page token
+        Map<String, Object> previous = jdbc.queryForMap(FIND + ORDER + " limit 1 offset :offset", new MapSqlParameterSource("eventId", EVENT_ID).addValue("offset", lastOffset - 1));
+        lastPage = new MapSqlParameterSource("eventId", EVENT_ID).addValue("pageSize", PAGE_SIZE).addValue("offset", lastOffset)
+            .addValue("afterConfirmation", previous.get("confirmation_ts"))
+            .addValue("afterValidity", previous.get("validity"))
+            .addValue("afterId", previous.get("id"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        tearDownTables();
+        dataSource.close();
+    }
+
+    private void tearDownTables() {
+        jdbc.update("drop table if exists bench_keyset_reservation", new MapSqlParameterSource());
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> offsetFirstPage() {
+        return jdbc.queryForList(FIND + ORDER + " limit :pageSize offset :offset", firstPage);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> offsetLastPage() {
+        return jdbc.queryForList(FIND + ORDER + " limit :pageSize offset :offset", lastPage);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> keysetLastPage() {
+        return jdbc.queryForList(FIND + " and (" + SORT_KEY + ") < (:afterConfirmation, :afterValidity, :afterId) " + ORDER + " limit :pageSize", lastPage);
+    }
+
+    @Benchmark
+    public Integer count() {
+        return jdbc.queryForObject("select count(*) from (" + FIND + ") as d_tbl", firstPage, Integer.class);
+    }
+}
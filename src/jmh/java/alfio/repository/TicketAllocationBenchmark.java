@@ -0,0 +1,138 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.EventManager;
+import alfio.manager.ExpiredReservationProcessor;
+import alfio.manager.TicketReservationManager;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.TicketCategory;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.repository.user.UserRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static alfio.test.util.IntegrationTestUtil.*;
+
+/**
+ * On-sale spike: {@value #BUYERS} concurrent buyers reserve one ticket each from the same category through
+ * {@link TicketReservationManager#createTicketReservation}, comparing the blocking allocation
+ * ({@link TicketRepository#selectTicketInCategoryForUpdate}) with the one enabled by SKIP_LOCKED_TICKET_ALLOCATION
+ * ({@link TicketRepository#selectTicketInCategoryForUpdateSkipLocked}).
+ * The correctness of both modes under the same load is checked by <tt>TicketAllocationConcurrencyIntegrationTest</tt>.
+ * <p>
+ * The benchmark starts the same context as the integration tests, see <tt>alfio.manager.ReservationBenchmark</tt>.
+ * Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(TicketAllocationBenchmark.BUYERS)
+public class TicketAllocationBenchmark {
+
+    static final int BUYERS = 500;
+    private static final int CONNECTIONS = 50;
+    private static final int TICKETS = 100_000;
+
+    @Param({"false", "true"})
+    private boolean skipLocked;
+
+    private AnnotationConfigApplicationContext context;
+    private TicketReservationManager ticketReservationManager;
+    private ExpiredReservationProcessor expiredReservationProcessor;
+    private Event event;
+    private List<TicketReservationWithOptionalCodeModification> reservation;
+
+    @Setup
+    public void setup() throws SQLException {
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().addActiveProfile(Initializer.PROFILE_DEV);
+        context.getEnvironment().addActiveProfile(Initializer.PROFILE_DISABLE_JOBS);
+        context.getEnvironment().addActiveProfile(Initializer.PROFILE_INTEGRATION_TEST);
+        context.register(DataSourceConfiguration.class, TestConfiguration.class);
+        context.refresh();
+        context.getBean(DataSource.class).unwrap(HikariDataSource.class).getHikariConfigMXBean().setMaximumPoolSize(CONNECTIONS);
+        ticketReservationManager = context.getBean(TicketReservationManager.class);
+        expiredReservationProcessor = context.getBean(ExpiredReservationProcessor.class);
+
+        ensureMinimalConfiguration(context.getBean(ConfigurationRepository.class));
+        context.getBean(ConfigurationManager.class).saveSystemConfiguration(ConfigurationKeys.SKIP_LOCKED_TICKET_ALLOCATION, Boolean.toString(skipLocked));
+        initAdminUser(context.getBean(UserRepository.class), context.getBean(AuthorityRepository.class));
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", TICKETS,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null));
+        event = initEvent(categories, context.getBean(OrganizationRepository.class), context.getBean(UserManager.class),
+            context.getBean(EventManager.class), context.getBean(EventRepository.class), null, TICKETS).getKey();
+        TicketCategory category = context.getBean(TicketCategoryRepository.class).findByEventId(event.getId()).get(0);
+        TicketReservationModification trm = new TicketReservationModification();
+        trm.setAmount(1);
+        trm.setTicketCategoryId(category.getId());
+        reservation = Collections.singletonList(new TicketReservationWithOptionalCodeModification(trm, Optional.empty()));
+    }
+
+    /**
+     * The reservations are created already expired, so that their tickets can be released after each iteration.
+     */
+    @TearDown(Level.Iteration)
+    public void releaseTickets() {
+        expiredReservationProcessor.cleanupExpiredReservations(new Date());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.getBean(EventManager.class).deleteEvent(event.getId(), UserManager.ADMIN_USERNAME);
+        context.getBean(ConfigurationManager.class).deleteKey(ConfigurationKeys.SKIP_LOCKED_TICKET_ALLOCATION.name());
+        removeAdminUser(context.getBean(UserRepository.class), context.getBean(AuthorityRepository.class));
+        context.close();
+    }
+
+    @Benchmark
+    public String reserveOneTicket() {
+        return ticketReservationManager.createTicketReservation(event, reservation, Collections.emptyList(), new Date(),
+            Optional.empty(), Optional.empty(), Locale.ENGLISH, false);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Admin reservation search on an event with 100k reservations (one ticket each), comparing the former filter
+ * ({@code lower(column) like lower(:search)} on each column of the joined tables) with the trigram-indexed search
+ * documents introduced in V200_008__SEARCH_DOCUMENT.sql (see {@link TicketSearchRepository#APPLY_FILTER}).
+ * <p>
+ * The benchmark creates and drops its own tables, so it can be run against any PostgreSQL database where the
+ * <tt>pg_trgm</tt> extension is available, configured using the <tt>alfio.benchmark.jdbc-url</tt>,
+ * <tt>alfio.benchmark.jdbc-username</tt> and <tt>alfio.benchmark.jdbc-password</tt> system properties.
+ * Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TicketSearchBenchmark {
+
+    private static final int EVENT_ID = 1;
+    private static final int RESERVATIONS = 100_000;
+
+    private static final String LEGACY_FILTER = "(lower(t_uuid) like lower(:search) or lower(t_full_name) like lower(:search) or lower(t_email_address) like lower(:search) or " +
+        "lower(tr_full_name) like lower(:search) or lower(tr_first_name) like lower(:search) or lower(tr_last_name) like lower(:search) or " +
+        "lower(tr_email_address) like lower(:search) or lower(tr_customer_reference) like lower(:search))";
+
+    private static final String SEARCH_DOCUMENT_FILTER = "(tr_id in (select id from bench_search_reservation where event_id = :eventId and search_document like lower(:search)) or " +
+        "t_id in (select id from bench_search_ticket where event_id = :eventId and search_document like lower(:search)))";
+
+    private static final String VIEW = "(select r.id tr_id, r.full_name tr_full_name, r.first_name tr_first_name, r.last_name tr_last_name, r.email_address tr_email_address, " +
+        "r.customer_reference tr_customer_reference, r.confirmation_ts tr_confirmation_ts, t.id t_id, t.uuid t_uuid, t.full_name t_full_name, t.email_address t_email_address " +
+        "from bench_search_reservation r left join bench_search_ticket t on t.reservation_id = r.id where r.event_id = :eventId) v";
+
+    /**
+     * Search terms as typed by an operator: a rare e-mail address, a common surname fragment and a reference
+     */
+    @Param({"user-4242@", "smith", "ref-0099"})
+    private String search;
+
+    private HikariDataSource dataSource;
+    private NamedParameterJdbcTemplate jdbc;
+    private MapSqlParameterSource params;
+
+    @Setup
+    public void setup() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(System.getProperty("alfio.benchmark.jdbc-url", "jdbc:postgresql://localhost:5432/alfio"));
+        dataSource.setUsername(System.getProperty("alfio.benchmark.jdbc-username", "postgres"));
+        dataSource.setPassword(System.getProperty("alfio.benchmark.jdbc-password", "password"));
+        jdbc = new NamedParameterJdbcTemplate(dataSource);
+        params = new MapSqlParameterSource("eventId", EVENT_ID).addValue("search", "%" + search + "%").addValue("count", RESERVATIONS);
+        tearDownTables();
+        jdbc.update("create extension if not exists pg_trgm", params);
+        jdbc.update("create table bench_search_reservation(id varchar(255) primary key, event_id integer not null, full_name varchar(255), first_name varchar(255), " +
+            "last_name varchar(255), email_address varchar(255), customer_reference varchar(255), confirmation_ts timestamp with time zone, search_document text)", params);
+        jdbc.update("create table bench_search_ticket(id serial primary key, uuid varchar(255) not null, event_id integer not null, reservation_id varchar(255) not null, " +
+            "full_name varchar(255), email_address varchar(255), search_document text)", params);
+        jdbc.update("insert into bench_search_reservation(id, event_id, full_name, first_name, last_name, email_address, customer_reference, confirmation_ts) " +
+            "select md5(i::text), :eventId, 'First' || i || ' ' || (array['Smith', 'Rossi', 'Müller', 'Dubois'])[i % 4 + 1], 'First' || i, " +
+            "(array['Smith', 'Rossi', 'Müller', 'Dubois'])[i % 4 + 1], 'user-' || i || '@example.com', 'REF-' || lpad(i::text, 6, '0'), now() - (i || ' minutes')::interval " +
+            "from generate_series(1, :count) i", params);
+        jdbc.update("insert into bench_search_ticket(uuid, event_id, reservation_id, full_name, email_address) " +
+            "select md5('t' || id), event_id, id, full_name, email_address from bench_search_reservation", params);
+        jdbc.update("update bench_search_reservation set search_document = lower(concat_ws(' ', full_name, first_name, last_name, email_address, customer_reference))", params);
+        jdbc.update("update bench_search_ticket set search_document = lower(concat_ws(' ', uuid, full_name, email_address))", params);
+        jdbc.update("create index on bench_search_reservation(event_id)", params);
+        jdbc.update("create index on bench_search_ticket(reservation_id)", params);
+        jdbc.update("create index on bench_search_ticket(event_id)", params);
+        jdbc.update("create index on bench_search_reservation using gin (search_document gin_trgm_ops)", params);
+        jdbc.update("create index on bench_search_ticket using gin (search_document gin_trgm_ops)", params);
+        jdbc.update("analyze bench_search_reservation", params);
+        jdbc.update("analyze bench_search_ticket", params);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tearDownTables();
+        dataSource.close();
+    }
+
+    private void tearDownTables() {
+        MapSqlParameterSource empty = new MapSqlParameterSource();
+        jdbc.update("drop table if exists bench_search_ticket", empty);
+        jdbc.update("drop table if exists bench_search_reservation", empty);
+    }
+
+    @Benchmark
+    public List<String> legacyFilterPage() {
+        return page(LEGACY_FILTER);
+    }
+
+    @Benchmark
+    public List<String> searchDocumentPage() {
+        return page(SEARCH_DOCUMENT_FILTER);
+    }
+
+    @Benchmark
+    public Integer legacyFilterCount() {
+        return count(LEGACY_FILTER);
+    }
+
+    @Benchmark
+    public Integer searchDocumentCount() {
+        return count(SEARCH_DOCUMENT_FILTER);
+    }
+
+    private List<String> page(String filter) {
+        return jdbc.queryForList("select distinct tr_id, tr_confirmation_ts from " + VIEW + " where " + filter +
+            " order by tr_confirmation_ts desc nulls last, tr_id limit 50", params)
+            .stream().map(row -> (String) row.get("tr_id")).collect(Collectors.toList());
+    }
+
+    private Integer count(String filter) {
+        return jdbc.queryForObject("select count(distinct tr_id) from " + VIEW + " where " + filter, params, Integer.class);
+    }
+}
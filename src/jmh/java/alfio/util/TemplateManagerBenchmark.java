@@ -0,0 +1,74 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.support.StaticMessageSource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.view.mustache.jmustache.JMustacheTemplateLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Render throughput of {@link TemplateManager}, with and without the compiled template cache.
+ * No event is involved, so that neither the configuration nor the uploaded resources are needed.
+ * Run with <tt>./gradlew jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateManagerBenchmark {
+
+    private static final TemplateResource RESOURCE = TemplateResource.TICKET_HAS_BEEN_CANCELLED;
+
+    private TemplateManager templateManager;
+    private String source;
+    private Map<String, Object> model;
+
+    @Setup
+    public void setup() throws IOException {
+        StaticMessageSource messageSource = new StaticMessageSource();
+        messageSource.setUseCodeAsDefaultMessage(true);
+        templateManager = new TemplateManager(new JMustacheTemplateLoader(), messageSource, null, null, true);
+        source = StreamUtils.copyToString(new ClassPathResource(RESOURCE.classPath()).getInputStream(), StandardCharsets.UTF_8);
+        model = new HashMap<>();
+        model.put("eventName", "Event");
+        model.put("ticket", Collections.singletonMap("fullName", "Full Name"));
+        model.put("organization", Collections.singletonMap("name", "Organization"));
+    }
+
+    @Benchmark
+    public String cachedTemplate() {
+        return templateManager.renderTemplate(Optional.empty(), RESOURCE, model, Locale.ENGLISH);
+    }
+
+    @Benchmark
+    public String compileOnEachRender() {
+        return templateManager.renderString(null, source, model, Locale.ENGLISH, RESOURCE.getTemplateOutput());
+    }
+}
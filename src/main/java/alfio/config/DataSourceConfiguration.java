@@ -33,6 +33,7 @@ import org.springframework.context.ResourceLoaderAware;
 import org.springframework.context.annotation.*;
 import org.springframework.context.support.ResourceBundleMessageSource;
 import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.datasource.AbstractDataSource;
@@ -150,8 +151,9 @@ public class DataSourceConfiguration implements ResourceLoaderAware {
     }
 
     @Bean
-    public TemplateManager getTemplateManager(UploadedResourceManager uploadedResourceManager, ConfigurationManager configurationManager) {
-        return new TemplateManager(getTemplateLoader(), messageSource(), uploadedResourceManager, configurationManager);
+    public TemplateManager getTemplateManager(UploadedResourceManager uploadedResourceManager, ConfigurationManager configurationManager, Environment env) {
+        //disable caching if we are in dev mode
+        return new TemplateManager(getTemplateLoader(), messageSource(), uploadedResourceManager, configurationManager, env.acceptsProfiles(Profiles.of(Initializer.PROFILE_LIVE)));
     }
 
     @Bean
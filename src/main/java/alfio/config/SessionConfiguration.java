@@ -0,0 +1,142 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config;
+
+import alfio.config.support.CookieSessionRepository;
+import alfio.config.support.InMemorySessionRepository;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.config.annotation.web.http.EnableSpringHttpSession;
+import org.springframework.session.jdbc.JdbcOperationsSessionRepository;
+import org.springframework.session.jdbc.config.annotation.web.http.EnableJdbcHttpSession;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Defines where the HTTP sessions are stored, based on the <tt>alfio.session.store</tt> property:
+ * <ul>
+ *     <li><tt>jdbc</tt> (default): sessions are stored in the database, in the <tt>spring_session</tt> table</li>
+ *     <li><tt>memory</tt>: sessions are kept in memory, up to <tt>alfio.session.memory.max-sessions</tt> sessions.
+ *     Suitable only for single-node deployments or with sticky sessions</li>
+ *     <li><tt>cookie</tt>: anonymous sessions are stored in an encrypted cookie, using <tt>alfio.session.cookie.secret</tt> as key.
+ *     The secret is mandatory and must be the same on all nodes.
+ *     Authenticated sessions are stored in the database, as for <tt>jdbc</tt>. See {@link CookieSessionRepository}</li>
+ * </ul>
+ */
+@Configuration
+@Log4j2
+public class SessionConfiguration {
+
+    static final int MAX_INACTIVE_INTERVAL_SECONDS = 4 * 60 * 60; //4h
+    private static final String STORE_PROPERTY = "alfio.session.store";
+    private static final String JDBC = "jdbc";
+    private static final String MEMORY = "memory";
+    private static final String COOKIE = "cookie";
+
+    public SessionConfiguration(Environment environment) {
+        String store = environment.getProperty(STORE_PROPERTY, JDBC).trim().toLowerCase(Locale.ROOT);
+        Validate.isTrue(Arrays.asList(JDBC, MEMORY, COOKIE).contains(store), "Unsupported value for %s: %s", STORE_PROPERTY, store);
+    }
+
+    @Configuration
+    @Conditional(JdbcStoreCondition.class)
+    @EnableJdbcHttpSession(maxInactiveIntervalInSeconds = MAX_INACTIVE_INTERVAL_SECONDS)
+    static class JdbcSessionConfiguration {
+    }
+
+    @Configuration
+    @Conditional(MemoryStoreCondition.class)
+    @EnableSpringHttpSession
+    static class MemorySessionConfiguration {
+        @Bean
+        public InMemorySessionRepository sessionRepository(@Value("${alfio.session.memory.max-sessions:100000}") int maxSessions) {
+            log.info("HTTP sessions will be stored in memory, up to {} sessions", maxSessions);
+            return new InMemorySessionRepository(maxSessions, MAX_INACTIVE_INTERVAL_SECONDS);
+        }
+    }
+
+    @Configuration
+    @Conditional(CookieStoreCondition.class)
+    @EnableSpringHttpSession
+    static class CookieSessionConfiguration {
+
+        // not exposed as a bean, otherwise there would be two candidates for the session repository filter
+        private final JdbcOperationsSessionRepository authenticatedSessions;
+
+        CookieSessionConfiguration(DataSource dataSource, PlatformTransactionManager transactionManager) {
+            this.authenticatedSessions = new JdbcOperationsSessionRepository(new JdbcTemplate(dataSource), transactionManager);
+            this.authenticatedSessions.setDefaultMaxInactiveInterval(MAX_INACTIVE_INTERVAL_SECONDS);
+        }
+
+        @Bean
+        @SuppressWarnings("unchecked")
+        public CookieSessionRepository sessionRepository(@Value("${alfio.session.cookie.secret:}") String secret) {
+            log.info("HTTP sessions will be stored in encrypted cookies, authenticated sessions will be stored in the database");
+            return new CookieSessionRepository(secret, MAX_INACTIVE_INTERVAL_SECONDS, (SessionRepository) authenticatedSessions);
+        }
+
+        @Scheduled(cron = "0 * * * * *")
+        public void cleanUpExpiredSessions() {
+            authenticatedSessions.cleanUpExpiredSessions();
+        }
+    }
+
+    private abstract static class StoreCondition implements Condition {
+        private final String store;
+
+        private StoreCondition(String store) {
+            this.store = store;
+        }
+
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return store.equalsIgnoreCase(context.getEnvironment().getProperty(STORE_PROPERTY, JDBC).trim());
+        }
+    }
+
+    static class JdbcStoreCondition extends StoreCondition {
+        JdbcStoreCondition() {
+            super(JDBC);
+        }
+    }
+
+    static class MemoryStoreCondition extends StoreCondition {
+        MemoryStoreCondition() {
+            super(MEMORY);
+        }
+    }
+
+    static class CookieStoreCondition extends StoreCondition {
+        CookieStoreCondition() {
+            super(COOKIE);
+        }
+    }
+}
@@ -18,11 +18,10 @@ package alfio.config;
 
 import alfio.manager.RecaptchaService;
 import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.ApiKeyAuthenticationCache;
 import alfio.manager.user.UserManager;
 import alfio.model.user.Role;
 import alfio.model.user.User;
-import alfio.repository.user.AuthorityRepository;
-import alfio.repository.user.UserRepository;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -42,7 +41,6 @@ import org.springframework.security.config.annotation.web.configuration.WebSecur
 import org.springframework.security.config.annotation.web.configurers.CsrfConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
@@ -65,7 +63,6 @@ import java.util.Collection;
 import java.util.Locale;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import static alfio.model.system.Configuration.getSystemConfiguration;
 import static alfio.model.system.ConfigurationKeys.ENABLE_CAPTCHA_FOR_LOGIN;
@@ -144,10 +141,7 @@ public class WebSecurityConfig {
     public static class APITokenAuthWebSecurity extends WebSecurityConfigurerAdapter {
 
         @Autowired
-        private UserRepository userRepository;
-
-        @Autowired
-        private AuthorityRepository authorityRepository;
+        private ApiKeyAuthenticationCache apiKeyAuthenticationCache;
 
         //https://stackoverflow.com/a/48448901
         @Override
@@ -158,7 +152,8 @@ public class WebSecurityConfig {
                 //
                 String apiKey = (String) authentication.getPrincipal();
                 //check if user type ->
-                User user = userRepository.findByUsername(apiKey).orElseThrow(() -> new BadCredentialsException("Api key " + apiKey + " don't exists"));
+                ApiKeyAuthenticationCache.ApiKey key = apiKeyAuthenticationCache.get(apiKey).orElseThrow(() -> new BadCredentialsException("Api key " + apiKey + " don't exists"));
+                User user = key.getUser();
                 if (!user.isEnabled()) {
                     throw new DisabledException("Api key " + apiKey + " is disabled");
                 }
@@ -172,7 +167,7 @@ public class WebSecurityConfig {
                 return new APITokenAuthentication(
                     authentication.getPrincipal(),
                     authentication.getCredentials(),
-                    authorityRepository.findRoles(apiKey).stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList()));
+                    key.getAuthorities());
             });
 
 
@@ -290,6 +285,7 @@ public class WebSecurityConfig {
                 .authorizeRequests()
                 .antMatchers(ADMIN_API + "/configuration/**", ADMIN_API + "/users/**").hasAnyRole(ADMIN, OWNER)
                 .antMatchers(ADMIN_API + "/organizations/new").hasRole(ADMIN)
+                .antMatchers(ADMIN_API + "/metrics/**").hasRole(ADMIN)
                 .antMatchers(ADMIN_API + "/check-in/**").hasAnyRole(ADMIN, OWNER, SUPERVISOR)
                 .antMatchers(HttpMethod.GET, ownershipRequired).hasAnyRole(ADMIN, OWNER)
                 .antMatchers(HttpMethod.GET, ADMIN_API + "/**").hasAnyRole(ADMIN, OWNER, SUPERVISOR)
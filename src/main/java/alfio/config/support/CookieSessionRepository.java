@@ -0,0 +1,436 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config.support;
+
+import alfio.manager.system.MetricsProvider;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.session.ExpiringSession;
+import org.springframework.session.MapSession;
+import org.springframework.session.SessionRepository;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores the whole session in the session cookie, so that no server-side state is needed for the anonymous
+ * sessions of the public reservation flow.
+ * <p>
+ * The session id <em>is</em> the cookie value: the session attributes are serialized, compressed and encrypted
+ * using AES-GCM, which also guarantees that the content has been produced by this application. The key is derived
+ * from the configured secret using PBKDF2.
+ * Only the classes in {@link #ALLOWED_CLASSES} and {@link #ALLOWED_PACKAGES} can be stored in a cookie and are
+ * accepted while reading it, so that a leaked secret cannot be used for deserializing arbitrary classes.
+ * Sessions holding other classes (e.g. flash attributes) are moved to the server-side store.
+ * Every time the content of the session changes, a new id is generated and sent back to the browser.
+ * The last access time is stored with a precision of one minute, so that sessions which are only read do not
+ * cause a new cookie to be sent on each request.
+ * <p>
+ * A cookie cannot be revoked server-side, therefore sessions holding a security context (i.e. authenticated admin
+ * and API sessions) are moved to the server-side store as soon as they are saved, so that logout and session
+ * invalidation work as usual. The same happens to the sessions which are too big to fit in a cookie
+ * (see {@link #MAX_TOKEN_LENGTH}). Once moved, the session id is the one assigned by the server-side store.
+ * <p>
+ * All nodes must share the same secret, which is therefore mandatory.
+ * <p>
+ * Since the client holds the whole session, it can present an older cookie again and get back the previous
+ * content of the session (e.g. the special price code or the admission queue token). Anything that must not be
+ * replayed must therefore be checked against the database, and not trusted only because it is in the session.
+ */
+@Log4j2
+public class CookieSessionRepository implements SessionRepository<ExpiringSession>, MetricsProvider {
+
+    static final int MAX_TOKEN_LENGTH = 3800;
+    // ids of the server-side sessions are random UUIDs, which are shorter than any encrypted token
+    private static final int SERVER_SIDE_ID_MAX_LENGTH = 36;
+    private static final byte VERSION = 2;
+    // the salt must be the same on all nodes, the iterations make brute-forcing a weak secret expensive
+    private static final byte[] KEY_SALT = "alf.io cookie session".getBytes(StandardCharsets.UTF_8);
+    private static final int KEY_ITERATIONS = 100_000;
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+        String.class.getName(), Boolean.class.getName(), Byte.class.getName(), Character.class.getName(),
+        Short.class.getName(), Integer.class.getName(), Long.class.getName(), Float.class.getName(), Double.class.getName(),
+        Number.class.getName(), Enum.class.getName(), java.math.BigDecimal.class.getName(), java.math.BigInteger.class.getName(),
+        ArrayList.class.getName(), LinkedList.class.getName(), HashMap.class.getName(), LinkedHashMap.class.getName(),
+        TreeMap.class.getName(), HashSet.class.getName(), LinkedHashSet.class.getName(), TreeSet.class.getName(),
+        Locale.class.getName(), Date.class.getName(), UUID.class.getName(),
+        "org.springframework.security.web.csrf.DefaultCsrfToken"));
+    private static final List<String> ALLOWED_PACKAGES = Arrays.asList("alfio.", "java.time.");
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final long LAST_ACCESS_PRECISION = TimeUnit.MINUTES.toMillis(1);
+
+    private final SecretKeySpec key;
+    private final int defaultMaxInactiveInterval;
+    private final SessionRepository<ExpiringSession> serverSide;
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+    private final AtomicLong movedToServer = new AtomicLong();
+    private final AtomicLong disallowed = new AtomicLong();
+    private final AtomicLong maxTokenLength = new AtomicLong();
+
+    /**
+     * @param secret the secret used to derive the encryption key, must be the same on all nodes
+     * @param defaultMaxInactiveInterval the session timeout, in seconds
+     * @param serverSide the store for the sessions which cannot be kept in a cookie
+     */
+    public CookieSessionRepository(String secret, int defaultMaxInactiveInterval, SessionRepository<ExpiringSession> serverSide) {
+        Validate.isTrue(StringUtils.isNotBlank(secret), "alfio.session.cookie.secret must be defined when sessions are stored in cookies, and must be the same on all nodes");
+        this.key = deriveKey(secret);
+        this.defaultMaxInactiveInterval = defaultMaxInactiveInterval;
+        this.serverSide = serverSide;
+    }
+
+    @Override
+    public CookieSession createSession() {
+        MapSession session = new MapSession();
+        session.setMaxInactiveIntervalInSeconds(defaultMaxInactiveInterval);
+        return new CookieSession(session, null);
+    }
+
+    @Override
+    public void save(ExpiringSession session) {
+        if(!(session instanceof CookieSession)) {
+            serverSide.save(session);
+            return;
+        }
+        CookieSession cookieSession = (CookieSession) session;
+        if(cookieSession.stored != null) {
+            copyAttributes(cookieSession, cookieSession.stored);
+            serverSide.save(cookieSession.stored);
+            return;
+        }
+        if(session.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY) != null) {
+            moveToServer(cookieSession);
+            return;
+        }
+        byte[] content;
+        try {
+            content = serialize(cookieSession.delegate);
+        } catch (DisallowedClassException e) {
+            disallowed.incrementAndGet();
+            log.debug("Session contains {}, which cannot be stored in a cookie, moving it to the server-side store", e.getMessage());
+            moveToServer(cookieSession);
+            return;
+        }
+        if(cookieSession.content != null && Arrays.equals(content, cookieSession.content)) {
+            reused.incrementAndGet();
+            return;
+        }
+        String token = encrypt(content);
+        if(token.length() > MAX_TOKEN_LENGTH) {
+            oversized.incrementAndGet();
+            log.debug("Session is too big to be stored in a cookie ({} chars), moving it to the server-side store", token.length());
+            moveToServer(cookieSession);
+            return;
+        }
+        maxTokenLength.accumulateAndGet(token.length(), Math::max);
+        issued.incrementAndGet();
+        cookieSession.content = content;
+        cookieSession.id = token;
+    }
+
+    @Override
+    public ExpiringSession getSession(String id) {
+        if(id.length() <= SERVER_SIDE_ID_MAX_LENGTH) {
+            return serverSide.getSession(id);
+        }
+        Optional<byte[]> content = decrypt(id);
+        Optional<MapSession> session = content.flatMap(this::deserialize)
+            .filter(s -> !s.isExpired());
+        if(!session.isPresent()) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        CookieSession result = new CookieSession(session.get(), id);
+        result.content = content.get();
+        return result;
+    }
+
+    @Override
+    public void delete(String id) {
+        // cookie sessions are stored on the client and hold no security context, there is nothing to revoke
+        if(id.length() <= SERVER_SIDE_ID_MAX_LENGTH) {
+            serverSide.delete(id);
+        }
+    }
+
+    private void moveToServer(CookieSession session) {
+        ExpiringSession stored = serverSide.createSession();
+        stored.setMaxInactiveIntervalInSeconds(session.getMaxInactiveIntervalInSeconds());
+        stored.setLastAccessedTime(session.getLastAccessedTime());
+        copyAttributes(session, stored);
+        serverSide.save(stored);
+        movedToServer.incrementAndGet();
+        session.stored = stored;
+        session.id = stored.getId();
+    }
+
+    private static void copyAttributes(ExpiringSession source, ExpiringSession target) {
+        Set<String> names = source.getAttributeNames();
+        new ArrayList<>(target.getAttributeNames()).stream()
+            .filter(name -> !names.contains(name))
+            .forEach(target::removeAttribute);
+        names.forEach(name -> target.setAttribute(name, source.getAttribute(name)));
+    }
+
+    private byte[] serialize(MapSession session) throws DisallowedClassException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new AllowListObjectOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeLong(session.getCreationTime());
+            out.writeLong(session.getLastAccessedTime() - session.getLastAccessedTime() % LAST_ACCESS_PRECISION);
+            out.writeInt(session.getMaxInactiveIntervalInSeconds());
+            Set<String> names = new TreeSet<>(session.getAttributeNames());
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+                out.writeObject(session.getAttribute(name));
+            }
+        } catch (DisallowedClassException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot serialize session", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Optional<MapSession> deserialize(byte[] content) {
+        try(ObjectInputStream in = new AllowListObjectInputStream(new InflaterInputStream(new ByteArrayInputStream(content)))) {
+            MapSession session = new MapSession();
+            session.setCreationTime(in.readLong());
+            session.setLastAccessedTime(in.readLong());
+            session.setMaxInactiveIntervalInSeconds(in.readInt());
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                session.setAttribute(in.readUTF(), in.readObject());
+            }
+            return Optional.of(session);
+        } catch (IOException | ClassNotFoundException e) {
+            log.debug("cannot deserialize session", e);
+            return Optional.empty();
+        }
+    }
+
+    String encrypt(byte[] content) {
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(new byte[] {VERSION});
+            byte[] encrypted = cipher.doFinal(content);
+            byte[] token = new byte[1 + IV_LENGTH + encrypted.length];
+            token[0] = VERSION;
+            System.arraycopy(iv, 0, token, 1, IV_LENGTH);
+            System.arraycopy(encrypted, 0, token, 1 + IV_LENGTH, encrypted.length);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("cannot encrypt session", e);
+        }
+    }
+
+    private Optional<byte[]> decrypt(String id) {
+        try {
+            byte[] token = Base64.getUrlDecoder().decode(id);
+            if(token.length <= 1 + IV_LENGTH || token[0] != VERSION) {
+                return Optional.empty();
+            }
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, token, 1, IV_LENGTH));
+            cipher.updateAAD(new byte[] {VERSION});
+            return Optional.of(cipher.doFinal(token, 1 + IV_LENGTH, token.length - 1 - IV_LENGTH));
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            log.trace("invalid session token", e);
+            return Optional.empty();
+        }
+    }
+
+    private static SecretKeySpec deriveKey(String secret) {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(secret.toCharArray(), KEY_SALT, KEY_ITERATIONS, 256);
+            return new SecretKeySpec(SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("cannot derive the session key", e);
+        }
+    }
+
+    static boolean isAllowed(String className) {
+        String name = className;
+        if(name.startsWith("[")) {
+            name = StringUtils.stripStart(name, "[");
+            if(name.length() == 1) {
+                // array of primitives
+                return true;
+            }
+            name = name.substring(1, name.length() - 1);
+        }
+        String candidate = name;
+        return ALLOWED_CLASSES.contains(candidate) || ALLOWED_PACKAGES.stream().anyMatch(candidate::startsWith);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "cookie-session-store";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("issued", issued.get());
+        metrics.put("reused", reused.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("oversized", oversized.get());
+        metrics.put("movedToServer", movedToServer.get());
+        metrics.put("disallowed", disallowed.get());
+        metrics.put("maxTokenLength", maxTokenLength.get());
+        return metrics;
+    }
+
+    private static class DisallowedClassException extends NotSerializableException {
+        private DisallowedClassException(String className) {
+            super(className);
+        }
+    }
+
+    private static class AllowListObjectOutputStream extends ObjectOutputStream {
+
+        private AllowListObjectOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void annotateClass(Class<?> cl) throws IOException {
+            if(!isAllowed(cl.getName())) {
+                throw new DisallowedClassException(cl.getName());
+            }
+        }
+
+        @Override
+        protected void annotateProxyClass(Class<?> cl) throws IOException {
+            throw new DisallowedClassException(cl.getName());
+        }
+    }
+
+    private static class AllowListObjectInputStream extends ObjectInputStream {
+
+        private AllowListObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if(!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "not allowed in cookie sessions");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("proxy classes are not allowed in cookie sessions");
+        }
+    }
+
+    /**
+     * A session whose id is the encrypted content, as presented by the client.
+     * The id changes when the session is saved with a different content, or when it is moved to the server-side store.
+     */
+    public static class CookieSession implements ExpiringSession {
+
+        private final MapSession delegate;
+        private String id;
+        private byte[] content;
+        private ExpiringSession stored;
+
+        private CookieSession(MapSession delegate, String id) {
+            this.delegate = delegate;
+            this.id = id != null ? id : delegate.getId();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getCreationTime() {
+            return delegate.getCreationTime();
+        }
+
+        @Override
+        public void setLastAccessedTime(long lastAccessedTime) {
+            delegate.setLastAccessedTime(lastAccessedTime);
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            return delegate.getLastAccessedTime();
+        }
+
+        @Override
+        public void setMaxInactiveIntervalInSeconds(int interval) {
+            delegate.setMaxInactiveIntervalInSeconds(interval);
+        }
+
+        @Override
+        public int getMaxInactiveIntervalInSeconds() {
+            return delegate.getMaxInactiveIntervalInSeconds();
+        }
+
+        @Override
+        public boolean isExpired() {
+            return delegate.isExpired();
+        }
+
+        @Override
+        public <T> T getAttribute(String attributeName) {
+            return delegate.getAttribute(attributeName);
+        }
+
+        @Override
+        public Set<String> getAttributeNames() {
+            return delegate.getAttributeNames();
+        }
+
+        @Override
+        public void setAttribute(String attributeName, Object attributeValue) {
+            delegate.setAttribute(attributeName, attributeValue);
+        }
+
+        @Override
+        public void removeAttribute(String attributeName) {
+            delegate.removeAttribute(attributeName);
+        }
+    }
+}
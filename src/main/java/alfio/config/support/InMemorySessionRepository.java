@@ -0,0 +1,85 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config.support;
+
+import alfio.manager.system.MetricsProvider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.session.ExpiringSession;
+import org.springframework.session.MapSessionRepository;
+import org.springframework.session.SessionRepository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the sessions in memory, in a size-bounded map. When the map is full, the least recently used sessions are evicted.
+ * <p>
+ * Sessions are not shared between nodes, therefore this store can be used only for single-node deployments or
+ * behind a load balancer with sticky sessions.
+ */
+public class InMemorySessionRepository implements SessionRepository<ExpiringSession>, MetricsProvider {
+
+    private final Cache<String, ExpiringSession> sessions;
+    private final MapSessionRepository delegate;
+
+    public InMemorySessionRepository(int maxSessions, int defaultMaxInactiveInterval) {
+        this.sessions = Caffeine.newBuilder()
+            .maximumSize(maxSessions)
+            .expireAfterAccess(defaultMaxInactiveInterval, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+        this.delegate = new MapSessionRepository(sessions.asMap());
+        this.delegate.setDefaultMaxInactiveInterval(defaultMaxInactiveInterval);
+    }
+
+    @Override
+    public ExpiringSession createSession() {
+        return delegate.createSession();
+    }
+
+    @Override
+    public void save(ExpiringSession session) {
+        delegate.save(session);
+    }
+
+    @Override
+    public ExpiringSession getSession(String id) {
+        return delegate.getSession(id);
+    }
+
+    @Override
+    public void delete(String id) {
+        delegate.delete(id);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "in-memory-session-store";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        CacheStats stats = sessions.stats();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("entries", sessions.estimatedSize());
+        metrics.put("evictions", stats.evictionCount());
+        return metrics;
+    }
+}
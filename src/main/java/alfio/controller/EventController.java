@@ -22,11 +22,13 @@ import alfio.controller.decorator.SaleableAdditionalService;
 import alfio.controller.decorator.SaleableTicketCategory;
 import alfio.controller.form.ReservationForm;
 import alfio.controller.support.SessionUtil;
+import alfio.manager.AdmissionControlManager;
 import alfio.manager.EventManager;
 import alfio.manager.EventStatisticsManager;
 import alfio.manager.RecaptchaService;
 import alfio.manager.TicketReservationManager;
 import alfio.manager.i18n.I18nManager;
+import alfio.manager.support.EventPageCache;
 import alfio.manager.system.ConfigurationManager;
 import alfio.model.*;
 import alfio.model.modification.TicketReservationModification;
@@ -41,15 +43,20 @@ import alfio.util.EventUtil;
 import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.web.csrf.CsrfToken;
 import org.springframework.stereotype.Controller;
+import org.springframework.ui.ExtendedModelMap;
 import org.springframework.ui.Model;
+import org.springframework.util.CollectionUtils;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.servlet.support.RequestContextUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -86,6 +93,8 @@ public class EventController {
     private final AdditionalServiceTextRepository additionalServiceTextRepository;
     private final TicketRepository ticketRepository;
     private final RecaptchaService recaptchaService;
+    private final EventPageCache eventPageCache;
+    private final AdmissionControlManager admissionControlManager;
 
 
     @RequestMapping(value = "/", method = RequestMethod.HEAD)
@@ -178,99 +187,126 @@ public class EventController {
 
     @RequestMapping(value = "/event/{eventName}", method = {RequestMethod.GET, RequestMethod.HEAD})
     public String showEvent(@PathVariable("eventName") String eventName,
-                            Model model, HttpServletRequest request, Locale locale) {
+                            Model model, HttpServletRequest request, HttpServletResponse response, Locale locale) {
 
         return eventRepository.findOptionalByShortName(eventName).filter(e -> e.getStatus() != Event.Status.DISABLED).map(event -> {
             Optional<String> maybeSpecialCode = SessionUtil.retrieveSpecialPriceCode(request);
-            Optional<SpecialPrice> specialCode = maybeSpecialCode.flatMap((trimmedCode) -> specialPriceRepository.getByCode(trimmedCode));
-
-            Optional<PromoCodeDiscount> promoCodeDiscount = SessionUtil.retrievePromotionCodeDiscount(request)
-                .flatMap((code) -> promoCodeRepository.findPromoCodeInEventOrOrganization(event.getId(), code));
-
-            final ZonedDateTime now = ZonedDateTime.now(event.getZoneId());
-            //hide access restricted ticket categories
-            List<TicketCategory> ticketCategories = ticketCategoryRepository.findAllTicketCategories(event.getId());
-            Map<Integer, String> categoriesDescription = ticketCategoryDescriptionRepository.descriptionsByTicketCategory(ticketCategories.stream().map(TicketCategory::getId).collect(Collectors.toList()), locale.getLanguage());
-
-            List<SaleableTicketCategory> saleableTicketCategories = ticketCategories.stream()
-                .filter((c) -> !c.isAccessRestricted() || (specialCode.filter(sc -> sc.getTicketCategoryId() == c.getId()).isPresent()))
-                .map((m) -> {
-                    int maxTickets = configurationManager.getIntConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), m.getId(), ConfigurationKeys.MAX_AMOUNT_OF_TICKETS_BY_RESERVATION), 5);
-                    PromoCodeDiscount filteredPromoCode = promoCodeDiscount.filter(promoCode -> shouldApplyDiscount(promoCode, m)).orElse(null);
-                    if(filteredPromoCode != null && filteredPromoCode.getMaxUsage() != null) {
-                        maxTickets = filteredPromoCode.getMaxUsage() - promoCodeRepository.countConfirmedPromoCode(filteredPromoCode.getId(), categoriesOrNull(filteredPromoCode), null, categoriesOrNull(filteredPromoCode) != null ? "X" : null);
-                    }
-                    return new SaleableTicketCategory(m, categoriesDescription.getOrDefault(m.getId(), ""),
-                        now, event, ticketReservationManager.countAvailableTickets(event, m), maxTickets,
-                        filteredPromoCode);
-                })
-                .collect(Collectors.toList());
-            //
-
-            final int orgId = event.getOrganizationId();
-            final int eventId = event.getId();
-            Map<ConfigurationKeys, Optional<String>> geoInfoConfiguration = configurationManager.getStringConfigValueFrom(
-                Configuration.from(orgId, eventId, ConfigurationKeys.MAPS_PROVIDER),
-                Configuration.from(orgId, eventId, ConfigurationKeys.MAPS_CLIENT_API_KEY),
-                Configuration.from(orgId, eventId, ConfigurationKeys.MAPS_HERE_APP_ID),
-                Configuration.from(orgId, eventId, ConfigurationKeys.MAPS_HERE_APP_CODE));
-
-            LocationDescriptor ld = LocationDescriptor.fromGeoData(event.getLatLong(), TimeZone.getTimeZone(event.getTimeZone()), geoInfoConfiguration);
-
-            final boolean hasAccessPromotions = configurationManager.getBooleanConfigValue(Configuration.from(orgId, eventId, ConfigurationKeys.DISPLAY_DISCOUNT_CODE_BOX), true) &&
-                (ticketCategoryRepository.countAccessRestrictedRepositoryByEventId(event.getId()) > 0 ||
-                promoCodeRepository.countByEventAndOrganizationId(event.getId(), event.getOrganizationId()) > 0);
-
-            String eventDescription = eventDescriptionRepository.findDescriptionByEventIdTypeAndLocale(event.getId(), EventDescription.EventDescriptionType.DESCRIPTION, locale.getLanguage()).orElse("");
-
-            final EventDescriptor eventDescriptor = new EventDescriptor(event, eventDescription);
-            List<SaleableTicketCategory> expiredCategories = saleableTicketCategories.stream().filter(SaleableTicketCategory::getExpired).collect(Collectors.toList());
-            List<SaleableTicketCategory> validCategories = saleableTicketCategories.stream().filter(tc -> !tc.getExpired()).collect(Collectors.toList());
-            List<SaleableAdditionalService> additionalServices = additionalServiceRepository.loadAllForEvent(event.getId()).stream().map((as) -> getSaleableAdditionalService(event, locale, as, promoCodeDiscount.orElse(null))).collect(Collectors.toList());
-            Predicate<SaleableTicketCategory> waitingQueueTargetCategory = tc -> !tc.getExpired() && !tc.isBounded();
-
-            List<SaleableAdditionalService> notExpiredServices = additionalServices.stream().filter(SaleableAdditionalService::isNotExpired).collect(Collectors.toList());
-
-            List<SaleableAdditionalService> supplements = adjustIndex(0, notExpiredServices.stream().filter(a -> a.getType() == AdditionalService.AdditionalServiceType.SUPPLEMENT).collect(Collectors.toList()));
-            List<SaleableAdditionalService> donations = adjustIndex(supplements.size(), notExpiredServices.stream().filter(a -> a.getType() == AdditionalService.AdditionalServiceType.DONATION).collect(Collectors.toList()));
-
-            model.addAttribute("event", eventDescriptor)//
-                .addAttribute("organization", organizationRepository.getById(event.getOrganizationId()))
-                .addAttribute("ticketCategories", validCategories)//
-                .addAttribute("expiredCategories", expiredCategories)//
-                .addAttribute("containsExpiredCategories", !expiredCategories.isEmpty())//
-                .addAttribute("showNoCategoriesWarning", validCategories.isEmpty())
-                .addAttribute("hasAccessPromotions", hasAccessPromotions)
-                .addAttribute("promoCode", specialCode.map(SpecialPrice::getCode).orElse(null))
-                .addAttribute("locationDescriptor", ld)
-                .addAttribute("pageTitle", "show-event.header.title")
-                .addAttribute("hasPromoCodeDiscount", promoCodeDiscount.isPresent())
-                .addAttribute("promoCodeDiscount", promoCodeDiscount.orElse(null))
-                .addAttribute("displayWaitingQueueForm", EventUtil.displayWaitingQueueForm(event, saleableTicketCategories, configurationManager, eventStatisticsManager.noSeatsAvailable()))
-                .addAttribute("displayCategorySelectionForWaitingQueue", saleableTicketCategories.stream().filter(waitingQueueTargetCategory).count() > 1)
-                .addAttribute("unboundedCategories", saleableTicketCategories.stream().filter(waitingQueueTargetCategory).collect(Collectors.toList()))
-                .addAttribute("preSales", EventUtil.isPreSales(event, saleableTicketCategories))
-                .addAttribute("userLanguage", locale.getLanguage())
-                .addAttribute("showAdditionalServices", !notExpiredServices.isEmpty())
-                .addAttribute("showAdditionalServicesDonations", !donations.isEmpty())
-                .addAttribute("showAdditionalServicesSupplements", !supplements.isEmpty())
-                .addAttribute("enabledAdditionalServicesDonations", donations)
-                .addAttribute("enabledAdditionalServicesSupplements", supplements)
-                .addAttribute("forwardButtonDisabled", saleableTicketCategories.stream().noneMatch(SaleableTicketCategory::getSaleable))
-                .addAttribute("useFirstAndLastName", event.mustUseFirstAndLastName())
-                .addAttribute("validityStart", event.getBegin())
-                .addAttribute("validityEnd", event.getEnd());
-
-            if(configurationManager.isRecaptchaForTicketSelectionEnabled(event)) {
-                model.addAttribute("captchaForTicketSelectionEnabled", true)
-                    .addAttribute("recaptchaApiKey", configurationManager.getStringConfigValue(getSystemConfiguration(RECAPTCHA_API_KEY), null));
+            Optional<String> maybePromoCode = SessionUtil.retrievePromotionCodeDiscount(request);
+            EventPageCache.Key key = new EventPageCache.Key(event.getId(), locale.getLanguage(), maybeSpecialCode.orElse(null), maybePromoCode.orElse(null));
+            EventPageCache.PageModel page = eventPageCache.get(key, () -> buildEventPageModel(event, maybeSpecialCode, maybePromoCode, locale));
+
+            //the page contains the CSRF token, therefore it cannot be shared. Clients can still revalidate it.
+            response.setHeader("Cache-Control", "private, no-cache");
+            boolean hasFlashAttributes = !CollectionUtils.isEmpty(RequestContextUtils.getInputFlashMap(request));
+            CsrfToken csrfToken = (CsrfToken) request.getAttribute(CsrfToken.class.getName());
+            String etag = page.etag(csrfToken != null ? csrfToken.getToken() : "");
+            if(!hasFlashAttributes && new ServletWebRequest(request, response).checkNotModified(etag, page.getLastModified())) {
+                return null;
             }
 
+            model.addAllAttributes(page.getModel());
             model.asMap().putIfAbsent("hasErrors", false);//
             return "/event/show-event";
         }).orElse(REDIRECT + "/");
     }
 
+    private Pair<Map<String, Object>, Object> buildEventPageModel(Event event, Optional<String> maybeSpecialCode, Optional<String> maybePromoCode, Locale locale) {
+        Optional<SpecialPrice> specialCode = maybeSpecialCode.flatMap((trimmedCode) -> specialPriceRepository.getByCode(trimmedCode));
+
+        Optional<PromoCodeDiscount> promoCodeDiscount = maybePromoCode
+            .flatMap((code) -> promoCodeRepository.findPromoCodeInEventOrOrganization(event.getId(), code));
+
+        final ZonedDateTime now = ZonedDateTime.now(event.getZoneId());
+        //hide access restricted ticket categories
+        List<TicketCategory> ticketCategories = ticketCategoryRepository.findAllTicketCategories(event.getId());
+        Map<Integer, String> categoriesDescription = ticketCategoryDescriptionRepository.descriptionsByTicketCategory(ticketCategories.stream().map(TicketCategory::getId).collect(Collectors.toList()), locale.getLanguage());
+
+        List<SaleableTicketCategory> saleableTicketCategories = ticketCategories.stream()
+            .filter((c) -> !c.isAccessRestricted() || (specialCode.filter(sc -> sc.getTicketCategoryId() == c.getId()).isPresent()))
+            .map((m) -> {
+                int maxTickets = configurationManager.getIntConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), m.getId(), ConfigurationKeys.MAX_AMOUNT_OF_TICKETS_BY_RESERVATION), 5);
+                PromoCodeDiscount filteredPromoCode = promoCodeDiscount.filter(promoCode -> shouldApplyDiscount(promoCode, m)).orElse(null);
+                if(filteredPromoCode != null && filteredPromoCode.getMaxUsage() != null) {
+                    maxTickets = filteredPromoCode.getMaxUsage() - promoCodeRepository.countConfirmedPromoCode(filteredPromoCode.getId(), categoriesOrNull(filteredPromoCode), null, categoriesOrNull(filteredPromoCode) != null ? "X" : null);
+                }
+                return new SaleableTicketCategory(m, categoriesDescription.getOrDefault(m.getId(), ""),
+                    now, event, ticketReservationManager.countAvailableTickets(event, m), maxTickets,
+                    filteredPromoCode);
+            })
+            .collect(Collectors.toList());
+        //
+
+        final int orgId = event.getOrganizationId();
+        final int eventId = event.getId();
+        Map<ConfigurationKeys, Optional<String>> geoInfoConfiguration = configurationManager.getStringConfigValueFrom(
+            Configuration.from(orgId, eventId, ConfigurationKeys.MAPS_PROVIDER),
+            Configuration.from(orgId, eventId, ConfigurationKeys.MAPS_CLIENT_API_KEY),
+            Configuration.from(orgId, eventId, ConfigurationKeys.MAPS_HERE_APP_ID),
+            Configuration.from(orgId, eventId, ConfigurationKeys.MAPS_HERE_APP_CODE));
+
+        LocationDescriptor ld = LocationDescriptor.fromGeoData(event.getLatLong(), TimeZone.getTimeZone(event.getTimeZone()), geoInfoConfiguration);
+
+        final boolean hasAccessPromotions = configurationManager.getBooleanConfigValue(Configuration.from(orgId, eventId, ConfigurationKeys.DISPLAY_DISCOUNT_CODE_BOX), true) &&
+            (ticketCategoryRepository.countAccessRestrictedRepositoryByEventId(event.getId()) > 0 ||
+            promoCodeRepository.countByEventAndOrganizationId(event.getId(), event.getOrganizationId()) > 0);
+
+        String eventDescription = eventDescriptionRepository.findDescriptionByEventIdTypeAndLocale(event.getId(), EventDescription.EventDescriptionType.DESCRIPTION, locale.getLanguage()).orElse("");
+
+        final EventDescriptor eventDescriptor = new EventDescriptor(event, eventDescription);
+        List<SaleableTicketCategory> expiredCategories = saleableTicketCategories.stream().filter(SaleableTicketCategory::getExpired).collect(Collectors.toList());
+        List<SaleableTicketCategory> validCategories = saleableTicketCategories.stream().filter(tc -> !tc.getExpired()).collect(Collectors.toList());
+        List<AdditionalService> eventAdditionalServices = additionalServiceRepository.loadAllForEvent(event.getId());
+        List<SaleableAdditionalService> additionalServices = eventAdditionalServices.stream().map((as) -> getSaleableAdditionalService(event, locale, as, promoCodeDiscount.orElse(null))).collect(Collectors.toList());
+        Predicate<SaleableTicketCategory> waitingQueueTargetCategory = tc -> !tc.getExpired() && !tc.isBounded();
+
+        List<SaleableAdditionalService> notExpiredServices = additionalServices.stream().filter(SaleableAdditionalService::isNotExpired).collect(Collectors.toList());
+
+        List<SaleableAdditionalService> supplements = adjustIndex(0, notExpiredServices.stream().filter(a -> a.getType() == AdditionalService.AdditionalServiceType.SUPPLEMENT).collect(Collectors.toList()));
+        List<SaleableAdditionalService> donations = adjustIndex(supplements.size(), notExpiredServices.stream().filter(a -> a.getType() == AdditionalService.AdditionalServiceType.DONATION).collect(Collectors.toList()));
+
+        final boolean displayWaitingQueueForm = EventUtil.displayWaitingQueueForm(event, saleableTicketCategories, configurationManager, eventStatisticsManager.noSeatsAvailable());
+        ExtendedModelMap model = new ExtendedModelMap();
+        model.addAttribute("event", eventDescriptor)//
+            .addAttribute("organization", organizationRepository.getById(event.getOrganizationId()))
+            .addAttribute("ticketCategories", validCategories)//
+            .addAttribute("expiredCategories", expiredCategories)//
+            .addAttribute("containsExpiredCategories", !expiredCategories.isEmpty())//
+            .addAttribute("showNoCategoriesWarning", validCategories.isEmpty())
+            .addAttribute("hasAccessPromotions", hasAccessPromotions)
+            .addAttribute("promoCode", specialCode.map(SpecialPrice::getCode).orElse(null))
+            .addAttribute("locationDescriptor", ld)
+            .addAttribute("pageTitle", "show-event.header.title")
+            .addAttribute("hasPromoCodeDiscount", promoCodeDiscount.isPresent())
+            .addAttribute("promoCodeDiscount", promoCodeDiscount.orElse(null))
+            .addAttribute("displayWaitingQueueForm", displayWaitingQueueForm)
+            .addAttribute("displayCategorySelectionForWaitingQueue", saleableTicketCategories.stream().filter(waitingQueueTargetCategory).count() > 1)
+            .addAttribute("unboundedCategories", saleableTicketCategories.stream().filter(waitingQueueTargetCategory).collect(Collectors.toList()))
+            .addAttribute("preSales", EventUtil.isPreSales(event, saleableTicketCategories))
+            .addAttribute("userLanguage", locale.getLanguage())
+            .addAttribute("showAdditionalServices", !notExpiredServices.isEmpty())
+            .addAttribute("showAdditionalServicesDonations", !donations.isEmpty())
+            .addAttribute("showAdditionalServicesSupplements", !supplements.isEmpty())
+            .addAttribute("enabledAdditionalServicesDonations", donations)
+            .addAttribute("enabledAdditionalServicesSupplements", supplements)
+            .addAttribute("forwardButtonDisabled", saleableTicketCategories.stream().noneMatch(SaleableTicketCategory::getSaleable))
+            .addAttribute("useFirstAndLastName", event.mustUseFirstAndLastName())
+            .addAttribute("validityStart", event.getBegin())
+            .addAttribute("validityEnd", event.getEnd());
+
+        final boolean recaptchaEnabled = configurationManager.isRecaptchaForTicketSelectionEnabled(event);
+        if(recaptchaEnabled) {
+            model.addAttribute("captchaForTicketSelectionEnabled", true)
+                .addAttribute("recaptchaApiKey", configurationManager.getStringConfigValue(getSystemConfiguration(RECAPTCHA_API_KEY), null));
+        }
+
+        List<Object> fingerprint = Arrays.asList(event, eventDescription, ticketCategories, categoriesDescription,
+            saleableTicketCategories.stream().map(c -> Arrays.asList(c.getId(), c.getAvailableTickets(), c.getAmountOfTickets().length, c.getSaleable(), c.getExpired(), c.getSaleInFuture())).collect(Collectors.toList()),
+            eventAdditionalServices,
+            additionalServices.stream().map(as -> Arrays.asList(as.getTitle(), as.getDescription(), as.getExpired(), as.getSaleInFuture(), as.getSoldOut())).collect(Collectors.toList()),
+            hasAccessPromotions, specialCode.map(SpecialPrice::getCode).orElse(null), promoCodeDiscount.orElse(null), displayWaitingQueueForm, recaptchaEnabled);
+        return Pair.<Map<String, Object>, Object>of(model, fingerprint);
+    }
+
 
     enum CodeType {
         SPECIAL_PRICE, PROMO_CODE_DISCOUNT, TICKET_CATEGORY_CODE, NOT_FOUND
@@ -381,8 +417,38 @@ public class EventController {
 
     }
 
+    @RequestMapping(value = "/event/{eventName}/waiting-room", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public String showWaitingRoom(@PathVariable("eventName") String eventName, Model model, HttpServletRequest request, HttpServletResponse response) {
+        return eventRepository.findOptionalByShortName(eventName).filter(e -> e.getStatus() != Event.Status.DISABLED).map(event -> {
+            if(!admissionControlManager.isEnabled(event)) {
+                return "redirect:/event/" + eventName + "/";
+            }
+            AdmissionControlManager.Admission admission = admissionControlManager.checkAdmission(event, SessionUtil.retrieveAdmissionQueueToken(event.getId(), request));
+            SessionUtil.saveAdmissionQueueToken(event.getId(), admission.getToken(), request);
+            if(admission.isAdmitted()) {
+                return "redirect:/event/" + eventName + "/";
+            }
+            long estimatedWait = admission.getEstimatedWaitSeconds();
+            response.setHeader("Refresh", Long.toString(Math.min(30, Math.max(5, estimatedWait / 2))));
+            response.setHeader("Cache-Control", "no-store");
+            model.addAttribute("event", new EventDescriptor(event, ""))
+                .addAttribute("pageTitle", "waiting-room.header.title")
+                .addAttribute("position", admission.getPosition())
+                .addAttribute("estimatedWaitMinutes", Math.max(1, (long) Math.ceil(estimatedWait / 60d)));
+            return "/event/waiting-room";
+        }).orElse(REDIRECT + "/");
+    }
+
     private String validateAndReserve(String eventName, ReservationForm reservation, BindingResult bindingResult, ServletWebRequest request, RedirectAttributes redirectAttributes, Locale locale, Event event) {
 
+        if(admissionControlManager.isEnabled(event)) {
+            AdmissionControlManager.Admission admission = admissionControlManager.checkAdmission(event, SessionUtil.retrieveAdmissionQueueToken(event.getId(), request.getRequest()));
+            SessionUtil.saveAdmissionQueueToken(event.getId(), admission.getToken(), request.getRequest());
+            if(!admission.isAdmitted()) {
+                return "redirect:/event/" + eventName + "/waiting-room";
+            }
+        }
+
         if(isCaptchaInvalid(request.getRequest(), event)) {
             bindingResult.reject(ErrorsCode.STEP_2_CAPTCHA_VALIDATION_FAILED);
         }
@@ -394,11 +460,11 @@ public class EventController {
                 Date expiration = DateUtils.addMinutes(new Date(), ticketReservationManager.getReservationTimeout(event));
 
                 try {
-                    String reservationId = ticketReservationManager.createTicketReservation(event,
+                    String reservationId = admissionControlManager.runAdmitted(event, () -> ticketReservationManager.createTicketReservation(event,
                             selected.getLeft(), selected.getRight(), expiration,
                             SessionUtil.retrieveSpecialPriceSessionId(request.getRequest()),
                             SessionUtil.retrievePromotionCodeDiscount(request.getRequest()),
-                            locale, false);
+                            locale, false));
                     return "redirect:/event/" + eventName + "/reservation/" + reservationId + "/book";
                 } catch (TicketReservationManager.NotEnoughTicketsException nete) {
                     bindingResult.reject(ErrorsCode.STEP_1_NOT_ENOUGH_TICKETS);
@@ -417,6 +483,10 @@ public class EventController {
                     bindingResult.reject(ErrorsCode.STEP_2_DISCOUNT_CODE_USAGE_EXCEEDED);
                     addToFlash(bindingResult, redirectAttributes);
                     return redirectToEvent;
+                } catch (AdmissionControlManager.TooManyConcurrentReservationsException busy) {
+                    bindingResult.reject(ErrorsCode.STEP_1_TOO_MANY_CONCURRENT_RESERVATIONS);
+                    addToFlash(bindingResult, redirectAttributes);
+                    return redirectToEvent;
                 }
             }).orElseGet(() -> {
                 addToFlash(bindingResult, redirectAttributes);
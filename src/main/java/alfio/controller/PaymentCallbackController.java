@@ -84,8 +84,8 @@ public class PaymentCallbackController {
                 return paymentManager.lookupProviderByMethod(paymentMethod, new PaymentContext(event))
                     .filter(ExternalProcessing.class::isInstance)
                     .map(provider -> {
-                        TotalPrice reservationCost = ticketReservationManager.totalReservationCostWithVAT(reservationId);
-                        OrderSummary orderSummary = ticketReservationManager.orderSummaryForReservationId(reservationId, event, Locale.forLanguageTag(reservation.getUserLanguage()));
+                        TotalPrice reservationCost = ticketReservationManager.totalReservationCostWithVATForPayment(reservationId);
+                        OrderSummary orderSummary = ticketReservationManager.orderSummaryForPayment(reservationId, event, Locale.forLanguageTag(reservation.getUserLanguage()));
                         PaymentSpecification paymentSpecification = ((ExternalProcessing)provider).getSpecificationFromRequest(event, reservation, reservationCost, orderSummary).apply(requestParams);
 
                         PaymentResult paymentResult = ticketReservationManager.performPayment(paymentSpecification,
@@ -24,6 +24,7 @@ import alfio.controller.support.SessionUtil;
 import alfio.controller.support.TicketDecorator;
 import alfio.manager.*;
 import alfio.manager.EuVatChecker.SameCountryValidator;
+import alfio.manager.support.OrderSummaryCache;
 import alfio.manager.support.PaymentResult;
 import alfio.manager.system.ConfigurationManager;
 import alfio.model.*;
@@ -94,6 +95,7 @@ public class ReservationController {
     private final EuVatChecker vatChecker;
     private final RecaptchaService recaptchaService;
     private final TicketReservationRepository ticketReservationRepository;
+    private final OrderSummaryCache orderSummaryCache;
 
     @RequestMapping(value = "/event/{eventName}/reservation/{reservationId}/book", method = RequestMethod.GET)
     public String showBookingPage(@PathVariable("eventName") String eventName,
@@ -262,6 +264,7 @@ public class ReservationController {
         CustomerName customerName = new CustomerName(contactAndTicketsForm.getFullName(), contactAndTicketsForm.getFirstName(), contactAndTicketsForm.getLastName(), event, false);
 
         ticketReservationRepository.resetVat(reservationId);
+        orderSummaryCache.invalidate(reservationId);
         if(contactAndTicketsForm.isBusiness()) {
             checkAndApplyVATRules(eventName, reservationId, contactAndTicketsForm, bindingResult, event);
         }
@@ -312,6 +315,7 @@ public class ReservationController {
                 } else {
                     PriceContainer.VatStatus vatStatus = determineVatStatus(event.getVatStatus(), vatValidation.isVatExempt());
                     ticketReservationRepository.updateBillingData(vatStatus, StringUtils.trimToNull(vatValidation.getVatNr()), country, contactAndTicketsForm.isInvoiceRequested(), reservationId);
+                    orderSummaryCache.invalidate(reservationId);
                 }
             });
         } catch (IllegalStateException ise) {//vat checker failure
@@ -536,7 +540,7 @@ public class ReservationController {
 
         final TicketReservation ticketReservation = optionalReservation.get();
 
-        final TotalPrice reservationCost = ticketReservationManager.totalReservationCostWithVAT(reservationId);
+        final TotalPrice reservationCost = ticketReservationManager.totalReservationCostWithVATForPayment(reservationId);
 
         paymentForm.validate(bindingResult, event, reservationCost);
         if (bindingResult.hasErrors()) {
@@ -556,7 +560,7 @@ public class ReservationController {
 
         CustomerName customerName = new CustomerName(ticketReservation.getFullName(), ticketReservation.getFirstName(), ticketReservation.getLastName(), event);
 
-        OrderSummary orderSummary = ticketReservationManager.orderSummaryForReservationId(reservationId, event, locale);
+        OrderSummary orderSummary = ticketReservationManager.orderSummaryForPayment(reservationId, event, locale);
 
         PaymentToken paymentToken = (PaymentToken) session.getAttribute(PaymentManager.PAYMENT_TOKEN);
         if(paymentToken == null && StringUtils.isNotEmpty(paymentForm.getGatewayToken())) {
@@ -20,8 +20,8 @@ import alfio.controller.api.support.TicketHelper;
 import alfio.controller.support.TemplateProcessor;
 import alfio.controller.support.TicketDecorator;
 import alfio.manager.EventManager;
-import alfio.manager.FileUploadManager;
 import alfio.manager.NotificationManager;
+import alfio.manager.PdfRenderingManager;
 import alfio.manager.TicketReservationManager;
 import alfio.manager.system.ConfigurationManager;
 import alfio.model.Event;
@@ -65,7 +65,7 @@ public class TicketController {
     private final NotificationManager notificationManager;
     private final EventManager eventManager;
     private final ConfigurationManager configurationManager;
-    private final FileUploadManager fileUploadManager;
+    private final PdfRenderingManager pdfRenderingManager;
     private final TicketHelper ticketHelper;
     private final TicketFieldRepository ticketFieldRepository;
 
@@ -182,9 +182,8 @@ public class TicketController {
             TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(ticket.getCategoryId(), event.getId());
             Organization organization = organizationRepository.getById(event.getOrganizationId());
             String reservationID = ticketReservationManager.getShortReservationID(event, ticketReservation.getId());
-            TemplateProcessor.renderPDFTicket(LocaleUtil.getTicketLanguage(ticket, request), event, ticketReservation,
+            pdfRenderingManager.renderTicket(LocaleUtil.getTicketLanguage(ticket, request), event, ticketReservation,
                 ticket, ticketCategory, organization,
-                templateManager, fileUploadManager,
                 reservationID, os, ticketHelper.buildRetrieveFieldValuesFunction());
         }
     }
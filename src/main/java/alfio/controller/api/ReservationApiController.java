@@ -22,6 +22,7 @@ import alfio.controller.form.UpdateTicketOwnerForm;
 import alfio.manager.EuVatChecker;
 import alfio.manager.TicketReservationManager;
 import alfio.manager.i18n.I18nManager;
+import alfio.manager.support.OrderSummaryCache;
 import alfio.model.*;
 import alfio.model.result.ValidationResult;
 import alfio.model.transaction.PaymentProxy;
@@ -60,6 +61,7 @@ public class ReservationApiController {
     private final EuVatChecker vatChecker;
     private final TicketReservationRepository ticketReservationRepository;
     private final TicketReservationManager ticketReservationManager;
+    private final OrderSummaryCache orderSummaryCache;
 
 
     @RequestMapping(value = "/event/{eventName}/ticket/{ticketIdentifier}/assign", method = RequestMethod.POST, headers = "X-Requested-With=XMLHttpRequest")
@@ -115,6 +117,7 @@ public class ReservationApiController {
                 Event event = eventAndReservation.getLeft();
                 TicketReservation tr = eventAndReservation.getRight();
                 ticketReservationRepository.resetBillingData(tr.getId());
+                orderSummaryCache.invalidate(tr.getId());
 
                 OrderSummary orderSummary = ticketReservationManager.orderSummaryForReservationId(reservationId, event, Locale.forLanguageTag(tr.getUserLanguage()));
                 ticketReservationRepository.addReservationInvoiceOrReceiptModel(reservationId, Json.toJson(orderSummary));
@@ -152,6 +155,7 @@ public class ReservationApiController {
                 String billingAddress = vd.getName() + "\n" + vd.getAddress();
                 PriceContainer.VatStatus vatStatus = determineVatStatus(t.getLeft().getVatStatus(), t.getRight().isVatExempt());
                 ticketReservationRepository.updateBillingData(vatStatus, vd.getVatNr(), country, contactAndTicketsForm.isInvoiceRequested(), reservationId);
+                orderSummaryCache.invalidate(reservationId);
                 OrderSummary orderSummary = ticketReservationManager.orderSummaryForReservationId(reservationId, t.getLeft(), Locale.forLanguageTag(t.getMiddle().getUserLanguage()));
                 ticketReservationRepository.addReservationInvoiceOrReceiptModel(reservationId, Json.toJson(orderSummary));
                 ticketReservationRepository.updateTicketReservation(reservationId, t.getMiddle().getStatus().name(), contactAndTicketsForm.getEmail(),
@@ -28,7 +28,7 @@ import alfio.repository.EventRepository;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
-import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.web.bind.annotation.*;
 
@@ -66,12 +66,13 @@ public class AdminReservationApiController {
                                                           @RequestParam(value = "page", required = false) Integer page,
                                                           @RequestParam(value = "search", required = false) String search,
                                                           @RequestParam(value = "status", required = false) List<TicketReservation.TicketReservationStatus> status,
+                                                          @RequestParam(value = "pageToken", required = false) String pageToken,
+                                                          @RequestParam(value = "count", required = false) Boolean count,
                                                           Principal principal) {
+        boolean countRequired = count != null ? count : pageToken == null;
         return eventManager.getOptionalByName(eventName, principal.getName())
-            .map(event -> {
-                Pair<List<TicketReservation>, Integer> res = ticketReservationManager.findAllReservationsInEvent(event.getId(), page, search, status);
-                return new PageAndContent<>(res.getLeft(), res.getRight());
-            }).orElseGet(() -> new PageAndContent<>(Collections.emptyList(), 0));
+            .map(event -> PageAndContent.from(ticketReservationManager.findReservationsInEvent(event.getId(), page, StringUtils.trimToNull(pageToken), countRequired, search, status)))
+            .orElseGet(() -> new PageAndContent<>(Collections.emptyList(), 0));
     }
 
     @RequestMapping(value = "/event/{eventName}/{reservationId}/confirm", method = RequestMethod.PUT)
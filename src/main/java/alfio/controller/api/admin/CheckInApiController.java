@@ -35,7 +35,6 @@ import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.time.DateUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -43,7 +42,6 @@ import org.springframework.web.bind.annotation.*;
 import javax.servlet.http.HttpServletResponse;
 import java.security.Principal;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static alfio.util.OptionalWrapper.optionally;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
@@ -108,14 +106,9 @@ public class CheckInApiController {
                                                            Principal principal) {
         String username = principal.getName();
         String auditUser = StringUtils.defaultIfBlank(offlineUser, username);
-        return ticketIdentifierCodes.stream()
-            .map(t -> {
-                TicketAndCheckInResult res = checkInManager.checkIn(eventName, t.getIdentifier(),
-                    Optional.ofNullable(t.getCode()),
-                    username, auditUser, forceCheckInPaymentOnSite);
-                return Pair.of(t.identifier, res);
-            })
-            .collect(Collectors.toMap(Pair::getKey, Pair::getValue));
+        Map<String, String> ticketCodes = new LinkedHashMap<>();
+        ticketIdentifierCodes.forEach(t -> ticketCodes.putIfAbsent(t.getIdentifier(), t.getCode()));
+        return checkInManager.bulkCheckIn(eventName, ticketCodes, username, auditUser, forceCheckInPaymentOnSite);
     }
 
     @RequestMapping(value = "/check-in/{eventId}/ticket/{ticketIdentifier}/manual-check-in", method = POST)
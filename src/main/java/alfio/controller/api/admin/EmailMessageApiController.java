@@ -21,11 +21,11 @@ import alfio.manager.EventManager;
 import alfio.manager.NotificationManager;
 import alfio.model.EmailMessage;
 import alfio.model.Event;
+import alfio.model.KeysetPage;
 import alfio.model.LightweightMailMessage;
 import lombok.AllArgsConstructor;
 import lombok.experimental.Delegate;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -56,13 +56,16 @@ public class EmailMessageApiController {
     public PageAndContent<List<LightweightEmailMessage>> loadEmailMessages(@PathVariable("eventName") String eventName,
                                                                                     @RequestParam(value = "page", required = false) Integer page,
                                                                                     @RequestParam(value = "search", required = false) String search,
+                                                                                    @RequestParam(value = "pageToken", required = false) String pageToken,
+                                                                                    @RequestParam(value = "count", required = false) Boolean count,
                                                                                     Principal principal) {
         Event event = eventManager.getSingleEvent(eventName, principal.getName());
         ZoneId zoneId = event.getZoneId();
-        Pair<Integer, List<LightweightMailMessage>> found = notificationManager.loadAllMessagesForEvent(event.getId(), page, search);
-        return new PageAndContent<>(found.getRight().stream()
+        boolean countRequired = count != null ? count : pageToken == null;
+        KeysetPage<LightweightMailMessage> found = notificationManager.loadAllMessagesForEvent(event.getId(), page, StringUtils.trimToNull(pageToken), countRequired, search);
+        return new PageAndContent<>(found.getContent().stream()
             .map(m -> new LightweightEmailMessage(m, zoneId, true))
-            .collect(Collectors.toList()), found.getLeft());
+            .collect(Collectors.toList()), found.getCount(), found.getNextPageToken());
     }
 
     @RequestMapping("/{messageId}")
@@ -30,7 +30,6 @@ import alfio.model.result.ValidationResult;
 import alfio.model.transaction.Transaction;
 import alfio.model.user.Organization;
 import alfio.model.user.Role;
-import alfio.model.user.User;
 import alfio.repository.DynamicFieldTemplateRepository;
 import alfio.repository.SponsorScanRepository;
 import alfio.repository.TicketCategoryDescriptionRepository;
@@ -49,7 +48,6 @@ import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.time.DateUtils;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.dao.DataAccessException;
 import org.springframework.http.HttpStatus;
@@ -75,7 +73,6 @@ import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
@@ -109,6 +106,7 @@ public class EventApiController {
     private final PaymentManager paymentManager;
     private final TemplateManager templateManager;
     private final FileUploadManager fileUploadManager;
+    private final TicketStatusCounterManager ticketStatusCounterManager;
 
 
     @ExceptionHandler(DataAccessException.class)
@@ -295,11 +293,11 @@ public class EventApiController {
         response.setHeader("Content-Disposition", "attachment; filename=" + eventName + "-export.xlsx");
 
         try (ServletOutputStream out = response.getOutputStream()) {
-            exportExcel(eventName + " export", exportHeader(fields), exportLines(eventName, principal, fields, categoriesMap, eventZoneId).collect(Collectors.toList()), out);
+            exportExcel(eventName + " export", exportHeader(fields), exportLines(eventName, principal, fields, categoriesMap, eventZoneId), out);
         }
     }
 
-    private void exportExcel(String sheetName, String[] header, List<String[]> data, OutputStream out) throws IOException {
+    private void exportExcel(String sheetName, String[] header, Stream<String[]> data, OutputStream out) throws IOException {
         try (StreamingWorkbook workbook = new StreamingWorkbook(out)) {
             Style boldFont = workbook.defineStyle().font().bold(true).build();
 
@@ -307,7 +305,7 @@ public class EventApiController {
                 .map(v -> Cell.cell(v).withStyle(boldFont))
                 .collect(Collectors.toList()));
 
-            Stream<StreamingWorkbook.Row> dataStream = data.stream()
+            Stream<StreamingWorkbook.Row> dataStream = data
                 .map(rowData -> Arrays.stream(rowData).map(Cell::cell).collect(Collectors.toList()))
                 .map(StreamingWorkbook::row);
 
@@ -344,48 +342,56 @@ public class EventApiController {
     }
 
     private Stream<String[]> exportLines(String eventName, Principal principal, List<String> fields, Map<Integer, TicketCategory> categoriesMap, ZoneId eventZoneId) {
-        return eventManager.findAllConfirmedTicketsForCSV(eventName, principal.getName()).stream().map(trs -> {
-            Ticket t = trs.getTicket();
-            TicketReservation reservation = trs.getTicketReservation();
-            List<String> line = new ArrayList<>();
-            if(fields.contains("ID")) {line.add(t.getUuid());}
-            if(fields.contains("Creation")) {line.add(t.getCreation().withZoneSameInstant(eventZoneId).toString());}
-            if(fields.contains("Category")) {line.add(categoriesMap.get(t.getCategoryId()).getName());}
-            if(fields.contains("Event")) {line.add(eventName);}
-            if(fields.contains("Status")) {line.add(t.getStatus().toString());}
-            if(fields.contains("OriginalPrice")) {line.add(MonetaryUtil.centsToUnit(t.getSrcPriceCts()).toString());}
-            if(fields.contains("PaidPrice")) {line.add(MonetaryUtil.centsToUnit(t.getFinalPriceCts()).toString());}
-            if(fields.contains("Discount")) {line.add(MonetaryUtil.centsToUnit(t.getDiscountCts()).toString());}
-            if(fields.contains("VAT")) {line.add(MonetaryUtil.centsToUnit(t.getVatCts()).toString());}
-            if(fields.contains("ReservationID")) {line.add(t.getTicketsReservationId());}
-            if(fields.contains("Full Name")) {line.add(t.getFullName());}
-            if(fields.contains("First Name")) {line.add(t.getFirstName());}
-            if(fields.contains("Last Name")) {line.add(t.getLastName());}
-            if(fields.contains("E-Mail")) {line.add(t.getEmail());}
-            if(fields.contains("Locked")) {line.add(String.valueOf(t.getLockedAssignment()));}
-            if(fields.contains("Language")) {line.add(String.valueOf(t.getUserLanguage()));}
-            if(fields.contains("Confirmation")) {line.add(reservation.getConfirmationTimestamp().withZoneSameInstant(eventZoneId).toString());}
-            if(fields.contains("Billing Address")) {line.add(reservation.getBillingAddress());}
-            boolean paymentIdRequested = fields.contains("Payment ID");
-            boolean paymentGatewayRequested = fields.contains("Payment Method");
-            if((paymentIdRequested || paymentGatewayRequested)) {
-                Optional<Transaction> transaction = trs.getTransaction();
-                if(paymentIdRequested) { line.add(defaultString(transaction.map(Transaction::getPaymentId).orElse(null), transaction.map(Transaction::getTransactionId).orElse(""))); }
-                if(paymentGatewayRequested) { line.add(transaction.map(tr -> tr.getPaymentProxy().name()).orElse("")); }
-            }
-
-            //obviously not optimized
-            Map<String, String> additionalValues = ticketFieldRepository.findAllValuesForTicketId(t.getId());
-
-            Predicate<String> contains = FIXED_FIELDS::contains;
+        //the selected columns are resolved only once, not for every line
+        List<Function<TicketWithReservationAndTransaction, String>> fixedColumns = exportColumns(eventName, categoriesMap, eventZoneId).entrySet().stream()
+            .filter(e -> fields.contains(e.getKey()))
+            .map(Map.Entry::getValue)
+            .collect(toList());
+        List<String> customFields = fields.stream()
+            .filter(f -> !FIXED_FIELDS.contains(f) && f.startsWith(CUSTOM_FIELDS_PREFIX))
+            .map(f -> f.substring(CUSTOM_FIELDS_PREFIX.length()))
+            .collect(toList());
 
-            fields.stream().filter(contains.negate()).filter(f -> f.startsWith(CUSTOM_FIELDS_PREFIX)).forEachOrdered(field -> {
-                String customFieldName = field.substring(CUSTOM_FIELDS_PREFIX.length());
-                line.add(additionalValues.getOrDefault(customFieldName, "").replaceAll("\"", ""));
-            });
+        return eventManager.streamAllConfirmedTicketsForCSV(eventName, principal.getName()).map(p -> {
+            String[] line = new String[fixedColumns.size() + customFields.size()];
+            int i = 0;
+            for (Function<TicketWithReservationAndTransaction, String> column : fixedColumns) {
+                line[i++] = column.apply(p.getLeft());
+            }
+            Map<String, String> additionalValues = p.getRight();
+            for (String customField : customFields) {
+                line[i++] = additionalValues.getOrDefault(customField, "").replaceAll("\"", "");
+            }
+            return line;
+        });
+    }
 
-            return line.toArray(new String[0]);
+    private static Map<String, Function<TicketWithReservationAndTransaction, String>> exportColumns(String eventName, Map<Integer, TicketCategory> categoriesMap, ZoneId eventZoneId) {
+        Map<String, Function<TicketWithReservationAndTransaction, String>> columns = new LinkedHashMap<>();
+        columns.put("ID", trs -> trs.getTicket().getUuid());
+        columns.put("Creation", trs -> trs.getTicket().getCreation().withZoneSameInstant(eventZoneId).toString());
+        columns.put("Category", trs -> categoriesMap.get(trs.getTicket().getCategoryId()).getName());
+        columns.put("Event", trs -> eventName);
+        columns.put("Status", trs -> trs.getTicket().getStatus().toString());
+        columns.put("OriginalPrice", trs -> MonetaryUtil.centsToUnit(trs.getTicket().getSrcPriceCts()).toString());
+        columns.put("PaidPrice", trs -> MonetaryUtil.centsToUnit(trs.getTicket().getFinalPriceCts()).toString());
+        columns.put("Discount", trs -> MonetaryUtil.centsToUnit(trs.getTicket().getDiscountCts()).toString());
+        columns.put("VAT", trs -> MonetaryUtil.centsToUnit(trs.getTicket().getVatCts()).toString());
+        columns.put("ReservationID", trs -> trs.getTicket().getTicketsReservationId());
+        columns.put("Full Name", trs -> trs.getTicket().getFullName());
+        columns.put("First Name", trs -> trs.getTicket().getFirstName());
+        columns.put("Last Name", trs -> trs.getTicket().getLastName());
+        columns.put("E-Mail", trs -> trs.getTicket().getEmail());
+        columns.put("Locked", trs -> String.valueOf(trs.getTicket().getLockedAssignment()));
+        columns.put("Language", trs -> String.valueOf(trs.getTicket().getUserLanguage()));
+        columns.put("Confirmation", trs -> trs.getTicketReservation().getConfirmationTimestamp().withZoneSameInstant(eventZoneId).toString());
+        columns.put("Billing Address", trs -> trs.getTicketReservation().getBillingAddress());
+        columns.put("Payment ID", trs -> {
+            Optional<Transaction> transaction = trs.getTransaction();
+            return defaultString(transaction.map(Transaction::getPaymentId).orElse(null), transaction.map(Transaction::getTransactionId).orElse(""));
         });
+        columns.put("Payment Method", trs -> trs.getTransaction().map(tr -> tr.getPaymentProxy().name()).orElse(""));
+        return columns;
     }
 
     @RequestMapping("/events/{eventName}/sponsor-scan/export")
@@ -401,29 +407,25 @@ public class EventApiController {
         header.add("Email");
         header.addAll(fields.stream().map(TicketFieldConfiguration::getName).collect(toList()));
 
+        //the scans are loaded lazily, one sponsor at a time, together with the additional fields of the scanned tickets
         Stream<String[]> sponsorScans = userManager.findAllEnabledUsers(principal.getName()).stream()
-            .map(u -> Pair.of(u, userManager.getUserRole(u)))
-            .filter(p -> p.getRight() == Role.SPONSOR)
-            .flatMap(p -> sponsorScanRepository.loadSponsorData(event.getId(), p.getKey().getId(), SponsorScanRepository.DEFAULT_TIMESTAMP)
-                .stream()
-                .map(v -> Pair.of(v, ticketFieldRepository.findAllValuesForTicketId(v.getTicket().getId()))))
-            .map(p -> {
-                DetailedScanData data = p.getLeft();
-                Map<String, String> descriptions = p.getRight();
-                return Pair.of(data, fields.stream().map(x -> descriptions.getOrDefault(x.getName(), "")).collect(toList()));
-            }).map(p -> {
-            List<String> line = new ArrayList<>();
-            Ticket ticket = p.getLeft().getTicket();
-            SponsorScan sponsorScan = p.getLeft().getSponsorScan();
-            User user = userManager.findUser(sponsorScan.getUserId());
-            line.add(user.getUsername());
-            line.add(user.getDescription());
-            line.add(sponsorScan.getTimestamp().toString());
-            line.add(ticket.getFullName());
-            line.add(ticket.getEmail());
-            line.addAll(p.getRight());
-            return line.toArray(new String[0]);
-        });
+            .filter(u -> userManager.getUserRole(u) == Role.SPONSOR)
+            .flatMap(user -> {
+                List<DetailedScanData> scans = sponsorScanRepository.loadSponsorData(event.getId(), user.getId(), SponsorScanRepository.DEFAULT_TIMESTAMP);
+                Map<Integer, Map<String, String>> values = ticketFieldRepository.findAllValuesForTicketIds(scans.stream().map(d -> d.getTicket().getId()).collect(Collectors.toSet()));
+                return scans.stream().map(data -> {
+                    Ticket ticket = data.getTicket();
+                    Map<String, String> descriptions = values.getOrDefault(ticket.getId(), Collections.emptyMap());
+                    List<String> line = new ArrayList<>();
+                    line.add(user.getUsername());
+                    line.add(user.getDescription());
+                    line.add(data.getSponsorScan().getTimestamp().toString());
+                    line.add(ticket.getFullName());
+                    line.add(ticket.getEmail());
+                    fields.forEach(f -> line.add(descriptions.getOrDefault(f.getName(), "")));
+                    return line.toArray(new String[0]);
+                });
+            });
 
         if ("excel".equals(format)) {
             exportSponsorScanExcel(eventName, header, sponsorScans, response);
@@ -438,7 +440,7 @@ public class EventApiController {
         response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
         response.setHeader("Content-Disposition", "attachment; filename=" + eventName + "-sponsor-scan.xlsx");
         try (OutputStream os = response.getOutputStream()) {
-            exportExcel(eventName + " sponsor scan", header.toArray(new String[header.size()]), sponsorScans.collect(toList()), os);
+            exportExcel(eventName + " sponsor scan", header.toArray(new String[header.size()]), sponsorScans, os);
         }
     }
 
@@ -655,6 +657,16 @@ public class EventApiController {
         return new TicketsStatistics(eventStatisticsManager.getTicketSoldStatistics(eventId, from, to), eventStatisticsManager.getTicketReservedStatistics(eventId, from, to));
     }
 
+    @GetMapping("/events/{eventName}/statistics/check")
+    public List<TicketStatusCounterDifference> checkStatistics(@PathVariable("eventName") String eventName, Principal principal) {
+        return ticketStatusCounterManager.check(loadEvent(eventName, principal).getId());
+    }
+
+    @PostMapping("/events/{eventName}/statistics/rebuild")
+    public int rebuildStatistics(@PathVariable("eventName") String eventName, Principal principal) {
+        return ticketStatusCounterManager.rebuild(loadEvent(eventName, principal).getId());
+    }
+
     private Event loadEvent(String eventName, Principal principal) {
         Optional<Event> singleEvent = optionally(() -> eventManager.getSingleEvent(eventName, principal.getName()));
         Validate.isTrue(singleEvent.isPresent(), "event not found");
@@ -220,11 +220,14 @@ public class ExtensionApiController {
     public PageAndContent<List<ExtensionLog>> getLog(@RequestParam(required = false, name = "path") String path,
                                                      @RequestParam(required = false, name = "name") String name,
                                                      @RequestParam(required = false, name = "type") ExtensionLog.Type type,
-                                                     @RequestParam(required = false, name = "page", defaultValue = "0") Integer page, Principal principal) {
+                                                     @RequestParam(required = false, name = "page", defaultValue = "0") Integer page,
+                                                     @RequestParam(required = false, name = "pageToken") String pageToken,
+                                                     @RequestParam(required = false, name = "count") Boolean count,
+                                                     Principal principal) {
         ensureAdmin(principal);
         final int pageSize = 50;
-        Pair<List<ExtensionLog>, Integer> res = extensionService.getLog(StringUtils.trimToNull(path), StringUtils.trimToNull(name), type, pageSize, (page == null ? 0 : page) * pageSize);
-        return new PageAndContent<>(res.getLeft(), res.getRight());
+        boolean countRequired = count != null ? count : pageToken == null;
+        return PageAndContent.from(extensionService.getLog(StringUtils.trimToNull(path), StringUtils.trimToNull(name), type, pageSize, (page == null ? 0 : page) * pageSize, StringUtils.trimToNull(pageToken), countRequired));
     }
 
     private void ensureAdmin(Principal principal) {
@@ -16,12 +16,24 @@
  */
 package alfio.controller.api.support;
 
+import alfio.model.KeysetPage;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 @AllArgsConstructor
 public class PageAndContent<T> {
     private final T left;
     private final Integer right;
+    private final String nextPageToken;
+
+    public PageAndContent(T left, Integer right) {
+        this(left, right, null);
+    }
+
+    public static <E> PageAndContent<List<E>> from(KeysetPage<E> page) {
+        return new PageAndContent<>(page.getContent(), page.getCount(), page.getNextPageToken());
+    }
 }
@@ -21,12 +21,15 @@ import alfio.controller.api.support.EventListItem;
 import alfio.controller.api.support.PublicCategory;
 import alfio.controller.api.support.PublicEvent;
 import alfio.controller.form.ReservationForm;
+import alfio.controller.support.SessionUtil;
+import alfio.manager.AdmissionControlManager;
 import alfio.manager.EventManager;
 import alfio.manager.TicketReservationManager;
 import alfio.manager.system.ConfigurationManager;
 import alfio.model.Event;
 import alfio.model.SpecialPrice;
 import alfio.model.TicketCategory;
+import alfio.model.result.ErrorCode;
 import alfio.model.result.Result;
 import alfio.model.system.Configuration;
 import alfio.model.system.ConfigurationKeys;
@@ -37,6 +40,7 @@ import alfio.util.ErrorsCode;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -62,6 +66,7 @@ public class RestEventApiController {
     private final SpecialPriceRepository specialPriceRepository;
     private final TicketCategoryRepository ticketCategoryRepository;
     private final AdditionalServiceRepository additionalServiceRepository;
+    private final AdmissionControlManager admissionControlManager;
 
 
     @Autowired
@@ -73,7 +78,8 @@ public class RestEventApiController {
                                   ConfigurationManager configurationManager,
                                   SpecialPriceRepository specialPriceRepository,
                                   TicketCategoryRepository ticketCategoryRepository,
-                                  AdditionalServiceRepository additionalServiceRepository) {
+                                  AdditionalServiceRepository additionalServiceRepository,
+                                  AdmissionControlManager admissionControlManager) {
         this.eventManager = eventManager;
         this.organizationRepository = organizationRepository;
         this.eventRepository = eventRepository;
@@ -83,6 +89,7 @@ public class RestEventApiController {
         this.specialPriceRepository = specialPriceRepository;
         this.ticketCategoryRepository = ticketCategoryRepository;
         this.additionalServiceRepository = additionalServiceRepository;
+        this.admissionControlManager = admissionControlManager;
     }
 
 
@@ -118,16 +125,26 @@ public class RestEventApiController {
 
      */
     @RequestMapping(value = "events/{shortName}/reserve-tickets", method = RequestMethod.POST)
-    public ResponseEntity<Result<String>> reserveTickets(@PathVariable("shortName") String shortName, @RequestBody ReservationForm reservation, BindingResult bindingResult, Locale locale) {
+    public ResponseEntity<Result<String>> reserveTickets(@PathVariable("shortName") String shortName, @RequestBody ReservationForm reservation, BindingResult bindingResult, HttpServletRequest request, Locale locale) {
         return eventRepository.findOptionalByShortName(shortName).map(event -> {
+            if(admissionControlManager.isEnabled(event)) {
+                AdmissionControlManager.Admission admission = admissionControlManager.checkAdmission(event, SessionUtil.retrieveAdmissionQueueToken(event.getId(), request));
+                SessionUtil.saveAdmissionQueueToken(event.getId(), admission.getToken(), request);
+                if(!admission.isAdmitted()) {
+                    HttpHeaders headers = new HttpHeaders();
+                    headers.set(HttpHeaders.RETRY_AFTER, Long.toString(admission.getEstimatedWaitSeconds()));
+                    Result<String> result = Result.error(ErrorCode.custom(ErrorsCode.STEP_1_WAITING_FOR_ADMISSION, Long.toString(admission.getPosition())));
+                    return new ResponseEntity<>(result, headers, HttpStatus.TOO_MANY_REQUESTS);
+                }
+            }
             Optional<String> reservationUrl = reservation.validate(bindingResult, ticketReservationManager, additionalServiceRepository, eventManager, event).flatMap(selected -> {
                 Date expiration = DateUtils.addMinutes(new Date(), ticketReservationManager.getReservationTimeout(event));
                 try {
-                    String reservationId = ticketReservationManager.createTicketReservation(event,
+                    String reservationId = admissionControlManager.runAdmitted(event, () -> ticketReservationManager.createTicketReservation(event,
                         selected.getLeft(), selected.getRight(), expiration,
                         Optional.ofNullable(reservation.getPromoCode()), //FIXME check
                         Optional.ofNullable(reservation.getPromoCode()), //FIXME check
-                        locale, false);
+                        locale, false));
                     return Optional.of("/event/" + shortName + "/reservation/" + reservationId + "/book");
                 } catch (TicketReservationManager.NotEnoughTicketsException nete) {
                     bindingResult.reject(ErrorsCode.STEP_1_NOT_ENOUGH_TICKETS);
@@ -135,6 +152,8 @@ public class RestEventApiController {
                     bindingResult.reject(ErrorsCode.STEP_1_ACCESS_RESTRICTED);
                 } catch (TicketReservationManager.InvalidSpecialPriceTokenException invalid) {
                     bindingResult.reject(ErrorsCode.STEP_1_CODE_NOT_FOUND);
+                } catch (AdmissionControlManager.TooManyConcurrentReservationsException busy) {
+                    bindingResult.reject(ErrorsCode.STEP_1_TOO_MANY_CONCURRENT_RESERVATIONS);
                 }
                 return Optional.empty();
             });
@@ -20,6 +20,7 @@ import alfio.model.AdditionalService;
 import alfio.model.Event;
 import alfio.model.PriceContainer;
 import alfio.model.PromoCodeDiscount;
+import lombok.Getter;
 import lombok.experimental.Delegate;
 
 import java.math.BigDecimal;
@@ -31,7 +32,9 @@ public class SaleableAdditionalService implements PriceContainer {
     private final Event event;
     @Delegate(excludes = {Exclusions.class, PriceContainer.class})
     private final AdditionalService additionalService;
+    @Getter
     private final String title;
+    @Getter
     private final String description;
     private final PromoCodeDiscount promoCodeDiscount;
     private final int index;
@@ -33,6 +33,8 @@ public final class SessionUtil {
     
     private static final String PROMOTIONAL_CODE_DISCOUNT = "PROMOTIONAL_CODE_DISCOUNT";
 
+    private static final String ADMISSION_QUEUE_TOKEN = "ADMISSION_QUEUE_TOKEN_";
+
     private SessionUtil() {}
 
     public static void saveSpecialPriceCode(String specialPriceCode, HttpServletRequest request) {
@@ -58,6 +60,17 @@ public final class SessionUtil {
         return Optional.ofNullable((String)request.getSession().getAttribute(SPECIAL_PRICE_CODE_SESSION_ID));
     }
 
+    public static void saveAdmissionQueueToken(int eventId, String token, HttpServletRequest request) {
+        if(token != null) {
+            request.getSession().setAttribute(ADMISSION_QUEUE_TOKEN + eventId, token);
+        }
+    }
+
+    public static Optional<String> retrieveAdmissionQueueToken(int eventId, HttpServletRequest request) {
+        return Optional.ofNullable(request.getSession(false))
+            .map(session -> (String) session.getAttribute(ADMISSION_QUEUE_TOKEN + eventId));
+    }
+
     public static void cleanupSession(HttpServletRequest request) {
         HttpSession session = request.getSession();
         session.removeAttribute(SPECIAL_PRICE_CODE_SESSION_ID);
@@ -34,6 +34,7 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.*;
@@ -42,12 +43,20 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Log4j2
 public final class TemplateProcessor {
 
+    /**
+     * PDF documents are buffered in memory up to this size, bigger documents are spilled to a temporary file.
+     */
+    static final long MAX_IN_MEMORY_PDF_BYTES = 4 * 1024 * 1024;
+    private static final String DEFAULT_FONT_PATH = "/alfio/font/DejaVuSansMono.ttf";
+    private static final Map<String, byte[]> INTERNAL_RESOURCES = new ConcurrentHashMap<>();
+
     private TemplateProcessor() {}
 
 
@@ -88,7 +97,20 @@ public final class TemplateProcessor {
                                        String reservationID,
                                        OutputStream os,
                                        Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues) throws IOException {
-        Optional<TemplateResource.ImageData> imageData = extractImageModel(event, fileUploadManager);
+        renderPDFTicket(language, event, ticketReservation, ticket, ticketCategory, organization, templateManager, extractImageModel(event, fileUploadManager), reservationID, os, retrieveFieldValues);
+    }
+
+    public static void renderPDFTicket(Locale language,
+                                       Event event,
+                                       TicketReservation ticketReservation,
+                                       Ticket ticket,
+                                       TicketCategory ticketCategory,
+                                       Organization organization,
+                                       TemplateManager templateManager,
+                                       Optional<TemplateResource.ImageData> imageData,
+                                       String reservationID,
+                                       OutputStream os,
+                                       Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues) throws IOException {
         List<TicketFieldConfigurationDescriptionAndValue> fields = retrieveFieldValues.apply(ticket);
         Map<String, Object> model = TemplateResource.buildModelForTicketPDF(organization, event, ticketReservation, ticketCategory, ticket, imageData, reservationID,
             fields.stream().collect(Collectors.toMap(TicketFieldConfigurationDescriptionAndValue::getName, TicketFieldConfigurationDescriptionAndValue::getValueDescription)));
@@ -100,7 +122,7 @@ public final class TemplateProcessor {
     public static void renderToPdf(String page, OutputStream os) throws IOException {
 
         PdfRendererBuilder builder = new PdfRendererBuilder();
-        PDDocument doc = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+        PDDocument doc = new PDDocument(MemoryUsageSetting.setupMixed(MAX_IN_MEMORY_PDF_BYTES));
         builder.usePDDocument(doc);
         builder.toStream(os);
         builder.useProtocolsStreamImplementation(new AlfioInternalFSStreamFactory(), "alfio-internal");
@@ -115,10 +137,12 @@ public final class TemplateProcessor {
 
         builder.withW3cDocument(DOMBuilder.jsoup2DOM(parsedDocument), "");
         PdfBoxRenderer renderer = builder.buildPdfRenderer();
-        try (InputStream is = new ClassPathResource("/alfio/font/DejaVuSansMono.ttf").getInputStream()) {
-            renderer.getFontResolver().addFont(() -> is, "DejaVu Sans Mono", null, null, false);
-        } catch(IOException e) {
-            log.warn("error while loading DejaVuSansMono.ttf font", e);
+        Optional<byte[]> font = loadInternalResource(DEFAULT_FONT_PATH);
+        if(font.isPresent()) {
+            byte[] fontData = font.get();
+            renderer.getFontResolver().addFont(() -> new ByteArrayInputStream(fontData), "DejaVu Sans Mono", null, null, false);
+        } else {
+            log.warn("cannot add DejaVuSansMono.ttf font");
         }
         try {
             renderer.layout();
@@ -136,11 +160,9 @@ public final class TemplateProcessor {
                 @Override
                 public InputStream getStream() {
                     String urlWithoutProtocol = url.substring("alfio-internal:/".length());
-                    try {
-                        return new ClassPathResource("/alfio/font/" + urlWithoutProtocol).getInputStream();
-                    } catch (IOException e) {
-                        throw new IllegalStateException(e);
-                    }
+                    return loadInternalResource("/alfio/font/" + urlWithoutProtocol)
+                        .map(ByteArrayInputStream::new)
+                        .orElseThrow(() -> new IllegalStateException("cannot load resource " + urlWithoutProtocol));
                 }
 
                 @Override
@@ -151,6 +173,21 @@ public final class TemplateProcessor {
         }
     }
 
+    /**
+     * The internal resources (i.e. fonts) are read only once, since they're needed for each PDF.
+     */
+    private static Optional<byte[]> loadInternalResource(String path) {
+        //missing resources are not cached
+        return Optional.ofNullable(INTERNAL_RESOURCES.computeIfAbsent(path, p -> {
+            try (InputStream is = new ClassPathResource(p).getInputStream()) {
+                return StreamUtils.copyToByteArray(is);
+            } catch (IOException e) {
+                log.warn("error while loading resource " + p, e);
+                return null;
+            }
+        }));
+    }
+
     private static class InvalidProtocolFSStreamFactory implements FSStreamFactory {
 
         @Override
@@ -17,6 +17,8 @@
 package alfio.db.PGSQL;
 
 import alfio.extension.Extension;
+import alfio.extension.ExtensionCache;
+import alfio.extension.ExtensionLogWriter;
 import alfio.extension.ExtensionService;
 import alfio.extension.ScriptingExecutionService;
 import alfio.repository.EventRepository;
@@ -29,7 +31,6 @@ import ch.digitalfondue.npjt.QueryFactory;
 import org.flywaydb.core.api.migration.spring.BaseSpringJdbcMigration;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.util.StreamUtils;
 
 import java.io.IOException;
@@ -54,7 +55,7 @@ public class V22_1_14_8__MigrateMailchimp extends BaseSpringJdbcMigration {
         ExtensionRepository extensionRepository = queryFactory.from(ExtensionRepository.class);
         ExtensionLogRepository extensionLogRepository = queryFactory.from(ExtensionLogRepository.class);
         PluginRepository pluginRepository = queryFactory.from(PluginRepository.class);
-        ExtensionService extensionService = new ExtensionService(new ScriptingExecutionService(), extensionRepository, extensionLogRepository, new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        ExtensionService extensionService = new ExtensionService(new ScriptingExecutionService(1), extensionRepository, extensionLogRepository, new ExtensionCache(0), ExtensionLogWriter.synchronous(extensionLogRepository));
 
         extensionService.createOrUpdate(null, null, new Extension("-", "mailchimp", getMailChimpScript(), true));
 
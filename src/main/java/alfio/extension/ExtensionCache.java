@@ -0,0 +1,159 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import alfio.manager.system.MetricsProvider;
+import alfio.model.ExtensionSupport.ScriptPathNameHash;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches the active extensions for each event and path, together with their parameters, so that firing an
+ * extension event does not hit the database.
+ * <p>
+ * Local modifications to the extensions or to their settings ({@link #invalidate()}) evict the whole cache,
+ * modifications made by other nodes are picked up after <tt>alfio.extension-cache.ttl-seconds</tt> seconds.
+ */
+@Component
+public class ExtensionCache implements MetricsProvider {
+
+    private final boolean enabled;
+    private final Cache<ActiveScriptsKey, List<ScriptPathNameHash>> activeScripts;
+    private final Cache<ParametersKey, ScriptParameters> parameters;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ExtensionCache(@Value("${alfio.extension-cache.ttl-seconds:60}") int ttlSeconds) {
+        this.enabled = ttlSeconds > 0;
+        this.activeScripts = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+        this.parameters = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    public List<ScriptPathNameHash> getActiveScripts(String event, String basePath, boolean async, Supplier<List<ScriptPathNameHash>> loader) {
+        if(!enabled) {
+            return loader.get();
+        }
+        return activeScripts.get(new ActiveScriptsKey(event, basePath, async), k -> Collections.unmodifiableList(new ArrayList<>(loader.get())));
+    }
+
+    public ScriptParameters getParameters(ScriptPathNameHash script, String basePath, Supplier<ScriptParameters> loader) {
+        if(!enabled) {
+            return loader.get();
+        }
+        return parameters.get(new ParametersKey(script.getPath(), script.getName(), basePath), k -> loader.get());
+    }
+
+    /**
+     * Must be called each time an extension, or one of its settings, is modified.
+     * If there is an active transaction, the cache will be evicted again after its completion.
+     */
+    public void invalidate() {
+        evict();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict();
+                }
+            });
+        }
+    }
+
+    private void evict() {
+        invalidations.incrementAndGet();
+        activeScripts.invalidateAll();
+        parameters.invalidateAll();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "extension-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("activeScripts", statsFor(activeScripts));
+        metrics.put("parameters", statsFor(parameters));
+        metrics.put("invalidations", invalidations.get());
+        return metrics;
+    }
+
+    private static Map<String, Object> statsFor(Cache<?, ?> cache) {
+        CacheStats stats = cache.stats();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("hits", stats.hitCount());
+        metrics.put("misses", stats.missCount());
+        metrics.put("hitRatio", stats.hitRate());
+        metrics.put("entries", cache.estimatedSize());
+        return metrics;
+    }
+
+    @Getter
+    public static class ScriptParameters {
+        private final Map<String, String> values;
+        private final Set<String> mandatory;
+
+        public ScriptParameters(Map<String, String> values, Collection<String> mandatory) {
+            this.values = Collections.unmodifiableMap(new HashMap<>(values));
+            this.mandatory = Collections.unmodifiableSet(new HashSet<>(mandatory));
+        }
+
+        public Set<String> getMissing() {
+            Set<String> missing = new HashSet<>(mandatory);
+            missing.removeAll(values.keySet());
+            return missing;
+        }
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class ActiveScriptsKey {
+        private final String event;
+        private final String basePath;
+        private final boolean async;
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class ParametersKey {
+        private final String path;
+        private final String name;
+        private final String basePath;
+    }
+}
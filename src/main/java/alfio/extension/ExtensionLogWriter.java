@@ -0,0 +1,204 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import alfio.manager.system.MetricsProvider;
+import alfio.model.ExtensionLog;
+import alfio.repository.ExtensionLogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the extension log in background.
+ * <p>
+ * Entries are queued and written by a single thread every <tt>alfio.extension-log.flush-interval-ms</tt> milliseconds,
+ * in batches of {@value #BATCH_SIZE}, each batch in its own transaction, so that logging does not depend on the
+ * outcome of the caller's transaction. If the queue is full the entry is written immediately by the caller.
+ * <p>
+ * The writer returned by {@link #synchronous(ExtensionLogRepository)} has no queue and no background thread:
+ * each entry is written immediately, in the caller's transaction.
+ */
+@Component
+@Log4j2
+public class ExtensionLogWriter implements MetricsProvider {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final ExtensionLogRepository extensionLogRepository;
+    private final NamedParameterJdbcTemplate jdbc;
+    private final TransactionTemplate requiresNew;
+    private final BlockingQueue<Entry> queue;
+    private final long flushIntervalMillis;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writtenByCaller = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile ScheduledExecutorService flusher;
+
+    @Autowired
+    public ExtensionLogWriter(ExtensionLogRepository extensionLogRepository,
+                              NamedParameterJdbcTemplate jdbc,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${alfio.extension-log.queue-capacity:10000}") int queueCapacity,
+                              @Value("${alfio.extension-log.flush-interval-ms:500}") long flushIntervalMillis) {
+        this.extensionLogRepository = extensionLogRepository;
+        this.jdbc = jdbc;
+        this.requiresNew = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+    }
+
+    private ExtensionLogWriter(ExtensionLogRepository extensionLogRepository) {
+        this.extensionLogRepository = extensionLogRepository;
+        this.jdbc = null;
+        this.requiresNew = null;
+        this.queue = null;
+        this.flushIntervalMillis = 0;
+    }
+
+    /**
+     * For contexts without background machinery, e.g. the database migrations.
+     */
+    public static ExtensionLogWriter synchronous(ExtensionLogRepository extensionLogRepository) {
+        return new ExtensionLogWriter(extensionLogRepository);
+    }
+
+    public void write(String effectivePath, String path, String name, String description, ExtensionLog.Type type) {
+        if(queue == null) {
+            extensionLogRepository.insert(effectivePath, path, name, description, type);
+            written.incrementAndGet();
+            return;
+        }
+        Entry entry = new Entry(effectivePath, path, name, description, type);
+        if(queue.offer(entry)) {
+            ensureFlusherStarted();
+            return;
+        }
+        //the writer cannot keep up: slow down the caller
+        try {
+            requiresNew.execute(s -> extensionLogRepository.insert(effectivePath, path, name, description, type));
+            writtenByCaller.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.warn("cannot write extension log", e);
+        }
+    }
+
+    /**
+     * Write all the queued entries.
+     */
+    public void flush() {
+        if(queue == null) {
+            return;
+        }
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while(queue.drainTo(batch, BATCH_SIZE) > 0) {
+            MapSqlParameterSource[] params = batch.stream().map(Entry::toParameterSource).toArray(MapSqlParameterSource[]::new);
+            try {
+                requiresNew.execute(s -> jdbc.batchUpdate(extensionLogRepository.bulkInsert(), params));
+                written.addAndGet(params.length);
+            } catch (Exception e) {
+                failed.addAndGet(params.length);
+                log.warn("cannot write " + params.length + " extension log entries", e);
+            }
+            batch.clear();
+        }
+    }
+
+    private void ensureFlusherStarted() {
+        if(flusher == null) {
+            synchronized (this) {
+                if(flusher == null) {
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "extension-log-writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.scheduleWithFixedDelay(this::flushSafely, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+                    flusher = executor;
+                }
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Throwable t) {
+            log.warn("unexpected error while writing the extension log", t);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if(flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "extension-log";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("queued", queue != null ? queue.size() : 0);
+        metrics.put("written", written.get());
+        metrics.put("writtenByCaller", writtenByCaller.get());
+        metrics.put("failed", failed.get());
+        return metrics;
+    }
+
+    @RequiredArgsConstructor
+    private static class Entry {
+        private final String effectivePath;
+        private final String path;
+        private final String name;
+        private final String description;
+        private final ExtensionLog.Type type;
+        private final Timestamp eventTs = new Timestamp(System.currentTimeMillis());
+
+        private MapSqlParameterSource toParameterSource() {
+            return new MapSqlParameterSource("effectivePath", effectivePath)
+                .addValue("path", path)
+                .addValue("name", name)
+                .addValue("description", description)
+                .addValue("type", type.name())
+                .addValue("eventTs", eventTs);
+        }
+    }
+}
@@ -22,9 +22,11 @@ import alfio.model.Event;
 import alfio.model.ExtensionLog;
 import alfio.model.ExtensionSupport;
 import alfio.model.ExtensionSupport.*;
+import alfio.model.KeysetPage;
 import alfio.model.user.Organization;
 import alfio.repository.ExtensionLogRepository;
 import alfio.repository.ExtensionRepository;
+import alfio.util.PageToken;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -32,12 +34,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.DefaultTransactionDefinition;
-import org.springframework.transaction.support.TransactionCallback;
-import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -53,7 +50,9 @@ public class ExtensionService {
 
     private final ExtensionLogRepository extensionLogRepository;
 
-    private final PlatformTransactionManager platformTransactionManager;
+    private final ExtensionCache extensionCache;
+
+    private final ExtensionLogWriter extensionLogWriter;
 
     private final static String PRELOAD_SCRIPT = "\nvar HashMap = Java.type('java.util.HashMap');\n" +
         "var ExtensionUtils = Java.type('alfio.extension.ExtensionUtils');\n";
@@ -62,36 +61,29 @@ public class ExtensionService {
     @AllArgsConstructor
     private static final class ExtensionLoggerImpl implements ExtensionLogger {
 
-        private final ExtensionLogRepository extensionLogRepository;
-        private final PlatformTransactionManager platformTransactionManager;
+        private final ExtensionLogWriter extensionLogWriter;
         private final String effectivePath;
         private final String path;
         private final String name;
 
         @Override
         public void logWarning(String msg) {
-            executeInNewTransaction((s) -> extensionLogRepository.insert(effectivePath, path, name, msg, ExtensionLog.Type.WARNING));
+            extensionLogWriter.write(effectivePath, path, name, msg, ExtensionLog.Type.WARNING);
         }
 
         @Override
         public void logSuccess(String msg) {
-            executeInNewTransaction((s) -> extensionLogRepository.insert(effectivePath, path, name, msg, ExtensionLog.Type.SUCCESS));
+            extensionLogWriter.write(effectivePath, path, name, msg, ExtensionLog.Type.SUCCESS);
         }
 
         @Override
         public void logError(String msg) {
-            executeInNewTransaction((s) -> extensionLogRepository.insert(effectivePath, path, name, msg, ExtensionLog.Type.ERROR));
+            extensionLogWriter.write(effectivePath, path, name, msg, ExtensionLog.Type.ERROR);
         }
 
         @Override
         public void logInfo(String msg) {
-            executeInNewTransaction((s) -> extensionLogRepository.insert(effectivePath, path, name, msg, ExtensionLog.Type.INFO));
-        }
-
-        private void executeInNewTransaction(TransactionCallback<Integer> t) {
-            DefaultTransactionDefinition definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
-            TransactionTemplate template = new TransactionTemplate(platformTransactionManager, definition);
-            template.execute(t);
+            extensionLogWriter.write(effectivePath, path, name, msg, ExtensionLog.Type.INFO);
         }
     }
 
@@ -115,6 +107,7 @@ public class ExtensionService {
         ExtensionMetadata extensionMetadata = getMetadata(script.getName(), script.getScript());
 
         Validate.notBlank(extensionMetadata.displayName, "Display Name is mandatory");
+        extensionCache.invalidate();
 
         if(previousPath != null && previousName != null) {
             extensionRepository.deleteEventsForPath(previousPath, previousName);
@@ -175,10 +168,12 @@ public class ExtensionService {
 
     @Transactional
     public void deleteSettingValue(int id, String path) {
+        extensionCache.invalidate();
         extensionRepository.deleteSettingValue(id, path);
     }
 
     private void deleteAndInsertSetting(String level, String path, List<ExtensionMetadataValue> toUpdate) {
+        extensionCache.invalidate();
         extensionRepository.deleteSettingValue(level, path);
         List<ExtensionMetadataValue> toUpdate2 = (toUpdate == null ? Collections.emptyList() : toUpdate);
         List<ExtensionMetadataValue> filtered = toUpdate2.stream()
@@ -191,11 +186,13 @@ public class ExtensionService {
 
     @Transactional
     public void toggle(String path, String name, boolean status) {
+        extensionCache.invalidate();
         extensionRepository.toggle(path, name, status);
     }
 
     @Transactional
     public void delete(String path, String name) {
+        extensionCache.invalidate();
         extensionRepository.deleteEventsForPath(path, name);
         extensionRepository.deleteScriptForPath(path, name);
     }
@@ -227,7 +224,7 @@ public class ExtensionService {
             String name = activePath.getName();
             Pair<Set<String>, Map<String, Object>> params = addExtensionParameters(input, basePath, activePath);
             input = params.getRight();
-            ExtensionLogger extLogger = new ExtensionLoggerImpl(extensionLogRepository, platformTransactionManager, basePath, path, name);
+            ExtensionLogger extLogger = new ExtensionLoggerImpl(extensionLogWriter, basePath, path, name);
 
             if(params.getLeft().isEmpty()) {
                 res = scriptingExecutionService.executeScript(name, activePath.getHash(),
@@ -249,7 +246,7 @@ public class ExtensionService {
             String name = activePath.getName();
             Pair<Set<String>, Map<String, Object>> params = addExtensionParameters(input, basePath, activePath);
             input = params.getRight();
-            ExtensionLogger extLogger = new ExtensionLoggerImpl(extensionLogRepository, platformTransactionManager, basePath, path, name);
+            ExtensionLogger extLogger = new ExtensionLoggerImpl(extensionLogWriter, basePath, path, name);
 
             if(params.getLeft().isEmpty()) {
                 scriptingExecutionService.executeScriptAsync(path, name, activePath.getHash(), () -> PRELOAD_SCRIPT + getScript(path, name)+"\n;executeScript(extensionEvent);", input, extLogger);
@@ -264,16 +261,14 @@ public class ExtensionService {
     * */
     private Pair<Set<String>, Map<String,Object>> addExtensionParameters(Map<String, Object> input, String basePath, ScriptPathNameHash activePath) {
         Map<String, Object> copy = new HashMap<>(input);
-        Map<String, String> nameAndValues = extensionRepository.findParametersForScript(activePath.getName(), activePath.getPath(), generatePossiblePath(basePath))
-            .stream()
-            .collect(Collectors.toMap(NameAndValue::getName, NameAndValue::getValue));
-
-        Set<String> mandatory = new HashSet<>(extensionRepository.findMandatoryParametersForScript(activePath.getName(), activePath.getPath()));
-
-        mandatory.removeAll(nameAndValues.keySet());
-
-        copy.put("extensionParameters", nameAndValues);
-        return Pair.of(mandatory, copy);
+        ExtensionCache.ScriptParameters parameters = extensionCache.getParameters(activePath, basePath, () -> {
+            Map<String, String> nameAndValues = extensionRepository.findParametersForScript(activePath.getName(), activePath.getPath(), generatePossiblePath(basePath))
+                .stream()
+                .collect(Collectors.toMap(NameAndValue::getName, NameAndValue::getValue));
+            return new ExtensionCache.ScriptParameters(nameAndValues, extensionRepository.findMandatoryParametersForScript(activePath.getName(), activePath.getPath()));
+        });
+        copy.put("extensionParameters", new HashMap<>(parameters.getValues()));
+        return Pair.of(parameters.getMissing(), copy);
     }
 
     private List<ScriptPathNameHash> getActiveScriptsForEvent(String event, String basePath, boolean async) {
@@ -285,8 +280,7 @@ public class ExtensionService {
         //  - -org
         //  - -
         // the one with the longest path win
-        Set<String> paths = generatePossiblePath(basePath);
-        return extensionRepository.findActive(paths, async, event);
+        return extensionCache.getActiveScripts(event, basePath, async, () -> extensionRepository.findActive(generatePossiblePath(basePath), async, event));
     }
 
     private static Set<String> generatePossiblePath(String basePath, Comparator<String> comparator) {
@@ -315,11 +309,22 @@ public class ExtensionService {
     }
 
 
+    /**
+     * Load a page of log entries. If a page token is provided, the page starts right after the element referenced
+     * by the token and the offset is ignored.
+     *
+     * @param count whether the total number of matching entries must be computed
+     */
     @Transactional(readOnly = true)
-    public Pair<List<ExtensionLog>, Integer> getLog(String path, String name, ExtensionLog.Type type, int pageSize, int offset) {
+    public KeysetPage<ExtensionLog> getLog(String path, String name, ExtensionLog.Type type, int pageSize, int offset, String pageToken, boolean count) {
         String typeAsString = type != null ? type.name() : null;
-        int count = extensionLogRepository.countPages(path, name, typeAsString);
-        List<ExtensionLog> logs = extensionLogRepository.getPage(path, name, typeAsString, pageSize, offset);
-        return Pair.of(logs, count);
+        List<ExtensionLog> logs;
+        if(pageToken != null) {
+            logs = extensionLogRepository.getPageAfter(path, name, typeAsString, PageToken.decode(pageToken).getInt(0), pageSize);
+        } else {
+            logs = extensionLogRepository.getPage(path, name, typeAsString, pageSize, offset);
+        }
+        Integer total = count ? extensionLogRepository.countPages(path, name, typeAsString) : null;
+        return KeysetPage.of(logs, pageSize, total, l -> PageToken.encode(l.getId()));
     }
 }
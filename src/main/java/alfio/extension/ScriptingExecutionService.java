@@ -17,21 +17,23 @@
 
 package alfio.extension;
 
+import alfio.manager.system.MetricsProvider;
 import alfio.util.Json;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalListener;
 import lombok.extern.log4j.Log4j2;
 import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.script.*;
-import java.util.Collections;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 
@@ -44,7 +46,7 @@ import java.util.function.Supplier;
 
 @Service
 @Log4j2
-public class ScriptingExecutionService {
+public class ScriptingExecutionService implements MetricsProvider {
 
     private static final OkHttpClient HTTP_CLIENT = new OkHttpClient();
     private static final SimpleHttpClient SIMPLE_HTTP_CLIENT = new SimpleHttpClient(HTTP_CLIENT);
@@ -53,14 +55,20 @@ public class ScriptingExecutionService {
     private final Cache<String, CompiledScript> compiledScriptCache = Caffeine.newBuilder()
         .expireAfterAccess(12, TimeUnit.HOURS)
         .build();
-    private final Cache<String, ExecutorService> asyncExecutors = Caffeine.newBuilder()
+    private final Cache<String, ThreadPoolExecutor> asyncExecutors = Caffeine.newBuilder()
         .expireAfterAccess(12, TimeUnit.HOURS)
-        .removalListener((RemovalListener<String, ExecutorService>) (key, value, cause) -> {
+        .removalListener((RemovalListener<String, ThreadPoolExecutor>) (key, value, cause) -> {
             if (value != null) {
                 value.shutdown();
             }
         })
         .build();
+    private final int asyncQueueCapacity;
+    private final AtomicLong discarded = new AtomicLong();
+
+    public ScriptingExecutionService(@Value("${alfio.extension.async-queue-capacity:1000}") int asyncQueueCapacity) {
+        this.asyncQueueCapacity = Math.max(1, asyncQueueCapacity);
+    }
 
     public <T> T executeScript(String name, String hash, Supplier<String> scriptFetcher, Map<String, Object> params, Class<T> clazz, ExtensionLogger extensionLogger) {
         CompiledScript compiledScript = compiledScriptCache.get(hash, (key) -> {
@@ -75,11 +83,59 @@ public class ScriptingExecutionService {
         return executeScript(name, compiledScript, params, clazz, extensionLogger);
     }
 
+    /**
+     * Execute the script in background. The scripts of the same path are executed one at a time, in order; if more than
+     * <tt>alfio.extension.async-queue-capacity</tt> scripts are waiting, the script is discarded and a warning is
+     * written in the extension log.
+     */
     public void executeScriptAsync(String path, String name, String hash, Supplier<String> scriptFetcher, Map<String, Object> params,  ExtensionLogger extensionLogger) {
-        Optional.ofNullable(asyncExecutors.get(path, (key) -> Executors.newSingleThreadExecutor()))
-            .ifPresent(it -> it.submit(() -> {
-               executeScript(name, hash, scriptFetcher, params, Object.class, extensionLogger);
-            }));
+        Optional.ofNullable(asyncExecutors.get(path, this::createAsyncExecutor))
+            .ifPresent(it -> {
+                try {
+                    it.execute(() -> {
+                        try {
+                            executeScript(name, hash, scriptFetcher, params, Object.class, extensionLogger);
+                        } catch (Exception e) {
+                            //already logged
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    discarded.incrementAndGet();
+                    log.warn("Too many scripts waiting for path {}, script {} has been discarded", path, name);
+                    extensionLogger.logWarning("Script discarded: more than " + asyncQueueCapacity + " scripts are waiting to be executed");
+                }
+            });
+    }
+
+    private ThreadPoolExecutor createAsyncExecutor(String path) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(asyncQueueCapacity),
+            r -> {
+                Thread thread = new Thread(r, "extension-async" + path);
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "extension-executors";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        Map<String, Object> paths = new TreeMap<>();
+        asyncExecutors.asMap().forEach((path, executor) -> {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("queued", executor.getQueue().size());
+            e.put("active", executor.getActiveCount());
+            e.put("completed", executor.getCompletedTaskCount());
+            paths.put(path, e);
+        });
+        metrics.put("queueCapacity", asyncQueueCapacity);
+        metrics.put("discarded", discarded.get());
+        metrics.put("paths", paths);
+        return metrics;
     }
 
 
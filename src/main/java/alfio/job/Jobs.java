@@ -58,12 +58,15 @@ public class Jobs {
 
     private final AdminReservationRequestManager adminReservationRequestManager;
     private final ConfigurationManager configurationManager;
+    private final EmailAttachmentCacheManager emailAttachmentCacheManager;
     private final Environment environment;
     private final EventManager eventManager;
+    private final ExpiredReservationProcessor expiredReservationProcessor;
     private final FileUploadManager fileUploadManager;
     private final NotificationManager notificationManager;
     private final SpecialPriceTokenGenerator specialPriceTokenGenerator;
     private final TicketReservationManager ticketReservationManager;
+    private final TicketStatusCounterManager ticketStatusCounterManager;
     private final UserManager userManager;
     private final WaitingQueueSubscriptionProcessor waitingQueueSubscriptionProcessor;
 
@@ -76,6 +79,24 @@ public class Jobs {
         fileUploadManager.cleanupUnreferencedBlobFiles(DateUtils.addDays(new Date(), -1));
     }
 
+    @Scheduled(fixedRate = THIRTY_MINUTES)
+    public void cleanupEmailAttachmentCache() {
+        log.trace("running job cleanupEmailAttachmentCache");
+        emailAttachmentCacheManager.cleanup();
+    }
+
+    @Scheduled(fixedRate = THIRTY_SECONDS)
+    public void compactTicketCounters() {
+        log.trace("running job compactTicketCounters");
+        ticketStatusCounterManager.compact();
+    }
+
+    @Scheduled(fixedRate = ONE_MINUTE * 60)
+    public void reconcileTicketCounters() {
+        log.trace("running job reconcileTicketCounters");
+        ticketStatusCounterManager.reconcileActiveEvents();
+    }
+
 
     //run each hour
     @Scheduled(cron = "0 0 0/1 * * ?")
@@ -141,7 +162,7 @@ public class Jobs {
         log.trace("running job cleanupExpiredPendingReservation");
         //cleanup reservation that have a expiration older than "now minus 10 minutes": this give some additional slack.
         final Date expirationDate = DateUtils.addMinutes(new Date(), -10);
-        ticketReservationManager.cleanupExpiredReservations(expirationDate);
+        expiredReservationProcessor.cleanupExpiredReservations(expirationDate);
         ticketReservationManager.cleanupExpiredOfflineReservations(expirationDate);
         ticketReservationManager.markExpiredInPaymentReservationAsStuck(expirationDate);
     }
@@ -17,6 +17,7 @@
 package alfio.manager;
 
 import alfio.manager.support.DuplicateReferenceException;
+import alfio.manager.support.OrderSummaryCache;
 import alfio.model.*;
 import alfio.model.TicketReservation.TicketReservationStatus;
 import alfio.model.decorator.TicketPriceContainer;
@@ -98,6 +99,7 @@ public class AdminReservationManager {
     private final AuditingRepository auditingRepository;
     private final UserRepository userRepository;
     private final ExtensionManager extensionManager;
+    private final OrderSummaryCache orderSummaryCache;
 
     //the following methods have an explicit transaction handling, therefore the @Transactional annotation is not helpful here
     public Result<Triple<TicketReservation, List<Ticket>, Event>> confirmReservation(String eventName, String reservationId, String username) {
@@ -206,6 +208,7 @@ public class AdminReservationManager {
     }
 
     private Result<Boolean> performUpdate(String reservationId, Event event, TicketReservation r, AdminReservationModification arm, String username) {
+        orderSummaryCache.invalidate(reservationId);
         ticketReservationRepository.updateValidity(reservationId, Date.from(arm.getExpiration().toZonedDateTime(event.getZoneId()).toInstant()));
         if(arm.isUpdateContactData()) {
             AdminReservationModification.CustomerData customerData = arm.getCustomerData();
@@ -350,7 +353,7 @@ public class AdminReservationManager {
         TicketsInfo ticketsInfo = pair.getRight();
         int categoryId = category.getId();
         List<Attendee> attendees = ticketsInfo.getAttendees();
-        List<Integer> reservedForUpdate = ticketReservationManager.reserveTickets(event.getId(), categoryId, attendees.size(), singletonList(Ticket.TicketStatus.FREE));
+        List<Integer> reservedForUpdate = ticketReservationManager.reserveTickets(event, categoryId, attendees.size(), singletonList(Ticket.TicketStatus.FREE));
         if (reservedForUpdate.size() == 0 || reservedForUpdate.size() != attendees.size()) {
             return Result.error(ErrorCode.CategoryError.NOT_ENOUGH_SEATS);
         }
@@ -585,6 +588,7 @@ public class AdminReservationManager {
 
     private void removeTicketsFromReservation(TicketReservation reservation, Event event, List<Integer> ticketIds, boolean notify, String username, boolean removeReservation, boolean forceInvoiceReceiptUpdate) {
         String reservationId = reservation.getId();
+        orderSummaryCache.invalidate(reservationId);
         if(notify && !ticketIds.isEmpty()) {
             Organization o = eventManager.loadOrganizer(event, username);
             ticketRepository.findByIds(ticketIds).forEach(t -> {
@@ -633,6 +637,7 @@ public class AdminReservationManager {
 
     private void markAsCancelled(TicketReservation ticketReservation) {
         ticketReservationRepository.updateReservationStatus(ticketReservation.getId(), TicketReservationStatus.CANCELLED.toString());
+        orderSummaryCache.invalidate(ticketReservation.getId());
     }
 
     private void handleTicketsRefund(List<Integer> toRefund, Event e, TicketReservation reservation, Map<Integer, Ticket> ticketsById, String username) {
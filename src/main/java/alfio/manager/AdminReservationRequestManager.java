@@ -16,10 +16,14 @@
  */
 package alfio.manager;
 
+import alfio.manager.support.BoundedExecutor;
+import alfio.manager.system.ConfigurationManager;
 import alfio.model.*;
 import alfio.model.modification.AdminReservationModification;
 import alfio.model.modification.AdminReservationModification.CustomerData;
 import alfio.model.result.ErrorCode;
+import alfio.model.system.Configuration;
+import alfio.model.system.ConfigurationKeys;
 import alfio.model.result.Result;
 import alfio.model.user.User;
 import alfio.repository.AdminReservationRequestRepository;
@@ -41,10 +45,15 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PreDestroy;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static alfio.util.OptionalWrapper.optionally;
@@ -52,11 +61,14 @@ import static java.util.Collections.singletonList;
 import static java.util.Optional.ofNullable;
 
 @Component
-@Transactional
 @Log4j2
 @RequiredArgsConstructor
 public class AdminReservationRequestManager {
 
+    private static final int CHUNK_SIZE = 10;
+    private static final int MAX_CHUNKS_PER_RUN = 100;
+    private static final int DEFAULT_PARALLELISM = 2;
+
     private final AdminReservationManager adminReservationManager;
     private final EventManager eventManager;
     private final NamedParameterJdbcTemplate jdbc;
@@ -64,7 +76,10 @@ public class AdminReservationRequestManager {
     private final AdminReservationRequestRepository adminReservationRequestRepository;
     private final EventRepository eventRepository;
     private final PlatformTransactionManager transactionManager;
+    private final ConfigurationManager configurationManager;
+    private final BoundedExecutor pool = new BoundedExecutor("admin-reservation-import", this::getImportParallelism, DEFAULT_PARALLELISM);
 
+    @Transactional(readOnly = true)
     public Result<AdminReservationRequestStats> getRequestStatus(String requestId, String eventName, String username) {
         return eventManager.getOptionalByName(eventName, username)
             .flatMap(e -> adminReservationRequestRepository.findStatsByRequestIdAndEventId(requestId, e.getId()))
@@ -72,6 +87,7 @@ public class AdminReservationRequestManager {
             .orElseGet(() -> Result.error(ErrorCode.EventError.ACCESS_DENIED));
     }
 
+    @Transactional
     public Result<String> scheduleReservations(String eventName,
                                                AdminReservationModification body,
                                                boolean singleReservation,
@@ -90,8 +106,54 @@ public class AdminReservationRequestManager {
             .orElseGet(() -> Result.error(ErrorCode.ReservationError.UPDATE_FAILED));
     }
 
+    /**
+     * Process the pending requests using {@link ConfigurationKeys#ADMIN_RESERVATION_IMPORT_PARALLELISM} workers.
+     * <p>
+     * Each worker claims chunks of {@value #CHUNK_SIZE} requests using <tt>for update skip locked</tt>, so that concurrent
+     * workers, on this or on other nodes, never process the same request. The claim transaction is committed after
+     * each chunk, therefore progress is immediately visible through {@link #getRequestStatus(String, String, String)}.
+     *
+     * @return successful and failed requests
+     */
     public Pair<Integer, Integer> processPendingReservations() {
-        Map<Boolean, List<MapSqlParameterSource>> result = adminReservationRequestRepository.findPendingForUpdate(1000)
+        ThreadPoolExecutor executor = pool.get();
+        List<Future<Pair<Integer, Integer>>> workers = IntStream.range(0, executor.getMaximumPoolSize())
+            .mapToObj(i -> executor.submit(this::processChunks))
+            .collect(Collectors.toList());
+        int success = 0;
+        int failure = 0;
+        for (Future<Pair<Integer, Integer>> worker : workers) {
+            try {
+                Pair<Integer, Integer> result = worker.get();
+                success += result.getLeft();
+                failure += result.getRight();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                log.error("unexpected error while processing reservation requests", e.getCause());
+            }
+        }
+        return Pair.of(success, failure);
+    }
+
+    private Pair<Integer, Integer> processChunks() {
+        TransactionTemplate claim = new TransactionTemplate(transactionManager);
+        int success = 0;
+        int failure = 0;
+        for(int i = 0; i < MAX_CHUNKS_PER_RUN; i++) {
+            Pair<Integer, Integer> result = claim.execute(status -> processChunk());
+            success += result.getLeft();
+            failure += result.getRight();
+            if(result.getLeft() + result.getRight() < CHUNK_SIZE) {
+                break;
+            }
+        }
+        return Pair.of(success, failure);
+    }
+
+    private Pair<Integer, Integer> processChunk() {
+        Map<Boolean, List<MapSqlParameterSource>> result = adminReservationRequestRepository.findPendingForUpdate(CHUNK_SIZE)
             .stream()
             .map(id -> {
                 AdminReservationRequest request = adminReservationRequestRepository.fetchCompleteById(id);
@@ -177,4 +239,13 @@ public class AdminReservationRequestManager {
             });
     }
 
+    private int getImportParallelism() {
+        return configurationManager.getIntConfigValue(Configuration.getSystemConfiguration(ConfigurationKeys.ADMIN_RESERVATION_IMPORT_PARALLELISM), DEFAULT_PARALLELISM);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
 }
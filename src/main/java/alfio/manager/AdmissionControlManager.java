@@ -0,0 +1,257 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.MetricsProvider;
+import alfio.model.AdmissionQueue;
+import alfio.model.Event;
+import alfio.model.system.Configuration;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.AdmissionControlRepository;
+import alfio.repository.system.ConfigurationRepository;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Admission control in front of the reservation process.
+ * <p>
+ * When {@link ConfigurationKeys#ADMISSION_CONTROL_ENABLED} is active, every buyer receives a signed queue token which
+ * contains their position in the queue. Buyers are admitted at the rate defined by {@link ConfigurationKeys#ADMISSION_CONTROL_RATE}
+ * and at most {@link ConfigurationKeys#ADMISSION_CONTROL_MAX_CONCURRENT} reservations per event are processed at the same time.
+ * <p>
+ * The queue positions, the admissions and the concurrency permits are stored in the database, and the tokens are signed
+ * using {@link ConfigurationKeys#ADMISSION_CONTROL_SECRET}, therefore all the nodes share the same queue and limits, and
+ * tokens remain valid after a restart.
+ */
+@Component
+@Log4j2
+public class AdmissionControlManager implements MetricsProvider {
+
+    private static final long CONCURRENCY_WAIT_MILLIS = 2_000;
+    private static final long PERMIT_POLL_MILLIS = 100;
+    // a permit is released automatically if the node holding it dies
+    private static final int PERMIT_LEASE_SECONDS = 60;
+    private static final long TOKEN_VALIDITY_MILLIS = TimeUnit.HOURS.toMillis(2);
+
+    private final ConfigurationManager configurationManager;
+    private final ConfigurationRepository configurationRepository;
+    private final AdmissionControlRepository admissionControlRepository;
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile HmacUtils hmac;
+
+    public AdmissionControlManager(ConfigurationManager configurationManager,
+                                   ConfigurationRepository configurationRepository,
+                                   AdmissionControlRepository admissionControlRepository) {
+        this.configurationManager = configurationManager;
+        this.configurationRepository = configurationRepository;
+        this.admissionControlRepository = admissionControlRepository;
+    }
+
+    /**
+     * Check whether the given event has admission control enabled.
+     */
+    public boolean isEnabled(Event event) {
+        return configurationManager.getBooleanConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), ConfigurationKeys.ADMISSION_CONTROL_ENABLED), false);
+    }
+
+    /**
+     * Check whether the holder of the given token can start a reservation for the given event.
+     * If the token is missing or not valid, a new one is issued at the end of the queue.
+     *
+     * @param event the event
+     * @param token the queue token, if present
+     * @return the admission status
+     */
+    public Admission checkAdmission(Event event, Optional<String> token) {
+        if(!isEnabled(event)) {
+            return Admission.ADMITTED_WITHOUT_TOKEN;
+        }
+        long now = System.currentTimeMillis();
+        int rate = rate(event);
+        Optional<Pair<Long, Long>> existing = token.flatMap(t -> parseToken(t, event.getId(), now));
+        AdmissionQueue queue = refill(event.getId(), existing.isPresent() ? 0 : 1, rate);
+        long position = existing.map(Pair::getLeft).orElse(queue.getLastPosition());
+        long admitted = (long) queue.getAdmitted();
+        String signedToken = signToken(event.getId(), position, existing.map(Pair::getRight).orElse(now));
+        if(position <= admitted) {
+            return new Admission(true, signedToken, 0, 0);
+        }
+        long ahead = position - admitted;
+        return new Admission(false, signedToken, ahead, (long) Math.ceil(ahead / (double) rate));
+    }
+
+    /**
+     * Run the given reservation task, making sure that no more than {@link ConfigurationKeys#ADMISSION_CONTROL_MAX_CONCURRENT}
+     * tasks are running at the same time for the given event, on all the nodes.
+     *
+     * @throws TooManyConcurrentReservationsException if the task could not be started within a reasonable time
+     */
+    public <T> T runAdmitted(Event event, Supplier<T> task) {
+        if(!isEnabled(event)) {
+            return task.get();
+        }
+        int maxConcurrent = Math.max(1, configurationManager.getIntConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), ConfigurationKeys.ADMISSION_CONTROL_MAX_CONCURRENT), 10));
+        String holder = UUID.randomUUID().toString();
+        int slot = acquirePermit(event.getId(), maxConcurrent, holder);
+        try {
+            return task.get();
+        } finally {
+            admissionControlRepository.releasePermit(event.getId(), slot, holder);
+        }
+    }
+
+    private AdmissionQueue refill(int eventId, int increment, int rate) {
+        Optional<AdmissionQueue> queue = admissionControlRepository.refill(eventId, increment, rate);
+        if(queue.isPresent()) {
+            return queue.get();
+        }
+        admissionControlRepository.createQueue(eventId, rate);
+        return admissionControlRepository.refill(eventId, increment, rate).orElseThrow(IllegalStateException::new);
+    }
+
+    private int acquirePermit(int eventId, int maxConcurrent, String holder) {
+        long deadline = System.currentTimeMillis() + CONCURRENCY_WAIT_MILLIS;
+        boolean permitsCreated = false;
+        try {
+            while(true) {
+                Optional<Integer> slot = admissionControlRepository.acquirePermit(eventId, maxConcurrent, holder, PERMIT_LEASE_SECONDS);
+                if(slot.isPresent()) {
+                    return slot.get();
+                }
+                if(!permitsCreated) {
+                    // the limit might have been raised since the permits were created
+                    permitsCreated = true;
+                    if(admissionControlRepository.createPermits(eventId, maxConcurrent) > 0) {
+                        continue;
+                    }
+                }
+                if(System.currentTimeMillis() >= deadline) {
+                    rejected.incrementAndGet();
+                    throw new TooManyConcurrentReservationsException();
+                }
+                Thread.sleep(PERMIT_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TooManyConcurrentReservationsException();
+        }
+    }
+
+    private int rate(Event event) {
+        return Math.max(1, configurationManager.getIntConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), ConfigurationKeys.ADMISSION_CONTROL_RATE), 10));
+    }
+
+    private HmacUtils hmac() {
+        if(hmac == null) {
+            synchronized (this) {
+                if(hmac == null) {
+                    String key = ConfigurationKeys.ADMISSION_CONTROL_SECRET.getValue();
+                    byte[] secret = new byte[32];
+                    new SecureRandom().nextBytes(secret);
+                    // the first node wins, the others will read its secret
+                    configurationRepository.insertIfAbsent(key, Hex.encodeHexString(secret), ConfigurationKeys.ADMISSION_CONTROL_SECRET.getDescription());
+                    hmac = new HmacUtils(HmacAlgorithms.HMAC_SHA_256, configurationRepository.findByKey(key).getValue());
+                }
+            }
+        }
+        return hmac;
+    }
+
+    private String signToken(int eventId, long position, long issuedAt) {
+        String payload = eventId + "." + position + "." + issuedAt;
+        return payload + "." + hmac().hmacHex(payload);
+    }
+
+    /**
+     * @return position and issue timestamp, if the token is valid for the given event
+     */
+    private Optional<Pair<Long, Long>> parseToken(String token, int eventId, long now) {
+        String[] parts = StringUtils.split(token, '.');
+        if(parts == null || parts.length != 4) {
+            return Optional.empty();
+        }
+        String payload = StringUtils.join(parts, '.', 0, 3);
+        boolean valid = MessageDigest.isEqual(hmac().hmacHex(payload).getBytes(StandardCharsets.UTF_8), parts[3].getBytes(StandardCharsets.UTF_8))
+            && Integer.toString(eventId).equals(parts[0]);
+        if(!valid) {
+            return Optional.empty();
+        }
+        try {
+            long issuedAt = Long.parseLong(parts[2]);
+            return now - issuedAt > TOKEN_VALIDITY_MILLIS ? Optional.empty() : Optional.of(Pair.of(Long.parseLong(parts[1]), issuedAt));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "admission-control";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        Map<String, Object> events = new LinkedHashMap<>();
+        admissionControlRepository.findActiveQueues().forEach(queue -> {
+            Map<String, Object> q = new LinkedHashMap<>();
+            long admitted = (long) queue.getAdmitted();
+            q.put("issued", queue.getLastPosition());
+            q.put("admitted", admitted);
+            q.put("waiting", queue.getLastPosition() - admitted);
+            q.put("running", queue.getRunning());
+            q.put("rate", queue.getRate());
+            events.put(Integer.toString(queue.getEventId()), q);
+        });
+        metrics.put("rejected", rejected.get());
+        metrics.put("events", events);
+        return metrics;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Admission {
+        private static final Admission ADMITTED_WITHOUT_TOKEN = new Admission(true, null, 0, 0);
+
+        private final boolean admitted;
+        private final String token;
+        private final long position;
+        private final long estimatedWaitSeconds;
+    }
+
+    public static class TooManyConcurrentReservationsException extends RuntimeException {
+    }
+}
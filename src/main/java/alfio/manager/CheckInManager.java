@@ -29,6 +29,8 @@ import alfio.repository.user.OrganizationRepository;
 import alfio.repository.user.UserRepository;
 import alfio.util.Json;
 import alfio.util.MonetaryUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.gson.reflect.TypeToken;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -40,7 +42,11 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
@@ -53,6 +59,7 @@ import java.security.GeneralSecurityException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
@@ -82,6 +89,16 @@ public class CheckInManager {
     private final TicketReservationManager ticketReservationManager;
     private final ExtensionManager extensionManager;
     private final AdditionalServiceItemRepository additionalServiceItemRepository;
+    private final OfflineCheckInCache offlineCheckInCache;
+    private final PlatformTransactionManager transactionManager;
+
+    /**
+     * The key derivation is expensive by design. Derived keys are cached, indexed by the hash of the original key.
+     */
+    private static final Cache<String, SecretKeySpec> DERIVED_KEYS = Caffeine.newBuilder()
+        .maximumSize(50_000)
+        .expireAfterAccess(12, TimeUnit.HOURS)
+        .build();
 
 
     private void checkIn(String uuid) {
@@ -145,6 +162,77 @@ public class CheckInManager {
         return descriptor;
     }
 
+    /**
+     * Checks in the given tickets in a single transaction.
+     * All tickets are loaded and locked with one query and validated in memory, then they are updated and audited
+     * with set-based statements. Each ticket is validated (and confirmed, if it must be paid on site) within its own
+     * savepoint: a ticket which cannot be processed is reported as failed, without affecting the others.
+     *
+     * @param eventShortName the event
+     * @param ticketCodes the scanned codes, by ticket identifier
+     * @param username the current user
+     * @param auditUser the user who performed the scans
+     * @param automaticallyConfirmOnSitePayment whether the tickets which must be paid on site should be confirmed
+     * @return the result for each ticket identifier
+     */
+    public Map<String, TicketAndCheckInResult> bulkCheckIn(String eventShortName, Map<String, String> ticketCodes, String username, String auditUser,
+                                                           boolean automaticallyConfirmOnSitePayment) {
+        Optional<Event> maybeEvent = eventRepository.findOptionalByShortName(eventShortName)
+            .filter(EventManager.checkOwnership(username, organizationRepository));
+        Map<String, TicketAndCheckInResult> results = new LinkedHashMap<>();
+        if(!maybeEvent.isPresent() || ticketCodes.isEmpty()) {
+            ticketCodes.keySet().forEach(id -> results.put(id, new TicketAndCheckInResult(null, new DefaultCheckInResult(CheckInStatus.EVENT_NOT_FOUND, "event not found"))));
+            return results;
+        }
+
+        Event event = maybeEvent.get();
+        Map<String, Ticket> tickets = ticketRepository.findByUUIDsForUpdate(ticketCodes.keySet()).stream()
+            .collect(toMap(Ticket::getUuid, Function.identity()));
+        Set<Integer> categoryIds = tickets.values().stream().map(Ticket::getCategoryId).filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<Integer, TicketCategory> categories = categoryIds.isEmpty() ? Collections.emptyMap() : ticketCategoryRepository.findByIds(categoryIds).stream()
+            .collect(toMap(TicketCategory::getId, Function.identity()));
+
+        TransactionTemplate savepoint = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED));
+        List<Integer> toBeCheckedIn = new ArrayList<>();
+        for (Map.Entry<String, String> entry : ticketCodes.entrySet()) {
+            String ticketIdentifier = entry.getKey();
+            Optional<Ticket> ticket = Optional.ofNullable(tickets.get(ticketIdentifier));
+            TicketAndCheckInResult descriptor;
+            try {
+                descriptor = savepoint.execute(s -> prepareForBulkCheckIn(maybeEvent, ticket, ticketIdentifier, Optional.ofNullable(entry.getValue()),
+                    categories::get, automaticallyConfirmOnSitePayment));
+            } catch (RuntimeException e) {
+                log.warn("cannot check in ticket " + ticketIdentifier + " in event " + eventShortName, e);
+                descriptor = new TicketAndCheckInResult(null, new DefaultCheckInResult(INVALID_TICKET_STATE, "Error: the ticket cannot be checked in"));
+            }
+            if(descriptor.getResult().getStatus() == OK_READY_TO_BE_CHECKED_IN) {
+                toBeCheckedIn.add(ticket.get().getId());
+                results.put(ticketIdentifier, new TicketAndCheckInResult(descriptor.getTicket(), new DefaultCheckInResult(SUCCESS, "success")));
+            } else {
+                results.put(ticketIdentifier, descriptor);
+            }
+        }
+
+        if(!toBeCheckedIn.isEmpty()) {
+            Validate.isTrue(ticketRepository.checkInTickets(toBeCheckedIn) == toBeCheckedIn.size(), "unexpected number of tickets checked in");
+            scanAuditRepository.insertForTickets(toBeCheckedIn, event.getId(), ZonedDateTime.now(), auditUser, SUCCESS, ScanAudit.Operation.SCAN);
+            auditingRepository.insertForTickets(toBeCheckedIn, userRepository.findIdByUserName(auditUser).orElse(null), Audit.EventType.CHECK_IN, new Date());
+            extensionManager.handleTicketsCheckedIn(event, ticketRepository.findByIds(toBeCheckedIn));
+        }
+        return results;
+    }
+
+    private TicketAndCheckInResult prepareForBulkCheckIn(Optional<Event> maybeEvent, Optional<Ticket> ticket, String ticketIdentifier, Optional<String> ticketCode,
+                                                         Function<Integer, TicketCategory> categoryLoader, boolean automaticallyConfirmOnSitePayment) {
+        TicketAndCheckInResult descriptor = extractStatus(maybeEvent, ticket, ticketIdentifier, ticketCode, categoryLoader);
+        if(automaticallyConfirmOnSitePayment && descriptor.getResult().getStatus() == MUST_PAY) {
+            log.info("in event {} automaticallyConfirmOnSitePayment for {}", maybeEvent.map(Event::getShortName).orElse(null), ticketIdentifier);
+            acquire(ticketIdentifier);
+            return new TicketAndCheckInResult(descriptor.getTicket(), new DefaultCheckInResult(OK_READY_TO_BE_CHECKED_IN, "Ready to be checked in"));
+        }
+        return descriptor;
+    }
+
     public boolean manualCheckIn(int eventId, String ticketIdentifier, String user) {
         Optional<Ticket> ticket = findAndLockTicket(ticketIdentifier);
         return ticket.map((t) -> {
@@ -196,6 +284,11 @@ public class CheckInManager {
     }
 
     private TicketAndCheckInResult extractStatus(Optional<Event> maybeEvent, Optional<Ticket> maybeTicket, String ticketIdentifier, Optional<String> ticketCode) {
+        return extractStatus(maybeEvent, maybeTicket, ticketIdentifier, ticketCode, ticketCategoryRepository::getById);
+    }
+
+    private TicketAndCheckInResult extractStatus(Optional<Event> maybeEvent, Optional<Ticket> maybeTicket, String ticketIdentifier, Optional<String> ticketCode,
+                                                 Function<Integer, TicketCategory> categoryLoader) {
 
         if (!maybeEvent.isPresent()) {
             return new TicketAndCheckInResult(null, new DefaultCheckInResult(EVENT_NOT_FOUND, "Event not found"));
@@ -217,7 +310,7 @@ public class CheckInManager {
             return new TicketAndCheckInResult(new TicketWithCategory(ticket, null), new DefaultCheckInResult(INVALID_TICKET_STATE, "Invalid ticket state"));
         }
 
-        TicketCategory tc = ticketCategoryRepository.getById(ticket.getCategoryId());
+        TicketCategory tc = categoryLoader.apply(ticket.getCategoryId());
 
         ZonedDateTime now = ZonedDateTime.now(event.getZoneId());
         if(!tc.hasValidCheckIn(now, event.getZoneId())) {
@@ -252,15 +345,23 @@ public class CheckInManager {
     }
 
     private static Pair<Cipher, SecretKeySpec>  getCypher(String key) {
+        try {
+            SecretKeySpec secret = DERIVED_KEYS.get(DigestUtils.sha256Hex(key), k -> deriveKey(key));
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            return Pair.of(cipher, secret);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SecretKeySpec deriveKey(String key) {
         try {
             SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
             int iterations = 1000;
             int keyLength = 256;
             PBEKeySpec spec = new PBEKeySpec(key.toCharArray(), key.getBytes(StandardCharsets.UTF_8), iterations, keyLength);
             SecretKey secretKey = factory.generateSecret(spec);
-            SecretKeySpec secret = new SecretKeySpec(secretKey.getEncoded(), "AES");
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            return Pair.of(cipher, secret);
+            return new SecretKeySpec(secretKey.getEncoded(), "AES");
         } catch (GeneralSecurityException e) {
             throw new IllegalStateException(e);
         }
@@ -330,6 +431,11 @@ public class CheckInManager {
         return Optional.ofNullable(ev).filter(isOfflineCheckInEnabled()).map(event -> {
             Map<Integer, TicketCategory> categories = ticketCategoryRepository.findByEventIdAsMap(event.getId());
             String eventKey = event.getPrivateKey();
+            List<FullTicketInfo> tickets = ticketRepository.findAllFullTicketInfoAssignedByEventId(event.getId(), ids);
+            Map<Integer, List<TicketFieldValueAndDescription>> fieldValues = additionalFields.isEmpty() || tickets.isEmpty() ? Collections.emptyMap() :
+                ticketFieldRepository.findValuesForTicketIds(tickets.stream().map(FullTicketInfo::getId).collect(Collectors.toList()), additionalFields).stream()
+                    .collect(Collectors.groupingBy(TicketFieldValueAndDescription::getTicketId));
+            Map<Pair<String, String>, List<BookedAdditionalService>> bookedAdditionalServices = new HashMap<>();
 
             Function<FullTicketInfo, String> hashedHMAC = ticket -> DigestUtils.sha256Hex(ticket.hmacTicketInfo(eventKey));
 
@@ -345,7 +451,7 @@ public class CheckInManager {
                 if (!additionalFields.isEmpty()) {
                     Map<String, String> fields = new HashMap<>();
                     fields.put("company", trimToEmpty(ticket.getBillingDetails().getCompanyName()));
-                    fields.putAll(ticketFieldRepository.findValueForTicketId(ticket.getId(), additionalFields).stream()
+                    fields.putAll(fieldValues.getOrDefault(ticket.getId(), Collections.emptyList()).stream()
                         .map(vd -> {
                             try {
                                 if(StringUtils.isNotBlank(vd.getDescription())) {
@@ -376,7 +482,8 @@ public class CheckInManager {
                 }
                 //
 
-                List<BookedAdditionalService> additionalServices = additionalServiceItemRepository.getAdditionalServicesBookedForReservation(ticket.getTicketsReservationId(), ticket.getUserLanguage(), ticket.getEventId());
+                List<BookedAdditionalService> additionalServices = bookedAdditionalServices.computeIfAbsent(Pair.of(ticket.getTicketsReservationId(), ticket.getUserLanguage()),
+                    k -> additionalServiceItemRepository.getAdditionalServicesBookedForReservation(k.getLeft(), k.getRight(), ticket.getEventId()));
                 boolean additionalServicesEmpty = additionalServices.isEmpty();
                 if(!additionalServicesEmpty) {
                     List<Integer> additionalServiceIds = additionalServices.stream().map(BookedAdditionalService::getAdditionalServiceId).collect(Collectors.toList());
@@ -389,10 +496,9 @@ public class CheckInManager {
                     info.put("additionalServicesInfoJson", Json.toJson(additionalServicesInfo));
                 }
                 String key = ticket.ticketCode(eventKey);
-                return encrypt(key, Json.toJson(info));
+                return offlineCheckInCache.getEncryptedPayload(ticket.getId(), key, Json.toJson(new TreeMap<>(info)), CheckInManager::encrypt);
             };
-            return ticketRepository.findAllFullTicketInfoAssignedByEventId(event.getId(), ids)
-                .stream()
+            return tickets.stream()
                 .collect(toMap(hashedHMAC, encryptedBody));
 
         }).orElseGet(Collections::emptyMap);
@@ -0,0 +1,124 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.Mailer;
+import alfio.manager.system.MetricsProvider;
+import alfio.model.system.Configuration;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.EmailAttachmentCacheRepository;
+import alfio.util.Json;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Content-addressed store for the rendered e-mail attachments. The key is derived from the attachment identifier
+ * and its model, so that a message which has to be retried doesn't need to be rendered again.
+ */
+@Component
+@Log4j2
+@RequiredArgsConstructor
+public class EmailAttachmentCacheManager implements MetricsProvider {
+
+    //a message is retried for about one hour (see NotificationManager), therefore there's no need to keep the entries longer
+    static final int ENTRY_TTL_HOURS = 2;
+    private static final int DEFAULT_MAX_SIZE_MB = 200;
+
+    private final EmailAttachmentCacheRepository repository;
+    private final NamedParameterJdbcTemplate jdbc;
+    private final ConfigurationManager configurationManager;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public byte[] getOrRender(Mailer.AttachmentIdentifier identifier, Map<String, String> model, Function<Map<String, String>, byte[]> renderer) {
+        String key = computeKey(identifier, model);
+        Optional<byte[]> cached = load(key);
+        if(cached.isPresent()) {
+            hits.incrementAndGet();
+            return cached.get();
+        }
+        misses.incrementAndGet();
+        byte[] result = renderer.apply(model);
+        if(result != null && result.length > 0) {
+            store(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Store an attachment which has been rendered in advance, i.e. while sending messages in bulk.
+     */
+    public void store(Mailer.AttachmentIdentifier identifier, Map<String, String> model, byte[] content) {
+        if(content != null && content.length > 0) {
+            store(computeKey(identifier, model), content);
+        }
+    }
+
+    public void cleanup() {
+        int expired = repository.deleteOlderThan(DateUtils.addHours(new Date(), -ENTRY_TTL_HOURS));
+        long maxSize = configurationManager.getIntConfigValue(Configuration.getSystemConfiguration(ConfigurationKeys.EMAIL_ATTACHMENT_CACHE_MAX_SIZE), DEFAULT_MAX_SIZE_MB) * 1024L * 1024L;
+        int evicted = repository.evictExceeding(maxSize);
+        log.debug("removed {} expired and {} exceeding email_attachment_cache entries", expired, evicted);
+    }
+
+    static String computeKey(Mailer.AttachmentIdentifier identifier, Map<String, String> model) {
+        return DigestUtils.sha256Hex(identifier.name() + Json.toJson(new TreeMap<>(Optional.ofNullable(model).orElse(Collections.emptyMap()))));
+    }
+
+    private Optional<byte[]> load(String key) {
+        List<byte[]> result = jdbc.query(repository.contentTemplate(), new MapSqlParameterSource("checksum", key), (rs, rowNum) -> rs.getBytes("content"));
+        return result.stream().findFirst();
+    }
+
+    private void store(String key, byte[] content) {
+        try {
+            repository.insert(key, content, content.length);
+        } catch (DataIntegrityViolationException e) {
+            //the same attachment has been rendered concurrently by another node
+            log.trace("attachment {} is already present", key);
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "email-attachment-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long h = hits.get();
+        long m = misses.get();
+        metrics.put("hits", h);
+        metrics.put("misses", m);
+        metrics.put("hitRatio", h + m > 0 ? (double) h / (h + m) : 0d);
+        metrics.put("entries", repository.count());
+        metrics.put("sizeBytes", repository.totalSize());
+        return metrics;
+    }
+}
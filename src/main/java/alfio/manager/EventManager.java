@@ -18,6 +18,8 @@ package alfio.manager;
 
 import alfio.config.Initializer;
 import alfio.manager.support.CategoryEvaluator;
+import alfio.manager.support.EventPageCache;
+import alfio.manager.support.OrderSummaryCache;
 import alfio.manager.system.ConfigurationManager;
 import alfio.manager.user.UserManager;
 import alfio.model.*;
@@ -67,6 +69,7 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static alfio.model.modification.DateTimeModification.toZonedDateTime;
@@ -85,6 +88,7 @@ import static java.util.stream.Collectors.toList;
 public class EventManager {
 
     private static final Predicate<TicketCategory> IS_CATEGORY_BOUNDED = TicketCategory::isBounded;
+    static final int EXPORT_CHUNK_SIZE = 500;
     private final UserManager userManager;
     private final EventRepository eventRepository;
     private final EventDescriptionRepository eventDescriptionRepository;
@@ -105,6 +109,8 @@ public class EventManager {
     private final AuditingRepository auditingRepository;
     private final ExtensionManager extensionManager;
     private final GroupRepository groupRepository;
+    private final EventPageCache eventPageCache;
+    private final OrderSummaryCache orderSummaryCache;
 
 
     public Event getSingleEvent(String eventName, String username) {
@@ -183,6 +189,7 @@ public class EventManager {
         }
         Event.Status status = activate ? Event.Status.PUBLIC : Event.Status.DRAFT;
         eventRepository.updateEventStatus(id, status);
+        eventPageCache.invalidate(id);
         extensionManager.handleEventStatusChange(event, status);
     }
 
@@ -296,7 +303,7 @@ public class EventManager {
             begin, end, em.getZoneId(), em.getOrganizationId(), em.getLocales());
 
         createOrUpdateEventDescription(eventId, em);
-
+        eventPageCache.invalidate(eventId);
 
         if(!original.getBegin().equals(begin) || !original.getEnd().equals(end)) {
             fixOutOfRangeCategories(em, username, zoneId, end);
@@ -321,6 +328,8 @@ public class EventManager {
         String paymentProxies = collectPaymentProxies(em);
         BigDecimal vat = em.isFreeOfCharge() ? BigDecimal.ZERO : em.getVatPercentage();
         eventRepository.updatePrices(em.getCurrency(), em.getAvailableSeats(), em.isVatIncluded(), vat, paymentProxies, eventId, em.getVatStatus(), em.getPriceInCents());
+        eventPageCache.invalidate(eventId);
+        orderSummaryCache.invalidateAll();
         if(seatsDifference != 0) {
             Event modified = eventRepository.findById(eventId);
             if(seatsDifference > 0) {
@@ -449,6 +458,7 @@ public class EventManager {
     }
 
     void reallocateTickets(TicketCategoryStatisticView src, Optional<TicketCategory> target, Event event) {
+        eventPageCache.invalidate(event.getId());
         int notSoldTickets = src.getNotSoldTicketsCount();
         if(notSoldTickets == 0) {
             log.debug("since all the ticket have been sold, ticket moving is not needed anymore.");
@@ -551,6 +561,7 @@ public class EventManager {
     private Integer insertCategory(TicketCategoryModification tc, Event event) {
         ZoneId zoneId = event.getZoneId();
         int eventId = event.getId();
+        eventPageCache.invalidate(eventId);
         final int price = evaluatePrice(tc.getPriceInCents(), event.isFreeOfCharge());
         final AffectedRowCountAndKey<Integer> category = ticketCategoryRepository.insert(tc.getInception().toZonedDateTime(zoneId),
             tc.getExpiration().toZonedDateTime(zoneId), tc.getName(), tc.isBounded() ? tc.getMaxTickets() : 0, tc.isTokenGenerationRequested(), eventId, tc.isBounded(), price, StringUtils.trimToNull(tc.getCode()),
@@ -602,6 +613,8 @@ public class EventManager {
                                 boolean resetTicketsToFree) {
 
         int eventId = event.getId();
+        eventPageCache.invalidate(eventId);
+        orderSummaryCache.invalidateAll();
         final int price = evaluatePrice(tc.getPriceInCents(), freeOfCharge);
         TicketCategory original = ticketCategoryRepository.getByIdAndActive(tc.getId(), eventId);
         ticketCategoryRepository.update(tc.getId(), tc.getName(), tc.getInception().toZonedDateTime(zoneId),
@@ -787,6 +800,9 @@ public class EventManager {
         //
 
         promoCodeRepository.addPromoCode(promoCode, eventId, organizationId, start, end, discountAmount, discountType.toString(), Json.GSON.toJson(categoriesId), maxUsage);
+        if(eventId != null) {
+            eventPageCache.invalidate(eventId);
+        }
     }
     
     public void deletePromoCode(int promoCodeId) {
@@ -796,6 +812,7 @@ public class EventManager {
     public void updatePromoCode(int promoCodeId, ZonedDateTime start, ZonedDateTime end, Integer maxUsage, List<Integer> categories) {
         String categoriesJson = CollectionUtils.isEmpty(categories) ? null : Json.toJson(categories);
         promoCodeRepository.updateEventPromoCode(promoCodeId, start, end, maxUsage, categoriesJson);
+        orderSummaryCache.invalidateAll();
     }
     
     public List<PromoCodeDiscountWithFormattedTime> findPromoCodesInEvent(int eventId) {
@@ -812,10 +829,22 @@ public class EventManager {
         return StringUtils.removeEnd(configurationManager.getRequiredValue(Configuration.from(event.getOrganizationId(), event.getId(), ConfigurationKeys.BASE_URL)), "/") + "/event/" + event.getShortName() + "/";
     }
 
-    public List<TicketWithReservationAndTransaction> findAllConfirmedTicketsForCSV(String eventName, String username) {
+    /**
+     * Returns the confirmed tickets of the given event, together with the values of their additional fields.
+     * The tickets are loaded lazily, {@value #EXPORT_CHUNK_SIZE} at a time, therefore the stream can be written
+     * directly to the output without keeping the whole event in memory.
+     */
+    public Stream<Pair<TicketWithReservationAndTransaction, Map<String, String>>> streamAllConfirmedTicketsForCSV(String eventName, String username) {
         Event event = getSingleEvent(eventName, username);
         checkOwnership(event, username, event.getOrganizationId());
-        return ticketRepository.findAllConfirmedForCSV(event.getId());
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(ticketRepository.findAllConfirmedIdsForCSV(event.getId())));
+        return IntStream.range(0, (ids.size() + EXPORT_CHUNK_SIZE - 1) / EXPORT_CHUNK_SIZE)
+            .mapToObj(i -> ids.subList(i * EXPORT_CHUNK_SIZE, Math.min(ids.size(), (i + 1) * EXPORT_CHUNK_SIZE)))
+            .flatMap(chunk -> {
+                Map<Integer, Map<String, String>> values = ticketFieldRepository.findAllValuesForTicketIds(chunk);
+                return ticketRepository.findConfirmedForCSV(chunk).stream()
+                    .map(t -> Pair.of(t, values.getOrDefault(t.getTicket().getId(), Collections.emptyMap())));
+            });
     }
 
     public List<Event> getPublishedEvents() {
@@ -917,7 +946,7 @@ public class EventManager {
         eventDeleterRepository.deleteScanAudit(eventId);
 		
 		eventDeleterRepository.deleteEvent(eventId);
-		
+		eventPageCache.invalidate(eventId);
 	}
 
     public void disableEventsFromUsers(List<Integer> userIds) {
@@ -0,0 +1,163 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.MetricsProvider;
+import alfio.model.Event;
+import alfio.model.ReservationIdAndEventId;
+import alfio.model.system.Configuration;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.*;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Removes the expired PENDING reservations in chunks. Each chunk is locked using "skip locked" and processed in its own
+ * short transaction, so that the tickets are not kept locked while the whole backlog is processed.
+ */
+@Component
+@Log4j2
+public class ExpiredReservationProcessor implements MetricsProvider {
+
+    private static final int DEFAULT_BATCH_SIZE = 200;
+
+    private final TicketReservationRepository ticketReservationRepository;
+    private final TicketRepository ticketRepository;
+    private final TicketFieldRepository ticketFieldRepository;
+    private final SpecialPriceRepository specialPriceRepository;
+    private final EventRepository eventRepository;
+    private final WaitingQueueManager waitingQueueManager;
+    private final ExtensionManager extensionManager;
+    private final ConfigurationManager configurationManager;
+    private final TransactionTemplate tx;
+
+    private final AtomicLong totalReservationsFreed = new AtomicLong();
+    private final AtomicLong totalTicketsReleased = new AtomicLong();
+    private volatile RunResult lastRun = new RunResult(0, 0, 0, 0);
+
+    public ExpiredReservationProcessor(TicketReservationRepository ticketReservationRepository,
+                                       TicketRepository ticketRepository,
+                                       TicketFieldRepository ticketFieldRepository,
+                                       SpecialPriceRepository specialPriceRepository,
+                                       EventRepository eventRepository,
+                                       WaitingQueueManager waitingQueueManager,
+                                       ExtensionManager extensionManager,
+                                       ConfigurationManager configurationManager,
+                                       PlatformTransactionManager transactionManager) {
+        this.ticketReservationRepository = ticketReservationRepository;
+        this.ticketRepository = ticketRepository;
+        this.ticketFieldRepository = ticketFieldRepository;
+        this.specialPriceRepository = specialPriceRepository;
+        this.eventRepository = eventRepository;
+        this.waitingQueueManager = waitingQueueManager;
+        this.extensionManager = extensionManager;
+        this.configurationManager = configurationManager;
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    public RunResult cleanupExpiredReservations(Date expirationDate) {
+        long start = System.currentTimeMillis();
+        int batchSize = Math.max(1, configurationManager.getIntConfigValue(Configuration.getSystemConfiguration(ConfigurationKeys.EXPIRED_RESERVATIONS_BATCH_SIZE), DEFAULT_BATCH_SIZE));
+        int reservations = 0;
+        int tickets = 0;
+        int batches = 0;
+        BatchResult result;
+        do {
+            result = tx.execute(status -> processBatch(expirationDate, batchSize));
+            reservations += result.getReservations();
+            tickets += result.getTickets();
+            if(result.getReservations() > 0) {
+                batches++;
+            }
+        } while (result.getReservations() == batchSize);
+
+        RunResult runResult = new RunResult(reservations, tickets, batches, System.currentTimeMillis() - start);
+        totalReservationsFreed.addAndGet(reservations);
+        totalTicketsReleased.addAndGet(tickets);
+        lastRun = runResult;
+        if(reservations > 0) {
+            log.info("removed {} expired reservations, released {} tickets in {} batches ({} ms)", reservations, tickets, batches, runResult.getDurationMillis());
+        }
+        return runResult;
+    }
+
+    private BatchResult processBatch(Date expirationDate, int batchSize) {
+        List<String> expiredReservationIds = ticketReservationRepository.findExpiredReservationForUpdate(expirationDate, batchSize);
+        if(expiredReservationIds.isEmpty()) {
+            return new BatchResult(0, 0);
+        }
+
+        specialPriceRepository.resetToFreeAndCleanupForReservation(expiredReservationIds);
+        ticketRepository.resetCategoryIdForUnboundedCategories(expiredReservationIds);
+        ticketFieldRepository.deleteAllValuesForReservations(expiredReservationIds);
+        int releasedTickets = ticketRepository.freeFromReservation(expiredReservationIds);
+        waitingQueueManager.cleanExpiredReservations(expiredReservationIds);
+
+        //
+        Map<Integer, List<ReservationIdAndEventId>> reservationIdsByEvent = ticketReservationRepository
+            .getReservationIdAndEventId(expiredReservationIds)
+            .stream()
+            .collect(Collectors.groupingBy(ReservationIdAndEventId::getEventId));
+        reservationIdsByEvent.forEach((eventId, reservations) -> {
+            Event event = eventRepository.findById(eventId);
+            extensionManager.handleReservationsExpiredForEvent(event, reservations.stream().map(ReservationIdAndEventId::getId).collect(Collectors.toList()));
+        });
+        //
+        ticketReservationRepository.remove(expiredReservationIds);
+        return new BatchResult(expiredReservationIds.size(), releasedTickets);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "expired-reservations";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        RunResult run = lastRun;
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("totalReservationsFreed", totalReservationsFreed.get());
+        metrics.put("totalTicketsReleased", totalTicketsReleased.get());
+        metrics.put("lastRunReservationsFreed", run.getReservationsFreed());
+        metrics.put("lastRunTicketsReleased", run.getTicketsReleased());
+        metrics.put("lastRunBatches", run.getBatches());
+        metrics.put("lastRunDurationMillis", run.getDurationMillis());
+        return metrics;
+    }
+
+    @Value
+    private static class BatchResult {
+        int reservations;
+        int tickets;
+    }
+
+    @Value
+    public static class RunResult {
+        int reservationsFreed;
+        int ticketsReleased;
+        int batches;
+        long durationMillis;
+    }
+}
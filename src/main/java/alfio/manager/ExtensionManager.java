@@ -168,10 +168,15 @@ public class ExtensionManager {
     }
 
     public void handleTicketCheckedIn(Ticket ticket) {
-        Map<String, Object> payload = new HashMap<>();
-        Event event = eventRepository.findById(ticket.getEventId());
-        payload.put("ticket", ticket);
-        asyncCall(ExtensionEvent.TICKET_CHECKED_IN, event, event.getOrganizationId(), payload);
+        handleTicketsCheckedIn(eventRepository.findById(ticket.getEventId()), Collections.singletonList(ticket));
+    }
+
+    public void handleTicketsCheckedIn(Event event, List<Ticket> tickets) {
+        for (Ticket ticket : tickets) {
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("ticket", ticket);
+            asyncCall(ExtensionEvent.TICKET_CHECKED_IN, event, event.getOrganizationId(), payload);
+        }
     }
 
     public void handleTicketRevertCheckedIn(Ticket ticket) {
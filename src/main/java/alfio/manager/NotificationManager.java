@@ -17,11 +17,13 @@
 package alfio.manager;
 
 import alfio.controller.support.TemplateProcessor;
+import alfio.manager.support.BoundedExecutor;
 import alfio.manager.support.CustomMessageManager;
 import alfio.manager.support.PartialTicketTextGenerator;
 import alfio.manager.support.TextTemplateGenerator;
 import alfio.manager.system.ConfigurationManager;
 import alfio.manager.system.Mailer;
+import alfio.manager.system.MetricsProvider;
 import alfio.model.*;
 import alfio.model.system.Configuration;
 import alfio.model.system.ConfigurationKeys;
@@ -30,6 +32,7 @@ import alfio.repository.*;
 import alfio.repository.user.OrganizationRepository;
 import alfio.util.EventUtil;
 import alfio.util.Json;
+import alfio.util.PageToken;
 import alfio.util.TemplateManager;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.gson.*;
@@ -43,10 +46,11 @@ import org.springframework.context.MessageSource;
 import org.springframework.security.crypto.codec.Hex;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.ByteArrayOutputStream;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
@@ -55,7 +59,8 @@ import java.security.NoSuchAlgorithmException;
 import java.time.Clock;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -64,9 +69,13 @@ import static alfio.model.EmailMessage.Status.*;
 
 @Component
 @Log4j2
-public class NotificationManager {
+public class NotificationManager implements MetricsProvider {
 
     public static final Clock UTC = Clock.systemUTC();
+    private static final int CLAIM_BATCH_SIZE = 100;
+    private static final int DEFAULT_MAX_EMAIL_PER_CYCLE = 1000;
+    private static final int DEFAULT_DISPATCH_PARALLELISM = 4;
+    private static final int PRERENDER_QUEUE_SIZE = 500;
     private final Mailer mailer;
     private final MessageSource messageSource;
     private final EmailMessageRepository emailMessageRepository;
@@ -75,8 +84,15 @@ public class NotificationManager {
     private final OrganizationRepository organizationRepository;
     private final ConfigurationManager configurationManager;
     private final Gson gson;
+    private final EmailAttachmentCacheManager attachmentCacheManager;
 
     private final EnumMap<Mailer.AttachmentIdentifier, Function<Map<String, String>, byte[]>> attachmentTransformer;
+    private final Map<String, BoundedExecutor> dispatchPools = new ConcurrentHashMap<>();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final ThreadPoolExecutor preRenderExecutor;
+    private volatile int lastCycleProcessed;
+    private volatile long lastCycleDurationMillis;
 
     @Autowired
     public NotificationManager(Mailer mailer,
@@ -92,9 +108,8 @@ public class NotificationManager {
                                TicketReservationRepository ticketReservationRepository,
                                TicketCategoryRepository ticketCategoryRepository,
                                PassBookManager passBookManager,
-                               TicketRepository ticketRepository,
-                               TicketFieldRepository ticketFieldRepository,
-                               AdditionalServiceItemRepository additionalServiceItemRepository) {
+                               EmailAttachmentCacheManager attachmentCacheManager,
+                               PdfRenderingManager pdfRenderingManager) {
         this.messageSource = messageSource;
         this.mailer = mailer;
         this.emailMessageRepository = emailMessageRepository;
@@ -102,6 +117,7 @@ public class NotificationManager {
         this.organizationRepository = organizationRepository;
         this.tx = new TransactionTemplate(transactionManager);
         this.configurationManager = configurationManager;
+        this.attachmentCacheManager = attachmentCacheManager;
         GsonBuilder builder = new GsonBuilder();
         builder.registerTypeAdapter(Mailer.Attachment.class, new AttachmentConverter());
         this.gson = builder.create();
@@ -112,31 +128,32 @@ public class NotificationManager {
         attachmentTransformer.put(Mailer.AttachmentIdentifier.INVOICE_PDF, receiptOrInvoiceFactory(eventRepository,
             payload -> TemplateProcessor.buildInvoicePdf(payload.getLeft(), fileUploadManager, payload.getMiddle(), templateManager, payload.getRight())));
         attachmentTransformer.put(Mailer.AttachmentIdentifier.PASSBOOK, passBookManager::getPassBook);
-        Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues = EventUtil.retrieveFieldValues(ticketRepository, ticketFieldRepository, additionalServiceItemRepository);
-        attachmentTransformer.put(Mailer.AttachmentIdentifier.TICKET_PDF, generateTicketPDF(eventRepository, organizationRepository, configurationManager, fileUploadManager, templateManager, ticketReservationRepository, retrieveFieldValues));
+        attachmentTransformer.put(Mailer.AttachmentIdentifier.TICKET_PDF, generateTicketPDF(eventRepository, organizationRepository, pdfRenderingManager, ticketReservationRepository));
+        //pre-rendering is a best effort optimization: if we cannot keep up, the attachment will be rendered while sending the message
+        this.preRenderExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(PRERENDER_QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "mail-attachment-prerender");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        this.preRenderExecutor.allowCoreThreadTimeOut(true);
     }
 
     private static Function<Map<String, String>, byte[]> generateTicketPDF(EventRepository eventRepository,
                                                                            OrganizationRepository organizationRepository,
-                                                                           ConfigurationManager configurationManager,
-                                                                           FileUploadManager fileUploadManager,
-                                                                           TemplateManager templateManager,
-                                                                           TicketReservationRepository ticketReservationRepository,
-                                                                           Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues) {
+                                                                           PdfRenderingManager pdfRenderingManager,
+                                                                           TicketReservationRepository ticketReservationRepository) {
         return (model) -> {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
             Ticket ticket = Json.fromJson(model.get("ticket"), Ticket.class);
             try {
                 TicketReservation reservation = ticketReservationRepository.findReservationById(ticket.getTicketsReservationId());
                 TicketCategory ticketCategory = Json.fromJson(model.get("ticketCategory"), TicketCategory.class);
                 Event event = eventRepository.findById(ticket.getEventId());
                 Organization organization = organizationRepository.getById(Integer.valueOf(model.get("organizationId"), 10));
-                TemplateProcessor.renderPDFTicket(Locale.forLanguageTag(ticket.getUserLanguage()), event, reservation,
-                    ticket, ticketCategory, organization, templateManager, fileUploadManager, configurationManager.getShortReservationID(event, ticket.getTicketsReservationId()), baos, retrieveFieldValues);
+                return pdfRenderingManager.renderTicket(event, reservation, ticket, ticketCategory, organization);
             } catch (IOException e) {
                 log.warn("was not able to generate ticket pdf for ticket with id" + ticket.getId(), e);
+                return new byte[0];
             }
-            return baos.toByteArray();
         };
     }
 
@@ -193,7 +210,11 @@ public class NotificationManager {
         String checksum = calculateChecksum(ticket.getEmail(), encodedAttachments, subject, text);
         String recipient = ticket.getEmail();
         //TODO handle HTML
-        tx.execute(status -> emailMessageRepository.insert(event.getId(), recipient, null, subject, text, encodedAttachments, checksum, ZonedDateTime.now(UTC)));
+        tx.execute(status -> {
+            int result = emailMessageRepository.insert(event.getId(), recipient, null, subject, text, encodedAttachments, checksum, ZonedDateTime.now(UTC));
+            schedulePreRendering(encodedAttachments);
+            return result;
+        });
     }
 
     public void sendSimpleEmail(Event event, String recipient, List<String> cc, String subject, TextTemplateGenerator textBuilder) {
@@ -228,71 +249,202 @@ public class NotificationManager {
         Optional<EmailMessage> existing = emailMessageRepository.findByEventIdAndChecksum(event.getId(), checksum);
         if(!existing.isPresent()) {
             emailMessageRepository.insert(event.getId(), recipient, encodedCC, subject, text, encodedAttachments, checksum, ZonedDateTime.now(UTC));
+            schedulePreRendering(encodedAttachments);
         } else {
             emailMessageRepository.updateStatus(event.getId(), WAITING.name(), existing.get().getId());
         }
     }
 
-    public Pair<Integer, List<LightweightMailMessage>> loadAllMessagesForEvent(int eventId, Integer page, String search) {
+    /**
+     * Load a page of messages. If a page token is provided, the page starts right after the element referenced
+     * by the token and the page number is ignored.
+     *
+     * @param count whether the total number of matching messages must be computed
+     */
+    public KeysetPage<LightweightMailMessage> loadAllMessagesForEvent(int eventId, Integer page, String pageToken, boolean count, String search) {
         final int pageSize = 50;
-        int offset = page == null ? 0 : page * pageSize;
         String toSearch = StringUtils.trimToNull(search);
         toSearch = toSearch == null ? null : ("%" + toSearch + "%");
-        return Pair.of(emailMessageRepository.countFindByEventId(eventId, toSearch), emailMessageRepository.findByEventId(eventId, offset, pageSize, toSearch));
+        List<LightweightMailMessage> messages;
+        if(pageToken != null) {
+            PageToken after = PageToken.decode(pageToken);
+            messages = emailMessageRepository.findByEventIdAfter(eventId, after.getTimestamp(0), after.getInt(1), pageSize, toSearch);
+        } else {
+            int offset = page == null ? 0 : page * pageSize;
+            messages = emailMessageRepository.findByEventId(eventId, offset, pageSize, toSearch);
+        }
+        Integer total = count ? emailMessageRepository.countFindByEventId(eventId, toSearch) : null;
+        return KeysetPage.of(messages, pageSize, total, m -> PageToken.encode(EmailMessageRepository.sortKey(m)));
     }
 
     public Optional<EmailMessage> loadSingleMessageForEvent(int eventId, int messageId) {
         return emailMessageRepository.findByEventIdAndMessageId(eventId, messageId);
     }
 
-    @Transactional
     public int sendWaitingMessages() {
+        long start = System.currentTimeMillis();
         Date now = new Date();
 
-        emailMessageRepository.setToRetryOldInProcess(DateUtils.addHours(now, -1));
+        tx.execute(status -> emailMessageRepository.setToRetryOldInProcess(DateUtils.addHours(now, -1)));
+
+        List<Integer> activeEventIds = eventRepository.findAllActiveIds(ZonedDateTime.now(UTC));
+        if(activeEventIds.isEmpty()) {
+            return 0;
+        }
+
+        int maxPerCycle = configurationManager.getIntConfigValue(Configuration.getSystemConfiguration(ConfigurationKeys.MAX_EMAIL_PER_CYCLE), DEFAULT_MAX_EMAIL_PER_CYCLE);
+        Map<Integer, Event> events = new HashMap<>();
+        int claimed = 0;
+        int sent = 0;
+        List<Integer> ids;
+        do {
+            int limit = Math.min(CLAIM_BATCH_SIZE, maxPerCycle - claimed);
+            ids = tx.execute(status -> claimMessages(activeEventIds, now, limit));
+            claimed += ids.size();
+            sent += dispatch(ids, events);
+        } while (ids.size() == CLAIM_BATCH_SIZE && claimed < maxPerCycle);
+
+        long elapsed = System.currentTimeMillis() - start;
+        lastCycleProcessed = claimed;
+        lastCycleDurationMillis = elapsed;
+        if(claimed > 0) {
+            log.debug("sendWaitingMessages: processed {} messages ({} sent) in {} ms", claimed, sent, elapsed);
+        }
+        return sent;
+    }
 
-        AtomicInteger counter = new AtomicInteger();
+    private List<Integer> claimMessages(List<Integer> eventIds, Date now, int limit) {
+        List<Integer> ids = emailMessageRepository.loadIdsWaitingForProcessing(eventIds, now, limit);
+        if(!ids.isEmpty()) {
+            emailMessageRepository.markAsInProcess(ids);
+        }
+        return ids;
+    }
 
-        eventRepository.findAllActiveIds(ZonedDateTime.now(UTC))
-            .stream()
-            .flatMap(id -> emailMessageRepository.loadIdsWaitingForProcessing(id, now).stream())
-            .distinct()
-            .forEach((messageId) -> counter.addAndGet(processMessage(messageId)));
-        return counter.get();
+    private int dispatch(List<Integer> ids, Map<Integer, Event> events) {
+        if(ids.isEmpty()) {
+            return 0;
+        }
+        //messages having the same checksum are duplicates: we send only the first one
+        Collection<EmailMessage> messages = emailMessageRepository.findLightweightByIds(ids).stream()
+            .collect(Collectors.toMap(m -> Pair.of(m.getEventId(), m.getChecksum()), Function.identity(), (a, b) -> a, LinkedHashMap::new))
+            .values();
+
+        if(TransactionSynchronizationManager.isActualTransactionActive()) {
+            //we've been called within a transaction: the claimed messages might not be visible from other connections
+            return messages.stream()
+                .mapToInt(m -> processMessage(m.getId(), events.computeIfAbsent(m.getEventId(), eventRepository::findById)))
+                .sum();
+        }
+
+        List<Future<Integer>> results = messages.stream()
+            .map(m -> {
+                Event event = events.computeIfAbsent(m.getEventId(), eventRepository::findById);
+                return getDispatchPool(event).submit(() -> processMessage(m.getId(), event));
+            })
+            .collect(Collectors.toList());
+
+        int sent = 0;
+        for (Future<Integer> result : results) {
+            try {
+                sent += result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                log.warn("unexpected error while sending message", e.getCause());
+            }
+        }
+        return sent;
     }
 
-    private int processMessage(int messageId) {
+    private ExecutorService getDispatchPool(Event event) {
+        String mailerType = configurationManager.getStringConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), ConfigurationKeys.MAILER_TYPE), "disabled").toLowerCase(Locale.ENGLISH);
+        return dispatchPools.computeIfAbsent(mailerType, this::createDispatchPool).get();
+    }
+
+    private BoundedExecutor createDispatchPool(String mailerType) {
+        //the queue is bounded: if the workers cannot keep up, the dispatcher thread will send the message by itself
+        return new BoundedExecutor("mail-dispatch-" + mailerType,
+            () -> configurationManager.getIntConfigValue(Configuration.getSystemConfiguration(ConfigurationKeys.MAIL_DISPATCH_PARALLELISM), DEFAULT_DISPATCH_PARALLELISM),
+            CLAIM_BATCH_SIZE);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatchPools.values().forEach(BoundedExecutor::shutdown);
+        preRenderExecutor.shutdown();
+    }
+
+    private void schedulePreRendering(String encodedAttachments) {
+        if(StringUtils.isBlank(encodedAttachments)
+            || !configurationManager.getBooleanConfigValue(Configuration.getSystemConfiguration(ConfigurationKeys.PRERENDER_EMAIL_ATTACHMENTS), false)) {
+            return;
+        }
+        Runnable preRender = () -> preRenderExecutor.execute(() -> {
+            try {
+                decodeAttachments(encodedAttachments);
+            } catch (Exception e) {
+                log.warn("error while pre-rendering attachments", e);
+            }
+        });
+        //the renderers need to see the reservation data, so we have to wait until it has been committed
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    preRender.run();
+                }
+            });
+        } else {
+            preRender.run();
+        }
+    }
+
+    private int processMessage(int messageId, Event event) {
         EmailMessage message = emailMessageRepository.findById(messageId);
-        int eventId = message.getEventId();
-        int organizationId = eventRepository.findOrganizationIdByEventId(eventId);
-        if(message.getAttempts() >= configurationManager.getIntConfigValue(Configuration.from(organizationId, eventId, ConfigurationKeys.MAIL_ATTEMPTS_COUNT), 10)) {
-            tx.execute(status -> emailMessageRepository.updateStatusAndAttempts(messageId, ERROR.name(), message.getAttempts(), Arrays.asList(IN_PROCESS.name(), WAITING.name(), RETRY.name())));
+        if(message.getAttempts() >= configurationManager.getIntConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), ConfigurationKeys.MAIL_ATTEMPTS_COUNT), 10)) {
+            tx.execute(status -> {
+                emailMessageRepository.updateStatusAndAttempts(messageId, ERROR.name(), message.getAttempts(), Arrays.asList(IN_PROCESS.name(), WAITING.name(), RETRY.name()));
+                return emailMessageRepository.updateStatusToError(message.getEventId(), message.getChecksum(), Collections.singletonList(IN_PROCESS.name()));
+            });
             log.warn("Message with id " + messageId + " will be discarded");
             return 0;
         }
 
-
         try {
-            int result = tx.execute(status -> emailMessageRepository.updateStatus(message.getEventId(), message.getChecksum(), IN_PROCESS.name(), Arrays.asList(WAITING.name(), RETRY.name())));
-            if(result > 0) {
-                return tx.execute(status -> {
-                    sendMessage(message);
-                    return 1;
-                });
-            } else {
-                log.debug("no messages have been updated on DB for the following criteria: eventId: {}, checksum: {}", message.getEventId(), message.getChecksum());
-            }
+            mailer.send(event, message.getRecipient(), message.getCc(), message.getSubject(), message.getMessage(), Optional.empty(), decodeAttachments(message.getAttachments()));
+            tx.execute(status -> emailMessageRepository.updateStatusToSent(message.getEventId(), message.getChecksum(), ZonedDateTime.now(UTC), Collections.singletonList(IN_PROCESS.name())));
+            sentMessages.incrementAndGet();
+            return 1;
         } catch(Exception e) {
+            failedAttempts.incrementAndGet();
             tx.execute(status -> emailMessageRepository.updateStatusAndAttempts(message.getId(), RETRY.name(), DateUtils.addMinutes(new Date(), message.getAttempts() + 1), message.getAttempts() + 1, Arrays.asList(IN_PROCESS.name(), WAITING.name(), RETRY.name())));
             log.warn("could not send message: ",e);
         }
         return 0;
     }
 
-    private void sendMessage(EmailMessage message) {
-        Event event = eventRepository.findById(message.getEventId());
-        mailer.send(event, message.getRecipient(), message.getCc(), message.getSubject(), message.getMessage(), Optional.empty(), decodeAttachments(message.getAttachments()));
-        emailMessageRepository.updateStatusToSent(message.getEventId(), message.getChecksum(), ZonedDateTime.now(UTC), Collections.singletonList(IN_PROCESS.name()));
+    @Override
+    public String getMetricsName() {
+        return "email";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("backlog", emailMessageRepository.countWaitingForProcessing());
+        metrics.put("sent", sentMessages.get());
+        metrics.put("failedAttempts", failedAttempts.get());
+        metrics.put("lastCycleProcessed", lastCycleProcessed);
+        metrics.put("lastCycleDurationMillis", lastCycleDurationMillis);
+        metrics.put("lastCycleMessagesPerSecond", lastCycleDurationMillis > 0 ? lastCycleProcessed * 1000d / lastCycleDurationMillis : 0d);
+        dispatchPools.forEach((mailerType, pool) -> {
+            metrics.put(mailerType + ".activeWorkers", pool.getActiveCount());
+            metrics.put(mailerType + ".queued", pool.getQueueSize());
+        });
+        metrics.put("preRender.queued", preRenderExecutor.getQueue().size());
+        return metrics;
     }
 
     private String encodeAttachments(Mailer.Attachment... files) {
@@ -330,7 +482,7 @@ public class NotificationManager {
 
     private Mailer.Attachment transformAttachment(Mailer.Attachment attachment, Mailer.AttachmentIdentifier identifier) {
         if(identifier != null) {
-            byte[] result = attachmentTransformer.get(identifier).apply(attachment.getModel());
+            byte[] result = attachmentCacheManager.getOrRender(identifier, attachment.getModel(), attachmentTransformer.get(identifier));
             return result == null ? null : new Mailer.Attachment(identifier.fileName(attachment.getFilename()), result, identifier.contentType(attachment.getContentType()), null, null);
         } else {
             return attachment;
@@ -16,7 +16,9 @@
  */
 package alfio.manager;
 
+import alfio.manager.support.BoundedExecutor;
 import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.MetricsProvider;
 import alfio.model.Event;
 import alfio.model.Ticket;
 import alfio.model.system.Configuration;
@@ -27,6 +29,7 @@ import alfio.repository.user.OrganizationRepository;
 import alfio.util.Json;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.ryantenney.passkit4j.Pass;
 import com.ryantenney.passkit4j.PassResource;
 import com.ryantenney.passkit4j.PassSerializer;
@@ -36,12 +39,14 @@ import com.ryantenney.passkit4j.model.TextField;
 import com.ryantenney.passkit4j.sign.PassSigner;
 import com.ryantenney.passkit4j.sign.PassSignerImpl;
 import com.ryantenney.passkit4j.sign.PassSigningException;
-import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StreamUtils;
 
+import javax.annotation.PreDestroy;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -53,23 +58,66 @@ import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
+/**
+ * Generates the Passbook passes of the tickets.
+ * <p>
+ * The keystore and the signer are built only once for each distinct PASSBOOK_* configuration: since the cache key
+ * is derived from the configuration values, a modification of the configuration results in a new signer. The icons
+ * and the Apple WWDR certificate are loaded once, at startup.
+ * <p>
+ * Passes can be generated in bulk, in parallel, on a bounded pool whose size is defined by
+ * {@link ConfigurationKeys#PASSBOOK_GENERATION_PARALLELISM}.
+ */
 @Component
-@AllArgsConstructor
 @Log4j2
-class PassBookManager {
+public class PassBookManager implements MetricsProvider {
+
+    private static final int QUEUE_CAPACITY = 500;
 
     private final Cache<String, Optional<byte[]>> passbookLogoCache = Caffeine.newBuilder()
         .maximumSize(20)
         .expireAfterWrite(20, TimeUnit.MINUTES)
         .build();
+    private final Cache<String, Optional<SigningMaterial>> signers = Caffeine.newBuilder()
+        .maximumSize(100)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .recordStats()
+        .build();
     private final EventRepository eventRepository;
     private final OrganizationRepository organizationRepository;
     private final ConfigurationManager configurationManager;
     private final FileUploadManager fileUploadManager;
+    private final byte[] icon;
+    private final byte[] icon2x;
+    private final byte[] appleCertificate;
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong generationNanos = new AtomicLong();
+    private final AtomicLong lastBatchPasses = new AtomicLong();
+    private final AtomicLong lastBatchMillis = new AtomicLong();
+    //if another bulk operation is keeping the workers busy, the caller will generate the passes by itself
+    private final BoundedExecutor pool;
 
+    public PassBookManager(EventRepository eventRepository,
+                           OrganizationRepository organizationRepository,
+                           ConfigurationManager configurationManager,
+                           FileUploadManager fileUploadManager) {
+        this.eventRepository = eventRepository;
+        this.organizationRepository = organizationRepository;
+        this.configurationManager = configurationManager;
+        this.fileUploadManager = fileUploadManager;
+        this.pool = new BoundedExecutor("passbook-generation", () -> configurationManager.getIntConfigValue(Configuration.getSystemConfiguration(ConfigurationKeys.PASSBOOK_GENERATION_PARALLELISM), Runtime.getRuntime().availableProcessors()), QUEUE_CAPACITY);
+        this.icon = loadResource("/alfio/icon/icon.png");
+        this.icon2x = loadResource("/alfio/icon/icon@2x.png");
+        this.appleCertificate = loadResource("/alfio/certificates/AppleWWDRCA.cer");
+    }
 
     byte[] getPassBook(Map<String, String> model) {
         try {
@@ -77,49 +125,126 @@ class PassBookManager {
             int eventId = ticket.getEventId();
             Event event = eventRepository.findById(eventId);
             Organization organization = organizationRepository.getById(Integer.valueOf(model.get("organizationId"), 10));
-            int organizationId = organization.getId();
-
-            Function<ConfigurationKeys, Configuration.ConfigurationPathKey> partial = Configuration.from(organizationId, eventId);
-            Map<ConfigurationKeys, Optional<String>> pbookConf = configurationManager.getStringConfigValueFrom(
-                partial.apply(ConfigurationKeys.PASSBOOK_TYPE_IDENTIFIER),
-                partial.apply(ConfigurationKeys.PASSBOOK_KEYSTORE),
-                partial.apply(ConfigurationKeys.PASSBOOK_KEYSTORE_PASSWORD),
-                partial.apply(ConfigurationKeys.PASSBOOK_TEAM_IDENTIFIER));
-            //check if all are set
-            if(pbookConf.values().stream().anyMatch(o -> !o.isPresent())) {
-                log.trace("Cannot generate Passbook. Missing configuration keys, check if all 4 are presents");
-                return null;
-            }
-
-            //
-            String teamIdentifier = pbookConf.get(ConfigurationKeys.PASSBOOK_TEAM_IDENTIFIER).orElseThrow(IllegalStateException::new);
-            String typeIdentifier = pbookConf.get(ConfigurationKeys.PASSBOOK_TYPE_IDENTIFIER).orElseThrow(IllegalStateException::new);
-            byte[] keystoreRaw = Base64.getDecoder().decode(pbookConf.get(ConfigurationKeys.PASSBOOK_KEYSTORE).orElseThrow(IllegalStateException::new));
-            String keystorePwd = pbookConf.get(ConfigurationKeys.PASSBOOK_KEYSTORE_PASSWORD).orElseThrow(IllegalStateException::new);
-
-            //ugly, find an alternative way?
-            Optional<KeyStore> ksJks = loadKeyStore(keystoreRaw);
-            if(ksJks.isPresent()) {
-                return buildPass(ticket, event, organization, teamIdentifier, typeIdentifier, keystorePwd, ksJks.get());
-            } else {
-                log.warn("Cannot generate Passbook. Not able to load keystore. Please check configuration.");
-                return null;
-            }
+            return getSigningMaterial(organization.getId(), eventId)
+                .map(material -> generate(ticket, event, organization, material))
+                .orElse(null);
         } catch (Exception ex) {
             log.warn("Got Exception while generating Passbook. Please check configuration.", ex);
             return null;
         }
     }
 
-    private byte[] buildPass(Ticket ticket, Event event, Organization organization, String teamIdentifier, String typeIdentifier, String keystorePwd, KeyStore keyStore) throws IOException, PassSigningException {
+    /**
+     * Generate the passes of the given tickets, in parallel.
+     * <p>
+     * The consumer is called by the generating threads as soon as each pass is ready, therefore it must be thread-safe.
+     * Tickets whose pass cannot be generated are logged and skipped.
+     *
+     * @param event the event
+     * @param organization the organization
+     * @param tickets the tickets, all belonging to the given event
+     * @param consumer callback for the generated passes
+     * @return the number of generated passes
+     */
+    public int generatePassBooks(Event event, Organization organization, List<Ticket> tickets, BiConsumer<Ticket, byte[]> consumer) {
+        if(tickets.isEmpty()) {
+            return 0;
+        }
+        Optional<SigningMaterial> signingMaterial = getSigningMaterial(organization.getId(), event.getId());
+        if(!signingMaterial.isPresent()) {
+            return 0;
+        }
+        SigningMaterial material = signingMaterial.get();
+        long start = System.nanoTime();
+        //warm up the logo cache before starting the workers
+        getLogo(event);
+        ExecutorService executor = pool.get();
+        AtomicInteger count = new AtomicInteger();
+        List<Future<?>> results = tickets.stream()
+            .map(t -> executor.submit(() -> {
+                try {
+                    byte[] pass = generate(t, event, organization, material);
+                    if(pass != null) {
+                        consumer.accept(t, pass);
+                        count.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.warn("was not able to generate passbook for ticket with id " + t.getId(), e);
+                }
+            }))
+            .collect(Collectors.toList());
+        awaitAll(results);
+        lastBatchPasses.set(count.get());
+        lastBatchMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return count.get();
+    }
+
+    private byte[] generate(Ticket ticket, Event event, Organization organization, SigningMaterial material) {
+        long start = System.nanoTime();
+        try {
+            byte[] result = buildPass(ticket, event, organization, material);
+            generated.incrementAndGet();
+            return result;
+        } catch (IOException | PassSigningException e) {
+            failed.incrementAndGet();
+            log.warn("Got Exception while generating Passbook. Please check configuration.", e);
+            return null;
+        } finally {
+            generationNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private Optional<SigningMaterial> getSigningMaterial(int organizationId, int eventId) {
+        Function<ConfigurationKeys, Configuration.ConfigurationPathKey> partial = Configuration.from(organizationId, eventId);
+        Map<ConfigurationKeys, Optional<String>> pbookConf = configurationManager.getStringConfigValueFrom(
+            partial.apply(ConfigurationKeys.PASSBOOK_TYPE_IDENTIFIER),
+            partial.apply(ConfigurationKeys.PASSBOOK_KEYSTORE),
+            partial.apply(ConfigurationKeys.PASSBOOK_KEYSTORE_PASSWORD),
+            partial.apply(ConfigurationKeys.PASSBOOK_TEAM_IDENTIFIER));
+        //check if all are set
+        if(pbookConf.values().stream().anyMatch(o -> !o.isPresent())) {
+            log.trace("Cannot generate Passbook. Missing configuration keys, check if all 4 are presents");
+            return Optional.empty();
+        }
+
+        //
+        String teamIdentifier = pbookConf.get(ConfigurationKeys.PASSBOOK_TEAM_IDENTIFIER).orElseThrow(IllegalStateException::new);
+        String typeIdentifier = pbookConf.get(ConfigurationKeys.PASSBOOK_TYPE_IDENTIFIER).orElseThrow(IllegalStateException::new);
+        String keystore = pbookConf.get(ConfigurationKeys.PASSBOOK_KEYSTORE).orElseThrow(IllegalStateException::new);
+        String keystorePwd = pbookConf.get(ConfigurationKeys.PASSBOOK_KEYSTORE_PASSWORD).orElseThrow(IllegalStateException::new);
+        String key = DigestUtils.sha256Hex(String.join("\n", teamIdentifier, typeIdentifier, keystorePwd, keystore));
+        return signers.get(key, k -> buildSigningMaterial(teamIdentifier, typeIdentifier, keystore, keystorePwd));
+    }
+
+    private Optional<SigningMaterial> buildSigningMaterial(String teamIdentifier, String typeIdentifier, String keystore, String keystorePwd) {
+        //ugly, find an alternative way?
+        Optional<KeyStore> ksJks = loadKeyStore(keystore);
+        if(!ksJks.isPresent()) {
+            log.warn("Cannot generate Passbook. Not able to load keystore. Please check configuration.");
+            return Optional.empty();
+        }
+        try {
+            PassSigner signer = PassSignerImpl.builder()
+                .keystore(ksJks.get(), keystorePwd)
+                .intermediateCertificate(new ByteArrayInputStream(appleCertificate))
+                .build();
+            return Optional.of(new SigningMaterial(teamIdentifier, typeIdentifier, signer));
+        } catch (Exception e) {
+            log.warn("Cannot generate Passbook. Not able to build the signer. Please check configuration.", e);
+            return Optional.empty();
+        }
+    }
+
+    private byte[] buildPass(Ticket ticket, Event event, Organization organization, SigningMaterial material) throws IOException, PassSigningException {
 
         // from example: https://github.com/ryantenney/passkit4j/blob/master/src/test/java/com/ryantenney/passkit4j/EventTicketExample.java
 
         Location loc = new Location(Double.parseDouble(event.getLatitude()), Double.parseDouble(event.getLongitude())).altitude(0.0);
 
         Pass pass = new Pass()
-            .teamIdentifier(teamIdentifier)
-            .passTypeIdentifier(typeIdentifier)
+            .teamIdentifier(material.teamIdentifier)
+            .passTypeIdentifier(material.typeIdentifier)
             .organizationName(organization.getName())
             .description(event.getDisplayName())
             .serialNumber(ticket.getUuid())
@@ -137,51 +262,98 @@ class PassBookManager {
             );
 
         List<PassResource> passResources = new ArrayList<>(4);
-        try(InputStream icon = new ClassPathResource("/alfio/icon/icon.png").getInputStream();
-            InputStream icon2 = new ClassPathResource("/alfio/icon/icon@2x.png").getInputStream()) {
-            passResources.add(new PassResource("icon.png", StreamUtils.copyToByteArray(icon)));
-            passResources.add(new PassResource("icon@2x.png", StreamUtils.copyToByteArray(icon2)));
-        } catch (IOException e) {
-            //
+        if(icon.length > 0 && icon2x.length > 0) {
+            passResources.add(new PassResource("icon.png", icon));
+            passResources.add(new PassResource("icon@2x.png", icon2x));
         }
 
-
-        fileUploadManager.findMetadata(event.getFileBlobId()).ifPresent(metadata -> {
-            if(metadata.getContentType().equals("image/png") || metadata.getContentType().equals("image/jpeg")) {
-                Optional<byte[]> cachedLogo = passbookLogoCache.get(event.getFileBlobId(), (id) -> {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    fileUploadManager.outputFile(event.getFileBlobId(), baos);
-                    return readAndConvertImage(baos);
-                });
-                if(cachedLogo != null && cachedLogo.isPresent()) {
-                    byte[] logo = cachedLogo.get();
-                    passResources.add(new PassResource("logo.png", logo));
-                    passResources.add(new PassResource("logo@2x.png", logo));
-                }
-            }
+        getLogo(event).ifPresent(logo -> {
+            passResources.add(new PassResource("logo.png", logo));
+            passResources.add(new PassResource("logo@2x.png", logo));
         });
 
         pass.files(passResources.toArray(new PassResource[passResources.size()]));
 
-        try(ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            InputStream appleCert = new ClassPathResource("/alfio/certificates/AppleWWDRCA.cer").getInputStream()) {
-            PassSigner signer = PassSignerImpl.builder()
-                .keystore(keyStore, keystorePwd)
-                .intermediateCertificate(appleCert)
-                .build();
-            PassSerializer.writePkPassArchive(pass, signer, baos);
+        try(ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            PassSerializer.writePkPassArchive(pass, material.signer, baos);
             return baos.toByteArray();
         }
     }
 
+    private Optional<byte[]> getLogo(Event event) {
+        if(event.getFileBlobId() == null) {
+            return Optional.empty();
+        }
+        //file blobs are content-addressed, therefore the metadata are checked only when loading the logo
+        return passbookLogoCache.get(event.getFileBlobId(), id -> fileUploadManager.findMetadata(id)
+            .filter(metadata -> metadata.getContentType().equals("image/png") || metadata.getContentType().equals("image/jpeg"))
+            .flatMap(metadata -> {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                fileUploadManager.outputFile(id, baos);
+                return readAndConvertImage(baos);
+            }));
+    }
+
+    private static void awaitAll(List<Future<?>> results) {
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                log.warn("unexpected error while generating passbook", e.getCause());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "passbook";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long count = generated.get();
+        metrics.put("generated", count);
+        metrics.put("failed", failed.get());
+        metrics.put("averageMillis", count > 0 ? TimeUnit.NANOSECONDS.toMillis(generationNanos.get()) / (double) count : 0d);
+        long batchPasses = lastBatchPasses.get();
+        long batchMillis = lastBatchMillis.get();
+        metrics.put("lastBatch.passes", batchPasses);
+        metrics.put("lastBatch.millis", batchMillis);
+        metrics.put("lastBatch.passesPerSecond", batchMillis > 0 ? batchPasses * 1000d / batchMillis : 0d);
+        CacheStats stats = signers.stats();
+        metrics.put("signers.hits", stats.hitCount());
+        metrics.put("signers.misses", stats.missCount());
+        metrics.put("pool.active", pool.getActiveCount());
+        metrics.put("pool.queued", pool.getQueueSize());
+        return metrics;
+    }
+
+    private static byte[] loadResource(String path) {
+        try(InputStream is = new ClassPathResource(path).getInputStream()) {
+            return StreamUtils.copyToByteArray(is);
+        } catch (IOException e) {
+            log.warn("cannot load resource " + path, e);
+            return new byte[0];
+        }
+    }
+
     //"jks"
     // -> "pkcs12" don't work ;(
-    private static Optional<KeyStore> loadKeyStore(byte[] k) {
+    private static Optional<KeyStore> loadKeyStore(String base64) {
         try {
             KeyStore ks = KeyStore.getInstance("jks");
-            ks.load(new ByteArrayInputStream(k), null);
+            ks.load(new ByteArrayInputStream(Base64.getDecoder().decode(base64)), null);
             return Optional.of(ks);
-        } catch (GeneralSecurityException | IOException e) {
+        } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
             return Optional.empty();
         }
     }
@@ -204,4 +376,14 @@ class PassBookManager {
             return Optional.empty();
         }
     }
+
+    /**
+     * The signer does not keep any state between two signatures, therefore it can be shared by the generating threads.
+     */
+    @RequiredArgsConstructor
+    private static class SigningMaterial {
+        private final String teamIdentifier;
+        private final String typeIdentifier;
+        private final PassSigner signer;
+    }
 }
@@ -16,6 +16,7 @@
  */
 package alfio.manager;
 
+import alfio.manager.support.OrderSummaryCache;
 import alfio.manager.system.ConfigurationManager;
 import alfio.model.*;
 import alfio.model.system.Configuration;
@@ -47,6 +48,7 @@ public class PaymentManager {
     private final ConfigurationManager configurationManager;
     private final AuditingRepository auditingRepository;
     private final UserRepository userRepository;
+    private final OrderSummaryCache orderSummaryCache;
 
     private final List<PaymentProvider> paymentProviders; // injected by Spring
 
@@ -100,6 +102,7 @@ public class PaymentManager {
                 event.getId(),
                 Audit.EventType.REFUND, new Date(), Audit.EntityType.RESERVATION, reservation.getId(),
                 Collections.singletonList(changes));
+            orderSummaryCache.invalidate(reservation.getId());
         }
 
         return res;
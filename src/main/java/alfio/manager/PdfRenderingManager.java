@@ -0,0 +1,226 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.controller.support.TemplateProcessor;
+import alfio.manager.support.BoundedExecutor;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.MetricsProvider;
+import alfio.model.*;
+import alfio.model.system.Configuration;
+import alfio.model.system.ConfigurationKeys;
+import alfio.model.user.Organization;
+import alfio.repository.AdditionalServiceItemRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketFieldRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.TicketReservationRepository;
+import alfio.util.EventUtil;
+import alfio.util.TemplateManager;
+import alfio.util.TemplateResource;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Renders the ticket PDFs.
+ * <p>
+ * The event logo is loaded and encoded only once for each event, and the tickets can be rendered in bulk, in parallel,
+ * on a bounded pool whose size is defined by {@link ConfigurationKeys#PDF_RENDERING_PARALLELISM}.
+ */
+@Component
+@Log4j2
+public class PdfRenderingManager implements MetricsProvider {
+
+    static final int BATCH_SIZE = 500;
+
+    private final FileUploadManager fileUploadManager;
+    private final TemplateManager templateManager;
+    private final ConfigurationManager configurationManager;
+    private final TicketReservationRepository ticketReservationRepository;
+    private final TicketCategoryRepository ticketCategoryRepository;
+    private final Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues;
+    //file blobs are content-addressed, so an entry cannot become stale
+    private final Cache<String, Optional<TemplateResource.ImageData>> images = Caffeine.newBuilder()
+        .maximumSize(200)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .recordStats()
+        .build();
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong renderingNanos = new AtomicLong();
+    //if another bulk operation is keeping the workers busy, the caller will render the tickets by itself
+    private final BoundedExecutor pool;
+
+    public PdfRenderingManager(FileUploadManager fileUploadManager,
+                               TemplateManager templateManager,
+                               ConfigurationManager configurationManager,
+                               TicketReservationRepository ticketReservationRepository,
+                               TicketCategoryRepository ticketCategoryRepository,
+                               TicketRepository ticketRepository,
+                               TicketFieldRepository ticketFieldRepository,
+                               AdditionalServiceItemRepository additionalServiceItemRepository) {
+        this.fileUploadManager = fileUploadManager;
+        this.templateManager = templateManager;
+        this.configurationManager = configurationManager;
+        this.pool = new BoundedExecutor("pdf-rendering", () -> configurationManager.getIntConfigValue(Configuration.getSystemConfiguration(ConfigurationKeys.PDF_RENDERING_PARALLELISM), Runtime.getRuntime().availableProcessors()), BATCH_SIZE);
+        this.ticketReservationRepository = ticketReservationRepository;
+        this.ticketCategoryRepository = ticketCategoryRepository;
+        this.retrieveFieldValues = EventUtil.retrieveFieldValues(ticketRepository, ticketFieldRepository, additionalServiceItemRepository);
+    }
+
+    public Optional<TemplateResource.ImageData> getEventImage(Event event) {
+        if(!event.getFileBlobIdIsPresent()) {
+            return Optional.empty();
+        }
+        return images.get(event.getFileBlobId(), id -> TemplateProcessor.extractImageModel(event, fileUploadManager));
+    }
+
+    public void renderTicket(Locale language,
+                             Event event,
+                             TicketReservation ticketReservation,
+                             Ticket ticket,
+                             TicketCategory ticketCategory,
+                             Organization organization,
+                             String reservationID,
+                             OutputStream os,
+                             Function<Ticket, List<TicketFieldConfigurationDescriptionAndValue>> retrieveFieldValues) throws IOException {
+        long start = System.nanoTime();
+        TemplateProcessor.renderPDFTicket(language, event, ticketReservation, ticket, ticketCategory, organization, templateManager,
+            getEventImage(event), reservationID, os, retrieveFieldValues);
+        renderingNanos.addAndGet(System.nanoTime() - start);
+        rendered.incrementAndGet();
+    }
+
+    public byte[] renderTicket(Event event, TicketReservation ticketReservation, Ticket ticket, TicketCategory ticketCategory, Organization organization) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        renderTicket(Locale.forLanguageTag(ticket.getUserLanguage()), event, ticketReservation, ticket, ticketCategory, organization,
+            configurationManager.getShortReservationID(event, ticketReservation.getId()), baos, retrieveFieldValues);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Render the PDF of the given tickets, in parallel. Reservations and categories are loaded in batches of
+     * {@value #BATCH_SIZE} tickets.
+     * <p>
+     * The consumer is called by the rendering threads as soon as each PDF is ready, therefore it must be thread-safe.
+     * Tickets which cannot be rendered are logged and skipped.
+     *
+     * @param event the event
+     * @param organization the organization
+     * @param tickets the tickets to render, all belonging to the given event
+     * @param consumer callback for the rendered tickets
+     * @return the number of rendered tickets
+     */
+    public int renderTickets(Event event, Organization organization, List<Ticket> tickets, Consumer<RenderedTicket> consumer) {
+        if(tickets.isEmpty()) {
+            return 0;
+        }
+        Map<Integer, TicketCategory> categories = ticketCategoryRepository.findByEventId(event.getId()).stream()
+            .filter(c -> c.getStatus() == TicketCategory.Status.ACTIVE)
+            .collect(Collectors.toMap(TicketCategory::getId, Function.identity()));
+        //warm up the cache before starting the workers
+        getEventImage(event);
+        ExecutorService executor = pool.get();
+        AtomicInteger count = new AtomicInteger();
+        for(int from = 0; from < tickets.size(); from += BATCH_SIZE) {
+            List<Ticket> batch = tickets.subList(from, Math.min(tickets.size(), from + BATCH_SIZE));
+            Map<String, TicketReservation> reservations = ticketReservationRepository.findByIds(batch.stream().map(Ticket::getTicketsReservationId).collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(TicketReservation::getId, Function.identity()));
+            List<Future<?>> results = batch.stream()
+                .filter(t -> reservations.containsKey(t.getTicketsReservationId()) && categories.containsKey(t.getCategoryId()))
+                .map(t -> executor.submit(() -> {
+                    TicketReservation reservation = reservations.get(t.getTicketsReservationId());
+                    TicketCategory category = categories.get(t.getCategoryId());
+                    try {
+                        consumer.accept(new RenderedTicket(t, reservation, category, renderTicket(event, reservation, t, category, organization)));
+                        count.incrementAndGet();
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        log.warn("was not able to generate ticket pdf for ticket with id " + t.getId(), e);
+                    }
+                }))
+                .collect(Collectors.toList());
+            awaitAll(results);
+        }
+        return count.get();
+    }
+
+    private static void awaitAll(List<Future<?>> results) {
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                log.warn("unexpected error while rendering ticket", e.getCause());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "pdf-rendering";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long count = rendered.get();
+        metrics.put("rendered", count);
+        metrics.put("failed", failed.get());
+        metrics.put("averageMillis", count > 0 ? TimeUnit.NANOSECONDS.toMillis(renderingNanos.get()) / (double) count : 0d);
+        CacheStats stats = images.stats();
+        metrics.put("images.hits", stats.hitCount());
+        metrics.put("images.misses", stats.missCount());
+        metrics.put("pool.active", pool.getActiveCount());
+        metrics.put("pool.queued", pool.getQueueSize());
+        return metrics;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class RenderedTicket {
+        private final Ticket ticket;
+        private final TicketReservation reservation;
+        private final TicketCategory category;
+        private final byte[] pdf;
+    }
+}
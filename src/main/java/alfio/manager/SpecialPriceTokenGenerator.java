@@ -17,6 +17,7 @@
 package alfio.manager;
 
 import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.MetricsProvider;
 import alfio.model.Event;
 import alfio.model.SpecialPrice;
 import alfio.model.TicketCategory;
@@ -30,18 +31,34 @@ import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Class SpecialPriceTokenGenerator.
  * This class generates a bunch of tokens which will be used for
  * granting a special price to a specific user category.
+ * <p>
+ * Codes are generated in batches of {@link #BATCH_SIZE}: the candidates are deduplicated in memory, checked against
+ * the existing codes with a single query and then assigned with a batch update. If the batch update hits a duplicate
+ * anyway (i.e. a code generated concurrently by another node), it is rolled back to a savepoint and the affected
+ * rows are assigned one by one.
  */
 @Component
 @Log4j2
-@Transactional
-public class SpecialPriceTokenGenerator {
+public class SpecialPriceTokenGenerator implements MetricsProvider {
+
+    static final int BATCH_SIZE = 1000;
+    private static final int MAX_COLLISION_ROUNDS = 100;
 
     private static final char[] ADMITTED_CHARACTERS = new char[]{
             'A', 'B', 'C', 'D', 'E', 'F',
@@ -55,44 +72,117 @@ public class SpecialPriceTokenGenerator {
     private final TicketCategoryRepository ticketCategoryRepository;
     private final EventRepository eventRepository;
     private final ConfigurationManager configurationManager;
+    private final NamedParameterJdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final TransactionTemplate savepoint;
+
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong collisions = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private volatile long lastRunCodes;
+    private volatile long lastRunMillis;
 
     @Autowired
     public SpecialPriceTokenGenerator(ConfigurationManager configurationManager,
                                       SpecialPriceRepository specialPriceRepository,
                                       TicketCategoryRepository ticketCategoryRepository,
-                                      EventRepository eventRepository) {
+                                      EventRepository eventRepository,
+                                      NamedParameterJdbcTemplate jdbc,
+                                      PlatformTransactionManager transactionManager) {
         this.specialPriceRepository = specialPriceRepository;
         this.configurationManager = configurationManager;
         this.ticketCategoryRepository = ticketCategoryRepository;
         this.eventRepository = eventRepository;
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.savepoint = new TransactionTemplate(transactionManager);
+        this.savepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
     }
 
     public void generatePendingCodes() {
-        StopWatch stopWatch = new StopWatch();
         log.trace("start pending codes generation");
-        stopWatch.start();
-        specialPriceRepository.findWaitingElements().forEach(this::generateCode);
-        stopWatch.stop();
-        log.trace("end. Took {} ms", stopWatch.getTime());
+        generate(specialPriceRepository::findWaitingElements);
     }
 
     public void generatePendingCodesForCategory(int categoryId) {
-        specialPriceRepository.findWaitingElementsForCategory(categoryId).forEach(this::generateCode);
+        generate(() -> specialPriceRepository.findWaitingElementsForCategory(categoryId));
     }
 
-    private void generateCode(SpecialPrice specialPrice) {
+    private void generate(Supplier<List<SpecialPrice>> waitingElements) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        int count = tx.execute(status -> {
+            List<SpecialPrice> waiting = waitingElements.get();
+            waiting.stream()
+                .collect(Collectors.groupingBy(SpecialPrice::getTicketCategoryId, LinkedHashMap::new, Collectors.toList()))
+                .forEach(this::generateCodesForCategory);
+            return waiting.size();
+        });
+        stopWatch.stop();
+        if(count > 0) {
+            long millis = stopWatch.getTime();
+            lastRunCodes = count;
+            lastRunMillis = millis;
+            log.info("generated {} special price codes in {} ms ({} codes/s)", count, millis, codesPerSecond(count, millis));
+        } else {
+            log.trace("end. Took {} ms", stopWatch.getTime());
+        }
+    }
 
-        TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(specialPrice.getTicketCategoryId()).orElseThrow(IllegalStateException::new);
+    private void generateCodesForCategory(int categoryId, List<SpecialPrice> specialPrices) {
+        TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(categoryId).orElseThrow(IllegalStateException::new);
         Event event = eventRepository.findById(ticketCategory.getEventId());
         int maxLength = configurationManager.getIntConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), ticketCategory.getId(), ConfigurationKeys.SPECIAL_PRICE_CODE_LENGTH), 6);
+        for(int i = 0; i < specialPrices.size(); i += BATCH_SIZE) {
+            assignCodes(specialPrices.subList(i, Math.min(i + BATCH_SIZE, specialPrices.size())), maxLength);
+        }
+    }
 
+    private void assignCodes(List<SpecialPrice> batch, int maxLength) {
+        Iterator<String> codes = generateUniqueCodes(batch.size(), maxLength).iterator();
+        MapSqlParameterSource[] params = batch.stream()
+            .map(sp -> new MapSqlParameterSource("code", codes.next()).addValue("id", sp.getId()))
+            .toArray(MapSqlParameterSource[]::new);
+        try {
+            savepoint.execute(status -> jdbc.batchUpdate(specialPriceRepository.batchUpdateCode(), params));
+            generated.addAndGet(batch.size());
+        } catch (DataAccessException e) {
+            log.warn("got a duplicate while assigning {} codes. Falling back to single updates", batch.size());
+            fallbacks.incrementAndGet();
+            batch.forEach(sp -> generateCode(sp, maxLength));
+        }
+    }
+
+    /**
+     * Generate the given number of distinct codes, none of which is already present in the database.
+     */
+    private Set<String> generateUniqueCodes(int count, int maxLength) {
+        Set<String> codes = new LinkedHashSet<>(count * 2);
+        for(int round = 0; codes.size() < count; round++) {
+            if(round == MAX_COLLISION_ROUNDS) {
+                throw new IllegalStateException("Cannot generate " + count + " unique codes of length " + maxLength);
+            }
+            while(codes.size() < count) {
+                codes.add(generateRandomCode(maxLength));
+            }
+            List<String> existing = specialPriceRepository.findExistingCodes(codes);
+            collisions.addAndGet(existing.size());
+            codes.removeAll(existing);
+        }
+        return codes;
+    }
+
+    private void generateCode(SpecialPrice specialPrice, int maxLength) {
         while (true) {
             try {
                 log.trace("generate code for special price with id {}", specialPrice.getId());
-                specialPriceRepository.updateCode(nextValidCode(maxLength), specialPrice.getId());
+                String code = nextValidCode(maxLength);
+                savepoint.execute(status -> specialPriceRepository.updateCode(code, specialPrice.getId()));
+                generated.incrementAndGet();
                 log.trace("done.");
                 return;
             } catch (DataAccessException e) {
+                collisions.incrementAndGet();
                 log.warn("got a duplicate. Retrying...", e);
             }
         }
@@ -111,5 +201,24 @@ public class SpecialPriceTokenGenerator {
         return RandomStringUtils.random(maxLength, ADMITTED_CHARACTERS);
     }
 
+    private static long codesPerSecond(long codes, long millis) {
+        return codes * 1000 / Math.max(millis, 1);
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "special-price-codes";
+    }
 
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("generated", generated.get());
+        metrics.put("collisions", collisions.get());
+        metrics.put("fallbacks", fallbacks.get());
+        metrics.put("lastRunCodes", lastRunCodes);
+        metrics.put("lastRunMillis", lastRunMillis);
+        metrics.put("lastRunCodesPerSecond", codesPerSecond(lastRunCodes, lastRunMillis));
+        return metrics;
+    }
 }
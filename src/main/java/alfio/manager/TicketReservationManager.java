@@ -19,6 +19,7 @@ package alfio.manager;
 import alfio.controller.form.UpdateTicketOwnerForm;
 import alfio.manager.support.CategoryEvaluator;
 import alfio.manager.support.FeeCalculator;
+import alfio.manager.support.OrderSummaryCache;
 import alfio.manager.support.PartialTicketTextGenerator;
 import alfio.manager.support.PaymentResult;
 import alfio.manager.system.ConfigurationManager;
@@ -31,6 +32,7 @@ import alfio.model.Ticket.TicketStatus;
 import alfio.model.TicketReservation.TicketReservationStatus;
 import alfio.model.decorator.AdditionalServiceItemPriceContainer;
 import alfio.model.decorator.AdditionalServicePriceContainer;
+import alfio.model.decorator.TicketCategoryPriceContainer;
 import alfio.model.decorator.TicketPriceContainer;
 import alfio.model.group.LinkedGroup;
 import alfio.model.modification.ASReservationWithOptionalCodeModification;
@@ -55,10 +57,13 @@ import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.context.MessageSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
@@ -114,8 +119,10 @@ public class TicketReservationManager {
     private final NotificationManager notificationManager;
     private final MessageSource messageSource;
     private final TemplateManager templateManager;
+    private final TransactionTemplate transactionTemplate;
     private final TransactionTemplate requiresNewTransactionTemplate;
     private final TransactionTemplate serializedTransactionTemplate;
+    private final TransactionTemplate nestedTransactionTemplate;
     private final WaitingQueueManager waitingQueueManager;
     private final TicketFieldRepository ticketFieldRepository;
     private final AdditionalServiceRepository additionalServiceRepository;
@@ -127,6 +134,8 @@ public class TicketReservationManager {
     private final ExtensionManager extensionManager;
     private final TicketSearchRepository ticketSearchRepository;
     private final GroupManager groupManager;
+    private final NamedParameterJdbcTemplate jdbc;
+    private final OrderSummaryCache orderSummaryCache;
 
     public static class NotEnoughTicketsException extends RuntimeException {
 
@@ -166,7 +175,9 @@ public class TicketReservationManager {
                                     AuditingRepository auditingRepository,
                                     UserRepository userRepository,
                                     ExtensionManager extensionManager, TicketSearchRepository ticketSearchRepository,
-                                    GroupManager groupManager) {
+                                    GroupManager groupManager,
+                                    NamedParameterJdbcTemplate jdbc,
+                                    OrderSummaryCache orderSummaryCache) {
         this.eventRepository = eventRepository;
         this.organizationRepository = organizationRepository;
         this.ticketRepository = ticketRepository;
@@ -182,10 +193,12 @@ public class TicketReservationManager {
         this.messageSource = messageSource;
         this.templateManager = templateManager;
         this.waitingQueueManager = waitingQueueManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
         this.requiresNewTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW));
         DefaultTransactionDefinition serialized = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
         serialized.setIsolationLevel(TransactionDefinition.ISOLATION_SERIALIZABLE);
         this.serializedTransactionTemplate = new TransactionTemplate(transactionManager, serialized);
+        this.nestedTransactionTemplate = new TransactionTemplate(transactionManager, new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_NESTED));
         this.ticketFieldRepository = ticketFieldRepository;
         this.additionalServiceRepository = additionalServiceRepository;
         this.additionalServiceItemRepository = additionalServiceItemRepository;
@@ -196,6 +209,8 @@ public class TicketReservationManager {
         this.extensionManager = extensionManager;
         this.ticketSearchRepository = ticketSearchRepository;
         this.groupManager = groupManager;
+        this.jdbc = jdbc;
+        this.orderSummaryCache = orderSummaryCache;
     }
     
     /**
@@ -221,108 +236,172 @@ public class TicketReservationManager {
         Optional<PromoCodeDiscount> discount = promotionCodeDiscount.flatMap((promoCodeDiscount) -> promoCodeDiscountRepository.findPromoCodeInEventOrOrganization(event.getId(), promoCodeDiscount));
         
         ticketReservationRepository.createNewReservation(reservationId, ZonedDateTime.now(event.getZoneId()), reservationExpiration, discount.map(PromoCodeDiscount::getId).orElse(null), locale.getLanguage(), event.getId(), event.getVat(), event.isVatIncluded());
-        list.forEach(t -> reserveTicketsForCategory(event, specialPriceSessionId, reservationId, t, locale, forWaitingQueue, discount.orElse(null)));
+        Map<Integer, TicketCategory> categories = ticketCategoryRepository.findAllTicketCategories(event.getId()).stream()
+            .collect(toMap(TicketCategory::getId, Function.identity()));
+        list.forEach(t -> reserveTicketsForCategory(event, getActiveCategory(categories, t.getTicketCategoryId()), specialPriceSessionId, reservationId, t, locale, forWaitingQueue, discount.orElse(null)));
 
         int ticketCount = list
             .stream()
             .map(TicketReservationWithOptionalCodeModification::getAmount)
             .mapToInt(Integer::intValue).sum();
 
+        List<AdditionalService> eventAdditionalServices = additionalServices.isEmpty() && ticketCount == 0 ? Collections.emptyList() : additionalServiceRepository.loadAllForEvent(event.getId());
+        List<MapSqlParameterSource> additionalServiceItems = new ArrayList<>();
         // apply valid additional service with supplement policy mandatory one for ticket
-        additionalServiceRepository.findAllInEventWithPolicy(event.getId(), AdditionalService.SupplementPolicy.MANDATORY_ONE_FOR_TICKET)
-            .stream()
+        eventAdditionalServices.stream()
+            .filter(as -> as.getSupplementPolicy() == AdditionalService.SupplementPolicy.MANDATORY_ONE_FOR_TICKET)
             .filter(AdditionalService::getSaleable)
             .forEach(as -> {
                 AdditionalServiceReservationModification asrm = new AdditionalServiceReservationModification();
                 asrm.setAdditionalServiceId(as.getId());
                 asrm.setQuantity(ticketCount);
-                reserveAdditionalServicesForReservation(event.getId(), reservationId, new ASReservationWithOptionalCodeModification(asrm, Optional.empty()), discount.orElse(null));
+                additionalServiceItems.addAll(prepareAdditionalServiceItems(event, eventAdditionalServices, reservationId, new ASReservationWithOptionalCodeModification(asrm, Optional.empty()), discount.orElse(null)));
         });
 
-        additionalServices.forEach(as -> reserveAdditionalServicesForReservation(event.getId(), reservationId, as, discount.orElse(null)));
-
-        TicketReservation reservation = ticketReservationRepository.findReservationById(reservationId);
+        additionalServices.forEach(as -> additionalServiceItems.addAll(prepareAdditionalServiceItems(event, eventAdditionalServices, reservationId, as, discount.orElse(null))));
+        if(!additionalServiceItems.isEmpty()) {
+            jdbc.batchUpdate(additionalServiceItemRepository.batchInsert(), additionalServiceItems.toArray(new MapSqlParameterSource[0]));
+        }
 
-        OrderSummary orderSummary = orderSummaryForReservationId(reservation.getId(), event, Locale.forLanguageTag(reservation.getUserLanguage()));
+        OrderSummary orderSummary = orderSummaryForReservationId(reservationId, event, Locale.forLanguageTag(locale.getLanguage()));
         ticketReservationRepository.addReservationInvoiceOrReceiptModel(reservationId, Json.toJson(orderSummary));
 
         auditingRepository.insert(reservationId, null, event.getId(), Audit.EventType.RESERVATION_CREATE, new Date(), Audit.EntityType.RESERVATION, reservationId);
-        if(isDiscountCodeUsageExceeded(reservationId)) {
+        if(discount.isPresent() && isDiscountCodeUsageExceeded(reservationId)) {
             throw new TooManyTicketsForDiscountCodeException();
         }
         return reservationId;
     }
 
     public Pair<List<TicketReservation>, Integer> findAllReservationsInEvent(int eventId, Integer page, String search, List<TicketReservationStatus> status) {
+        KeysetPage<TicketReservation> result = findReservationsInEvent(eventId, page, null, true, search, status);
+        return Pair.of(result.getContent(), result.getCount());
+    }
+
+    /**
+     * Load a page of reservations. If a page token is provided, the page starts right after the element referenced
+     * by the token and the page number is ignored.
+     *
+     * @param count whether the total number of matching reservations must be computed
+     */
+    public KeysetPage<TicketReservation> findReservationsInEvent(int eventId, Integer page, String pageToken, boolean count, String search, List<TicketReservationStatus> status) {
         final int pageSize = 50;
-        int offset = page == null ? 0 : page * pageSize;
         String toSearch = StringUtils.trimToNull(search);
         toSearch = toSearch == null ? null : ("%" + toSearch + "%");
         List<String> toFilter = (status == null || status.isEmpty() ? Arrays.asList(TicketReservationStatus.values()) : status).stream().map(TicketReservationStatus::toString).collect(toList());
-        List<TicketReservation> reservationsForEvent = ticketSearchRepository.findReservationsForEvent(eventId, offset, pageSize, toSearch, toFilter);
-        return Pair.of(reservationsForEvent, ticketSearchRepository.countReservationsForEvent(eventId, toSearch, toFilter));
+        List<TicketReservation> reservationsForEvent;
+        if(pageToken != null) {
+            PageToken after = PageToken.decode(pageToken);
+            reservationsForEvent = ticketSearchRepository.findReservationsForEventAfter(eventId, after.getTimestamp(0), after.getDate(1), after.getString(2), pageSize, toSearch, toFilter);
+        } else {
+            int offset = page == null ? 0 : page * pageSize;
+            reservationsForEvent = ticketSearchRepository.findReservationsForEvent(eventId, offset, pageSize, toSearch, toFilter);
+        }
+        Integer total = count ? ticketSearchRepository.countReservationsForEvent(eventId, toSearch, toFilter) : null;
+        return KeysetPage.of(reservationsForEvent, pageSize, total, r -> PageToken.encode(TicketSearchRepository.sortKey(r)));
+    }
+
+    private static TicketCategory getActiveCategory(Map<Integer, TicketCategory> categories, int categoryId) {
+        return Optional.ofNullable(categories.get(categoryId))
+            .orElseThrow(() -> new IllegalArgumentException("ticket category " + categoryId + " is not active"));
     }
 
     void reserveTicketsForCategory(Event event, Optional<String> specialPriceSessionId, String transactionId, TicketReservationWithOptionalCodeModification ticketReservation, Locale locale, boolean forWaitingQueue, PromoCodeDiscount discount) {
+        TicketCategory category = ticketCategoryRepository.getByIdAndActive(ticketReservation.getTicketCategoryId(), event.getId());
+        reserveTicketsForCategory(event, category, specialPriceSessionId, transactionId, ticketReservation, locale, forWaitingQueue, discount);
+    }
+
+    private void reserveTicketsForCategory(Event event, TicketCategory category, Optional<String> specialPriceSessionId, String transactionId, TicketReservationWithOptionalCodeModification ticketReservation, Locale locale, boolean forWaitingQueue, PromoCodeDiscount discount) {
         //first check if there is another pending special price token bound to the current sessionId
-        Optional<SpecialPrice> specialPrice = fixToken(ticketReservation.getSpecialPrice(), ticketReservation.getTicketCategoryId(), event.getId(), specialPriceSessionId, ticketReservation);
+        Optional<SpecialPrice> specialPrice = fixToken(ticketReservation.getSpecialPrice(), category, specialPriceSessionId, ticketReservation);
 
-        List<Integer> reservedForUpdate = reserveTickets(event.getId(), ticketReservation, forWaitingQueue ? asList(TicketStatus.RELEASED, TicketStatus.PRE_RESERVED) : singletonList(TicketStatus.FREE));
+        List<Integer> reservedForUpdate = reserveTickets(event, category, ticketReservation.getAmount(), forWaitingQueue ? asList(TicketStatus.RELEASED, TicketStatus.PRE_RESERVED) : singletonList(TicketStatus.FREE));
         int requested = ticketReservation.getAmount();
         if (reservedForUpdate.size() != requested) {
             throw new NotEnoughTicketsException();
         }
 
-        TicketCategory category = ticketCategoryRepository.getByIdAndActive(ticketReservation.getTicketCategoryId(), event.getId());
-        if (specialPrice.isPresent()) {
-            if(reservedForUpdate.size() != 1) {
-                throw new NotEnoughTicketsException();
-            }
-            SpecialPrice sp = specialPrice.get();
-            ticketRepository.reserveTicket(transactionId, reservedForUpdate.stream().findFirst().orElseThrow(IllegalStateException::new),sp.getId(), locale.getLanguage(), category.getSrcPriceCts());
-            specialPriceRepository.updateStatus(sp.getId(), Status.PENDING.toString(), sp.getSessionIdentifier());
-        } else {
-            ticketRepository.reserveTickets(transactionId, reservedForUpdate, ticketReservation.getTicketCategoryId(), locale.getLanguage(), category.getSrcPriceCts());
+        if (specialPrice.isPresent() && reservedForUpdate.size() != 1) {
+            throw new NotEnoughTicketsException();
         }
-        Ticket ticket = ticketRepository.findById(reservedForUpdate.get(0), category.getId());
-        TicketPriceContainer priceContainer = TicketPriceContainer.from(ticket, null, event, discount);
-        ticketRepository.updateTicketPrice(reservedForUpdate, category.getId(), event.getId(), category.getSrcPriceCts(), MonetaryUtil.unitToCents(priceContainer.getFinalPrice()), MonetaryUtil.unitToCents(priceContainer.getVAT()), MonetaryUtil.unitToCents(priceContainer.getAppliedDiscount()));
+        // all the tickets have the same price, so we can reserve them and set their price with a single statement
+        TicketCategoryPriceContainer priceContainer = TicketCategoryPriceContainer.from(category, event, discount);
+        ticketRepository.reserveTicketsWithPrice(transactionId, reservedForUpdate, specialPrice.map(SpecialPrice::getId).orElse(null), category.getId(), locale.getLanguage(),
+            category.getSrcPriceCts(), unitToCents(priceContainer.getFinalPrice()), unitToCents(priceContainer.getVAT()), unitToCents(priceContainer.getAppliedDiscount()));
+        specialPrice.ifPresent(sp -> specialPriceRepository.updateStatus(sp.getId(), Status.PENDING.toString(), sp.getSessionIdentifier()));
     }
 
-    private void reserveAdditionalServicesForReservation(int eventId, String transactionId, ASReservationWithOptionalCodeModification additionalServiceReservation, PromoCodeDiscount discount) {
-        Optional.ofNullable(additionalServiceReservation.getAdditionalServiceId())
-            .flatMap(id -> optionally(() -> additionalServiceRepository.getById(id, eventId)))
+    private List<MapSqlParameterSource> prepareAdditionalServiceItems(Event event, List<AdditionalService> eventAdditionalServices, String transactionId, ASReservationWithOptionalCodeModification additionalServiceReservation, PromoCodeDiscount discount) {
+        return Optional.ofNullable(additionalServiceReservation.getAdditionalServiceId())
+            .flatMap(id -> eventAdditionalServices.stream().filter(as -> as.getId() == id).findFirst())
             .filter(as -> additionalServiceReservation.getQuantity() > 0 && (as.isFixPrice() || Optional.ofNullable(additionalServiceReservation.getAmount()).filter(a -> a.compareTo(BigDecimal.ZERO) > 0).isPresent()))
-            .map(as -> Pair.of(eventRepository.findById(eventId), as))
-            .ifPresent(pair -> {
-                Event e = pair.getKey();
-                AdditionalService as = pair.getValue();
-                IntStream.range(0, additionalServiceReservation.getQuantity())
-                    .forEach(i -> {
-                        AdditionalServicePriceContainer pc = AdditionalServicePriceContainer.from(additionalServiceReservation.getAmount(), as, e, discount);
-                        additionalServiceItemRepository.insert(UUID.randomUUID().toString(), ZonedDateTime.now(Clock.systemUTC()), transactionId,
-                            as.getId(), AdditionalServiceItemStatus.PENDING, eventId, pc.getSrcPriceCts(), unitToCents(pc.getFinalPrice()), unitToCents(pc.getVAT()), unitToCents(pc.getAppliedDiscount()));
-                    });
-            });
+            .map(as -> {
+                AdditionalServicePriceContainer pc = AdditionalServicePriceContainer.from(additionalServiceReservation.getAmount(), as, event, discount);
+                Date creation = Date.from(ZonedDateTime.now(Clock.systemUTC()).toInstant());
+                return IntStream.range(0, additionalServiceReservation.getQuantity())
+                    .mapToObj(i -> new MapSqlParameterSource("uuid", UUID.randomUUID().toString())
+                        .addValue("creation", creation)
+                        .addValue("ticketsReservationUuid", transactionId)
+                        .addValue("additionalServiceId", as.getId())
+                        .addValue("status", AdditionalServiceItemStatus.PENDING.name())
+                        .addValue("eventId", event.getId())
+                        .addValue("srcPriceCts", pc.getSrcPriceCts())
+                        .addValue("finalPriceCts", unitToCents(pc.getFinalPrice()))
+                        .addValue("vatCts", unitToCents(pc.getVAT()))
+                        .addValue("discountCts", unitToCents(pc.getAppliedDiscount())))
+                    .collect(toList());
+            }).orElse(Collections.emptyList());
+    }
 
+    List<Integer> reserveTickets(Event event, TicketReservationWithOptionalCodeModification ticketReservation, List<TicketStatus> requiredStatuses) {
+        return reserveTickets(event, ticketReservation.getTicketCategoryId(), ticketReservation.getAmount(), requiredStatuses);
     }
 
-    List<Integer> reserveTickets(int eventId, TicketReservationWithOptionalCodeModification ticketReservation, List<TicketStatus> requiredStatuses) {
-        return reserveTickets(eventId, ticketReservation.getTicketCategoryId(), ticketReservation.getAmount(), requiredStatuses);
+    List<Integer> reserveTickets(Event event, int categoryId, int qty, List<TicketStatus> requiredStatuses) {
+        return reserveTickets(event, ticketCategoryRepository.getByIdAndActive(categoryId, event.getId()), qty, requiredStatuses);
     }
 
-    List<Integer> reserveTickets(int eventId , int categoryId, int qty, List<TicketStatus> requiredStatuses) {
-        TicketCategory category = ticketCategoryRepository.getByIdAndActive(categoryId, eventId);
+    private List<Integer> reserveTickets(Event event, TicketCategory category, int qty, List<TicketStatus> requiredStatuses) {
+        int eventId = event.getId();
+        int categoryId = category.getId();
         List<String> statusesAsString = requiredStatuses.stream().map(TicketStatus::name).collect(toList());
+        if(configurationManager.getBooleanConfigValue(Configuration.from(event.getOrganizationId(), eventId, SKIP_LOCKED_TICKET_ALLOCATION), false)) {
+            Optional<List<Integer>> ids = reserveTicketsSkippingLocked(eventId, category, qty, statusesAsString);
+            if(ids.isPresent()) {
+                return ids.get();
+            }
+            // the missing tickets are locked by concurrent reservations, which might be rolled back.
+            // We fall back to the blocking selection in order to wait for them, so that we report a sold-out only if there are really no tickets left.
+            log.trace("cannot find {} unlocked tickets for category {}. Falling back to blocking selection", qty, categoryId);
+        }
         if(category.isBounded()) {
             return ticketRepository.selectTicketInCategoryForUpdate(eventId, categoryId, qty, statusesAsString);
         }
         return ticketRepository.selectNotAllocatedTicketsForUpdate(eventId, qty, statusesAsString);
     }
 
-    Optional<SpecialPrice> fixToken(Optional<SpecialPrice> token, int ticketCategoryId, int eventId, Optional<String> specialPriceSessionId, TicketReservationWithOptionalCodeModification ticketReservation) {
+    /**
+     * Try to lock the requested amount of tickets, skipping those already locked by concurrent reservations.
+     * The selection runs in a nested transaction (savepoint) which is rolled back if we cannot find enough tickets:
+     * this way we release the partial locks before falling back to the blocking selection, thus avoiding deadlocks.
+     *
+     * @return the locked ticket ids, or an empty Optional if there are not enough unlocked tickets
+     */
+    private Optional<List<Integer>> reserveTicketsSkippingLocked(int eventId, TicketCategory category, int qty, List<String> statusesAsString) {
+        return Optional.ofNullable(nestedTransactionTemplate.execute(status -> {
+            List<Integer> ids = category.isBounded() ? ticketRepository.selectTicketInCategoryForUpdateSkipLocked(eventId, category.getId(), qty, statusesAsString)
+                : ticketRepository.selectNotAllocatedTicketsForUpdateSkipLocked(eventId, qty, statusesAsString);
+            if(ids.size() != qty) {
+                status.setRollbackOnly();
+                return null;
+            }
+            return ids;
+        }));
+    }
 
-        TicketCategory ticketCategory = ticketCategoryRepository.getByIdAndActive(ticketCategoryId, eventId);
+    Optional<SpecialPrice> fixToken(Optional<SpecialPrice> token, TicketCategory ticketCategory, Optional<String> specialPriceSessionId, TicketReservationWithOptionalCodeModification ticketReservation) {
+
+        int ticketCategoryId = ticketCategory.getId();
         if(!ticketCategory.isAccessRestricted()) {
             return Optional.empty();
         }
@@ -350,6 +429,18 @@ public class TicketReservationManager {
         return specialPrice;
     }
 
+    /**
+     * Perform the payment for the given reservation, in three steps:
+     * <ol>
+     *     <li>the reservation is validated and, if a payment is required, claimed by moving it from {@link TicketReservationStatus#PENDING}
+     *     to {@link TicketReservationStatus#IN_PAYMENT} in a short transaction. If the claim fails, another request is already paying for it</li>
+     *     <li>the payment provider is called without any database transaction, so that no locks are held during the remote call</li>
+     *     <li>the reservation is completed, and the invoice number assigned, in a second short transaction, only if it is still in the
+     *     state left by the payment. Otherwise the claim is released by moving the reservation back to {@link TicketReservationStatus#PENDING}</li>
+     * </ol>
+     * If the caller has already started a transaction, the steps will join it.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public PaymentResult performPayment( PaymentSpecification spec, TotalPrice reservationCost, Optional<String> specialPriceSessionId, Optional<PaymentProxy> method) {
         PaymentProxy paymentProxy = evaluatePaymentProxy(method, reservationCost);
 
@@ -358,53 +449,100 @@ public class TicketReservationManager {
             return PaymentResult.failed("error.STEP2_WHITELIST");
         }
 
-        if(!initPaymentProcess(reservationCost, paymentProxy, spec)) {
-            return PaymentResult.failed("error.STEP2_UNABLE_TO_TRANSITION");
-        }
         try {
-            PaymentResult paymentResult;
-            ticketReservationRepository.lockReservationForUpdate(spec.getReservationId());
-            if(isDiscountCodeUsageExceeded(spec.getReservationId())) {
-                return PaymentResult.failed(ErrorsCode.STEP_2_DISCOUNT_CODE_USAGE_EXCEEDED);
-            }
-            if(reservationCost.getPriceWithVAT() > 0) {
-                if(spec.isInvoiceRequested() && configurationManager.hasAllConfigurationsForInvoice(spec.getEvent())) {
-                    int invoiceSequence = invoiceSequencesRepository.lockReservationForUpdate(spec.getEvent().getOrganizationId());
-                    invoiceSequencesRepository.incrementSequenceFor(spec.getEvent().getOrganizationId());
-                    String pattern = configurationManager.getStringConfigValue(Configuration.from(spec.getEvent().getOrganizationId(), spec.getEvent().getId(), ConfigurationKeys.INVOICE_NUMBER_PATTERN), "%d");
-                    ticketReservationRepository.setInvoiceNumber(spec.getReservationId(), String.format(pattern, invoiceSequence));
+            Pair<PaymentResult, Boolean> preparation = transactionTemplate.execute(status -> {
+                PaymentResult result = preparePayment(spec, reservationCost, paymentProxy);
+                if(result != null) {
+                    status.setRollbackOnly();
                 }
-                ticketReservationRepository.updateBillingData(spec.getVatStatus(), spec.getVatNr(), spec.getVatCountryCode(), spec.isInvoiceRequested(), spec.getReservationId());
-
-                //
-                extensionManager.handleInvoiceGeneration(spec, reservationCost, ticketReservationRepository.getBillingDetailsForReservation(spec.getReservationId()))
-                    .ifPresent(invoiceGeneration -> {
-                        if (invoiceGeneration.getInvoiceNumber() != null) {
-                            ticketReservationRepository.setInvoiceNumber(spec.getReservationId(), invoiceGeneration.getInvoiceNumber());
-                        }
-                    });
+                return Pair.of(result, result == null && isInvoiceNumberRequired(spec, reservationCost));
+            });
+            if(preparation.getLeft() != null) {
+                return preparation.getLeft();
+            }
 
+            PaymentResult paymentResult;
+            if(reservationCost.getPriceWithVAT() > 0) {
                 paymentResult = paymentManager.lookupProviderByMethod(paymentProxy.getPaymentMethod(), spec.getPaymentContext())
                     .map( paymentProvider -> paymentProvider.getTokenAndPay(spec) )
                     .orElseGet( () -> PaymentResult.failed("error.STEP2_STRIPE_unexpected") );
-
             } else {
                 paymentResult = PaymentResult.successful(NOT_YET_PAID_TRANSACTION_ID);
             }
 
-            if (paymentResult.isSuccessful()) {
-                completeReservation( spec, specialPriceSessionId, paymentProxy );
-            } else if(paymentResult.isFailed()) {
-                reTransitionToPending(spec.getReservationId());
-            }
-            return paymentResult;
+            return transactionTemplate.execute(status -> {
+                if (paymentResult.isSuccessful()) {
+                    TicketReservationStatus expectedStatus = statusAfterPayment(reservationCost, paymentProxy);
+                    String currentStatus = ticketReservationRepository.lockReservationStatusForUpdate(spec.getReservationId());
+                    if(!expectedStatus.name().equals(currentStatus)) {
+                        log.error("payment {} for reservation {} has been completed, but the reservation is now {} instead of {}. Manual intervention is required.",
+                            paymentResult.getGatewayId().orElse(null), spec.getReservationId(), currentStatus, expectedStatus);
+                        return PaymentResult.failed("error.STEP2_UNABLE_TO_TRANSITION");
+                    }
+                    completeReservation( spec, specialPriceSessionId, paymentProxy );
+                    if(preparation.getRight()) {
+                        assignInvoiceNumber(spec);
+                    }
+                } else if(reservationCost.getPriceWithVAT() > 0) {
+                    //failed, or waiting for an external confirmation: the reservation can be paid again
+                    reTransitionToPending(spec.getReservationId());
+                }
+                return paymentResult;
+            });
         } catch(Exception ex) {
             //it is guaranteed that in this case we're dealing with "local" error (e.g. database failure),
             //thus it is safer to not rollback the reservation status
             log.error("unexpected error during payment confirmation", ex);
             return PaymentResult.failed("error.STEP2_STRIPE_unexpected");
+        } finally {
+            orderSummaryCache.invalidate(spec.getReservationId());
+        }
+
+    }
+
+    /**
+     * @return the failure, if the payment cannot be performed
+     */
+    private PaymentResult preparePayment(PaymentSpecification spec, TotalPrice reservationCost, PaymentProxy paymentProxy) {
+        if(!initPaymentProcess(reservationCost, paymentProxy, spec)) {
+            return PaymentResult.failed("error.STEP2_UNABLE_TO_TRANSITION");
+        }
+        if(isDiscountCodeUsageExceeded(spec.getReservationId())) {
+            return PaymentResult.failed(ErrorsCode.STEP_2_DISCOUNT_CODE_USAGE_EXCEEDED);
+        }
+        if(reservationCost.getPriceWithVAT() > 0) {
+            ticketReservationRepository.updateBillingData(spec.getVatStatus(), spec.getVatNr(), spec.getVatCountryCode(), spec.isInvoiceRequested(), spec.getReservationId());
+
+            //
+            extensionManager.handleInvoiceGeneration(spec, reservationCost, ticketReservationRepository.getBillingDetailsForReservation(spec.getReservationId()))
+                .ifPresent(invoiceGeneration -> {
+                    if (invoiceGeneration.getInvoiceNumber() != null) {
+                        ticketReservationRepository.setInvoiceNumber(spec.getReservationId(), invoiceGeneration.getInvoiceNumber());
+                    }
+                });
         }
+        return null;
+    }
 
+    private boolean isInvoiceNumberRequired(PaymentSpecification spec, TotalPrice reservationCost) {
+        return reservationCost.getPriceWithVAT() > 0
+            && spec.isInvoiceRequested()
+            && configurationManager.hasAllConfigurationsForInvoice(spec.getEvent());
+    }
+
+    /**
+     * Invoice numbers must not have gaps, therefore they are assigned only after a successful payment.
+     * The sequence row stays locked until the end of the transaction, so this must be the last step before the commit.
+     */
+    private void assignInvoiceNumber(PaymentSpecification spec) {
+        if(ticketReservationRepository.findReservationById(spec.getReservationId()).getHasInvoiceNumber()) {
+            //already assigned by an extension
+            return;
+        }
+        int organizationId = spec.getEvent().getOrganizationId();
+        String pattern = configurationManager.getStringConfigValue(Configuration.from(organizationId, spec.getEvent().getId(), ConfigurationKeys.INVOICE_NUMBER_PATTERN), "%d");
+        int invoiceSequence = invoiceSequencesRepository.allocateSequenceFor(organizationId);
+        ticketReservationRepository.setInvoiceNumber(spec.getReservationId(), String.format(pattern, invoiceSequence));
     }
 
     private boolean isDiscountCodeUsageExceeded(String reservationId) {
@@ -442,19 +580,35 @@ public class TicketReservationManager {
         return PaymentProxy.STRIPE;
     }
 
+    /**
+     * Claim the reservation for the payment. The conditional update locks the reservation until the end of the transaction.
+     * Free reservations are not claimed, since the payment provider is not involved: the completion step locks them anyway.
+     */
     private boolean initPaymentProcess(TotalPrice reservationCost, PaymentProxy paymentProxy, PaymentSpecification spec) {
-        if(reservationCost.getPriceWithVAT() > 0 && paymentProxy == PaymentProxy.STRIPE) {
-            try {
-                transitionToInPayment(spec);
-            } catch (Exception e) {
-                //unable to do the transition. Exiting.
-                log.debug(String.format("unable to flag the reservation %s as IN_PAYMENT", spec.getReservationId()), e);
-                return false;
-            }
+        if(reservationCost.getPriceWithVAT() == 0) {
+            return true;
+        }
+        String reservationId = spec.getReservationId();
+        orderSummaryCache.invalidate(reservationId);
+        if(ticketReservationRepository.updateReservationStatusIfCurrent(reservationId, TicketReservationStatus.PENDING.name(), IN_PAYMENT.name()) != 1
+            || (paymentProxy == PaymentProxy.STRIPE && !transitionToInPayment(spec))) {
+            //unable to do the transition. Exiting.
+            log.debug("unable to flag the reservation {} as IN_PAYMENT", reservationId);
+            return false;
         }
         return true;
     }
 
+    /**
+     * @return the status of the reservation after a successful call to the payment provider
+     */
+    private static TicketReservationStatus statusAfterPayment(TotalPrice reservationCost, PaymentProxy paymentProxy) {
+        if(reservationCost.getPriceWithVAT() == 0) {
+            return TicketReservationStatus.PENDING;
+        }
+        return paymentProxy == PaymentProxy.OFFLINE ? TicketReservationStatus.OFFLINE_PAYMENT : IN_PAYMENT;
+    }
+
     private boolean acquireGroupMembers(String reservationId, Event event) {
         int eventId = event.getId();
         List<LinkedGroup> linkedGroups = groupManager.getLinksForEvent(eventId);
@@ -498,7 +652,7 @@ public class TicketReservationManager {
     }
 
     void registerAlfioTransaction(Event event, String reservationId, PaymentProxy paymentProxy) {
-        int priceWithVAT = totalReservationCostWithVAT(reservationId).getPriceWithVAT();
+        int priceWithVAT = totalReservationCostWithVATForPayment(reservationId).getPriceWithVAT();
         Long platformFee = FeeCalculator.getCalculator(event, configurationManager)
             .apply(ticketRepository.countTicketsInReservation(reservationId), (long) priceWithVAT)
             .orElse(0L);
@@ -583,15 +737,12 @@ public class TicketReservationManager {
         return prepareModelForReservationEmail(event, reservation, vat, summary);
     }
 
-    private void transitionToInPayment(PaymentSpecification spec) {
-        requiresNewTransactionTemplate.execute(status -> {
-            int updatedReservation = ticketReservationRepository.updateTicketReservation(spec.getReservationId(),
-                IN_PAYMENT.toString(), spec.getEmail(), spec.getCustomerName().getFullName(),
-                spec.getCustomerName().getFirstName(), spec.getCustomerName().getLastName(),
-                spec.getLocale().getLanguage(), spec.getBillingAddress(),null, PaymentProxy.STRIPE.toString(), spec.getCustomerReference());
-            Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got " + updatedReservation);
-            return null;
-        });
+    private boolean transitionToInPayment(PaymentSpecification spec) {
+        int updatedReservation = ticketReservationRepository.updateTicketReservation(spec.getReservationId(),
+            IN_PAYMENT.toString(), spec.getEmail(), spec.getCustomerName().getFullName(),
+            spec.getCustomerName().getFirstName(), spec.getCustomerName().getLastName(),
+            spec.getLocale().getLanguage(), spec.getBillingAddress(),null, PaymentProxy.STRIPE.toString(), spec.getCustomerReference());
+        return updatedReservation == 1;
     }
 
     public static boolean hasValidOfflinePaymentWaitingPeriod(PaymentContext context, ConfigurationManager configurationManager) {
@@ -614,8 +765,12 @@ public class TicketReservationManager {
     }
 
     private void reTransitionToPending(String reservationId) {
-        int updatedReservation = ticketReservationRepository.updateReservationStatus(reservationId, TicketReservationStatus.PENDING.toString());
-        Validate.isTrue(updatedReservation == 1, "expected exactly one updated reservation, got "+updatedReservation);
+        int updatedReservation = ticketReservationRepository.updateReservationStatusIfCurrent(reservationId, IN_PAYMENT.name(), TicketReservationStatus.PENDING.name());
+        if(updatedReservation == 0) {
+            //e.g. the provider has already moved the reservation to EXTERNAL_PROCESSING_PAYMENT
+            log.debug("reservation {} is not IN_PAYMENT anymore, status has not been modified", reservationId);
+        }
+        orderSummaryCache.invalidate(reservationId);
     }
     
     //check internal consistency between the 3 values
@@ -669,6 +824,7 @@ public class TicketReservationManager {
                               String userLanguage, String billingAddress, String customerReference, int eventId) {
         Map<Integer, Ticket> preUpdateTicket = ticketRepository.findTicketsInReservation(reservationId).stream().collect(toMap(Ticket::getId, Function.identity()));
         int updatedTickets = ticketRepository.updateTicketsStatusWithReservationId(reservationId, ticketStatus.toString());
+        orderSummaryCache.invalidate(reservationId);
 
         List<Ticket> ticketsInReservation = ticketRepository.findTicketsInReservation(reservationId);
         Map<Integer, Ticket> postUpdateTicket = ticketsInReservation.stream().collect(toMap(Ticket::getId, Function.identity()));
@@ -716,32 +872,6 @@ public class TicketReservationManager {
         };
     }
 
-    @Transactional
-    public void cleanupExpiredReservations(Date expirationDate) {
-        List<String> expiredReservationIds = ticketReservationRepository.findExpiredReservationForUpdate(expirationDate);
-        if(expiredReservationIds.isEmpty()) {
-            return;
-        }
-        
-        specialPriceRepository.resetToFreeAndCleanupForReservation(expiredReservationIds);
-        ticketRepository.resetCategoryIdForUnboundedCategories(expiredReservationIds);
-        ticketFieldRepository.deleteAllValuesForReservations(expiredReservationIds);
-        ticketRepository.freeFromReservation(expiredReservationIds);
-        waitingQueueManager.cleanExpiredReservations(expiredReservationIds);
-
-        //
-        Map<Integer, List<ReservationIdAndEventId>> reservationIdsByEvent = ticketReservationRepository
-            .getReservationIdAndEventId(expiredReservationIds)
-            .stream()
-            .collect(Collectors.groupingBy(ReservationIdAndEventId::getEventId));
-        reservationIdsByEvent.forEach((eventId, reservations) -> {
-            Event event = eventRepository.findById(eventId);
-            extensionManager.handleReservationsExpiredForEvent(event, reservations.stream().map(ReservationIdAndEventId::getId).collect(Collectors.toList()));
-        });
-        //
-        ticketReservationRepository.remove(expiredReservationIds);
-    }
-
     public void cleanupExpiredOfflineReservations(Date expirationDate) {
         ticketReservationRepository.findExpiredOfflineReservationsForUpdate(expirationDate)
             .forEach(this::cleanupOfflinePayment);
@@ -825,6 +955,19 @@ public class TicketReservationManager {
      * @return
      */
     public TotalPrice totalReservationCostWithVAT(String reservationId) {
+        return orderSummaryCache.getTotalPrice(reservationId, () -> loadTotalReservationCostWithVAT(reservationId));
+    }
+
+    /**
+     * Same as {@link #totalReservationCostWithVAT(String)}, but always loaded from the database, since the cache could
+     * still hold a value computed before a modification made on another node.
+     * Must be used for computing the amount to be charged.
+     */
+    public TotalPrice totalReservationCostWithVATForPayment(String reservationId) {
+        return loadTotalReservationCostWithVAT(reservationId);
+    }
+
+    private TotalPrice loadTotalReservationCostWithVAT(String reservationId) {
         TicketReservation reservation = ticketReservationRepository.findReservationById(reservationId);
         
         Optional<PromoCodeDiscount> promoCodeDiscount = Optional.ofNullable(reservation.getPromoCodeDiscountId()).map(promoCodeDiscountRepository::findById);
@@ -855,8 +998,19 @@ public class TicketReservationManager {
     }
 
     public OrderSummary orderSummaryForReservationId(String reservationId, Event event, Locale locale) {
+        return orderSummaryCache.getOrderSummary(reservationId, locale, () -> loadOrderSummary(reservationId, event, locale, totalReservationCostWithVAT(reservationId)));
+    }
+
+    /**
+     * Uncached version of {@link #orderSummaryForReservationId(String, Event, Locale)}, to be used when the order summary
+     * is sent to the payment provider. See {@link #totalReservationCostWithVATForPayment(String)}.
+     */
+    public OrderSummary orderSummaryForPayment(String reservationId, Event event, Locale locale) {
+        return loadOrderSummary(reservationId, event, locale, loadTotalReservationCostWithVAT(reservationId));
+    }
+
+    private OrderSummary loadOrderSummary(String reservationId, Event event, Locale locale, TotalPrice reservationCost) {
         TicketReservation reservation = ticketReservationRepository.findReservationById(reservationId);
-        TotalPrice reservationCost = totalReservationCostWithVAT(reservationId);
         PromoCodeDiscount discount = Optional.ofNullable(reservation.getPromoCodeDiscountId()).map(promoCodeDiscountRepository::findById).orElse(null);
         //
         boolean free = reservationCost.getPriceWithVAT() == 0;
@@ -1000,6 +1154,7 @@ public class TicketReservationManager {
         //
         int removedReservation = ticketReservationRepository.remove(wrappedReservationIdToRemove);
         Validate.isTrue(removedReservation == 1, "expected exactly one removed reservation, got " + removedReservation);
+        orderSummaryCache.invalidate(reservationIdToRemove);
     }
 
     public Optional<SpecialPrice> getSpecialPriceByCode(String code) {
@@ -1350,6 +1505,7 @@ public class TicketReservationManager {
         //#365 - reset UUID when releasing a ticket
         int result = ticketRepository.releaseTicket(reservationId, UUID.randomUUID().toString(), event.getId(), ticket.getId());
         Validate.isTrue(result == 1, String.format("Expected 1 row to be updated, got %d", result));
+        orderSummaryCache.invalidate(reservationId);
         if(category.isAccessRestricted() || !category.isBounded()) {
             ticketRepository.unbindTicketsFromCategory(event.getId(), category.getId(), singletonList(ticket.getId()));
         }
@@ -1454,5 +1610,6 @@ public class TicketReservationManager {
             customerName.getFullName(), customerName.getFirstName(), customerName.getLastName(),
             email, billingAddressCompany, billingAddressLine1, billingAddressLine2, billingAddressZip,
             billingAddressCity, completeBillingAddress, vatCountryCode, vatNr, isInvoiceRequested, skipVatNr, customerReference, validated);
+        orderSummaryCache.invalidate(reservationId);
     }
 }
@@ -0,0 +1,121 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.MetricsProvider;
+import alfio.model.TicketStatusCounterDifference;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketStatusCounterRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the ticket_status_counter table (used for computing availability and statistics) against the actual ticket counts.
+ * The ticket_category_statistics and events_statistics views are computed from the counters, so they don't need to be
+ * rebuilt separately.
+ */
+@Component
+@RequiredArgsConstructor
+@Log4j2
+public class TicketStatusCounterManager implements MetricsProvider {
+
+    private final TicketStatusCounterRepository ticketStatusCounterRepository;
+    private final EventRepository eventRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final AtomicLong totalCorrections = new AtomicLong();
+    private final AtomicLong compactedCounters = new AtomicLong();
+    private volatile int lastRunCorrections;
+    private volatile long lastRunDurationMillis;
+
+    public int reconcileActiveEvents() {
+        return reconcile(eventRepository.findAllActiveIds(ZonedDateTime.now(ZoneId.of("UTC"))));
+    }
+
+    public int reconcile(List<Integer> eventIds) {
+        if(eventIds.isEmpty()) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        int corrections = ticketStatusCounterRepository.reconcile(eventIds);
+        ticketStatusCounterRepository.deleteEmptyCounters();
+        lastRunDurationMillis = System.currentTimeMillis() - start;
+        lastRunCorrections = corrections;
+        totalCorrections.addAndGet(corrections);
+        if(corrections > 0) {
+            log.warn("corrected {} ticket counters for events {}", corrections, eventIds);
+        }
+        return corrections;
+    }
+
+    /**
+     * Folds the per-transaction slots into slot 0, so that reading a counter doesn't need to sum many rows.
+     */
+    public int compact() {
+        int counters = ticketStatusCounterRepository.compact();
+        compactedCounters.addAndGet(counters);
+        return counters;
+    }
+
+    /**
+     * Consistency check: returns the counters of the given event which don't match the content of the ticket table.
+     */
+    public List<TicketStatusCounterDifference> check(int eventId) {
+        return ticketStatusCounterRepository.findDifferences(Collections.singletonList(eventId));
+    }
+
+    /**
+     * Computes the counters of the given event again from the ticket table. The difference is written into slot 0 by
+     * a single statement, so the deltas of concurrent transactions are neither lost nor counted twice.
+     *
+     * @return the number of corrected counters
+     */
+    public int rebuild(int eventId) {
+        int counters = new TransactionTemplate(transactionManager).execute(status -> {
+            int corrected = ticketStatusCounterRepository.reconcile(Collections.singletonList(eventId));
+            ticketStatusCounterRepository.deleteEmptyCounters(eventId);
+            return corrected;
+        });
+        log.info("rebuilt {} ticket counters for event {}", counters, eventId);
+        return counters;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "ticket-counters";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("totalCorrections", totalCorrections.get());
+        metrics.put("lastRunCorrections", lastRunCorrections);
+        metrics.put("lastRunDurationMillis", lastRunDurationMillis);
+        metrics.put("compactedCounters", compactedCounters.get());
+        return metrics;
+    }
+}
@@ -31,7 +31,10 @@ import org.springframework.jdbc.support.lob.DefaultLobHandler;
 import org.springframework.jdbc.support.lob.LobCreator;
 import org.springframework.jdbc.support.lob.LobHandler;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StreamUtils;
 
 import javax.imageio.ImageIO;
@@ -43,6 +46,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 @Transactional
@@ -54,6 +58,7 @@ public class UploadedResourceManager {
 
     private final NamedParameterJdbcTemplate jdbc;
     private final UploadedResourceRepository uploadedResourceRepository;
+    private final AtomicLong version = new AtomicLong();
 
     @Autowired
     public UploadedResourceManager(NamedParameterJdbcTemplate jdbc, UploadedResourceRepository uploadedResourceRepository) {
@@ -120,6 +125,7 @@ public class UploadedResourceManager {
     }
 
     public int saveResource(UploadBase64FileModification file) {
+        resourcesModified();
         if (hasResource(file.getName())) {
             uploadedResourceRepository.delete(file.getName());
         }
@@ -135,6 +141,7 @@ public class UploadedResourceManager {
     }
 
     public int saveResource(int organizationId, UploadBase64FileModification file) {
+        resourcesModified();
         if (hasResource(organizationId, file.getName())) {
             uploadedResourceRepository.delete(organizationId, file.getName());
         }
@@ -150,6 +157,7 @@ public class UploadedResourceManager {
     }
 
     public int saveResource(int organizationId, int eventId, UploadBase64FileModification file) {
+        resourcesModified();
         if (hasResource(organizationId, eventId, file.getName())) {
             uploadedResourceRepository.delete(organizationId, eventId, file.getName());
         }
@@ -176,17 +184,43 @@ public class UploadedResourceManager {
     }
 
     public void deleteResource(String name) {
+        resourcesModified();
         uploadedResourceRepository.delete(name);
     }
 
     public void deleteResource(int organizationId, String name) {
+        resourcesModified();
         uploadedResourceRepository.delete(organizationId, name);
     }
 
     public void deleteResource(int organizationId, int eventId, String name) {
+        resourcesModified();
         uploadedResourceRepository.delete(organizationId, eventId, name);
     }
 
+    /**
+     * The version is incremented every time a resource is saved or deleted, and again when the
+     * surrounding transaction completes. It can be used for invalidating data derived from the uploaded resources.
+     *
+     * @return the current version of the uploaded resources
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long getVersion() {
+        return version.get();
+    }
+
+    private void resourcesModified() {
+        version.incrementAndGet();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    version.incrementAndGet();
+                }
+            });
+        }
+    }
+
     public List<UploadedResource> findAll() {
         return uploadedResourceRepository.findAll();
     }
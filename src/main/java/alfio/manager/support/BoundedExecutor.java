@@ -0,0 +1,120 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * A lazily created pool of daemon threads, used for bulk operations (PDF rendering, passbook generation, mail dispatch,
+ * reservation import).
+ * <p>
+ * The parallelism is read each time the pool is requested, so that configuration changes are applied without
+ * restarting; the pool is created again if it has been shut down. The queue is bounded: if the workers cannot keep up,
+ * the caller runs the task by itself.
+ */
+@Log4j2
+public class BoundedExecutor {
+
+    private final String threadNamePrefix;
+    private final IntSupplier parallelism;
+    private final int queueCapacity;
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private volatile ThreadPoolExecutor executor;
+
+    /**
+     * @param threadNamePrefix the name of the worker threads, followed by a counter
+     * @param parallelism the number of workers, evaluated on each call to {@link #get()}
+     * @param queueCapacity the number of tasks which can wait for a worker
+     */
+    public BoundedExecutor(String threadNamePrefix, IntSupplier parallelism, int queueCapacity) {
+        this.threadNamePrefix = threadNamePrefix;
+        this.parallelism = parallelism;
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * @return the pool, sized according to the current parallelism
+     */
+    public ThreadPoolExecutor get() {
+        int size = Math.max(1, parallelism.getAsInt());
+        ThreadPoolExecutor current = executor;
+        if(current == null || current.isShutdown()) {
+            synchronized (this) {
+                current = executor;
+                if(current == null || current.isShutdown()) {
+                    current = create(size);
+                    executor = current;
+                }
+            }
+        }
+        if(current.getMaximumPoolSize() != size) {
+            resize(current, size);
+        }
+        return current;
+    }
+
+    private ThreadPoolExecutor create(int size) {
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, threadNamePrefix + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private synchronized void resize(ThreadPoolExecutor pool, int size) {
+        if(pool.getMaximumPoolSize() == size) {
+            return;
+        }
+        log.info("resizing {} pool from {} to {} workers", threadNamePrefix, pool.getMaximumPoolSize(), size);
+        //the core size cannot exceed the maximum size
+        if(size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+
+    public int getActiveCount() {
+        ThreadPoolExecutor current = executor;
+        return current != null ? current.getActiveCount() : 0;
+    }
+
+    public int getQueueSize() {
+        ThreadPoolExecutor current = executor;
+        return current != null ? current.getQueue().size() : 0;
+    }
+
+    public void shutdown() {
+        ThreadPoolExecutor current = executor;
+        if(current != null) {
+            current.shutdown();
+        }
+    }
+}
@@ -16,8 +16,11 @@
  */
 package alfio.manager.support;
 
+import alfio.manager.EmailAttachmentCacheManager;
 import alfio.manager.EventManager;
 import alfio.manager.NotificationManager;
+import alfio.manager.PassBookManager;
+import alfio.manager.PdfRenderingManager;
 import alfio.manager.TicketReservationManager;
 import alfio.manager.system.Mailer;
 import alfio.model.Event;
@@ -26,21 +29,21 @@ import alfio.model.TicketCategory;
 import alfio.model.TicketReservation;
 import alfio.model.modification.MessageModification;
 import alfio.model.user.Organization;
-import alfio.repository.TicketCategoryRepository;
 import alfio.repository.TicketRepository;
 import alfio.util.Json;
 import alfio.util.TemplateManager;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.lang3.tuple.Triple;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.ui.ExtendedModelMap;
 import org.springframework.ui.Model;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -54,7 +57,9 @@ public class CustomMessageManager {
     private final TicketRepository ticketRepository;
     private final TicketReservationManager ticketReservationManager;
     private final NotificationManager notificationManager;
-    private final TicketCategoryRepository ticketCategoryRepository;
+    private final PdfRenderingManager pdfRenderingManager;
+    private final EmailAttachmentCacheManager attachmentCacheManager;
+    private final PassBookManager passBookManager;
     private final Executor sendMessagesExecutor = Executors.newSingleThreadExecutor();
 
     @Autowired
@@ -63,13 +68,17 @@ public class CustomMessageManager {
                                 TicketRepository ticketRepository,
                                 TicketReservationManager ticketReservationManager,
                                 NotificationManager notificationManager,
-                                TicketCategoryRepository ticketCategoryRepository) {
+                                PdfRenderingManager pdfRenderingManager,
+                                EmailAttachmentCacheManager attachmentCacheManager,
+                                PassBookManager passBookManager) {
         this.templateManager = templateManager;
         this.eventManager = eventManager;
         this.ticketRepository = ticketRepository;
         this.ticketReservationManager = ticketReservationManager;
         this.notificationManager = notificationManager;
-        this.ticketCategoryRepository = ticketCategoryRepository;
+        this.pdfRenderingManager = pdfRenderingManager;
+        this.attachmentCacheManager = attachmentCacheManager;
+        this.passBookManager = passBookManager;
     }
 
     public Map<String, Object> generatePreview(String eventName, Optional<Integer> categoryId, List<MessageModification> input, String username) {
@@ -89,43 +98,76 @@ public class CustomMessageManager {
         Map<String, List<MessageModification>> byLanguage = input.stream().collect(Collectors.groupingBy(m -> m.getLocale().getLanguage()));
 
         sendMessagesExecutor.execute(() -> {
-            categoryId.map(id -> ticketRepository.findConfirmedByCategoryId(event.getId(), id))
+            Map<Boolean, List<Ticket>> byAttachment = categoryId.map(id -> ticketRepository.findConfirmedByCategoryId(event.getId(), id))
                 .orElseGet(() -> ticketRepository.findAllConfirmed(event.getId()))
                 .stream()
                 .filter(t -> isNotBlank(t.getFullName()) && isNotBlank(t.getEmail()))
-                .parallel()
-                .map(t -> {
-                    Model model = new ExtendedModelMap();
-                    model.addAttribute("eventName", eventName);
-                    model.addAttribute("fullName", t.getFullName());
-                    model.addAttribute("organizationName", organization.getName());
-                    model.addAttribute("organizationEmail", organization.getEmail());
-                    model.addAttribute("reservationURL", ticketReservationManager.reservationUrl(t.getTicketsReservationId(), event));
-                    model.addAttribute("reservationID", ticketReservationManager.getShortReservationID(event, t.getTicketsReservationId()));
-                    model.addAttribute("ticketURL", ticketReservationManager.ticketUpdateUrl(event, t.getUuid()));
-                    return Triple.of(t, t.getEmail(), model);
-                })
-                .forEach(triple -> {
-                    Ticket ticket = triple.getLeft();
-                    MessageModification m = Optional.ofNullable(byLanguage.get(ticket.getUserLanguage())).orElseGet(() -> byLanguage.get(byLanguage.keySet().stream().findFirst().orElseThrow(IllegalStateException::new))).get(0);
-                    Model model = triple.getRight();
-                    String subject = renderResource(m.getSubject(), event, model, m.getLocale(), templateManager);
-                    String text = renderResource(m.getText(), event, model, m.getLocale(), templateManager);
-                    List<Mailer.Attachment> attachments = new ArrayList<>();
-                    if(m.isAttachTicket()) {
-                        ticketReservationManager.findById(ticket.getTicketsReservationId()).ifPresent(reservation -> {
-                            ticketCategoryRepository.getByIdAndActive(ticket.getCategoryId()).ifPresent(ticketCategory -> {
-                                attachments.add(generateTicketAttachment(ticket, reservation, ticketCategory, organization));
-                            });
-                        });
-                    }
-                    counter.incrementAndGet();
-                    notificationManager.sendSimpleEmail(event, triple.getMiddle(), subject, () -> text, attachments);
+                .collect(Collectors.partitioningBy(t -> selectMessage(t, byLanguage).isAttachTicket()));
+
+            byAttachment.get(false).parallelStream()
+                .forEach(t -> sendMessage(event, organization, eventName, t, selectMessage(t, byLanguage), Collections.emptyList(), counter));
+
+            List<Ticket> withAttachment = byAttachment.get(true);
+            if(withAttachment.isEmpty()) {
+                return;
+            }
+
+            //the passes and the PDFs are generated in parallel and stored in the attachment cache, so that they won't be generated again while
+            //sending the messages. This is only a warm-up: the attachments which are not in the cache are generated by the mail dispatcher, as usual
+            Map<Integer, TicketCategory> categories = eventManager.loadTicketCategories(event).stream().collect(Collectors.toMap(TicketCategory::getId, Function.identity()));
+            Map<Integer, Mailer.Attachment> prepared = new ConcurrentHashMap<>();
+            try {
+                //the passes are stored using the model of the ticket attachment
+                passBookManager.generatePassBooks(event, organization, withAttachment, (ticket, pass) ->
+                    Optional.ofNullable(categories.get(ticket.getCategoryId())).ifPresent(category ->
+                        attachmentCacheManager.store(Mailer.AttachmentIdentifier.PASSBOOK, ticketAttachmentModel(ticket, ticket.getTicketsReservationId(), category, organization), pass)));
+                pdfRenderingManager.renderTickets(event, organization, withAttachment, rendered -> {
+                    Mailer.Attachment attachment = generateTicketAttachment(rendered.getTicket(), rendered.getReservation(), rendered.getCategory(), organization);
+                    attachmentCacheManager.store(attachment.getIdentifier(), attachment.getModel(), rendered.getPdf());
+                    prepared.put(rendered.getTicket().getId(), attachment);
                 });
+            } catch (RuntimeException e) {
+                log.warn("error while preparing the attachments for event " + event.getShortName(), e);
+            }
+
+            withAttachment.parallelStream().forEach(t -> {
+                List<Mailer.Attachment> attachments = Optional.ofNullable(prepared.get(t.getId()))
+                    .map(Optional::of)
+                    .orElseGet(() -> ticketAttachment(t, categories, organization))
+                    .map(Collections::singletonList)
+                    .orElse(Collections.emptyList());
+                sendMessage(event, organization, eventName, t, selectMessage(t, byLanguage), attachments, counter);
+            });
         });
 
     }
 
+    private Optional<Mailer.Attachment> ticketAttachment(Ticket ticket, Map<Integer, TicketCategory> categories, Organization organization) {
+        return Optional.ofNullable(categories.get(ticket.getCategoryId()))
+            .filter(c -> c.getStatus() == TicketCategory.Status.ACTIVE)
+            .flatMap(category -> ticketReservationManager.findById(ticket.getTicketsReservationId())
+                .map(reservation -> generateTicketAttachment(ticket, reservation, category, organization)));
+    }
+
+    private static MessageModification selectMessage(Ticket ticket, Map<String, List<MessageModification>> byLanguage) {
+        return Optional.ofNullable(byLanguage.get(ticket.getUserLanguage())).orElseGet(() -> byLanguage.get(byLanguage.keySet().stream().findFirst().orElseThrow(IllegalStateException::new))).get(0);
+    }
+
+    private void sendMessage(Event event, Organization organization, String eventName, Ticket ticket, MessageModification m, List<Mailer.Attachment> attachments, AtomicInteger counter) {
+        Model model = new ExtendedModelMap();
+        model.addAttribute("eventName", eventName);
+        model.addAttribute("fullName", ticket.getFullName());
+        model.addAttribute("organizationName", organization.getName());
+        model.addAttribute("organizationEmail", organization.getEmail());
+        model.addAttribute("reservationURL", ticketReservationManager.reservationUrl(ticket.getTicketsReservationId(), event));
+        model.addAttribute("reservationID", ticketReservationManager.getShortReservationID(event, ticket.getTicketsReservationId()));
+        model.addAttribute("ticketURL", ticketReservationManager.ticketUpdateUrl(event, ticket.getUuid()));
+        String subject = renderResource(m.getSubject(), event, model, m.getLocale(), templateManager);
+        String text = renderResource(m.getText(), event, model, m.getLocale(), templateManager);
+        counter.incrementAndGet();
+        notificationManager.sendSimpleEmail(event, ticket.getEmail(), subject, () -> text, attachments);
+    }
+
     private List<MessageModification> preview(Event event, List<MessageModification> input, String username) {
         Model model = new ExtendedModelMap();
         Organization organization = eventManager.loadOrganizer(event, username);
@@ -143,12 +185,17 @@ public class CustomMessageManager {
     }
 
     public static Mailer.Attachment generateTicketAttachment(Ticket ticket, TicketReservation reservation, TicketCategory ticketCategory, Organization organization) {
+        Map<String, String> model = ticketAttachmentModel(ticket, reservation.getId(), ticketCategory, organization);
+        return new Mailer.Attachment("ticket-" + ticket.getUuid() + ".pdf", null, "application/pdf", model, Mailer.AttachmentIdentifier.TICKET_PDF);
+    }
+
+    private static Map<String, String> ticketAttachmentModel(Ticket ticket, String reservationId, TicketCategory ticketCategory, Organization organization) {
         Map<String, String> model = new HashMap<>();
         model.put("ticket", Json.toJson(ticket));
         model.put("ticketCategory", Json.toJson(ticketCategory));
-        model.put("reservationId", reservation.getId());
+        model.put("reservationId", reservationId);
         model.put("organizationId", Integer.toString(organization.getId()));
-        return new Mailer.Attachment("ticket-" + ticket.getUuid() + ".pdf", null, "application/pdf", model, Mailer.AttachmentIdentifier.TICKET_PDF);
+        return model;
     }
 
     private static String renderResource(String template, Event event, Model model, Locale locale, TemplateManager templateManager) {
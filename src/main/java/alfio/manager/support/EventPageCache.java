@@ -0,0 +1,167 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import alfio.manager.system.MetricsProvider;
+import alfio.util.Json;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache for the model of the public event page, keyed by event, language and access code context.
+ * <p>
+ * Every entry carries a fingerprint of the data used to build the page, which is used as ETag. The last-modified
+ * timestamp changes only if the fingerprint changes, so that browsers can revalidate cheaply even after
+ * the entry has expired.
+ * <p>
+ * Local modifications to an event ({@link #invalidate(int)}) evict the entries immediately, modifications made by
+ * other nodes are picked up after <tt>alfio.event-page-cache.ttl-seconds</tt> seconds.
+ */
+@Component
+public class EventPageCache implements MetricsProvider {
+
+    private final boolean enabled;
+    private final Cache<Key, PageModel> cache;
+    private final Cache<Key, Pair<String, Long>> versions = Caffeine.newBuilder()
+        .maximumSize(10_000)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public EventPageCache(@Value("${alfio.event-page-cache.ttl-seconds:5}") int ttlSeconds) {
+        this.enabled = ttlSeconds > 0;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Retrieve the page model for the given key, building it if needed.
+     *
+     * @param key the cache key
+     * @param loader returns the model together with the fingerprint of the data used to build it
+     * @return the cached page
+     */
+    public PageModel get(Key key, Supplier<Pair<Map<String, Object>, Object>> loader) {
+        if(!enabled) {
+            return build(key, loader);
+        }
+        return cache.get(key, k -> build(k, loader));
+    }
+
+    /**
+     * Must be called each time an event, or one of its categories, is modified.
+     * If there is an active transaction, the entries will be evicted again after its completion.
+     *
+     * @param eventId the event ID
+     */
+    public void invalidate(int eventId) {
+        evict(eventId);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(eventId);
+                }
+            });
+        }
+    }
+
+    private void evict(int eventId) {
+        invalidations.incrementAndGet();
+        cache.asMap().keySet().removeIf(k -> k.getEventId() == eventId);
+    }
+
+    private PageModel build(Key key, Supplier<Pair<Map<String, Object>, Object>> loader) {
+        Pair<Map<String, Object>, Object> result = loader.get();
+        String fingerprint = DigestUtils.sha256Hex(Json.toJson(result.getRight()));
+        Pair<String, Long> version = versions.asMap().compute(key, (k, existing) -> {
+            if(existing != null && existing.getLeft().equals(fingerprint)) {
+                return existing;
+            }
+            // HTTP dates have second precision
+            return Pair.of(fingerprint, TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())));
+        });
+        return new PageModel(Collections.unmodifiableMap(result.getLeft()), fingerprint, version.getRight());
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "event-page-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("hits", stats.hitCount());
+        metrics.put("misses", stats.missCount());
+        metrics.put("hitRatio", stats.hitRate());
+        metrics.put("entries", cache.estimatedSize());
+        metrics.put("invalidations", invalidations.get());
+        return metrics;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key {
+        private final int eventId;
+        private final String language;
+        private final String specialCode;
+        private final String promoCode;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class PageModel {
+        private final Map<String, Object> model;
+        private final String fingerprint;
+        private final long lastModified;
+
+        /**
+         * The page embeds data bound to the HTTP session (i.e. the CSRF token), therefore the ETag must depend on it.
+         *
+         * @param sessionData the session-specific data rendered in the page
+         * @return the ETag of the page
+         */
+        public String etag(String sessionData) {
+            return "W/\"" + DigestUtils.sha256Hex(fingerprint + sessionData) + "\"";
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import alfio.manager.system.MetricsProvider;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+
+/**
+ * Keeps the last encrypted offline check-in payload of each ticket, so that devices polling for the same tickets
+ * do not trigger a new key derivation and encryption each time.
+ * <p>
+ * Every entry is bound to a fingerprint of the clear-text payload and of the encryption key: as soon as the attendee
+ * data changes, the payload is encrypted again on the next request.
+ */
+@Component
+public class OfflineCheckInCache implements MetricsProvider {
+
+    private final boolean enabled;
+    private final Cache<Integer, Payload> payloads;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public OfflineCheckInCache(@Value("${alfio.offline-check-in-cache.max-entries:50000}") int maxEntries) {
+        this.enabled = maxEntries > 0;
+        this.payloads = Caffeine.newBuilder()
+            .maximumSize(Math.max(maxEntries, 1))
+            .expireAfterAccess(12, TimeUnit.HOURS)
+            .build();
+    }
+
+    /**
+     * Returns the encrypted payload for the given ticket, encrypting it only if it has been modified since the last call.
+     *
+     * @param ticketId the ticket ID
+     * @param key the encryption key
+     * @param payload the clear-text payload
+     * @param encrypter encrypts the payload using the given key
+     * @return the encrypted payload
+     */
+    public String getEncryptedPayload(int ticketId, String key, String payload, BinaryOperator<String> encrypter) {
+        if(!enabled) {
+            return encrypter.apply(key, payload);
+        }
+        String fingerprint = DigestUtils.sha256Hex(key + "\n" + payload);
+        Payload cached = payloads.getIfPresent(ticketId);
+        if(cached != null && cached.fingerprint.equals(fingerprint)) {
+            hits.incrementAndGet();
+            return cached.encrypted;
+        }
+        misses.incrementAndGet();
+        String encrypted = encrypter.apply(key, payload);
+        payloads.put(ticketId, new Payload(fingerprint, encrypted));
+        return encrypted;
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "offline-check-in-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("entries", payloads.estimatedSize());
+        return metrics;
+    }
+
+    @RequiredArgsConstructor
+    private static class Payload {
+        private final String fingerprint;
+        private final String encrypted;
+    }
+}
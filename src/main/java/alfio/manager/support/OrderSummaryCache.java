@@ -0,0 +1,165 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import alfio.manager.system.MetricsProvider;
+import alfio.model.OrderSummary;
+import alfio.model.TotalPrice;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches the {@link OrderSummary} and the {@link TotalPrice} of a reservation.
+ * <p>
+ * Each reservation has a version stamp, which must be bumped by calling {@link #invalidate(String)} every time
+ * the tickets, the prices, the promo code, the VAT status or the status of the reservation are modified. Values computed
+ * for an older version are discarded.
+ * <p>
+ * Modifications made by other nodes are picked up after <tt>alfio.order-summary-cache.ttl-seconds</tt> seconds,
+ * therefore the cached values must not be used for computing the amount to be charged.
+ */
+@Component
+@Log4j2
+public class OrderSummaryCache implements MetricsProvider {
+
+    private static final String TOTAL_PRICE = "totalPrice";
+
+    private final boolean enabled;
+    private final Cache<String, Entry> cache;
+    private final AtomicLong versions = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public OrderSummaryCache(@Value("${alfio.order-summary-cache.ttl-seconds:60}") int ttlSeconds) {
+        this.enabled = ttlSeconds > 0;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+            .build();
+    }
+
+    public OrderSummary getOrderSummary(String reservationId, Locale locale, Supplier<OrderSummary> loader) {
+        return get(reservationId, locale.toLanguageTag(), loader);
+    }
+
+    public TotalPrice getTotalPrice(String reservationId, Supplier<TotalPrice> loader) {
+        return get(reservationId, TOTAL_PRICE, loader);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String reservationId, String key, Supplier<T> loader) {
+        if(!enabled) {
+            return loader.get();
+        }
+        // if the reservation is modified while we're loading, the value is stored in an outdated entry
+        Entry entry = cache.get(reservationId, id -> new Entry(versions.incrementAndGet()));
+        Object value = entry.values.get(key);
+        if(value != null) {
+            hits.incrementAndGet();
+            return (T) value;
+        }
+        misses.incrementAndGet();
+        T result = loader.get();
+        entry.values.put(key, result);
+        return result;
+    }
+
+    /**
+     * Bumps the version of the given reservation. If there is an active transaction, the version
+     * will be bumped again after its completion.
+     *
+     * @param reservationId the reservation ID
+     */
+    public void invalidate(String reservationId) {
+        evict(reservationId);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(reservationId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Must be called if a modification affects the reservations of a whole event, e.g. the VAT or the
+     * price of a category is changed.
+     */
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidateAll();
+                }
+            });
+        }
+    }
+
+    private void evict(String reservationId) {
+        invalidations.incrementAndGet();
+        Entry previous = cache.asMap().remove(reservationId);
+        if(previous != null) {
+            log.trace("discarding version {} of reservation {}", previous.version, reservationId);
+        }
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "order-summary-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("hits", h);
+        metrics.put("misses", m);
+        metrics.put("hitRatio", h + m == 0 ? 0d : h / (double) (h + m));
+        metrics.put("entries", cache.estimatedSize());
+        metrics.put("invalidations", invalidations.get());
+        return metrics;
+    }
+
+    private static class Entry {
+        private final long version;
+        private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+        private Entry(long version) {
+            this.version = version;
+        }
+    }
+}
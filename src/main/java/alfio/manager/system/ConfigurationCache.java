@@ -0,0 +1,169 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.model.system.Configuration;
+import alfio.model.system.Configuration.ConfigurationPath;
+import alfio.model.system.Configuration.EventConfigurationPath;
+import alfio.model.system.Configuration.OrganizationConfigurationPath;
+import alfio.model.system.Configuration.TicketCategoryConfigurationPath;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.system.ConfigurationRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory copy of the configuration tree. Each level (system, organization, event, ticket category) is loaded
+ * as a whole and the most precise value is resolved in memory.
+ * <p>
+ * Local modifications invalidate the cache immediately. Modifications made by other nodes are detected by comparing
+ * the content of the <tt>configuration_version</tt> table, which is checked at most every
+ * <tt>alfio.configuration-cache.max-staleness-ms</tt> milliseconds.
+ */
+@Component
+@Log4j2
+public class ConfigurationCache implements MetricsProvider {
+
+    private static final String MODIFIED_IN_TRANSACTION = ConfigurationCache.class.getName() + ".MODIFIED";
+
+    private final ConfigurationRepository configurationRepository;
+    private final long maxStalenessMillis;
+    private final Cache<ConfigurationPath, Map<String, Configuration>> cache = Caffeine.newBuilder()
+        .maximumSize(10_000)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .recordStats()
+        .build();
+    private final AtomicLong invalidations = new AtomicLong();
+    private volatile long cachedVersion = -1;
+    private volatile long lastVersionCheck;
+
+    public ConfigurationCache(ConfigurationRepository configurationRepository,
+                              @Value("${alfio.configuration-cache.max-staleness-ms:5000}") long maxStalenessMillis) {
+        this.configurationRepository = configurationRepository;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    /**
+     * Find the most precise configuration for the given path and key.
+     *
+     * @return the configuration, or {@code null} if there isn't any value defined in the hierarchy
+     */
+    Configuration resolve(ConfigurationPath path, ConfigurationKeys key) {
+        //the current transaction has modified the configuration: the cache doesn't reflect what we can see
+        boolean bypass = TransactionSynchronizationManager.hasResource(MODIFIED_IN_TRANSACTION);
+        Function<ConfigurationPath, Map<String, Configuration>> levelLoader = bypass ? this::loadLevel : p -> cache.get(p, this::loadLevel);
+        if(!bypass) {
+            checkVersion();
+        }
+        for (ConfigurationPath p : Configuration.hierarchy(path)) {
+            Configuration configuration = levelLoader.apply(p).get(key.getValue());
+            if(configuration != null) {
+                return configuration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Must be called each time the configuration is modified.
+     * If there is an active transaction, the cache will be invalidated again after its completion.
+     */
+    void configurationModified() {
+        invalidate();
+        if(TransactionSynchronizationManager.isSynchronizationActive() && !TransactionSynchronizationManager.hasResource(MODIFIED_IN_TRANSACTION)) {
+            TransactionSynchronizationManager.bindResource(MODIFIED_IN_TRANSACTION, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(MODIFIED_IN_TRANSACTION);
+                    invalidate();
+                }
+            });
+        }
+    }
+
+    private void checkVersion() {
+        long now = System.currentTimeMillis();
+        if(now - lastVersionCheck < maxStalenessMillis) {
+            return;
+        }
+        lastVersionCheck = now;
+        long version = Optional.ofNullable(configurationRepository.getConfigurationVersion()).orElse(-1L);
+        if(version != cachedVersion) {
+            log.trace("configuration version changed from {} to {}", cachedVersion, version);
+            invalidate();
+            cachedVersion = version;
+        }
+    }
+
+    private void invalidate() {
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    private Map<String, Configuration> loadLevel(ConfigurationPath path) {
+        List<Configuration> configurations;
+        switch (path.pathLevel()) {
+            case ORGANIZATION:
+                configurations = configurationRepository.findOrganizationConfiguration(((OrganizationConfigurationPath) path).getId());
+                break;
+            case EVENT: {
+                EventConfigurationPath e = (EventConfigurationPath) path;
+                configurations = configurationRepository.findEventConfiguration(e.getOrganizationId(), e.getId());
+                break;
+            }
+            case TICKET_CATEGORY: {
+                TicketCategoryConfigurationPath c = (TicketCategoryConfigurationPath) path;
+                configurations = configurationRepository.findCategoryConfiguration(c.getOrganizationId(), c.getEventId(), c.getId());
+                break;
+            }
+            default:
+                configurations = configurationRepository.findSystemConfiguration();
+        }
+        return configurations.stream().collect(Collectors.toMap(Configuration::getKey, Function.identity(), (a, b) -> a));
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "configuration-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("hits", stats.hitCount());
+        metrics.put("misses", stats.missCount());
+        metrics.put("hitRatio", stats.hitRate());
+        metrics.put("entries", cache.estimatedSize());
+        metrics.put("invalidations", invalidations.get());
+        metrics.put("version", cachedVersion);
+        return metrics;
+    }
+}
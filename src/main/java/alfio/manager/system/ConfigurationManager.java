@@ -63,43 +63,10 @@ public class ConfigurationManager {
     private final ConfigurationRepository configurationRepository;
     private final UserManager userManager;
     private final EventRepository eventRepository;
+    private final ConfigurationCache configurationCache;
 
-    //TODO: refactor, not the most beautiful code, find a better solution...
     private Configuration findByConfigurationPathAndKey(ConfigurationPath path, ConfigurationKeys key) {
-        switch (path.pathLevel()) {
-            case SYSTEM: return configurationRepository.findByKey(key.getValue());
-            case ORGANIZATION: {
-                OrganizationConfigurationPath o = from(path);
-                return selectPath(configurationRepository.findByOrganizationAndKey(o.getId(), key.getValue()));
-            }
-            case EVENT: {
-                EventConfigurationPath o = from(path);
-                return selectPath(configurationRepository.findByEventAndKey(o.getOrganizationId(),
-                    o.getId(), key.getValue()));
-            }
-            case TICKET_CATEGORY: {
-                TicketCategoryConfigurationPath o = from(path);
-                return selectPath(configurationRepository.findByTicketCategoryAndKey(o.getOrganizationId(),
-                    o.getEventId(), o.getId(), key.getValue()));
-            }
-        }
-        throw new IllegalStateException("Can't reach here");
-    }
-
-    /**
-     * Select the most "precise" configuration in the given list.
-     *
-     * @param conf
-     * @return
-     */
-    private Configuration selectPath(List<Configuration> conf) {
-        return conf.size() == 1 ? conf.get(0) : conf.stream().max(Comparator.comparing(Configuration::getConfigurationPathLevel)).orElse(null);
-    }
-
-    //meh
-    @SuppressWarnings("unchecked")
-    private static <T> T from(ConfigurationPath c) {
-        return (T) c;
+        return configurationCache.resolve(path, key);
     }
 
     public int getIntConfigValue(ConfigurationPathKey pathKey, int defaultValue) {
@@ -173,6 +140,7 @@ public class ConfigurationManager {
         } else {
             configurationRepository.insertOrganizationLevel(organizationId, key, value.get(), ConfigurationKeys.fromString(key).getDescription());
         }
+        configurationCache.configurationModified();
     }
 
     public void saveAllOrganizationConfiguration(int organizationId, List<ConfigurationModification> list, String username) {
@@ -192,6 +160,7 @@ public class ConfigurationManager {
         } else {
             configurationRepository.insertEventLevel(organizationId, eventId, key, value.get(), ConfigurationKeys.fromString(key).getDescription());
         }
+        configurationCache.configurationModified();
     }
 
     public void saveAllEventConfiguration(int eventId, int organizationId, List<ConfigurationModification> list, String username) {
@@ -225,6 +194,7 @@ public class ConfigurationManager {
                     configurationRepository.insertTicketCategoryLevel(event.getOrganizationId(), eventId, categoryId, c.getKey(), value.get(), ConfigurationKeys.fromString(c.getKey()).getDescription());
                 }
             });
+        configurationCache.configurationModified();
     }
 
     private Optional<String> evaluateValue(String key, String value) {
@@ -259,6 +229,7 @@ public class ConfigurationManager {
                 configurationRepository.update(key.getValue(), value);
             }
         }
+        configurationCache.configurationModified();
     }
 
     /**
@@ -405,11 +376,13 @@ public class ConfigurationManager {
 
     public void deleteKey(String key) {
         configurationRepository.deleteByKey(key);
+        configurationCache.configurationModified();
     }
 
     public void deleteOrganizationLevelByKey(String key, int organizationId, String username) {
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), organizationId), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteOrganizationLevelByKey(key, organizationId);
+        configurationCache.configurationModified();
     }
 
     public void deleteEventLevelByKey(String key, int eventId, String username) {
@@ -417,6 +390,7 @@ public class ConfigurationManager {
         Validate.notNull(event, "Wrong event id");
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), event.getOrganizationId()), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteEventLevelByKey(key, eventId);
+        configurationCache.configurationModified();
     }
 
     public void deleteCategoryLevelByKey(String key, int eventId, int categoryId, String username) {
@@ -424,6 +398,7 @@ public class ConfigurationManager {
         Validate.notNull(event, "Wrong event id");
         Validate.isTrue(userManager.isOwnerOfOrganization(userManager.findUserByUsername(username), event.getOrganizationId()), "User is not owner of the organization. Therefore, delete is not allowed.");
         configurationRepository.deleteCategoryLevelByKey(key, eventId, categoryId);
+        configurationCache.configurationModified();
     }
 
     private static Map<ConfigurationKeys.SettingCategory, List<Configuration>> collectConfigurationKeysByCategory(ConfigurationPathLevel pathLevel) {
@@ -18,38 +18,61 @@ package alfio.manager.system;
 
 import alfio.model.Event;
 import alfio.model.system.Configuration;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import lombok.AllArgsConstructor;
+import lombok.Value;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.support.EncodedResource;
 import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.mail.MailAuthenticationException;
 import org.springframework.mail.MailException;
 import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.mail.javamail.MimeMessagePreparator;
 
 import javax.activation.FileTypeMap;
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
 import javax.mail.MessagingException;
 import javax.mail.Session;
+import javax.mail.Transport;
 import javax.mail.internet.MimeMessage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 
 import static alfio.model.system.ConfigurationKeys.*;
 
 @Log4j2
 @AllArgsConstructor
 class SmtpMailer implements Mailer {
-    
+
+    private static final int MAX_IDLE_TRANSPORTS = 10;
+
     private final ConfigurationManager configurationManager;
+    private final Cache<SmtpConfiguration, PooledJavaMailSenderImpl> mailSenders = Caffeine.newBuilder()
+        .expireAfterAccess(15, TimeUnit.MINUTES)
+        .removalListener((SmtpConfiguration key, PooledJavaMailSenderImpl sender, RemovalCause cause) -> {
+            if(sender != null) {
+                sender.close();
+            }
+        })
+        .build();
 
     @Override
     public void send(Event event, String to, List<String> cc, String subject, String text,
@@ -86,16 +109,27 @@ class SmtpMailer implements Mailer {
     }
     
     private JavaMailSender toMailSender(Event event) {
-        JavaMailSenderImpl r = new CustomJavaMailSenderImpl();
+        SmtpConfiguration smtpConfiguration = new SmtpConfiguration(
+            configurationManager.getRequiredValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_HOST)),
+            Integer.valueOf(configurationManager.getRequiredValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_PORT))),
+            configurationManager.getRequiredValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_PROTOCOL)),
+            configurationManager.getStringConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_USERNAME), null),
+            configurationManager.getStringConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_PASSWORD), null),
+            configurationManager.getStringConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_PROPERTIES), null));
+        return mailSenders.get(smtpConfiguration, SmtpMailer::buildMailSender);
+    }
+
+    private static PooledJavaMailSenderImpl buildMailSender(SmtpConfiguration configuration) {
+        PooledJavaMailSenderImpl r = new PooledJavaMailSenderImpl();
         r.setDefaultEncoding("UTF-8");
 
-        r.setHost(configurationManager.getRequiredValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_HOST)));
-        r.setPort(Integer.valueOf(configurationManager.getRequiredValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_PORT))));
-        r.setProtocol(configurationManager.getRequiredValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_PROTOCOL)));
-        r.setUsername(configurationManager.getStringConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_USERNAME), null));
-        r.setPassword(configurationManager.getStringConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_PASSWORD), null));
+        r.setHost(configuration.getHost());
+        r.setPort(configuration.getPort());
+        r.setProtocol(configuration.getProtocol());
+        r.setUsername(configuration.getUsername());
+        r.setPassword(configuration.getPassword());
 
-        String properties = configurationManager.getStringConfigValue(Configuration.from(event.getOrganizationId(), event.getId(), SMTP_PROPERTIES), null);
+        String properties = configuration.getProperties();
 
         if (properties != null) {
             try {
@@ -108,7 +142,21 @@ class SmtpMailer implements Mailer {
         }
         return r;
     }
-    
+
+    /**
+     * The resolved SMTP settings. Used as key for sharing the connected transports between all the events
+     * which are using the same SMTP server.
+     */
+    @Value
+    static class SmtpConfiguration {
+        private final String host;
+        private final int port;
+        private final String protocol;
+        private final String username;
+        private final String password;
+        private final String properties;
+    }
+
     static class CustomMimeMessage extends MimeMessage {
         
         private String defaultEncoding;
@@ -145,6 +193,84 @@ class SmtpMailer implements Mailer {
         }
     }
     
+    /**
+     * A {@link JavaMailSenderImpl} which keeps the connected transports open after sending a message,
+     * so that the next messages can be delivered without opening a new SMTP session.
+     * Once closed, the transports which are in use are closed as soon as they are released.
+     */
+    static class PooledJavaMailSenderImpl extends CustomJavaMailSenderImpl {
+
+        private final BlockingDeque<Transport> idleTransports = new LinkedBlockingDeque<>(MAX_IDLE_TRANSPORTS);
+        private volatile boolean closed;
+
+        @Override
+        protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) {
+            Transport transport = null;
+            try {
+                transport = acquireTransport();
+                for (MimeMessage mimeMessage : mimeMessages) {
+                    if (mimeMessage.getSentDate() == null) {
+                        mimeMessage.setSentDate(new Date());
+                    }
+                    mimeMessage.saveChanges();
+                    Address[] addresses = mimeMessage.getAllRecipients();
+                    transport.sendMessage(mimeMessage, addresses != null ? addresses : new Address[0]);
+                }
+                releaseTransport(transport);
+            } catch (AuthenticationFailedException ex) {
+                closeQuietly(transport);
+                throw new MailAuthenticationException(ex);
+            } catch (MessagingException ex) {
+                closeQuietly(transport);
+                throw new MailSendException("Failed to send message", ex);
+            }
+        }
+
+        private Transport acquireTransport() throws MessagingException {
+            Transport transport;
+            while((transport = idleTransports.pollFirst()) != null) {
+                //the server might have closed the connection in the meantime
+                if(transport.isConnected()) {
+                    return transport;
+                }
+                closeQuietly(transport);
+            }
+            return connectTransport();
+        }
+
+        private void releaseTransport(Transport transport) {
+            if(closed || !idleTransports.offerFirst(transport)) {
+                closeQuietly(transport);
+            } else if(closed) {
+                //the sender has been closed while we were returning the transport
+                closeIdleTransports();
+            }
+        }
+
+        void close() {
+            closed = true;
+            closeIdleTransports();
+        }
+
+        private void closeIdleTransports() {
+            Transport transport;
+            while((transport = idleTransports.pollFirst()) != null) {
+                closeQuietly(transport);
+            }
+        }
+
+        private static void closeQuietly(Transport transport) {
+            if(transport == null) {
+                return;
+            }
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.trace("error while closing transport", e);
+            }
+        }
+    }
+
     static class CustomJavaMailSenderImpl extends JavaMailSenderImpl {
         @Override
         public MimeMessage createMimeMessage() {
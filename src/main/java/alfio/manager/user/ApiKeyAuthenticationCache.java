@@ -0,0 +1,150 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.user;
+
+import alfio.manager.system.MetricsProvider;
+import alfio.model.user.User;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Caches the users and roles used for authenticating API keys, so that the requests of check-in devices do not need
+ * to hit the database. Unknown keys are not cached, so that a new key can be used as soon as it has been committed.
+ * <p>
+ * The cached data is only used to evaluate the account status, therefore the enabled, type and validity checks
+ * are still performed on every request.
+ * <p>
+ * {@link UserManager} invalidates the entries when a user is modified. Modifications made by other nodes are
+ * picked up after <tt>alfio.api-key-cache.ttl-seconds</tt> seconds.
+ */
+@Component
+public class ApiKeyAuthenticationCache implements MetricsProvider {
+
+    private final UserRepository userRepository;
+    private final AuthorityRepository authorityRepository;
+    private final boolean enabled;
+    private final Cache<String, ApiKey> cache;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ApiKeyAuthenticationCache(UserRepository userRepository,
+                                     AuthorityRepository authorityRepository,
+                                     @Value("${alfio.api-key-cache.ttl-seconds:60}") int ttlSeconds) {
+        this.userRepository = userRepository;
+        this.authorityRepository = authorityRepository;
+        this.enabled = ttlSeconds > 0;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Math.max(ttlSeconds, 1), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @param apiKey the API key
+     * @return the user and roles linked with the given key, if the key exists
+     */
+    public Optional<ApiKey> get(String apiKey) {
+        if(!enabled) {
+            return load(apiKey);
+        }
+        return Optional.ofNullable(cache.get(apiKey, key -> load(key).orElse(null)));
+    }
+
+    /**
+     * Must be called each time a user, or its roles, is modified.
+     * If there is an active transaction, the entries will be evicted again after its completion.
+     *
+     * @param userIds the IDs of the modified users
+     */
+    public void invalidate(Collection<Integer> userIds) {
+        evictNowAndAfterCompletion(() -> cache.asMap().values().removeIf(apiKey -> userIds.contains(apiKey.getUser().getId())));
+    }
+
+    /**
+     * Evicts the entry of the given API key, e.g. for a key which has just been created.
+     * If there is an active transaction, the entry will be evicted again after its completion.
+     *
+     * @param apiKey the API key
+     */
+    public void invalidate(String apiKey) {
+        evictNowAndAfterCompletion(() -> cache.invalidate(apiKey));
+    }
+
+    private void evictNowAndAfterCompletion(Runnable eviction) {
+        invalidations.incrementAndGet();
+        eviction.run();
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    eviction.run();
+                }
+            });
+        }
+    }
+
+    private Optional<ApiKey> load(String apiKey) {
+        return userRepository.findByUsername(apiKey)
+            .map(user -> new ApiKey(user, authorityRepository.findRoles(apiKey).stream().map(SimpleGrantedAuthority::new).collect(toList())));
+    }
+
+    @Override
+    public String getMetricsName() {
+        return "api-key-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("hits", stats.hitCount());
+        metrics.put("misses", stats.missCount());
+        metrics.put("hitRatio", stats.hitRate());
+        metrics.put("entries", cache.estimatedSize());
+        metrics.put("invalidations", invalidations.get());
+        return metrics;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class ApiKey {
+        private final User user;
+        private final List<GrantedAuthority> authorities;
+    }
+}
@@ -55,6 +55,7 @@ public class UserManager {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
     private final InvoiceSequencesRepository invoiceSequencesRepository;
+    private final ApiKeyAuthenticationCache apiKeyAuthenticationCache;
 
     private List<Authority> getUserAuthorities(User user) {
         return authorityRepository.findGrantedAuthorities(user.getUsername());
@@ -193,6 +194,7 @@ public class UserManager {
             authorityRepository.revokeAll(username);
             authorityRepository.create(username, role.getRoleName());
         }
+        apiKeyAuthenticationCache.invalidate(Collections.singletonList(id));
     }
 
     @Transactional
@@ -226,6 +228,7 @@ public class UserManager {
         AffectedRowCountAndKey<Integer> result = userRepository.create(username, passwordEncoder.encode(userPassword), firstName, lastName, emailAddress, true, userType, validTo, description);
         userOrganizationRepository.create(result.getKey(), organization.getId());
         authorityRepository.create(username, role.getRoleName());
+        apiKeyAuthenticationCache.invalidate(username);
         return new UserWithPassword(userRepository.findById(result.getKey()), userType != User.Type.API_KEY ? userPassword : "", UUID.randomUUID().toString());
     }
 
@@ -253,6 +256,7 @@ public class UserManager {
         userRepository.deleteUserFromSponsorScan(userId);
         userRepository.deleteUserFromOrganization(userId);
         userRepository.deleteUser(userId);
+        apiKeyAuthenticationCache.invalidate(Collections.singletonList(userId));
     }
 
     @Transactional
@@ -261,6 +265,7 @@ public class UserManager {
         Assert.isTrue(userId != currentUser.getId(), "sorry but you cannot commit suicide");
 
         userRepository.toggleEnabled(userId, status);
+        apiKeyAuthenticationCache.invalidate(Collections.singletonList(userId));
     }
 
     public ValidationResult validateUser(Integer id, String username, int organizationId, String role, String firstName, String lastName, String emailAddress) {
@@ -301,6 +306,7 @@ public class UserManager {
         List<Integer> userIds = userRepository.findUserToDisableOlderThan(date, type);
         if(!userIds.isEmpty()) {
             userRepository.disableAccountsOlderThan(date, type);
+            apiKeyAuthenticationCache.invalidate(userIds);
         }
         return userIds;
     }
@@ -19,6 +19,9 @@ package alfio.model;
 import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
 import lombok.Getter;
 
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
 @Getter
 public class AdminReservationRequestStats {
 
@@ -28,19 +31,47 @@ public class AdminReservationRequestStats {
     private final int countSuccess;
     private final int countPending;
     private final int countError;
-
+    private final ZonedDateTime firstProcessedTs;
+    private final ZonedDateTime lastProcessedTs;
 
     public AdminReservationRequestStats(@Column("request_id") String requestId,
                                         @Column("user_id") long userId,
                                         @Column("event_id") long eventId,
                                         @Column("count_success") int countSuccess,
                                         @Column("count_pending") int countPending,
-                                        @Column("count_error") int countError) {
+                                        @Column("count_error") int countError,
+                                        @Column("first_processed_ts") ZonedDateTime firstProcessedTs,
+                                        @Column("last_processed_ts") ZonedDateTime lastProcessedTs) {
         this.requestId = requestId;
         this.userId = userId;
         this.eventId = eventId;
         this.countSuccess = countSuccess;
         this.countPending = countPending;
         this.countError = countError;
+        this.firstProcessedTs = firstProcessedTs;
+        this.lastProcessedTs = lastProcessedTs;
+    }
+
+    /**
+     * @return processed requests per second. While there are pending requests, the rate is measured until now.
+     */
+    public double getThroughput() {
+        if(firstProcessedTs == null) {
+            return 0;
+        }
+        ZonedDateTime end = countPending > 0 ? ZonedDateTime.now(firstProcessedTs.getZone()) : lastProcessedTs;
+        long elapsedMillis = Math.max(1000, Duration.between(firstProcessedTs, end).toMillis());
+        return (countSuccess + countError) * 1000d / elapsedMillis;
+    }
+
+    /**
+     * @return the estimated seconds needed to process the pending requests, or null if the processing has not started yet
+     */
+    public Long getEstimatedSecondsRemaining() {
+        double throughput = getThroughput();
+        if(countPending == 0) {
+            return 0L;
+        }
+        return throughput > 0 ? (long) Math.ceil(countPending / throughput) : null;
     }
 }
@@ -0,0 +1,44 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model;
+
+import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
+import lombok.Getter;
+
+/**
+ * The state of the admission queue of an event, see V200_010__ADMISSION_QUEUE.sql
+ */
+@Getter
+public class AdmissionQueue {
+    private final int eventId;
+    private final long lastPosition;
+    private final double admitted;
+    private final int rate;
+    private final int running;
+
+    public AdmissionQueue(@Column("event_id") int eventId,
+                          @Column("last_position") long lastPosition,
+                          @Column("admitted") double admitted,
+                          @Column("rate") int rate,
+                          @Column("running") int running) {
+        this.eventId = eventId;
+        this.lastPosition = lastPosition;
+        this.admitted = admitted;
+        this.rate = rate;
+        this.running = running;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A page of results, with the token to be used for retrieving the next one.
+ */
+@Getter
+@RequiredArgsConstructor
+public class KeysetPage<T> {
+    private final List<T> content;
+    /**
+     * total number of results, or {@code null} if it has not been requested
+     */
+    private final Integer count;
+    /**
+     * token for retrieving the next page, or {@code null} if this is the last one
+     */
+    private final String nextPageToken;
+
+    public static <T> KeysetPage<T> of(List<T> content, int pageSize, Integer count, Function<T, String> tokenGenerator) {
+        String nextPageToken = content.size() < pageSize ? null : tokenGenerator.apply(content.get(content.size() - 1));
+        return new KeysetPage<>(content, count, nextPageToken);
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model;
+
+import ch.digitalfondue.npjt.ConstructorAnnotationRowMapper.Column;
+import lombok.Getter;
+
+/**
+ * A ticket counter whose value doesn't match the content of the ticket table.
+ */
+@Getter
+public class TicketStatusCounterDifference {
+    private final int eventId;
+    private final int categoryId;
+    private final String status;
+    private final int expected;
+    private final int actual;
+
+    public TicketStatusCounterDifference(@Column("event_id") int eventId,
+                                         @Column("category_id") int categoryId,
+                                         @Column("status") String status,
+                                         @Column("expected") int expected,
+                                         @Column("actual") int actual) {
+        this.eventId = eventId;
+        this.categoryId = categoryId;
+        this.status = status;
+        this.expected = expected;
+        this.actual = actual;
+    }
+}
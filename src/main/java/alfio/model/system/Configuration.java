@@ -24,7 +24,9 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 
@@ -166,6 +168,29 @@ public class Configuration implements Comparable<Configuration> {
         return new TicketCategoryConfigurationPath(organizationId, eventId, id);
     }
 
+    /**
+     * Returns the given path followed by its ancestors, from the most to the least precise.
+     *
+     * @param path the starting path
+     * @return the configuration hierarchy
+     */
+    public static List<ConfigurationPath> hierarchy(ConfigurationPath path) {
+        switch (path.pathLevel()) {
+            case ORGANIZATION:
+                return Arrays.asList(path, system());
+            case EVENT: {
+                EventConfigurationPath e = (EventConfigurationPath) path;
+                return Arrays.asList(path, organization(e.getOrganizationId()), system());
+            }
+            case TICKET_CATEGORY: {
+                TicketCategoryConfigurationPath c = (TicketCategoryConfigurationPath) path;
+                return Arrays.asList(path, new EventConfigurationPath(c.getOrganizationId(), c.getEventId()), organization(c.getOrganizationId()), system());
+            }
+            default:
+                return Collections.singletonList(path);
+        }
+    }
+
 
     //
     @Getter
@@ -68,6 +68,13 @@ public enum ConfigurationKeys {
     ASSIGNMENT_REMINDER_START("How many days before the event should be sent a reminder to the users about Tickets assignment? (default: 10 days)", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
     ASSIGNMENT_REMINDER_INTERVAL("How long should be the 'quiet period' (in days) between the reminders? (default: 3 days)", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
     OPTIONAL_DATA_REMINDER_ENABLED("Send a reminder for optional data? (default: true)", false, SettingCategory.GENERAL, ComponentType.BOOLEAN, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
+    SKIP_LOCKED_TICKET_ALLOCATION("Allocate tickets skipping the ones locked by concurrent reservations. Recommended for high-demand sales (default: false)", false, SettingCategory.GENERAL, ComponentType.BOOLEAN, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
+    EXPIRED_RESERVATIONS_BATCH_SIZE("How many expired reservations should be removed within a single transaction (default: 200)", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM), true),
+    ADMISSION_CONTROL_ENABLED("Put buyers in a waiting room and admit them to the reservation process at a controlled rate (default: false)", false, SettingCategory.GENERAL, ComponentType.BOOLEAN, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
+    ADMISSION_CONTROL_RATE("When admission control is enabled, how many buyers are admitted each second (default: 10)", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
+    ADMISSION_CONTROL_MAX_CONCURRENT("When admission control is enabled, how many reservations can be created at the same time (default: 10)", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
+    ADMISSION_CONTROL_SECRET("Secret used for signing the admission queue tokens, generated at first use", true, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM), false),
+    ADMIN_RESERVATION_IMPORT_PARALLELISM("How many attendee import requests can be processed in parallel on each node. Each worker uses two database connections (default: 2, requires restart)", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM), true),
     RESERVATION_TIMEOUT("The amount of time, in MINUTES, that the user have to complete the reservation process (default: 25 min)", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
 
     FORCE_TICKET_OWNER_ASSIGNMENT_AT_RESERVATION("Force ticket owner assignment at reservation time", false, SettingCategory.RESERVATION_UI, ComponentType.BOOLEAN, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
@@ -81,6 +88,14 @@ public enum ConfigurationKeys {
 
     MAX_EMAIL_PER_CYCLE("How many e-mail should be managed within 5 sec.", false, SettingCategory.MAIL, ComponentType.TEXT, false, EnumSet.of(SYSTEM), true),
 
+    MAIL_DISPATCH_PARALLELISM("How many e-mail should be sent in parallel for each mailer type (default: 4)", false, SettingCategory.MAIL, ComponentType.TEXT, false, EnumSet.of(SYSTEM), true),
+
+    PRERENDER_EMAIL_ATTACHMENTS("Render the e-mail attachments (tickets, receipts, invoices) in background as soon as the message has been queued (default: false)", false, SettingCategory.MAIL, ComponentType.BOOLEAN, false, EnumSet.of(SYSTEM), true),
+
+    PDF_RENDERING_PARALLELISM("How many ticket PDFs can be rendered in parallel when sending the tickets in bulk (default: number of available processors, requires restart)", false, SettingCategory.MAIL, ComponentType.TEXT, false, EnumSet.of(SYSTEM), true),
+
+    EMAIL_ATTACHMENT_CACHE_MAX_SIZE("Maximum size, in MB, of the rendered e-mail attachments cache (default: 200)", false, SettingCategory.MAIL, ComponentType.TEXT, false, EnumSet.of(SYSTEM), true),
+
     MAIL_REPLY_TO("Reply-to address", false, SettingCategory.MAIL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
 
     MAIL_SYSTEM_NOTIFICATION_CC("Add additional CC when the system send notifications to the event organizer, can insert multiple email (comma separated)", false, SettingCategory.MAIL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
@@ -164,6 +179,7 @@ public enum ConfigurationKeys {
     PASSBOOK_TEAM_IDENTIFIER("Passbook team identifier", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), false),
     PASSBOOK_KEYSTORE("Passbook keystore(base64 encoded keystore)", false, SettingCategory.GENERAL, ComponentType.TEXTAREA, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), false),
     PASSBOOK_KEYSTORE_PASSWORD("Passbook keystore password", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), false),
+    PASSBOOK_GENERATION_PARALLELISM("How many Passbook passes can be generated in parallel when sending the tickets in bulk (default: number of available processors, requires restart)", false, SettingCategory.GENERAL, ComponentType.TEXT, false, EnumSet.of(SYSTEM), true),
 
     //CHECK-IN
     CHECK_IN_STATS("Display check-in statistics in mobile apps", false, SettingCategory.GENERAL, ComponentType.BOOLEAN, false, EnumSet.of(SYSTEM, ORGANIZATION, EVENT), true),
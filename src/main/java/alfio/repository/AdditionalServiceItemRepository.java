@@ -34,6 +34,10 @@ public interface AdditionalServiceItemRepository {
                                            @Bind("additionalServiceId") int additionalServiceId, @Bind("status") AdditionalServiceItemStatus status, @Bind("eventId") int eventId,
                                            @Bind("srcPriceCts") Integer srcPriceCts, @Bind("finalPriceCts") Integer finalPriceCts, @Bind("vatCts") Integer vatCts, @Bind("discountCts") Integer discountCts);
 
+    @Query(type = QueryType.TEMPLATE, value = "insert into additional_service_item (uuid, creation, tickets_reservation_uuid, additional_service_id_fk, status, event_id_fk, src_price_cts, final_price_cts, vat_cts, discount_cts) " +
+        "values(:uuid, :creation, :ticketsReservationUuid, :additionalServiceId, :status, :eventId, :srcPriceCts, :finalPriceCts, :vatCts, :discountCts)")
+    String batchInsert();
+
     @Query("select * from additional_service_item where tickets_reservation_uuid = :reservationUuid")
     List<AdditionalServiceItem> findByReservationUuid(@Bind("reservationUuid") String reservationUuid);
 
@@ -33,13 +33,13 @@ public interface AdminReservationRequestRepository {
         type = QueryType.TEMPLATE)
     String insertRequest();
 
-    @Query("select id from admin_reservation_request where status = 'PENDING' order by request_id limit :limit for update skip locked")
+    @Query("select id from admin_reservation_request where status = 'PENDING' order by request_id, id limit :limit for update skip locked")
     List<Long> findPendingForUpdate(@Bind("limit") int limit);
 
     @Query("select * from admin_reservation_request where id = :id")
     AdminReservationRequest fetchCompleteById(@Bind("id") long id);
 
-    @Query(value = "update admin_reservation_request set status = :status, reservation_id = :reservationId, failure_code = :failureCode where id = :id", type = QueryType.TEMPLATE)
+    @Query(value = "update admin_reservation_request set status = :status, reservation_id = :reservationId, failure_code = :failureCode, processed_ts = clock_timestamp() where id = :id", type = QueryType.TEMPLATE)
     String updateStatus();
 
 
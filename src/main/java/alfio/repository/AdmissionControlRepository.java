@@ -0,0 +1,67 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.model.AdmissionQueue;
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Shared state of the admission control, see V200_010__ADMISSION_QUEUE.sql
+ */
+@QueryRepository
+public interface AdmissionControlRepository {
+
+    @Query("insert into admission_queue(event_id, last_position, admitted, rate, last_refill) values (:eventId, 0, :rate, :rate, clock_timestamp())" +
+        " on conflict (event_id) do nothing")
+    int createQueue(@Bind("eventId") int eventId, @Bind("rate") int rate);
+
+    /**
+     * Adds the given number of buyers at the end of the queue and admits the buyers who are due since the last refill.
+     *
+     * @return the updated state of the queue, or an empty Optional if the queue does not exist yet
+     */
+    @Query("update admission_queue set last_position = last_position + :increment," +
+        " admitted = least(last_position + :increment + :rate, admitted + greatest(0, extract(epoch from clock_timestamp() - last_refill)) * :rate)," +
+        " rate = :rate, last_refill = greatest(last_refill, clock_timestamp())" +
+        " where event_id = :eventId returning event_id, last_position, admitted, rate, 0 as running")
+    Optional<AdmissionQueue> refill(@Bind("eventId") int eventId, @Bind("increment") int increment, @Bind("rate") int rate);
+
+    @Query("select q.event_id, q.last_position, least(q.last_position, q.admitted + greatest(0, extract(epoch from clock_timestamp() - q.last_refill)) * q.rate) as admitted, q.rate," +
+        " (select count(*) from admission_permit p where p.event_id = q.event_id and p.lease_until > clock_timestamp()) as running" +
+        " from admission_queue q where q.last_refill > clock_timestamp() - interval '6 hours' order by q.event_id")
+    List<AdmissionQueue> findActiveQueues();
+
+    @Query("insert into admission_permit(event_id, slot, lease_until) select :eventId, s, timestamp with time zone 'epoch' from generate_series(0, :maxConcurrent - 1) s" +
+        " on conflict (event_id, slot) do nothing")
+    int createPermits(@Bind("eventId") int eventId, @Bind("maxConcurrent") int maxConcurrent);
+
+    /**
+     * @return the acquired slot, if any is free
+     */
+    @Query("update admission_permit set holder = :holder, lease_until = clock_timestamp() + :leaseSeconds * interval '1 second'" +
+        " where event_id = :eventId and slot = (select slot from admission_permit where event_id = :eventId and slot < :maxConcurrent and lease_until <= clock_timestamp()" +
+        " order by slot limit 1 for update skip locked) returning slot")
+    Optional<Integer> acquirePermit(@Bind("eventId") int eventId, @Bind("maxConcurrent") int maxConcurrent, @Bind("holder") String holder, @Bind("leaseSeconds") int leaseSeconds);
+
+    @Query("update admission_permit set holder = null, lease_until = timestamp with time zone 'epoch' where event_id = :eventId and slot = :slot and holder = :holder")
+    int releasePermit(@Bind("eventId") int eventId, @Bind("slot") int slot, @Bind("holder") String holder);
+}
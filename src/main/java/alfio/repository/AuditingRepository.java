@@ -23,6 +23,7 @@ import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -51,6 +52,11 @@ public interface AuditingRepository {
     }
 
 
+    @Query("insert into auditing(reservation_id, user_id, event_id, event_type, event_time, entity_type, entity_id, modifications) " +
+        " select tickets_reservation_id, :userId, event_id, :eventType, :eventTime, 'TICKET', concat('', id), null from ticket where id in (:ticketIds)")
+    int insertForTickets(@Bind("ticketIds") Collection<Integer> ticketIds, @Bind("userId") Integer userId,
+                         @Bind("eventType") Audit.EventType eventType, @Bind("eventTime") Date eventTime);
+
     @Query("select * from auditing_user where reservation_id = :reservationId order by event_time asc")
     List<Audit> findAllForReservation(@Bind("reservationId") String reservationId);
 
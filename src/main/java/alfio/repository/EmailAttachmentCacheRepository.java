@@ -0,0 +1,52 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+import ch.digitalfondue.npjt.QueryType;
+
+import java.util.Date;
+
+@QueryRepository
+public interface EmailAttachmentCacheRepository {
+
+    @Query("insert into email_attachment_cache(checksum, content, content_size) select :checksum, :content, :contentSize" +
+        " where not exists(select 1 from email_attachment_cache where checksum = :checksum)")
+    int insert(@Bind("checksum") String checksum, @Bind("content") byte[] content, @Bind("contentSize") int contentSize);
+
+    @Query(type = QueryType.TEMPLATE, value = "select content from email_attachment_cache where checksum = :checksum")
+    String contentTemplate();
+
+    @Query("delete from email_attachment_cache where creation_ts < :date")
+    int deleteOlderThan(@Bind("date") Date date);
+
+    /**
+     * Keeps the most recent entries whose cumulated size is within the given bound.
+     */
+    @Query("delete from email_attachment_cache where checksum in (select checksum from" +
+        " (select checksum, sum(content_size) over (order by creation_ts desc, checksum) as cumulated_size from email_attachment_cache) c" +
+        " where c.cumulated_size > :maxSize)")
+    int evictExceeding(@Bind("maxSize") long maxSize);
+
+    @Query("select count(*) from email_attachment_cache")
+    int count();
+
+    @Query("select coalesce(sum(content_size), 0) from email_attachment_cache")
+    long totalSize();
+}
@@ -22,6 +22,7 @@ import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
 
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Date;
 import java.util.List;
@@ -63,18 +64,63 @@ public interface EmailMessageRepository {
     int updateStatusAndAttempts(@Bind("messageId") int messageId, @Bind("status") String status, @Bind("nextDate") Date date, @Bind("attempts") int attempts, @Bind("expectedStatuses") List<String> expectedStatuses);
 
 
-    @Query("select id from email_message where event_id = :eventId and (status = 'WAITING' or status = 'RETRY') and request_ts <= :date limit 100 for update skip locked")
-    List<Integer> loadIdsWaitingForProcessing(@Bind("eventId") int eventId, @Bind("date") Date date);
+    @Query("select id from email_message where event_id in (:eventIds) and (status = 'WAITING' or status = 'RETRY') and request_ts <= :date order by request_ts limit :max for update skip locked")
+    List<Integer> loadIdsWaitingForProcessing(@Bind("eventIds") List<Integer> eventIds, @Bind("date") Date date, @Bind("max") int max);
+
+    /**
+     * Flag the given messages as IN_PROCESS, together with their duplicates (same event and checksum), which will be
+     * considered as sent as soon as the first copy has been delivered.
+     *
+     * @param ids
+     * @return
+     */
+    @Query("update email_message set status = 'IN_PROCESS' where (status = 'WAITING' or status = 'RETRY') and (event_id, checksum) in (select event_id, checksum from email_message where id in (:ids))")
+    int markAsInProcess(@Bind("ids") List<Integer> ids);
+
+    /**
+     * This method returns a list of lightweight instances of EmailMessage. The property "Attachments" is always null.
+     * @param ids
+     * @return
+     */
+    @Query("select id, event_id, status, recipient, subject, message, null as attachments, checksum, request_ts, sent_ts, attempts, email_cc from email_message where id in (:ids)")
+    List<EmailMessage> findLightweightByIds(@Bind("ids") List<Integer> ids);
+
+    @Query("select count(*) from email_message where status = 'WAITING' or status = 'RETRY'")
+    Integer countWaitingForProcessing();
 
     @Query("update email_message set status = 'SENT', sent_ts = :sentTimestamp where event_id = :eventId and checksum = :checksum and status in (:expectedStatuses)")
     int updateStatusToSent(@Bind("eventId") int eventId, @Bind("checksum") String checksum, @Bind("sentTimestamp") ZonedDateTime sentTimestamp, @Bind("expectedStatuses") List<String> expectedStatuses);
 
+    /**
+     * Flags the duplicates of a discarded message (see {@link #markAsInProcess(List)}) as ERROR.
+     */
+    @Query("update email_message set status = 'ERROR' where event_id = :eventId and checksum = :checksum and status in (:expectedStatuses)")
+    int updateStatusToError(@Bind("eventId") int eventId, @Bind("checksum") String checksum, @Bind("expectedStatuses") List<String> expectedStatuses);
+
+    /**
+     * Messages not yet sent are sorted as if they had been sent at this instant, i.e. before the sent ones.
+     */
+    ZonedDateTime NOT_SENT = ZonedDateTime.of(9999, 12, 31, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    String MAIL_SORT_KEY = " coalesce(sent_ts, timestamp with time zone '9999-12-31 00:00:00+00'), id ";
+    String MAIL_ORDER = " coalesce(sent_ts, timestamp with time zone '9999-12-31 00:00:00+00') desc, id desc ";
+
     String FIND_MAILS = "select id, event_id, status, recipient, subject, message, checksum, request_ts, sent_ts, attempts, email_cc from email_message where event_id = :eventId and " +
-        " (:search is null or (recipient like :search or subject like :search or message like :search)) order by sent_ts desc, id ";
+        " (:search is null or search_document like lower(:search) or lower(message) like lower(:search)) ";
 
-    @Query("select * from (" + FIND_MAILS +"limit :pageSize offset :page) as d_tbl")
+    @Query(FIND_MAILS + " order by " + MAIL_ORDER + " limit :pageSize offset :page")
     List<LightweightMailMessage> findByEventId(@Bind("eventId") int eventId, @Bind("page") int page, @Bind("pageSize") int pageSize, @Bind("search") String search);
 
+    /**
+     * Keyset pagination: returns the messages sorted after the given one, see {@link #sortKey(EmailMessage)}.
+     */
+    @Query(FIND_MAILS + " and (" + MAIL_SORT_KEY + ") < (:afterSentTs, :afterId) order by " + MAIL_ORDER + " limit :pageSize")
+    List<LightweightMailMessage> findByEventIdAfter(@Bind("eventId") int eventId,
+                                                    @Bind("afterSentTs") ZonedDateTime afterSentTs,
+                                                    @Bind("afterId") int afterId,
+                                                    @Bind("pageSize") int pageSize,
+                                                    @Bind("search") String search);
+
     @Query("select count(*) from (" + FIND_MAILS + ") as d_tbl")
     Integer countFindByEventId(@Bind("eventId") int eventId, @Bind("search") String search);
 
@@ -87,4 +133,11 @@ public interface EmailMessageRepository {
 
     @Query("update email_message set status = 'RETRY', attempts = coalesce(attempts, 0) +1 where status = 'IN_PROCESS' and request_ts < :date")
     int setToRetryOldInProcess(@Bind("date") Date date);
+
+    /**
+     * @return the values of {@link #MAIL_SORT_KEY} for the given message
+     */
+    static Object[] sortKey(EmailMessage message) {
+        return new Object[] { message.getSentTimestamp() != null ? message.getSentTimestamp() : NOT_SENT, message.getId() };
+    }
 }
@@ -21,6 +21,7 @@ import alfio.model.ExtensionLog;
 import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
+import ch.digitalfondue.npjt.QueryType;
 
 import java.util.List;
 
@@ -34,17 +35,32 @@ public interface ExtensionLogRepository {
                @Bind("description") String description,
                @Bind("type") ExtensionLog.Type type);
 
-    String FIND_EXTENSION_LOG = "select * from extension_log where ((:path is null or path = :path) and (:name is null or name = :name)) and (:type is null or type = :type) order by event_ts desc";
+    @Query(type = QueryType.TEMPLATE, value = "insert into extension_log(effective_path, path, name, description, type, event_ts) values (:effectivePath, :path, :name, :description, :type, :eventTs)")
+    String bulkInsert();
+
+    String FIND_EXTENSION_LOG = "select * from extension_log where ((:path is null or path = :path) and (:name is null or name = :name)) and (:type is null or type = :type) ";
+
+    /**
+     * The log entries are written in chronological order, therefore the id is used as sort key.
+     */
+    String EXTENSION_LOG_ORDER = " order by id desc ";
 
     @Query("select count(*) from (" + FIND_EXTENSION_LOG + ") as el_tbl")
     int countPages(@Bind("path") String path,
                    @Bind("name") String name,
                    @Bind("type") String type);
 
-    @Query("select * from (" + FIND_EXTENSION_LOG + " limit :pageSize offset :offset) as el_tbl")
+    @Query(FIND_EXTENSION_LOG + EXTENSION_LOG_ORDER + " limit :pageSize offset :offset")
     List<ExtensionLog> getPage(@Bind("path") String path,
                                @Bind("name") String name,
                                @Bind("type") String type,
                                @Bind("pageSize") int pageSize,
                                @Bind("offset") int offset);
+
+    @Query(FIND_EXTENSION_LOG + " and id < :afterId " + EXTENSION_LOG_ORDER + " limit :pageSize")
+    List<ExtensionLog> getPageAfter(@Bind("path") String path,
+                                    @Bind("name") String name,
+                                    @Bind("type") String type,
+                                    @Bind("afterId") int afterId,
+                                    @Bind("pageSize") int pageSize);
 }
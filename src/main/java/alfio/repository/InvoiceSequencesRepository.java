@@ -23,12 +23,20 @@ import ch.digitalfondue.npjt.QueryRepository;
 @QueryRepository
 public interface InvoiceSequencesRepository {
 
-    @Query("select invoice_sequence from invoice_sequences where organization_id_fk = :orgId for update")
-    int lockReservationForUpdate(@Bind("orgId") int orgId);
+    @Query("select invoice_sequence from invoice_sequences where organization_id_fk = :orgId")
+    int currentSequenceFor(@Bind("orgId") int orgId);
 
     @Query("update invoice_sequences set invoice_sequence = invoice_sequence + 1 where organization_id_fk = :orgId")
     int incrementSequenceFor(@Bind("orgId") int orgId);
 
+    /**
+     * Allocate the next invoice number. The sequence row stays locked until the end of the current transaction.
+     */
+    default int allocateSequenceFor(int orgId) {
+        incrementSequenceFor(orgId);
+        return currentSequenceFor(orgId) - 1;
+    }
+
     @Query("insert into invoice_sequences(organization_id_fk, invoice_sequence) values (:orgId, 1)")
     int initFor(@Bind("orgId") int orgId);
 }
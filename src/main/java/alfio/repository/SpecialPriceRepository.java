@@ -71,6 +71,12 @@ public interface SpecialPriceRepository {
     @Query("update special_price set code = :code, status = 'FREE', sent_ts = null where id = :id")
     int updateCode(@Bind("code") String code, @Bind("id") int id);
 
+    @Query(type = QueryType.TEMPLATE, value = "update special_price set code = :code, status = 'FREE', sent_ts = null where id = :id")
+    String batchUpdateCode();
+
+    @Query("select code from special_price where code in (:codes)")
+    List<String> findExistingCodes(@Bind("codes") Collection<String> codes);
+
     @Query(type = QueryType.TEMPLATE, value = "insert into special_price (code, price_cts, ticket_category_id, status, sent_ts) " +
             "values(:code, :priceInCents, :ticketCategoryId, :status, null)")
     String bulkInsert();
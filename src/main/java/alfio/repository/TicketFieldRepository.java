@@ -39,6 +39,9 @@ public interface TicketFieldRepository extends FieldRepository {
     @Query("select a.ticket_id_fk, a.ticket_field_configuration_id_fk, b.field_name, a.field_value from ticket_field_value a, ticket_field_configuration b where a.ticket_id_fk = :ticketId and a.ticket_field_configuration_id_fk = b.id")
     List<TicketFieldValue> findAllByTicketId(@Bind("ticketId") int id);
 
+    @Query("select a.ticket_id_fk, a.ticket_field_configuration_id_fk, b.field_name, a.field_value from ticket_field_value a, ticket_field_configuration b where a.ticket_id_fk in (:ticketIds) and a.ticket_field_configuration_id_fk = b.id")
+    List<TicketFieldValue> findAllByTicketIds(@Bind("ticketIds") Collection<Integer> ids);
+
     @Query("select a.ticket_id_fk, a.ticket_field_configuration_id_fk, b.field_name, a.field_value, null as description " +
         "from ticket_field_value a inner join ticket_field_configuration b on a.ticket_field_configuration_id_fk = b.id " +
         "where a.ticket_id_fk = :ticketId and b.field_name in (:fieldNames) and b.field_type <> 'select' " +
@@ -53,6 +56,20 @@ public interface TicketFieldRepository extends FieldRepository {
         "and b.field_type = 'select'")
     List<TicketFieldValueAndDescription> findValueForTicketId(@Bind("ticketId") int id, @Bind("fieldNames") Set<String> fieldNames);
 
+    @Query("select a.ticket_id_fk, a.ticket_field_configuration_id_fk, b.field_name, a.field_value, null as description " +
+        "from ticket_field_value a inner join ticket_field_configuration b on a.ticket_field_configuration_id_fk = b.id " +
+        "where a.ticket_id_fk in (:ticketIds) and b.field_name in (:fieldNames) and b.field_type <> 'select' " +
+        "union all " +
+        "select a.ticket_id_fk, a.ticket_field_configuration_id_fk, b.field_name, a.field_value, c.description " +
+        "from ticket_field_value a " +
+        "inner join ticket_field_configuration b on a.ticket_field_configuration_id_fk = b.id " +
+        "inner join ticket on a.ticket_id_fk = ticket.id "+
+        "left join ticket_field_description c on c.ticket_field_configuration_id_fk = a.ticket_field_configuration_id_fk " +
+        "where a.ticket_id_fk in (:ticketIds) and b.field_name in (:fieldNames) " +
+        "and c.field_locale = ticket.user_language " +
+        "and b.field_type = 'select'")
+    List<TicketFieldValueAndDescription> findValuesForTicketIds(@Bind("ticketIds") Collection<Integer> ids, @Bind("fieldNames") Set<String> fieldNames);
+
     @Query("update ticket_field_value set field_value = :value where ticket_id_fk = :ticketId and ticket_field_configuration_id_fk = :fieldConfigurationId")
     int updateValue(@Bind("ticketId") int ticketId, @Bind("fieldConfigurationId") int fieldConfigurationId, @Bind("value") String value);
 
@@ -112,6 +129,20 @@ public interface TicketFieldRepository extends FieldRepository {
         });
     }
 
+    /**
+     * Same as {@link #findAllValuesForTicketId(int)}, for many tickets at once.
+     *
+     * @return field name and value, by ticket ID
+     */
+    default Map<Integer, Map<String, String>> findAllValuesForTicketIds(Collection<Integer> ticketIds) {
+        if(ticketIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return findAllByTicketIds(ticketIds).stream()
+            .filter(t -> t.getName() != null && t.getValue() != null)
+            .collect(Collectors.groupingBy(TicketFieldValue::getTicketId, Collectors.toMap(TicketFieldValue::getName, TicketFieldValue::getValue)));
+    }
+
     default Map<String, TicketFieldValue> findAllByTicketIdGroupedByName(int id) {
         return findAllByTicketId(id).stream().collect(Collectors.toMap(TicketFieldValue::getName, Function.identity()));
     }
@@ -50,6 +50,12 @@ public interface TicketRepository {
     @Query("select id from ticket where status in(:requiredStatuses) and category_id is null and event_id = :eventId and tickets_reservation_id is null order by id limit :amount for update")
     List<Integer> selectNotAllocatedTicketsForUpdate(@Bind("eventId") int eventId, @Bind("amount") int amount, @Bind("requiredStatuses") List<String> requiredStatuses);
 
+    @Query("select id from ticket where status in (:requiredStatuses) and category_id = :categoryId and event_id = :eventId and tickets_reservation_id is null order by id limit :amount for update skip locked")
+    List<Integer> selectTicketInCategoryForUpdateSkipLocked(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId, @Bind("amount") int amount, @Bind("requiredStatuses") List<String> requiredStatus);
+
+    @Query("select id from ticket where status in(:requiredStatuses) and category_id is null and event_id = :eventId and tickets_reservation_id is null order by id limit :amount for update skip locked")
+    List<Integer> selectNotAllocatedTicketsForUpdateSkipLocked(@Bind("eventId") int eventId, @Bind("amount") int amount, @Bind("requiredStatuses") List<String> requiredStatuses);
+
     @Query("select id from ticket where status = 'FREE' and category_id = :categoryId and event_id = :eventId and tickets_reservation_id is null order by id desc limit :amount for update")
     List<Integer> lockTicketsToInvalidate(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId, @Bind("amount") int amount);
 
@@ -57,33 +63,39 @@ public interface TicketRepository {
     Integer countAssignedTickets(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId);
 
 
-    @Query("select count(*) from ticket where status in ("+CONFIRMED+", 'PENDING') and category_id = :categoryId and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status in ("+CONFIRMED+", 'PENDING') and category_id = :categoryId and event_id = :eventId")
     Integer countConfirmedAndPendingTickets(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId);
 
-    @Query("select count(*) from ticket where status in ("+CONFIRMED+") and category_id = :categoryId and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status in ("+CONFIRMED+") and category_id = :categoryId and event_id = :eventId")
     Integer countConfirmedForCategory(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId);
 
-    @Query("select count(*) from ticket where status in ('PENDING', 'RELEASED') and category_id = :categoryId and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status in ('PENDING', 'RELEASED') and category_id = :categoryId and event_id = :eventId")
     Integer countPendingOrReleasedForCategory(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId);
     
-    @Query("select count(*) from ticket where status = 'FREE'  and category_id = :categoryId and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status = 'FREE' and category_id = :categoryId and event_id = :eventId")
     Integer countFreeTickets(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId);
 
-    @Query("select count(*) from ticket where status = 'FREE' and category_id is null and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status = 'FREE' and category_id = 0 and event_id = :eventId")
     Integer countFreeTicketsForUnbounded(@Bind("eventId") int eventId);
 
-    @Query("select count(*) from ticket where status in ('FREE', 'RELEASED') and category_id is null and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status in ('FREE', 'RELEASED') and category_id = 0 and event_id = :eventId")
     Integer countNotAllocatedFreeAndReleasedTicket(@Bind("eventId") int eventId);
 
-    @Query("select count(*) from ticket where status = 'RELEASED' and category_id is null and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status = 'RELEASED' and category_id = 0 and event_id = :eventId")
     Integer countReleasedUnboundedTickets(@Bind("eventId") int eventId);
 
-    @Query("select count(*) from ticket where status = 'RELEASED' and category_id = :categoryId and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status = 'RELEASED' and category_id = :categoryId and event_id = :eventId")
     Integer countReleasedTicketInCategory(@Bind("eventId") int eventId, @Bind("categoryId") int categoryId);
 
     @Query("update ticket set tickets_reservation_id = :reservationId, status = 'PENDING', category_id = :categoryId, user_language = :userLanguage, src_price_cts = :srcPriceCts where id in (:reservedForUpdate)")
     int reserveTickets(@Bind("reservationId") String reservationId, @Bind("reservedForUpdate") List<Integer> reservedForUpdate, @Bind("categoryId") int categoryId, @Bind("userLanguage") String userLanguage, @Bind("srcPriceCts") int srcPriceCts);
     
+    @Query("update ticket set tickets_reservation_id = :reservationId, special_price_id_fk = coalesce(:specialCodeId, special_price_id_fk), status = 'PENDING', category_id = :categoryId, user_language = :userLanguage," +
+        " src_price_cts = :srcPriceCts, final_price_cts = :finalPriceCts, vat_cts = :vatCts, discount_cts = :discountCts where id in (:reservedForUpdate)")
+    int reserveTicketsWithPrice(@Bind("reservationId") String reservationId, @Bind("reservedForUpdate") List<Integer> reservedForUpdate, @Bind("specialCodeId") Integer specialCodeId,
+                                @Bind("categoryId") int categoryId, @Bind("userLanguage") String userLanguage, @Bind("srcPriceCts") int srcPriceCts,
+                                @Bind("finalPriceCts") int finalPriceCts, @Bind("vatCts") int vatCts, @Bind("discountCts") int discountCts);
+
     @Query("update ticket set tickets_reservation_id = :reservationId, special_price_id_fk = :specialCodeId, user_language = :userLanguage, status = 'PENDING', src_price_cts = :srcPriceCts where id = :ticketId")
     void reserveTicket(@Bind("reservationId")String transactionId, @Bind("ticketId") int ticketId, @Bind("specialCodeId") int specialCodeId, @Bind("userLanguage") String userLanguage, @Bind("srcPriceCts") int srcPriceCts);
 
@@ -133,6 +145,12 @@ public interface TicketRepository {
     @Query("select * from ticket where uuid = :uuid for update")
     Optional<Ticket> findByUUIDForUpdate(@Bind("uuid") String uuid);
 
+    @Query("select * from ticket where uuid in (:uuids) order by id for update")
+    List<Ticket> findByUUIDsForUpdate(@Bind("uuids") Collection<String> uuids);
+
+    @Query("update ticket set status = 'CHECKED_IN', locked_assignment = true where id in (:ids) and status = 'ACQUIRED'")
+    int checkInTickets(@Bind("ids") Collection<Integer> ids);
+
     @Query("update ticket set email_address = :email, full_name = :fullName, first_name = :firstName, last_name = :lastName where uuid = :ticketIdentifier")
     int updateTicketOwner(@Bind("ticketIdentifier") String ticketIdentifier, @Bind("email") String email, @Bind("fullName") String fullName, @Bind("firstName") String firstName, @Bind("lastName") String lastName);
 
@@ -203,8 +221,11 @@ public interface TicketRepository {
             " where t.event_id = :eventId and t.full_name is not null and t.email_address is not null and (coalesce(ltu.last_update, t.creation) > :changedSince)  order by t.id asc")
     List<Integer> findAllAssignedByEventId(@Bind("eventId") int eventId, @Bind("changedSince") Date changedSince);
 
-    @Query("select * from reservation_and_ticket_and_tx where t_id is not null and t_status in (" + CONFIRMED + ") and t_event_id = :eventId order by tr_confirmation_ts, t_id")
-    List<TicketWithReservationAndTransaction> findAllConfirmedForCSV(@Bind("eventId") int eventId);
+    @Query("select t_id from reservation_and_ticket_and_tx where t_id is not null and t_status in (" + CONFIRMED + ") and t_event_id = :eventId order by tr_confirmation_ts, t_id")
+    List<Integer> findAllConfirmedIdsForCSV(@Bind("eventId") int eventId);
+
+    @Query("select * from reservation_and_ticket_and_tx where t_id in (:ticketIds) order by tr_confirmation_ts, t_id")
+    List<TicketWithReservationAndTransaction> findConfirmedForCSV(@Bind("ticketIds") Collection<Integer> ticketIds);
 
     @Query("select a.*, b.confirmation_ts from ticket a, tickets_reservation b where a.event_id = :eventId and a.status in(" + CONFIRMED + ") and a.tickets_reservation_id = b.id order by b.confirmation_ts")
     List<Ticket> findAllConfirmed(@Bind("eventId") int eventId);
@@ -245,7 +266,7 @@ public interface TicketRepository {
     @Query("update ticket set status = 'RELEASED', " + RESET_TICKET + " where id in (:ticketIds)")
     int resetTickets(@Bind("ticketIds") List<Integer> ticketIds);
 
-    @Query("select count(*) from ticket where status = 'RELEASED' and event_id = :eventId")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where status = 'RELEASED' and event_id = :eventId")
     Integer countWaiting(@Bind("eventId") int eventId);
 
     @Query("select " +
@@ -284,7 +305,7 @@ public interface TicketRepository {
     @Query("select * from ticket where status = 'FREE' and event_id = :eventId")
     List<Ticket> findFreeByEventId(@Bind("eventId") int eventId);
 
-    @Query("select count(*) from ticket where event_id = :eventId and category_id is not null and status <> 'INVALIDATED'")
+    @Query("select coalesce(sum(counter), 0) from ticket_status_counter where event_id = :eventId and category_id <> 0 and status <> 'INVALIDATED'")
     Integer countAllocatedTicketsForEvent(@Bind("eventId") int eventId);
 
     @Query("update ticket set status = 'FREE' where event_id = :eventId and category_id in(:categoryId) and status = '"+RELEASED+"'")
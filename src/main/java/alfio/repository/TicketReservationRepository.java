@@ -56,7 +56,7 @@ public interface TicketReservationRepository {
                                 @Bind("customerReference") String customerReference);
 
     @Query("update tickets_reservation set validity = :validity, status = 'OFFLINE_PAYMENT', payment_method = 'OFFLINE', full_name = :fullName, first_name = :firstName," +
-        " last_name = :lastName, email_address = :email, billing_address = :billingAddress, customer_reference = :customerReference where id = :reservationId")
+        " last_name = :lastName, email_address = :email, billing_address = :billingAddress, customer_reference = :customerReference where id = :reservationId and status = 'IN_PAYMENT'")
     int postponePayment(@Bind("reservationId") String reservationId, @Bind("validity") Date validity, @Bind("email") String email,
                         @Bind("fullName") String fullName, @Bind("firstName") String firstName, @Bind("lastName") String lastName,
                         @Bind("billingAddress") String billingAddress,
@@ -92,9 +92,15 @@ public interface TicketReservationRepository {
     @Query("select id from tickets_reservation where id = :reservationId for update")
     String lockReservationForUpdate(@Bind("reservationId") String reservationId);
 
+    @Query("select status from tickets_reservation where id = :reservationId for update")
+    String lockReservationStatusForUpdate(@Bind("reservationId") String reservationId);
+
     @Query("update tickets_reservation set status = :status where id = :reservationId")
     int updateReservationStatus(@Bind("reservationId") String reservationId, @Bind("status") String status);
 
+    @Query("update tickets_reservation set status = :status where id = :reservationId and status = :currentStatus")
+    int updateReservationStatusIfCurrent(@Bind("reservationId") String reservationId, @Bind("currentStatus") String currentStatus, @Bind("status") String status);
+
     @Query("update tickets_reservation set status = :status where id in (:reservationIds)")
     int updateReservationsStatus(@Bind("reservationIds") Collection<String> ids, @Bind("status") String status);
 
@@ -104,8 +110,8 @@ public interface TicketReservationRepository {
     @Query("select * from tickets_reservation where id = :id")
     Optional<TicketReservation> findOptionalReservationById(@Bind("id") String id);
 
-    @Query("select id from tickets_reservation where validity < :date and status = 'PENDING' for update skip locked")
-    List<String> findExpiredReservationForUpdate(@Bind("date") Date date);
+    @Query("select id from tickets_reservation where validity < :date and status = 'PENDING' order by validity limit :limit for update skip locked")
+    List<String> findExpiredReservationForUpdate(@Bind("date") Date date, @Bind("limit") int limit);
 
     @Query("select id from tickets_reservation where validity < :date and status = 'OFFLINE_PAYMENT' for update skip locked")
     List<String> findExpiredOfflineReservationsForUpdate(@Bind("date") Date date);
@@ -22,23 +22,39 @@ import ch.digitalfondue.npjt.Bind;
 import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
 
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Date;
 import java.util.List;
 
 @QueryRepository
 public interface TicketSearchRepository {
-    String APPLY_FILTER = " (:search is null or (lower(t_uuid) like lower(:search) or lower(t_full_name) like lower(:search) or lower(t_first_name) like lower(:search) or lower(t_last_name) like lower(:search) or lower(t_email_address) like lower(:search) or " +
-        "  lower(tr_full_name) like lower(:search) or lower(tr_first_name) like lower(:search) or lower(tr_last_name) like lower(:search) or lower(tr_email_address) like lower(:search) or lower(tr_customer_reference) like lower(:search))) ";
+    /**
+     * Matches the reservations and the tickets whose search document (see V200_008__SEARCH_DOCUMENT.sql) contains the search term.
+     * The sub-queries use the trigram indexes on the base tables, instead of scanning the whole view.
+     */
+    String APPLY_FILTER = " (:search is null or " +
+        " tr_id in (select id from tickets_reservation where event_id_fk = :eventId and search_document like lower(:search)) or " +
+        " t_id in (select id from ticket where event_id = :eventId and search_document like lower(:search))) ";
 
     String FIND_ALL_MODIFIED_TICKETS_WITH_RESERVATION_AND_TRANSACTION = "select * from reservation_and_ticket_and_tx where t_id is not null and t_status in ('PENDING', 'ACQUIRED', 'TO_BE_PAID', 'CANCELLED', 'CHECKED_IN') and t_category_id = :categoryId and t_event_id = :eventId and " + APPLY_FILTER;
 
-    String FIND_ALL_TICKETS_INCLUDING_NEW = "select * from reservation_and_ticket_and_tx where tr_event_id = :eventId and tr_id is not null and tr_status in (:status) and " + APPLY_FILTER;
+    /**
+     * Reservations without confirmation timestamp are sorted as if they had been confirmed at this instant, i.e. after the confirmed ones.
+     */
+    ZonedDateTime NOT_CONFIRMED = ZonedDateTime.ofInstant(Instant.EPOCH, ZoneOffset.UTC);
 
-    String RESERVATION_FIELDS = "tr_id id, tr_validity validity, tr_status status, tr_full_name full_name, tr_first_name first_name, tr_last_name last_name, tr_email_address email_address," +
-        "tr_billing_address billing_address, tr_confirmation_ts confirmation_ts, tr_latest_reminder_ts latest_reminder_ts, tr_payment_method payment_method," +
-        "tr_offline_payment_reminder_sent offline_payment_reminder_sent, tr_promo_code_id_fk promo_code_id_fk, tr_automatic automatic," +
-        "tr_user_language user_language, tr_direct_assignment direct_assignment, tr_invoice_number invoice_number, tr_invoice_model invoice_model," +
-        "tr_vat_status vat_status, tr_vat_nr vat_nr, tr_vat_country vat_country, tr_invoice_requested invoice_requested, tr_used_vat_percent used_vat_percent," +
-        "tr_vat_included vat_included, tr_creation_ts creation_ts, tr_customer_reference customer_reference, tr_billing_address_company billing_address_company ";
+    String RESERVATION_SORT_KEY = " coalesce(confirmation_ts, timestamp with time zone 'epoch'), validity, id ";
+    String RESERVATION_ORDER = " coalesce(confirmation_ts, timestamp with time zone 'epoch') desc, validity desc, id desc ";
+
+    String RESERVATION_FIELDS = "id, validity, status, full_name, first_name, last_name, email_address, billing_address, confirmation_ts, latest_reminder_ts, payment_method," +
+        "offline_payment_reminder_sent, promo_code_id_fk, automatic, user_language, direct_assignment, invoice_number, invoice_model," +
+        "vat_status, vat_nr, vat_country, invoice_requested, used_vat_percent, vat_included, creation_ts, customer_reference, billing_address_company ";
+
+    String FIND_RESERVATIONS_FOR_EVENT = "select " + RESERVATION_FIELDS + " from tickets_reservation where event_id_fk = :eventId and status in (:status) and (:search is null or " +
+        " id in (select id from tickets_reservation where event_id_fk = :eventId and search_document like lower(:search)) or " +
+        " id in (select tickets_reservation_id from ticket where event_id = :eventId and search_document like lower(:search))) ";
 
     @Query("select * from (" + FIND_ALL_MODIFIED_TICKETS_WITH_RESERVATION_AND_TRANSACTION + " limit :pageSize offset :page) as d_tbl order by tr_confirmation_ts asc, tr_id, t_uuid")
     List<TicketWithReservationAndTransaction> findAllModifiedTicketsWithReservationAndTransaction(@Bind("eventId") int eventId,
@@ -52,17 +68,38 @@ public interface TicketSearchRepository {
                                                                  @Bind("categoryId") int categoryId,
                                                                  @Bind("search") String search);
 
-    @Query("select distinct "+RESERVATION_FIELDS+" from (" + FIND_ALL_TICKETS_INCLUDING_NEW + ") as d_tbl order by tr_confirmation_ts desc nulls last, tr_validity limit :pageSize offset :page")
+    @Query(FIND_RESERVATIONS_FOR_EVENT + " order by " + RESERVATION_ORDER + " limit :pageSize offset :page")
     List<TicketReservation> findReservationsForEvent(@Bind("eventId") int eventId,
                                                      @Bind("page") int page,
                                                      @Bind("pageSize") int pageSize,
                                                      @Bind("search") String search,
                                                      @Bind("status") List<String> toFilter);
 
-    @Query("select count(distinct tr_id) from (" + FIND_ALL_TICKETS_INCLUDING_NEW +" ) as d_tbl")
+    /**
+     * Keyset pagination: returns the reservations sorted after the given one, see {@link #sortKey(TicketReservation)}.
+     */
+    @Query(FIND_RESERVATIONS_FOR_EVENT + " and (" + RESERVATION_SORT_KEY + ") < (:afterConfirmation, :afterValidity, :afterId) order by " + RESERVATION_ORDER + " limit :pageSize")
+    List<TicketReservation> findReservationsForEventAfter(@Bind("eventId") int eventId,
+                                                          @Bind("afterConfirmation") ZonedDateTime afterConfirmation,
+                                                          @Bind("afterValidity") Date afterValidity,
+                                                          @Bind("afterId") String afterId,
+                                                          @Bind("pageSize") int pageSize,
+                                                          @Bind("search") String search,
+                                                          @Bind("status") List<String> toFilter);
+
+    @Query("select count(*) from (" + FIND_RESERVATIONS_FOR_EVENT + ") as d_tbl")
     Integer countReservationsForEvent(@Bind("eventId") int eventId,
                                       @Bind("search") String search,
                                       @Bind("status") List<String> toFilter);
 
-
+    /**
+     * @return the values of {@link #RESERVATION_SORT_KEY} for the given reservation
+     */
+    static Object[] sortKey(TicketReservation reservation) {
+        return new Object[] {
+            reservation.getConfirmationTimestamp() != null ? reservation.getConfirmationTimestamp() : NOT_CONFIRMED,
+            reservation.getValidity(),
+            reservation.getId()
+        };
+    }
 }
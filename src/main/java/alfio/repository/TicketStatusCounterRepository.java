@@ -0,0 +1,78 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.repository;
+
+import alfio.model.TicketStatusCounterDifference;
+import ch.digitalfondue.npjt.Bind;
+import ch.digitalfondue.npjt.Query;
+import ch.digitalfondue.npjt.QueryRepository;
+
+import java.util.List;
+
+/**
+ * The counters are maintained by the "update_ticket_status_counter" trigger. See V200_005__TICKET_STATUS_COUNTER.sql
+ * and V200_011__TICKET_STATUS_COUNTER_SLOT_PER_TRANSACTION.sql: each transaction writes the deltas in its own slot,
+ * which are then folded into slot 0 by {@link #compact()}.
+ */
+@QueryRepository
+public interface TicketStatusCounterRepository {
+
+    String DIFFERENCES = " (select event_id, coalesce(category_id, 0) as category_id, status, count(*) as cnt from ticket where event_id in (:eventIds) group by event_id, coalesce(category_id, 0), status) r" +
+        " full outer join" +
+        " (select event_id, category_id, status, sum(counter) as cnt from ticket_status_counter where event_id in (:eventIds) group by event_id, category_id, status) c" +
+        " on r.event_id = c.event_id and r.category_id = c.category_id and r.status = c.status" +
+        " where coalesce(r.cnt, 0) <> coalesce(c.cnt, 0)";
+
+    /**
+     * Compares the counters with the actual content of the ticket table and applies the difference, if any.
+     *
+     * @return the number of corrected counters
+     */
+    @Query("insert into ticket_status_counter(event_id, category_id, status, slot, counter)" +
+        " select coalesce(r.event_id, c.event_id), coalesce(r.category_id, c.category_id), coalesce(r.status, c.status), 0, coalesce(r.cnt, 0) - coalesce(c.cnt, 0) from" +
+        DIFFERENCES +
+        " order by 1, 2, 3" +
+        " on conflict (event_id, category_id, status, slot) do update set counter = ticket_status_counter.counter + excluded.counter")
+    int reconcile(@Bind("eventIds") List<Integer> eventIds);
+
+    /**
+     * Same check as {@link #reconcile(List)}, without applying the corrections.
+     */
+    @Query("select coalesce(r.event_id, c.event_id) as event_id, coalesce(r.category_id, c.category_id) as category_id, coalesce(r.status, c.status) as status," +
+        " coalesce(r.cnt, 0) as expected, coalesce(c.cnt, 0) as actual from" +
+        DIFFERENCES +
+        " order by 1, 2, 3")
+    List<TicketStatusCounterDifference> findDifferences(@Bind("eventIds") List<Integer> eventIds);
+
+    /**
+     * Moves the deltas written by committed transactions into slot 0. The rows are locked in a fixed order, as for
+     * {@link #reconcile(List)}.
+     *
+     * @return the number of updated counters
+     */
+    @Query("with moved as (delete from ticket_status_counter where slot <> 0 returning event_id, category_id, status, counter)" +
+        " insert into ticket_status_counter(event_id, category_id, status, slot, counter)" +
+        " select event_id, category_id, status, 0, sum(counter) from moved group by event_id, category_id, status order by 1, 2, 3" +
+        " on conflict (event_id, category_id, status, slot) do update set counter = ticket_status_counter.counter + excluded.counter")
+    int compact();
+
+    @Query("delete from ticket_status_counter where counter = 0")
+    int deleteEmptyCounters();
+
+    @Query("delete from ticket_status_counter where event_id = :eventId and counter = 0")
+    int deleteEmptyCounters(@Bind("eventId") int eventId);
+}
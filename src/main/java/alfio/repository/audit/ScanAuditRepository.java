@@ -23,6 +23,7 @@ import ch.digitalfondue.npjt.Query;
 import ch.digitalfondue.npjt.QueryRepository;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @QueryRepository
@@ -35,6 +36,15 @@ public interface ScanAuditRepository {
                    @Bind("status") CheckInStatus checkInStatus,
                    @Bind("operation") ScanAudit.Operation operation);
 
+    @Query("insert into scan_audit(ticket_uuid, event_id_fk, scan_ts, username, check_in_status, operation)" +
+        " select uuid, :eventId, :scanTs, :username, :status, :operation from ticket where id in (:ticketIds)")
+    int insertForTickets(@Bind("ticketIds") Collection<Integer> ticketIds,
+                         @Bind("eventId") int eventId,
+                         @Bind("scanTs") ZonedDateTime timestamp,
+                         @Bind("username") String username,
+                         @Bind("status") CheckInStatus checkInStatus,
+                         @Bind("operation") ScanAudit.Operation operation);
+
     @Query("select * from scan_audit where event_id_fk = :eventId")
     List<ScanAudit> findAllForEvent(@Bind("eventId") int eventId);
 
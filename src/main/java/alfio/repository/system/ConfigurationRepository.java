@@ -96,6 +96,9 @@ public interface ConfigurationRepository {
     @Query(INSERT_STATEMENT)
     int insert(@Bind("key") String key, @Bind("value") String value, @Bind("description") String description);
 
+    @Query(INSERT_STATEMENT + " on conflict (c_key) do nothing")
+    int insertIfAbsent(@Bind("key") String key, @Bind("value") String value, @Bind("description") String description);
+
     @Query("INSERT into configuration_organization(organization_id_fk, c_key, c_value, description) values(:orgId, :key, :value, :description)")
     int insertOrganizationLevel(@Bind("orgId") int orgId, @Bind("key") String key, @Bind("value") String value, @Bind("description") String description);
 
@@ -119,4 +122,7 @@ public interface ConfigurationRepository {
 
     @Query("SELECT organization_id_fk FROM configuration_organization where c_key = :key and c_value = :value")
     Optional<Integer> findOrganizationIdByKeyAndValue(@Bind("key") String key, @Bind("value") String value);
+
+    @Query("SELECT version FROM configuration_version")
+    Long getConfigurationVersion();
 }
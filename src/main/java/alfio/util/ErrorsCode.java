@@ -25,6 +25,8 @@ public interface ErrorsCode {
     String STEP_1_TICKET_CATEGORY_MUST_BE_SALEABLE = "error.STEP_1_TICKET_CATEGORY_MUST_BE_SALEABLE";
     String STEP_1_ACCESS_RESTRICTED = "error.STEP_1_ACCESS_RESTRICTED";
     String STEP_1_NOT_ENOUGH_TICKETS = "error.STEP_1_NOT_ENOUGH_TICKETS";
+    String STEP_1_WAITING_FOR_ADMISSION = "error.STEP_1_WAITING_FOR_ADMISSION";
+    String STEP_1_TOO_MANY_CONCURRENT_RESERVATIONS = "error.STEP_1_TOO_MANY_CONCURRENT_RESERVATIONS";
     
     String STEP_1_CODE_NOT_FOUND = "error.STEP_1_CODE_NOT_FOUND";
 
@@ -0,0 +1,92 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Opaque token used for keyset pagination: it contains the values of the sort keys of the last element of a page.
+ * Timestamps are encoded with their full precision, so that the next page starts exactly after the last element.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class PageToken {
+
+    private final List<String> keys;
+
+    public static String encode(Object... keys) {
+        List<String> values = Stream.of(keys).map(PageToken::toKey).collect(Collectors.toList());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Json.toJson(values).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token the token returned with the previous page
+     * @return the decoded token
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public static PageToken decode(String token) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            return new PageToken(Json.fromJson(json, new TypeReference<List<String>>() {}));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IllegalArgumentException("invalid page token", e);
+        }
+    }
+
+    public String getString(int index) {
+        return get(index);
+    }
+
+    public int getInt(int index) {
+        return Integer.parseInt(get(index));
+    }
+
+    public ZonedDateTime getTimestamp(int index) {
+        return ZonedDateTime.ofInstant(Instant.parse(get(index)), ZoneOffset.UTC);
+    }
+
+    public Date getDate(int index) {
+        return new Date(Long.parseLong(get(index)));
+    }
+
+    private String get(int index) {
+        if(keys == null || index >= keys.size() || keys.get(index) == null) {
+            throw new IllegalArgumentException("invalid page token");
+        }
+        return keys.get(index);
+    }
+
+    private static String toKey(Object key) {
+        if(key instanceof ZonedDateTime) {
+            return ((ZonedDateTime) key).toInstant().toString();
+        } else if(key instanceof Date) {
+            return Long.toString(((Date) key).getTime());
+        }
+        return String.valueOf(key);
+    }
+}
@@ -19,13 +19,19 @@ package alfio.util;
 import alfio.config.WebSecurityConfig;
 import alfio.manager.UploadedResourceManager;
 import alfio.manager.system.ConfigurationManager;
+import alfio.manager.system.MetricsProvider;
 import alfio.model.Event;
 import alfio.model.system.Configuration;
 import alfio.model.system.ConfigurationKeys;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Mustache.Compiler;
 import com.samskivert.mustache.Mustache.Formatter;
 import com.samskivert.mustache.Template;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.MessageSource;
@@ -46,6 +52,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -53,8 +60,15 @@ import static alfio.util.MustacheCustomTagInterceptor.COUNTRY_NAME;
 
 /**
  * For hiding the ugliness :)
+ * <p>
+ * Compiled templates are cached only if <tt>cacheTemplates</tt> is set, i.e. in the live profile, so that the
+ * templates modified during development are picked up. Overrides uploaded by the users are always cached, including the fact that there is
+ * no override for a given resource, until {@link UploadedResourceManager#getVersion()} changes.
+ * Overrides uploaded on other nodes are picked up after {@link #OVERRIDE_TTL_SECONDS} seconds.
  * */
-public class TemplateManager {
+public class TemplateManager implements MetricsProvider {
+
+    private static final int OVERRIDE_TTL_SECONDS = 60;
 
 
     private final MessageSource messageSource;
@@ -69,6 +83,16 @@ public class TemplateManager {
 
     private final UploadedResourceManager uploadedResourceManager;
     private final ConfigurationManager configurationManager;
+    private final boolean cacheTemplates;
+    private final Cache<Pair<String, TemplateOutput>, Template> compiledTemplates = Caffeine.newBuilder()
+        .maximumSize(1_000)
+        .recordStats()
+        .build();
+    private final Cache<OverrideKey, Pair<Long, Optional<Template>>> overrides = Caffeine.newBuilder()
+        .maximumSize(10_000)
+        .expireAfterWrite(OVERRIDE_TTL_SECONDS, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
 
     private static final Formatter DATE_FORMATTER = (o) -> (o instanceof ZonedDateTime) ? DateTimeFormatter.ISO_ZONED_DATE_TIME.format((ZonedDateTime) o) : String.valueOf(o);
 
@@ -76,8 +100,10 @@ public class TemplateManager {
     public TemplateManager(JMustacheTemplateLoader templateLoader,
                            MessageSource messageSource,
                            UploadedResourceManager uploadedResourceManager,
-                           ConfigurationManager configurationManager) {
+                           ConfigurationManager configurationManager,
+                           boolean cacheTemplates) {
         this.messageSource = messageSource;
+        this.cacheTemplates = cacheTemplates;
         this.uploadedResourceManager = uploadedResourceManager;
         this.configurationManager = configurationManager;
 
@@ -99,18 +125,31 @@ public class TemplateManager {
     }
 
     public String renderTemplate(Optional<Event> event, TemplateResource templateResource, Map<String, Object> model, Locale locale) {
-        return render(new ClassPathResource(templateResource.classPath()), modelEnricher(model, event, locale), locale, templateResource.getTemplateOutput());
+        return render(compileCached(new ClassPathResource(templateResource.classPath()), templateResource.getTemplateOutput()), modelEnricher(model, event, locale), locale);
     }
 
     public String renderTemplate(Event event, TemplateResource templateResource, Map<String, Object> model, Locale locale) {
         Map<String, Object> updatedModel = modelEnricher(model, Optional.ofNullable(event), locale);
-        return uploadedResourceManager.findCascading(event.getOrganizationId(), event.getId(), templateResource.getSavedName(locale))
-            .map(resource -> render(new ByteArrayResource(resource), updatedModel, locale, templateResource.getTemplateOutput()))
+        return findOverride(event, templateResource, locale)
+            .map(template -> render(template, updatedModel, locale))
             .orElseGet(() -> renderTemplate(Optional.ofNullable(event), templateResource, updatedModel, locale));
     }
 
     public String renderString(Event event, String template, Map<String, Object> model, Locale locale, TemplateOutput templateOutput) {
-        return render(new ByteArrayResource(template.getBytes(StandardCharsets.UTF_8)), modelEnricher(model, Optional.ofNullable(event), locale), locale, templateOutput);
+        return render(compile(new ByteArrayResource(template.getBytes(StandardCharsets.UTF_8)), templateOutput), modelEnricher(model, Optional.ofNullable(event), locale), locale);
+    }
+
+    private Optional<Template> findOverride(Event event, TemplateResource templateResource, Locale locale) {
+        OverrideKey key = new OverrideKey(event.getOrganizationId(), event.getId(), templateResource.getSavedName(locale), templateResource.getTemplateOutput());
+        long version = uploadedResourceManager.getVersion();
+        Pair<Long, Optional<Template>> cached = overrides.getIfPresent(key);
+        if(cached != null && cached.getLeft() == version) {
+            return cached.getRight();
+        }
+        Optional<Template> override = uploadedResourceManager.findCascading(key.organizationId, key.eventId, key.savedName)
+            .map(resource -> compile(new ByteArrayResource(resource), key.templateOutput));
+        overrides.put(key, Pair.of(version, override));
+        return override;
     }
 
     //TODO: to be removed when only the rest api will be exposed
@@ -118,7 +157,7 @@ public class TemplateManager {
         model.put("request", request);
         model.put(WebSecurityConfig.CSRF_PARAM_NAME, request.getAttribute(CsrfToken.class.getName()));
         Locale locale = RequestContextUtils.getLocale(request);
-        return render(new ServletContextResource(request.getServletContext(), servletContextResource), modelEnricher(model, Optional.ofNullable(event), locale), locale, templateOutput);
+        return render(compileCached(new ServletContextResource(request.getServletContext(), servletContextResource), templateOutput), modelEnricher(model, Optional.ofNullable(event), locale), locale);
     }
 
     private Map<String, Object> modelEnricher(Map<String, Object> model, Optional<Event> event, Locale locale) {
@@ -139,18 +178,28 @@ public class TemplateManager {
         return configurationManager.getStringConfigValue(vatPathKey, translatedVat);
     }
 
-    private String render(AbstractResource resource, Map<String, Object> model, Locale locale, TemplateOutput templateOutput) {
+    private String render(Template template, Map<String, Object> model, Locale locale) {
         try {
             ModelAndView mv = new ModelAndView((String) null, model);
             mv.addObject("format-date", MustacheCustomTagInterceptor.FORMAT_DATE);
             mv.addObject("country-name", COUNTRY_NAME);
             mv.addObject(MustacheLocalizationMessageInterceptor.DEFAULT_MODEL_KEY, new CustomLocalizationMessageInterceptor(locale, messageSource).createTranslator());
-            return compile(resource, templateOutput).execute(mv.getModel());
+            return template.execute(mv.getModel());
         } catch (Exception e) {
             throw new IllegalStateException(e);
         }
     }
 
+    /**
+     * Templates are thread-safe, therefore a compiled template can be shared.
+     */
+    private Template compileCached(AbstractResource resource, TemplateOutput templateOutput) {
+        if(!cacheTemplates) {
+            return compile(resource, templateOutput);
+        }
+        return compiledTemplates.get(Pair.of(resource.getDescription(), templateOutput), k -> compile(resource, templateOutput));
+    }
+
     private Template compile(AbstractResource resource, TemplateOutput templateOutput) {
         try (InputStreamReader tmpl = new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)) {
             return compilers.get(templateOutput).compile(tmpl);
@@ -159,6 +208,37 @@ public class TemplateManager {
         }
     }
 
+    @Override
+    public String getMetricsName() {
+        return "template-cache";
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("templates", cacheMetrics(compiledTemplates.stats(), compiledTemplates.estimatedSize()));
+        metrics.put("overrides", cacheMetrics(overrides.stats(), overrides.estimatedSize()));
+        return metrics;
+    }
+
+    private static Map<String, Object> cacheMetrics(CacheStats stats, long size) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("hits", stats.hitCount());
+        metrics.put("misses", stats.missCount());
+        metrics.put("hitRatio", stats.hitRate());
+        metrics.put("entries", size);
+        return metrics;
+    }
+
+    @RequiredArgsConstructor
+    @EqualsAndHashCode
+    private static class OverrideKey {
+        private final int organizationId;
+        private final int eventId;
+        private final String savedName;
+        private final TemplateOutput templateOutput;
+    }
+
     private static final Pattern KEY_PATTERN = Pattern.compile("(.*?)[\\s\\[]");
     private static final Pattern ARGS_PATTERN = Pattern.compile("\\[(.*?)\\]");
 
@@ -0,0 +1,53 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- number of tickets for each event, category and status, maintained by a trigger on the ticket table.
+-- tickets without category are counted with category_id = 0.
+-- In order to avoid lock contention, each connection updates its own "slot": the actual value is the sum of all the slots.
+create table ticket_status_counter (
+    event_id integer not null,
+    category_id integer not null,
+    status varchar(255) not null,
+    slot integer not null,
+    counter integer not null,
+    primary key (event_id, category_id, status, slot)
+);
+
+insert into ticket_status_counter(event_id, category_id, status, slot, counter)
+    select event_id, coalesce(category_id, 0), status, 0, count(*) from ticket group by event_id, coalesce(category_id, 0), status;
+
+create function update_ticket_status_counter() returns trigger as $$
+declare
+    slot_id integer := pg_backend_pid() % 16;
+begin
+    if tg_op = 'UPDATE' and old.status = new.status and old.event_id = new.event_id and old.category_id is not distinct from new.category_id then
+        return null;
+    end if;
+    if tg_op in ('UPDATE', 'DELETE') then
+        insert into ticket_status_counter(event_id, category_id, status, slot, counter) values (old.event_id, coalesce(old.category_id, 0), old.status, slot_id, -1)
+            on conflict (event_id, category_id, status, slot) do update set counter = ticket_status_counter.counter - 1;
+    end if;
+    if tg_op in ('UPDATE', 'INSERT') then
+        insert into ticket_status_counter(event_id, category_id, status, slot, counter) values (new.event_id, coalesce(new.category_id, 0), new.status, slot_id, 1)
+            on conflict (event_id, category_id, status, slot) do update set counter = ticket_status_counter.counter + 1;
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create trigger ticket_status_counter_trg after insert or delete or update of status, category_id, event_id on ticket
+    for each row execute procedure update_ticket_status_counter();
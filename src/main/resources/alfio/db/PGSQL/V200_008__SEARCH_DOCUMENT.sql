@@ -0,0 +1,79 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+-- search documents for the admin search (reservations, tickets and email log), maintained by triggers.
+-- The documents are lowercase and indexed using trigrams, so that "like '%term%'" queries can use the GIN indexes.
+-- The body of the email messages is not part of the document: it has its own index on lower(message).
+--
+-- The trigram indexes require the pg_trgm extension. Before PostgreSQL 13 it can only be created by a superuser:
+-- if the current user is not allowed to create it, the indexes are skipped and the search falls back to a sequential scan.
+-- In this case, run "create extension pg_trgm;" as superuser and then execute the "create index" statements at the end of this file.
+do $$
+begin
+    create extension if not exists pg_trgm;
+exception when insufficient_privilege then
+    raise warning 'cannot create the pg_trgm extension (%), the search documents will not be indexed', sqlerrm;
+end;
+$$;
+
+alter table tickets_reservation add column search_document text;
+alter table ticket add column search_document text;
+alter table email_message add column search_document text;
+
+create function update_reservation_search_document() returns trigger as $$
+begin
+    new.search_document := lower(concat_ws(' ', new.full_name, new.first_name, new.last_name, new.email_address, new.customer_reference));
+    return new;
+end;
+$$ language plpgsql;
+
+create function update_ticket_search_document() returns trigger as $$
+begin
+    new.search_document := lower(concat_ws(' ', new.uuid, new.full_name, new.first_name, new.last_name, new.email_address));
+    return new;
+end;
+$$ language plpgsql;
+
+create function update_email_message_search_document() returns trigger as $$
+begin
+    new.search_document := lower(concat_ws(' ', new.recipient, new.subject));
+    return new;
+end;
+$$ language plpgsql;
+
+create trigger reservation_search_document_trg before insert or update of full_name, first_name, last_name, email_address, customer_reference on tickets_reservation
+    for each row execute procedure update_reservation_search_document();
+
+create trigger ticket_search_document_trg before insert or update of uuid, full_name, first_name, last_name, email_address on ticket
+    for each row execute procedure update_ticket_search_document();
+
+create trigger email_message_search_document_trg before insert or update of recipient, subject on email_message
+    for each row execute procedure update_email_message_search_document();
+
+update tickets_reservation set search_document = lower(concat_ws(' ', full_name, first_name, last_name, email_address, customer_reference));
+update ticket set search_document = lower(concat_ws(' ', uuid, full_name, first_name, last_name, email_address));
+update email_message set search_document = lower(concat_ws(' ', recipient, subject));
+
+do $$
+begin
+    if exists (select 1 from pg_extension where extname = 'pg_trgm') then
+        create index tickets_reservation_search_document_idx on tickets_reservation using gin (search_document gin_trgm_ops);
+        create index ticket_search_document_idx on ticket using gin (search_document gin_trgm_ops);
+        create index email_message_search_document_idx on email_message using gin (search_document gin_trgm_ops);
+        create index email_message_body_idx on email_message using gin (lower(message) gin_trgm_ops);
+    end if;
+end;
+$$;
@@ -0,0 +1,20 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+-- indexes matching the sort order of the admin lists (see TicketSearchRepository and EmailMessageRepository),
+-- so that the keyset pagination can start reading right after the last element of the previous page
+create index tickets_reservation_event_sort_idx on tickets_reservation(event_id_fk, status, coalesce(confirmation_ts, timestamp with time zone 'epoch'), validity, id);
+create index email_message_event_sort_idx on email_message(event_id, coalesce(sent_ts, timestamp with time zone '9999-12-31 00:00:00+00'), id);
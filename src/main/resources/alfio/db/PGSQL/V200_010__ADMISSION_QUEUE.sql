@@ -0,0 +1,35 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- shared state of the admission control (see AdmissionControlManager), so that all the nodes use the same queue.
+-- "admitted" is a token bucket: it grows by "rate" every second, up to last_position + rate.
+create table admission_queue (
+    event_id integer not null primary key,
+    last_position bigint not null,
+    admitted double precision not null,
+    rate integer not null,
+    last_refill timestamp with time zone not null
+);
+
+-- one row for each concurrent reservation allowed for an event. A slot is in use until lease_until.
+create table admission_permit (
+    event_id integer not null,
+    slot integer not null,
+    holder varchar(36),
+    lease_until timestamp with time zone not null,
+    primary key (event_id, slot)
+);
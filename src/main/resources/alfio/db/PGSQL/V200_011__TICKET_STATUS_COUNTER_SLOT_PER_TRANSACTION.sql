@@ -0,0 +1,45 @@
+--
+-- This file is part of alf.io.
+--
+-- alf.io is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- alf.io is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+--
+
+-- the counter slot was chosen using the backend pid, therefore concurrent transactions could share a slot and lock
+-- the counters of two statuses in opposite order. Now each transaction writes its own slot (its transaction id), so
+-- writers never wait for each other. The slots are folded back into slot 0 by the compactTicketCounters job.
+alter table ticket_status_counter alter column slot type bigint;
+
+create or replace function update_ticket_status_counter() returns trigger as $$
+declare
+    slot_id bigint := txid_current();
+begin
+    if tg_op = 'UPDATE' and old.status = new.status and old.event_id = new.event_id and old.category_id is not distinct from new.category_id then
+        return null;
+    end if;
+    if tg_op in ('UPDATE', 'DELETE') then
+        insert into ticket_status_counter(event_id, category_id, status, slot, counter) values (old.event_id, coalesce(old.category_id, 0), old.status, slot_id, -1)
+            on conflict (event_id, category_id, status, slot) do update set counter = ticket_status_counter.counter - 1;
+    end if;
+    if tg_op in ('UPDATE', 'INSERT') then
+        insert into ticket_status_counter(event_id, category_id, status, slot, counter) values (new.event_id, coalesce(new.category_id, 0), new.status, slot_id, 1)
+            on conflict (event_id, category_id, status, slot) do update set counter = ticket_status_counter.counter + 1;
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+with moved as (delete from ticket_status_counter where slot <> 0 returning event_id, category_id, status, counter)
+insert into ticket_status_counter(event_id, category_id, status, slot, counter)
+    select event_id, category_id, status, 0, sum(counter) from moved group by event_id, category_id, status
+    on conflict (event_id, category_id, status, slot) do update set counter = ticket_status_counter.counter + excluded.counter;
@@ -15,6 +15,8 @@
 -- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
 --
 
+-- every aggregate is correlated to a single category, so that a query for a given event reads only the counters
+-- of its categories (see ticket_status_counter), regardless of how many tickets are stored in the database
 create view ticket_category_statistics as (select
   res.*,
   is_expired and not_sold_tickets > 0 as is_containing_orphan_tickets,
@@ -22,42 +24,35 @@ create view ticket_category_statistics as (select
 from
 
 (select
-  id as ticket_category_id,
-  max_tickets,
-  bounded,
-  is_expired,
-  event_id,
-  coalesce(pending_count,0) as pending_count,
-  coalesce(checked_in_count,0) as checked_in_count,
-  coalesce(sold_tickets_count,0) as sold_tickets_count,
-  coalesce(released_count, 0) as released_count,
-  case(bounded) when false then 0 else max_tickets - coalesce(sold_tickets_count,0 )  - coalesce(checked_in_count, 0) -  coalesce(pending_count, 0) end as not_sold_tickets,
-  coalesce(stuck_count, 0) as stuck_count
-from
-
-(select max_tickets, bounded, id, event_id, expiration < now() as is_expired from ticket_category ) ticket_cat
-
-left join
+  tc.id as ticket_category_id,
+  tc.max_tickets,
+  tc.bounded,
+  tc.expiration < now() as is_expired,
+  tc.event_id,
+  coalesce(tickets_stats.pending_count, 0) as pending_count,
+  coalesce(tickets_stats.checked_in_count, 0) as checked_in_count,
+  coalesce(tickets_stats.sold_tickets_count, 0) as sold_tickets_count,
+  coalesce(tickets_stats.released_count, 0) as released_count,
+  case(tc.bounded) when false then 0 else tc.max_tickets - coalesce(tickets_stats.sold_tickets_count, 0) - coalesce(tickets_stats.checked_in_count, 0) - coalesce(tickets_stats.pending_count, 0) end as not_sold_tickets,
+  stuck.stuck_count
+from ticket_category tc
+
+left join lateral
 
 (select
-  sum(case(status = 'PENDING') when true then 1 else 0 end) as pending_count,
-  sum(case(status = 'RELEASED') when true then 1 else 0 end) as released_count,
-  sum(case(status = 'CHECKED_IN') when true then 1 else 0 end) checked_in_count,
-  sum(case(status in ('TO_BE_PAID', 'ACQUIRED')) when true then 1 else 0 end) as sold_tickets_count,
-  category_id
-from ticket
-inner join ticket_category tc
-on category_id = tc.id
-group by category_id
-) tickets_stats on ticket_cat.id = tickets_stats.category_id
-
-left join
-
-(select count(*) stuck_count, category_id
-  from ticket
-  inner join tickets_reservation on tickets_reservation.id = tickets_reservation_id
-  where tickets_reservation.status = 'STUCK'
-  group by category_id) stuck_count on ticket_cat.id = stuck_count.category_id
-
-
-) as res);
\ No newline at end of file
+  sum(case(status = 'PENDING') when true then counter else 0 end) as pending_count,
+  sum(case(status = 'RELEASED') when true then counter else 0 end) as released_count,
+  sum(case(status = 'CHECKED_IN') when true then counter else 0 end) checked_in_count,
+  sum(case(status in ('TO_BE_PAID', 'ACQUIRED')) when true then counter else 0 end) as sold_tickets_count
+from ticket_status_counter
+where event_id = tc.event_id and category_id = tc.id
+) tickets_stats on true
+
+left join lateral
+
+(select count(*) stuck_count
+  from tickets_reservation
+  inner join ticket on tickets_reservation.id = tickets_reservation_id
+  where tickets_reservation.status = 'STUCK' and ticket.category_id = tc.id) stuck on true
+
+) as res);
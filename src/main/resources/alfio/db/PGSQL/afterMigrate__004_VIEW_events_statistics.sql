@@ -15,22 +15,24 @@
 -- along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
 --
 
+-- the statistics are computed separately for each event, so that the cost of a query depends only on the selected events.
+-- See ticket_category_statistics
 create view events_statistics as (select
       event.id,
-      (select count(id) from ticket where event_id = event.id and status not in ('INVALIDATED', 'EXPIRED')) as available_seats,
-      case(contains_unbounded_categories) when true then 0 else (select count(id) from ticket where event_id = event.id and status not in ('INVALIDATED', 'EXPIRED')) - allocated_count end as not_allocated_tickets,
+      counters.available_seats,
+      case(contains_unbounded_categories) when true then 0 else counters.available_seats - allocated_count end as not_allocated_tickets,
       pending_count as pending_tickets,
       sold_tickets_count as sold_tickets,
-      (select released_count + count(id) from ticket where event_id = event.id and status = 'RELEASED' and category_id is null) as released_tickets,
+      released_count + counters.released_without_category as released_tickets,
       stats.checked_in_count as checked_in_tickets,
       case(contains_unbounded_categories) when true then
-        (select count(id) from ticket where event_id = event.id and status not in ('INVALIDATED', 'EXPIRED'))
+        counters.available_seats
           - allocated_count
           - released_count
           - sold_tickets_count_unbounded
           - checked_in_count_unbounded
           - pending_count_unbounded
-          - (select count(*) from ticket where status = 'RELEASED' and category_id is null and event_id = event.id)
+          - counters.released_without_category
           else 0 end as dynamic_allocation,
       case (contains_unbounded_categories) when true then
         allocated_count - sold_tickets_count_bounded - checked_in_count_bounded - pending_count
@@ -41,7 +43,8 @@ create view events_statistics as (select
       is_containing_stuck_tickets_count > 0 as is_containing_stuck_tickets_count
 
 
-from
+from event
+inner join lateral
 (select
 	sum(sold_tickets_count) as sold_tickets_count,
 	sum(checked_in_count) as checked_in_count,
@@ -56,5 +59,10 @@ from
 	sum(case (bounded) when false then 1 else 0 end) > 0 contains_unbounded_categories,
 	sum(case (is_containing_orphan_tickets) when true then 1 else 0 end) is_containing_orphan_tickets_count,
     sum(case (is_containing_stuck_tickets) when true then 1 else 0 end) is_containing_stuck_tickets_count,
-	event_id from ticket_category_statistics group by event_id) as stats
-inner join event on event_id = event.id);
\ No newline at end of file
+	event_id from ticket_category_statistics where event_id = event.id group by event_id) as stats on true
+inner join lateral
+(select
+    coalesce(sum(case (status not in ('INVALIDATED', 'EXPIRED')) when true then counter else 0 end), 0) as available_seats,
+    coalesce(sum(case (status = 'RELEASED' and category_id = 0) when true then counter else 0 end), 0) as released_without_category
+  from ticket_status_counter
+  where event_id = event.id) counters on true);
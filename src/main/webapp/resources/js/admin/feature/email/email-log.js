@@ -39,6 +39,7 @@
         ctrl.emailMessages = [];
         ctrl.eventName = getEvent.data.event.shortName;
         ctrl.itemsPerPage = 50;
+        var next = {};
         ctrl.loadData = loadData();
         ctrl.updateFilteredData = function() {
             loadData();
@@ -48,9 +49,13 @@
 
         function loadData() {
             $location.search({page: ctrl.currentPage, search: ctrl.toSearch});
-            EmailService.loadEmailLog(ctrl.eventName, ctrl.currentPage - 1, ctrl.toSearch).success(function(results) {
+            var page = parseInt(ctrl.currentPage, 10);
+            // moving to the next page: the token returned with the current one is used and the total is not computed again
+            var pageToken = next.page === page && next.search === ctrl.toSearch ? next.token : undefined;
+            EmailService.loadEmailLog(ctrl.eventName, page - 1, ctrl.toSearch, pageToken).success(function(results) {
+                next = {page: page + 1, search: ctrl.toSearch, token: results.nextPageToken};
                 ctrl.emailMessages = results.left;
-                ctrl.totalItems = results.right;
+                ctrl.totalItems = results.right !== null ? results.right : ctrl.totalItems;
             });
         }
 
@@ -72,8 +77,8 @@
 
     function EmailService($http, HttpErrorHandler) {
 
-        this.loadEmailLog = function(eventName, page, search) {
-            return $http.get('/admin/api/events/'+eventName+'/email/', {params: {page: page, search: search}}).error(HttpErrorHandler.handle);
+        this.loadEmailLog = function(eventName, page, search, pageToken) {
+            return $http.get('/admin/api/events/'+eventName+'/email/', {params: {page: page, search: search, pageToken: pageToken}}).error(HttpErrorHandler.handle);
         };
 
         this.loadEmailDetail = function(eventName, messageId) {
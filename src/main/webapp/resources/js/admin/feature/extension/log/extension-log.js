@@ -15,6 +15,7 @@
         var ctrl = this;
         ctrl.itemsPerPage = 50;
         ctrl.currentPage = 1;
+        var next = {};
 
         ctrl.$onInit = function() {
             loadLogs();
@@ -23,9 +24,13 @@
         ctrl.updateFilteredData = updateFilteredData;
 
         function loadLogs() {
-            $http.get('/admin/api/extensions/log', {params:{page: ctrl.currentPage -1}}).then(function(res) {
+            // moving to the next page: the token returned with the current one is used and the total is not computed again
+            var page = ctrl.currentPage;
+            var pageToken = next.page === page ? next.token : undefined;
+            $http.get('/admin/api/extensions/log', {params:{page: page -1, pageToken: pageToken}}).then(function(res) {
+                next = {page: page + 1, token: res.data.nextPageToken};
                 ctrl.logs = res.data.left;
-                ctrl.totalItems = res.data.right;
+                ctrl.totalItems = res.data.right !== null ? res.data.right : ctrl.totalItems;
             })
         }
         
@@ -24,6 +24,7 @@
         ctrl.selectedTab = currentSearch.t || 1;
 
         ctrl.itemsPerPage = 50;
+        var nextPageTokens = {};
         ctrl.formatFullName = formatFullName;
         ctrl.updateFilteredData = loadData;
         ctrl.truncateReservationId = truncateReservationId;
@@ -47,30 +48,30 @@
             });
 
             if(loadPartially.completed) {
-                EventService.findAllReservations(ctrl.event.shortName, ctrl.currentPage - 1, ctrl.toSearch, ['COMPLETE']).then(function (res) {
-                    ctrl.reservations = res.data.left;
-                    ctrl.foundReservations = res.data.right;
+                loadPage('completed', ctrl.currentPage, ['COMPLETE'], function (reservations, count) {
+                    ctrl.reservations = reservations;
+                    ctrl.foundReservations = count !== null ? count : ctrl.foundReservations;
                 });
             }
 
             if(loadPartially.paymentPending) {
-                EventService.findAllReservations(ctrl.event.shortName, ctrl.currentPagePendingPayment - 1, ctrl.toSearch, ['IN_PAYMENT', 'EXTERNAL_PROCESSING_PAYMENT', 'OFFLINE_PAYMENT']).then(function (res) {
-                    ctrl.paymentPendingReservations = res.data.left;
-                    ctrl.paymentPendingFoundReservations = res.data.right;
+                loadPage('paymentPending', ctrl.currentPagePendingPayment, ['IN_PAYMENT', 'EXTERNAL_PROCESSING_PAYMENT', 'OFFLINE_PAYMENT'], function (reservations, count) {
+                    ctrl.paymentPendingReservations = reservations;
+                    ctrl.paymentPendingFoundReservations = count !== null ? count : ctrl.paymentPendingFoundReservations;
                 });
             }
 
             if(loadPartially.pending) {
-                EventService.findAllReservations(ctrl.event.shortName, ctrl.currentPagePending -1, ctrl.toSearch, ['PENDING']).then(function(res) {
-                    ctrl.pendingReservations = res.data.left;
-                    ctrl.foundPendingReservations = res.data.right;
+                loadPage('pending', ctrl.currentPagePending, ['PENDING'], function(reservations, count) {
+                    ctrl.pendingReservations = reservations;
+                    ctrl.foundPendingReservations = count !== null ? count : ctrl.foundPendingReservations;
                 });
             }
 
             if(loadPartially.cancelled) {
-                EventService.findAllReservations(ctrl.event.shortName, ctrl.currentPageCancelled -1, ctrl.toSearch, ['CANCELLED']).then(function(res) {
-                    ctrl.cancelledReservations = res.data.left;
-                    ctrl.foundCancelledReservations = res.data.right;
+                loadPage('cancelled', ctrl.currentPageCancelled, ['CANCELLED'], function(reservations, count) {
+                    ctrl.cancelledReservations = reservations;
+                    ctrl.foundCancelledReservations = count !== null ? count : ctrl.foundCancelledReservations;
                 });
             }
 
@@ -82,6 +83,18 @@
             }
         }
 
+        // when moving to the next page, the token returned with the current one is used instead of the page number.
+        // In this case the total is not computed again.
+        function loadPage(key, page, status, callback) {
+            page = parseInt(page, 10);
+            var next = nextPageTokens[key];
+            var pageToken = next && next.page === page && next.search === ctrl.toSearch ? next.token : undefined;
+            EventService.findAllReservations(ctrl.event.shortName, page - 1, ctrl.toSearch, status, pageToken).then(function(res) {
+                nextPageTokens[key] = {page: page + 1, search: ctrl.toSearch, token: res.data.nextPageToken};
+                callback(res.data.left, res.data.right);
+            });
+        }
+
         function formatFullName(r) {
             if(r.firstName && r.lastName) {
                 return r.firstName + ' ' + r.lastName;
@@ -209,8 +209,8 @@
             getAllReservationStatus : function(eventName) {
                 return $http.get('/admin/api/reservation/event/'+eventName+'/reservations/all-status');
             },
-            findAllReservations: function(eventName, page, search, status) {
-                return $http.get('/admin/api/reservation/event/'+eventName+'/reservations/list', {params: {page: page, search: search, status: status}});
+            findAllReservations: function(eventName, page, search, status, pageToken) {
+                return $http.get('/admin/api/reservation/event/'+eventName+'/reservations/list', {params: {page: page, search: search, status: status, pageToken: pageToken}});
             },
             deleteEvent: function(event) {
                 var modal = $uibModal.open({
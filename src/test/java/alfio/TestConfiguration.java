@@ -96,6 +96,10 @@ public class TestConfiguration {
         Properties properties = new Properties();
         properties.put("alfio.version", "1.9-SNAPSHOT");
         properties.put("alfio.build-ts", ZonedDateTime.now(ZoneId.of("UTC")).minusDays(1).toString());
+        properties.put("alfio.configuration-cache.max-staleness-ms", "0");
+        properties.put("alfio.event-page-cache.ttl-seconds", "0");
+        properties.put("alfio.order-summary-cache.ttl-seconds", "0");
+        properties.put("alfio.extension-cache.ttl-seconds", "0");
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         PrintWriter pw = new PrintWriter(out);
         properties.list(pw);
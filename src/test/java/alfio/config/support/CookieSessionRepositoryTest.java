@@ -0,0 +1,184 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.config.support;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.session.ExpiringSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Cookie session store")
+class CookieSessionRepositoryTest {
+
+    private final InMemorySessionRepository serverSide = new InMemorySessionRepository(100, 3600);
+    private final CookieSessionRepository repository = new CookieSessionRepository("secret", 3600, serverSide);
+
+    @Test
+    @DisplayName("the session is restored from its id")
+    void roundTrip() {
+        CookieSessionRepository.CookieSession session = repository.createSession();
+        session.setAttribute("locale", Locale.ITALIAN);
+        session.setAttribute("reservationId", "abcd");
+        repository.save(session);
+
+        ExpiringSession restored = repository.getSession(session.getId());
+        assertNotNull(restored);
+        assertEquals(session.getId(), restored.getId());
+        assertEquals(Locale.ITALIAN, restored.getAttribute("locale"));
+        assertEquals("abcd", restored.getAttribute("reservationId"));
+        assertEquals(session.getCreationTime(), restored.getCreationTime());
+    }
+
+    @Test
+    @DisplayName("the id changes only if the content has been modified")
+    void idChangesOnModification() {
+        CookieSessionRepository.CookieSession session = repository.createSession();
+        session.setAttribute("key", "value");
+        repository.save(session);
+        String id = session.getId();
+
+        ExpiringSession restored = repository.getSession(id);
+        restored.setAttribute("key", "value");
+        repository.save(restored);
+        assertEquals(id, restored.getId());
+
+        restored.setAttribute("key", "another value");
+        repository.save(restored);
+        assertNotEquals(id, restored.getId());
+        assertEquals("another value", repository.getSession(restored.getId()).getAttribute("key"));
+    }
+
+    @Test
+    @DisplayName("tampered, foreign and expired sessions are rejected")
+    void invalidSessions() {
+        CookieSessionRepository.CookieSession session = repository.createSession();
+        session.setAttribute("key", "value");
+        repository.save(session);
+        String id = session.getId();
+        int middle = id.length() / 2;
+        String tampered = id.substring(0, middle) + (id.charAt(middle) == 'A' ? 'B' : 'A') + id.substring(middle + 1);
+        assertNull(repository.getSession(tampered));
+        assertNull(repository.getSession(RandomStringUtils.randomAlphanumeric(64)));
+        assertNull(new CookieSessionRepository("another secret", 3600, serverSide).getSession(id));
+
+        CookieSessionRepository.CookieSession expired = repository.createSession();
+        expired.setLastAccessedTime(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+        repository.save(expired);
+        assertNull(repository.getSession(expired.getId()));
+        assertEquals(3L, repository.getMetrics().get("rejected"));
+    }
+
+    @Test
+    @DisplayName("sessions which do not fit in a cookie are moved to the server")
+    void oversized() {
+        CookieSessionRepository.CookieSession session = repository.createSession();
+        session.setAttribute("key", "value");
+        repository.save(session);
+        String id = session.getId();
+
+        String big = RandomStringUtils.randomAlphanumeric(CookieSessionRepository.MAX_TOKEN_LENGTH * 2);
+        session.setAttribute("big", big);
+        repository.save(session);
+        assertNotEquals(id, session.getId());
+        ExpiringSession stored = serverSide.getSession(session.getId());
+        assertNotNull(stored);
+        assertEquals(big, stored.getAttribute("big"));
+        assertEquals(big, repository.getSession(session.getId()).getAttribute("big"));
+        assertEquals(1L, repository.getMetrics().get("oversized"));
+    }
+
+    @Test
+    @DisplayName("authenticated sessions are kept on the server and can be revoked")
+    void authenticated() {
+        CookieSessionRepository.CookieSession session = repository.createSession();
+        session.setAttribute("key", "value");
+        repository.save(session);
+        String anonymousId = session.getId();
+
+        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, new SecurityContextImpl());
+        repository.save(session);
+        String id = session.getId();
+        assertNotEquals(anonymousId, id);
+        assertNotNull(serverSide.getSession(id));
+
+        // further modifications in the same request are stored on the server as well
+        session.setAttribute("key", "another value");
+        repository.save(session);
+        ExpiringSession restored = repository.getSession(id);
+        assertEquals("another value", restored.getAttribute("key"));
+        assertNotNull(restored.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY));
+
+        repository.delete(id);
+        assertNull(repository.getSession(id));
+        assertEquals(1L, repository.getMetrics().get("movedToServer"));
+    }
+
+    @Test
+    @DisplayName("a secret is required")
+    void secretIsRequired() {
+        assertThrows(IllegalArgumentException.class, () -> new CookieSessionRepository(" ", 3600, serverSide));
+    }
+
+    @Test
+    @DisplayName("sessions holding classes outside the allow-list are moved to the server")
+    void disallowedClassesAreNotStoredInCookies() {
+        CookieSessionRepository.CookieSession session = repository.createSession();
+        session.setAttribute("counter", new AtomicLong(1));
+        repository.save(session);
+        assertNotNull(serverSide.getSession(session.getId()));
+        assertEquals(1L, repository.getMetrics().get("disallowed"));
+    }
+
+    @Test
+    @DisplayName("tokens holding classes outside the allow-list are rejected")
+    void disallowedClassesAreRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(3600);
+            out.writeInt(1);
+            out.writeUTF("counter");
+            out.writeObject(new AtomicLong(1));
+        }
+        assertNull(repository.getSession(repository.encrypt(bytes.toByteArray())));
+        assertEquals(1L, repository.getMetrics().get("rejected"));
+    }
+
+    @Test
+    @DisplayName("allow-list")
+    void allowList() {
+        assertTrue(CookieSessionRepository.isAllowed("java.lang.String"));
+        assertTrue(CookieSessionRepository.isAllowed("[Ljava.lang.String;"));
+        assertTrue(CookieSessionRepository.isAllowed("[[B"));
+        assertTrue(CookieSessionRepository.isAllowed("alfio.model.transaction.token.PayPalToken"));
+        assertFalse(CookieSessionRepository.isAllowed("org.apache.commons.collections.functors.InvokerTransformer"));
+        assertFalse(CookieSessionRepository.isAllowed("[Ljava.util.concurrent.atomic.AtomicLong;"));
+    }
+}
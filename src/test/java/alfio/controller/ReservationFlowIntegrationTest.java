@@ -34,6 +34,7 @@ import alfio.controller.support.TicketDecorator;
 import alfio.manager.*;
 import alfio.manager.i18n.I18nManager;
 import alfio.manager.support.CheckInStatus;
+import alfio.manager.support.OrderSummaryCache;
 import alfio.manager.support.TicketAndCheckInResult;
 import alfio.manager.user.UserManager;
 import alfio.model.*;
@@ -187,6 +188,9 @@ public class ReservationFlowIntegrationTest extends BaseIntegrationTest {
     @Autowired
     private TemplateManager templateManager;
 
+    @Autowired
+    private OrderSummaryCache orderSummaryCache;
+
     private ReservationApiController reservationApiController;
     private InvoiceReceiptController invoiceReceiptController;
 
@@ -210,7 +214,7 @@ public class ReservationFlowIntegrationTest extends BaseIntegrationTest {
         user = eventAndUser.getValue() + "_owner";
 
         //
-        reservationApiController = new ReservationApiController(eventRepository, ticketHelper, mock(TemplateManager.class), i18nManager, euVatChecker, ticketReservationRepository, ticketReservationManager);
+        reservationApiController = new ReservationApiController(eventRepository, ticketHelper, mock(TemplateManager.class), i18nManager, euVatChecker, ticketReservationRepository, ticketReservationManager, orderSummaryCache);
         invoiceReceiptController = new InvoiceReceiptController(eventRepository, ticketReservationManager, fileUploadManager, templateManager);
 
         //promo code at event level
@@ -251,7 +255,7 @@ public class ReservationFlowIntegrationTest extends BaseIntegrationTest {
         //
 
         // show event
-        String showEvent = eventController.showEvent(eventName, new BindingAwareModelMap(), new MockHttpServletRequest(), Locale.ENGLISH);
+        String showEvent = eventController.showEvent(eventName, new BindingAwareModelMap(), new MockHttpServletRequest(), new MockHttpServletResponse(), Locale.ENGLISH);
         assertEquals("/event/show-event", showEvent);
         //
 
@@ -442,8 +446,6 @@ public class ReservationFlowIntegrationTest extends BaseIntegrationTest {
         tc2.setCode(ticketCode);
         TicketAndCheckInResult ticketAndcheckInResult = checkInApiController.checkIn(event.getId(), ticketIdentifier, tc2, new TestingAuthenticationToken("ciccio", "ciccio"));
         assertEquals(CheckInStatus.SUCCESS, ticketAndcheckInResult.getResult().getStatus());
-        //
-
 
         //
         List<Integer> offlineIdentifiers = checkInApiController.getOfflineIdentifiers(event.getShortName(), 0L, new MockHttpServletResponse(), principal);
@@ -495,6 +497,38 @@ public class ReservationFlowIntegrationTest extends BaseIntegrationTest {
 
     }
 
+    @Test
+    public void bulkCheckInTest() throws Exception {
+        String eventName = event.getShortName();
+        eventManager.toggleActiveFlag(event.getId(), user, true);
+        String redirectStart = "redirect:/event/" + eventName + "/reservation/";
+        String reservationIdentifier = reserveTicket(eventName).substring(redirectStart.length()).replace("/book", "");
+        payOffline(eventName, reservationIdentifier);
+        validatePayment(eventName, reservationIdentifier);
+        String ticketIdentifier = checkReservationComplete(eventName, reservationIdentifier).getUuid();
+        assignTicket(eventName, reservationIdentifier, ticketIdentifier, "Test", "McTest");
+        String ticketCode = checkReservationComplete(eventName, reservationIdentifier).ticketCode(event.getPrivateKey());
+
+        Principal principal = mock(Principal.class);
+        Mockito.when(principal.getName()).thenReturn(user);
+        CheckInApiController.TicketIdentifierCode scanned = new CheckInApiController.TicketIdentifierCode();
+        scanned.setIdentifier(ticketIdentifier);
+        scanned.setCode(ticketCode);
+        CheckInApiController.TicketIdentifierCode notExisting = new CheckInApiController.TicketIdentifierCode();
+        notExisting.setIdentifier("not-existing-ticket");
+        notExisting.setCode(ticketCode);
+
+        // the tickets which cannot be checked in are reported without affecting the others
+        Map<String, TicketAndCheckInResult> bulkResult = checkInApiController.bulkCheckIn(eventName, Arrays.asList(scanned, notExisting, scanned), null, false, principal);
+        assertEquals(2, bulkResult.size());
+        assertEquals(CheckInStatus.SUCCESS, bulkResult.get(ticketIdentifier).getResult().getStatus());
+        assertEquals(CheckInStatus.TICKET_NOT_FOUND, bulkResult.get("not-existing-ticket").getResult().getStatus());
+        assertEquals(CheckInStatus.ALREADY_CHECK_IN, checkInApiController.findTicketWithUUID(event.getId(), ticketIdentifier, ticketCode).getResult().getStatus());
+
+        assertEquals(CheckInStatus.ALREADY_CHECK_IN, checkInApiController.bulkCheckIn(eventName, Collections.singletonList(scanned), null, false, principal).get(ticketIdentifier).getResult().getStatus());
+        assertEquals(1, scanAuditRepository.findAllForEvent(event.getId()).stream().filter(sa -> sa.getTicketUuid().equals(ticketIdentifier) && sa.getOperation() == ScanAudit.Operation.SCAN).count());
+    }
+
     private void checkCalendar(String eventName) throws IOException {
         MockHttpServletResponse resIcal = new MockHttpServletResponse();
         eventController.calendar(eventName, "en", null, null, resIcal);
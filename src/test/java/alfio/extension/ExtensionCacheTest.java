@@ -0,0 +1,79 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import alfio.model.ExtensionSupport.ScriptPathNameHash;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ExtensionCache")
+class ExtensionCacheTest {
+
+    private final ScriptPathNameHash script = new ScriptPathNameHash("-", "test", "hash");
+
+    @Test
+    @DisplayName("active scripts and parameters are loaded once until invalidated")
+    void cachedUntilInvalidated() {
+        ExtensionCache cache = new ExtensionCache(60);
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<List<ScriptPathNameHash>> loader = () -> {
+            loads.incrementAndGet();
+            return Collections.singletonList(script);
+        };
+        assertEquals(Collections.singletonList(script), cache.getActiveScripts("EVENT", "-1-2", false, loader));
+        cache.getActiveScripts("EVENT", "-1-2", false, loader);
+        assertEquals(1, loads.get());
+        cache.getActiveScripts("EVENT", "-1-2", true, loader);
+        assertEquals(2, loads.get());
+        cache.invalidate();
+        cache.getActiveScripts("EVENT", "-1-2", false, loader);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    @DisplayName("missing mandatory parameters are computed on every call")
+    void missingParameters() {
+        ExtensionCache cache = new ExtensionCache(60);
+        ExtensionCache.ScriptParameters parameters = cache.getParameters(script, "-1",
+            () -> new ExtensionCache.ScriptParameters(Collections.singletonMap("apiKey", "key"), Arrays.asList("apiKey", "listId")));
+        assertEquals(Collections.singleton("listId"), parameters.getMissing());
+        parameters.getMissing().clear();
+        assertEquals(Collections.singleton("listId"), cache.getParameters(script, "-1", () -> fail("should be cached")).getMissing());
+    }
+
+    @Test
+    @DisplayName("nothing is cached if the TTL is zero")
+    void disabled() {
+        ExtensionCache cache = new ExtensionCache(0);
+        AtomicInteger loads = new AtomicInteger();
+        Supplier<List<ScriptPathNameHash>> loader = () -> {
+            loads.incrementAndGet();
+            return Collections.emptyList();
+        };
+        cache.getActiveScripts("EVENT", "-", false, loader);
+        cache.getActiveScripts("EVENT", "-", false, loader);
+        assertEquals(2, loads.get());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.extension;
+
+import alfio.model.ExtensionLog;
+import alfio.repository.ExtensionLogRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@DisplayName("ExtensionLogWriter")
+class ExtensionLogWriterTest {
+
+    private static final String TEMPLATE = "insert into extension_log";
+    // the background flush must not interfere with the tests
+    private static final long FLUSH_INTERVAL = 60_000;
+
+    private ExtensionLogRepository extensionLogRepository;
+    private NamedParameterJdbcTemplate jdbc;
+
+    @BeforeEach
+    void init() {
+        extensionLogRepository = mock(ExtensionLogRepository.class);
+        jdbc = mock(NamedParameterJdbcTemplate.class);
+        when(extensionLogRepository.bulkInsert()).thenReturn(TEMPLATE);
+    }
+
+    @Test
+    @DisplayName("queued entries are written with a single batch")
+    void batch() {
+        ExtensionLogWriter writer = new ExtensionLogWriter(extensionLogRepository, jdbc, mock(PlatformTransactionManager.class), 10, FLUSH_INTERVAL);
+        try {
+            for (int i = 0; i < 3; i++) {
+                writer.write("-", "-", "test", "message " + i, ExtensionLog.Type.SUCCESS);
+            }
+            writer.flush();
+            ArgumentCaptor<MapSqlParameterSource[]> captor = ArgumentCaptor.forClass(MapSqlParameterSource[].class);
+            verify(jdbc).batchUpdate(eq(TEMPLATE), captor.capture());
+            assertEquals(3, captor.getValue().length);
+            verify(extensionLogRepository, never()).insert(any(), any(), any(), any(), any());
+            assertEquals(3L, writer.getMetrics().get("written"));
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("the caller writes the entry if the queue is full")
+    void backPressure() {
+        ExtensionLogWriter writer = new ExtensionLogWriter(extensionLogRepository, jdbc, mock(PlatformTransactionManager.class), 1, FLUSH_INTERVAL);
+        try {
+            writer.write("-", "-", "test", "first", ExtensionLog.Type.INFO);
+            writer.write("-", "-", "test", "second", ExtensionLog.Type.INFO);
+            assertEquals(1, writer.getMetrics().get("queued"));
+            verify(extensionLogRepository).insert("-", "-", "test", "second", ExtensionLog.Type.INFO);
+            assertEquals(1L, writer.getMetrics().get("writtenByCaller"));
+        } finally {
+            writer.shutdown();
+        }
+    }
+}
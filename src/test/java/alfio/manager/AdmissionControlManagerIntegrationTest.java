@@ -0,0 +1,124 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
+import alfio.model.system.Configuration;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.AdmissionControlRepository;
+import alfio.repository.system.ConfigurationRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two instances of {@link AdmissionControlManager} simulate two nodes sharing the same database.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+public class AdmissionControlManagerIntegrationTest {
+
+    private static final int EVENT_ID = 424242;
+    private static final int ORGANIZATION_ID = 1;
+
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private AdmissionControlRepository admissionControlRepository;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    private Event event;
+    private AdmissionControlManager firstNode;
+    private AdmissionControlManager secondNode;
+
+    @Before
+    public void init() {
+        ConfigurationManager configurationManager = mock(ConfigurationManager.class);
+        when(configurationManager.getBooleanConfigValue(eq(path(ConfigurationKeys.ADMISSION_CONTROL_ENABLED)), anyBoolean())).thenReturn(true);
+        when(configurationManager.getIntConfigValue(eq(path(ConfigurationKeys.ADMISSION_CONTROL_RATE)), anyInt())).thenReturn(2);
+        when(configurationManager.getIntConfigValue(eq(path(ConfigurationKeys.ADMISSION_CONTROL_MAX_CONCURRENT)), anyInt())).thenReturn(1);
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(event.getOrganizationId()).thenReturn(ORGANIZATION_ID);
+        firstNode = new AdmissionControlManager(configurationManager, configurationRepository, admissionControlRepository);
+        secondNode = new AdmissionControlManager(configurationManager, configurationRepository, admissionControlRepository);
+    }
+
+    @After
+    public void cleanUp() {
+        MapSqlParameterSource params = new MapSqlParameterSource("eventId", EVENT_ID);
+        jdbc.update("delete from admission_queue where event_id = :eventId", params);
+        jdbc.update("delete from admission_permit where event_id = :eventId", params);
+    }
+
+    @Test
+    public void queueIsSharedBetweenNodes() {
+        AdmissionControlManager.Admission first = firstNode.checkAdmission(event, Optional.empty());
+        assertTrue(first.isAdmitted());
+        assertTrue(secondNode.checkAdmission(event, Optional.empty()).isAdmitted());
+        AdmissionControlManager.Admission third = firstNode.checkAdmission(event, Optional.empty());
+        assertFalse(third.isAdmitted());
+        AdmissionControlManager.Admission fourth = secondNode.checkAdmission(event, Optional.empty());
+        assertFalse(fourth.isAdmitted());
+        assertTrue(third.getPosition() < fourth.getPosition());
+
+        // a token issued by a node keeps its position on the other one
+        AdmissionControlManager.Admission again = secondNode.checkAdmission(event, Optional.of(third.getToken()));
+        assertEquals(third.getToken(), again.getToken());
+        assertTrue(secondNode.checkAdmission(event, Optional.of(first.getToken())).isAdmitted());
+    }
+
+    @Test
+    public void concurrencyLimitIsSharedBetweenNodes() {
+        String result = firstNode.runAdmitted(event, () -> {
+            try {
+                secondNode.runAdmitted(event, () -> "second");
+                fail("the second node must not get a permit");
+            } catch (AdmissionControlManager.TooManyConcurrentReservationsException e) {
+                // expected
+            }
+            return "first";
+        });
+        assertEquals("first", result);
+        assertEquals("third", secondNode.runAdmitted(event, () -> "third"));
+        assertEquals(1L, secondNode.getMetrics().get("rejected"));
+    }
+
+    private static Configuration.ConfigurationPathKey path(ConfigurationKeys key) {
+        return Configuration.from(ORGANIZATION_ID, EVENT_ID, key);
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.AdmissionQueue;
+import alfio.model.Event;
+import alfio.model.system.Configuration;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.AdmissionControlRepository;
+import alfio.repository.system.ConfigurationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("Admission control")
+class AdmissionControlManagerTest {
+
+    private static final int EVENT_ID = 1;
+    private static final int ORGANIZATION_ID = 2;
+
+    private ConfigurationManager configurationManager;
+    private ConfigurationRepository configurationRepository;
+    private AdmissionControlRepository admissionControlRepository;
+    private Event event;
+    private AdmissionControlManager manager;
+
+    @BeforeEach
+    void init() {
+        configurationManager = mock(ConfigurationManager.class);
+        configurationRepository = mock(ConfigurationRepository.class);
+        admissionControlRepository = mock(AdmissionControlRepository.class);
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(event.getOrganizationId()).thenReturn(ORGANIZATION_ID);
+        when(configurationManager.getBooleanConfigValue(eq(path(ConfigurationKeys.ADMISSION_CONTROL_ENABLED)), anyBoolean())).thenReturn(true);
+        when(configurationManager.getIntConfigValue(eq(path(ConfigurationKeys.ADMISSION_CONTROL_RATE)), anyInt())).thenReturn(2);
+        when(configurationManager.getIntConfigValue(eq(path(ConfigurationKeys.ADMISSION_CONTROL_MAX_CONCURRENT)), anyInt())).thenReturn(1);
+        Configuration secret = mock(Configuration.class);
+        when(secret.getValue()).thenReturn("shared-secret");
+        when(configurationRepository.findByKey(ConfigurationKeys.ADMISSION_CONTROL_SECRET.getValue())).thenReturn(secret);
+        manager = new AdmissionControlManager(configurationManager, configurationRepository, admissionControlRepository);
+    }
+
+    @Test
+    @DisplayName("everyone is admitted if admission control is disabled")
+    void disabled() {
+        when(configurationManager.getBooleanConfigValue(eq(path(ConfigurationKeys.ADMISSION_CONTROL_ENABLED)), anyBoolean())).thenReturn(false);
+        for (int i = 0; i < 10; i++) {
+            AdmissionControlManager.Admission admission = manager.checkAdmission(event, Optional.empty());
+            assertTrue(admission.isAdmitted());
+            assertNull(admission.getToken());
+        }
+        assertEquals("done", manager.runAdmitted(event, () -> "done"));
+        verifyZeroInteractions(admissionControlRepository);
+    }
+
+    @Test
+    @DisplayName("buyers exceeding the rate are put in the queue")
+    void queue() {
+        when(admissionControlRepository.refill(EVENT_ID, 1, 2)).thenReturn(Optional.of(new AdmissionQueue(EVENT_ID, 4, 2, 2, 0)));
+        AdmissionControlManager.Admission fourth = manager.checkAdmission(event, Optional.empty());
+        assertFalse(fourth.isAdmitted());
+        assertEquals(2, fourth.getPosition());
+        assertEquals(1, fourth.getEstimatedWaitSeconds());
+
+        // presenting the same token again keeps the position in the queue, also on another node
+        when(admissionControlRepository.refill(EVENT_ID, 0, 2)).thenReturn(Optional.of(new AdmissionQueue(EVENT_ID, 10, 4, 2, 0)));
+        AdmissionControlManager anotherNode = new AdmissionControlManager(configurationManager, configurationRepository, admissionControlRepository);
+        AdmissionControlManager.Admission again = anotherNode.checkAdmission(event, Optional.of(fourth.getToken()));
+        assertTrue(again.isAdmitted());
+        verify(admissionControlRepository, times(1)).refill(EVENT_ID, 1, 2);
+    }
+
+    @Test
+    @DisplayName("tampered tokens are replaced")
+    void tamperedToken() {
+        when(admissionControlRepository.refill(eq(EVENT_ID), anyInt(), eq(2))).thenReturn(Optional.of(new AdmissionQueue(EVENT_ID, 3, 2, 2, 0)));
+        AdmissionControlManager.Admission waiting = manager.checkAdmission(event, Optional.empty());
+        assertFalse(waiting.isAdmitted());
+        String[] parts = waiting.getToken().split("\\.");
+        String forged = parts[0] + ".1." + parts[2] + "." + parts[3];
+        AdmissionControlManager.Admission result = manager.checkAdmission(event, Optional.of(forged));
+        assertFalse(result.isAdmitted());
+        assertNotEquals(forged, result.getToken());
+        verify(admissionControlRepository, times(2)).refill(EVENT_ID, 1, 2);
+    }
+
+    @Test
+    @DisplayName("the queue is created at first use")
+    void createQueue() {
+        when(admissionControlRepository.refill(EVENT_ID, 1, 2)).thenReturn(Optional.empty(), Optional.of(new AdmissionQueue(EVENT_ID, 1, 3, 2, 0)));
+        assertTrue(manager.checkAdmission(event, Optional.empty()).isAdmitted());
+        verify(admissionControlRepository).createQueue(EVENT_ID, 2);
+    }
+
+    @Test
+    @DisplayName("concurrent reservations are limited")
+    void concurrencyLimit() {
+        when(admissionControlRepository.acquirePermit(eq(EVENT_ID), eq(1), anyString(), anyInt())).thenReturn(Optional.empty());
+        assertThrows(AdmissionControlManager.TooManyConcurrentReservationsException.class, () -> manager.runAdmitted(event, () -> "second"));
+        assertEquals(1L, manager.getMetrics().get("rejected"));
+        verify(admissionControlRepository).createPermits(EVENT_ID, 1);
+
+        when(admissionControlRepository.acquirePermit(eq(EVENT_ID), eq(1), anyString(), anyInt())).thenReturn(Optional.of(0));
+        assertEquals("third", manager.runAdmitted(event, () -> "third"));
+        verify(admissionControlRepository).releasePermit(eq(EVENT_ID), eq(0), anyString());
+    }
+
+    private static Configuration.ConfigurationPathKey path(ConfigurationKeys key) {
+        return Configuration.from(ORGANIZATION_ID, EVENT_ID, key);
+    }
+}
@@ -19,6 +19,7 @@ package alfio.manager;
 import alfio.TestConfiguration;
 import alfio.config.DataSourceConfiguration;
 import alfio.config.Initializer;
+import alfio.manager.system.ConfigurationCache;
 import alfio.manager.system.ConfigurationManager;
 import alfio.manager.user.UserManager;
 import alfio.model.Event;
@@ -75,6 +76,9 @@ public class ConfigurationManagerIntegrationTest extends BaseIntegrationTest {
     @Autowired
     private ConfigurationRepository configurationRepository;
 
+    @Autowired
+    private ConfigurationCache configurationCache;
+
     @Autowired
     private EventManager eventManager;
 
@@ -200,6 +204,20 @@ public class ConfigurationManagerIntegrationTest extends BaseIntegrationTest {
 
     }
 
+    @Test
+    public void testCacheInvalidation() {
+        Configuration.ConfigurationPathKey key = Configuration.from(event.getOrganizationId(), event.getId(), MAX_AMOUNT_OF_TICKETS_BY_RESERVATION);
+        assertEquals(5, configurationManager.getIntConfigValue(key, -1));
+        long hits = (long) configurationCache.getMetrics().get("hits");
+        assertEquals(5, configurationManager.getIntConfigValue(key, -1));
+        assertTrue((long) configurationCache.getMetrics().get("hits") > hits);
+
+        configurationManager.saveConfig(key, "9");
+        assertEquals(9, configurationManager.getIntConfigValue(key, -1));
+        configurationManager.deleteEventLevelByKey(MAX_AMOUNT_OF_TICKETS_BY_RESERVATION.getValue(), event.getId(), USERNAME);
+        assertEquals(5, configurationManager.getIntConfigValue(key, -1));
+    }
+
     @Test
     public void testBasicConfigurationNotNeeded() {
 
@@ -0,0 +1,87 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.system.Mailer;
+import alfio.repository.EmailAttachmentCacheRepository;
+import alfio.util.BaseIntegrationTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+@Transactional
+public class EmailAttachmentCacheManagerIntegrationTest extends BaseIntegrationTest {
+
+    private static final byte[] CONTENT = {1,2,3,4};
+
+    @Autowired
+    EmailAttachmentCacheManager emailAttachmentCacheManager;
+    @Autowired
+    EmailAttachmentCacheRepository emailAttachmentCacheRepository;
+
+    @Test
+    public void testRenderOnlyOnce() {
+        AtomicInteger renderCount = new AtomicInteger();
+        Map<String, String> model = new HashMap<>();
+        model.put("reservationId", "abcd");
+        model.put("eventId", "1");
+
+        for(int i = 0; i < 3; i++) {
+            byte[] result = emailAttachmentCacheManager.getOrRender(Mailer.AttachmentIdentifier.RECEIPT_PDF, model, m -> {
+                renderCount.incrementAndGet();
+                return CONTENT;
+            });
+            Assert.assertArrayEquals(CONTENT, result);
+        }
+        Assert.assertEquals(1, renderCount.get());
+
+        //different identifier, same model
+        emailAttachmentCacheManager.getOrRender(Mailer.AttachmentIdentifier.INVOICE_PDF, model, m -> {
+            renderCount.incrementAndGet();
+            return CONTENT;
+        });
+        Assert.assertEquals(2, renderCount.get());
+        Assert.assertEquals(2, emailAttachmentCacheRepository.count());
+    }
+
+    @Test
+    public void testEvictExceeding() {
+        Map<String, String> model = new HashMap<>();
+        model.put("reservationId", "efgh");
+        emailAttachmentCacheManager.getOrRender(Mailer.AttachmentIdentifier.RECEIPT_PDF, model, m -> CONTENT);
+        Assert.assertEquals(1, emailAttachmentCacheRepository.count());
+        emailAttachmentCacheRepository.evictExceeding(CONTENT.length);
+        Assert.assertEquals(1, emailAttachmentCacheRepository.count());
+        emailAttachmentCacheRepository.evictExceeding(0);
+        Assert.assertEquals(0, emailAttachmentCacheRepository.count());
+    }
+}
@@ -23,6 +23,8 @@ import alfio.manager.user.UserManager;
 import alfio.model.Event;
 import alfio.model.Ticket;
 import alfio.model.TicketCategory;
+import alfio.model.TicketFieldConfiguration;
+import alfio.model.TicketWithReservationAndTransaction;
 import alfio.model.modification.*;
 import alfio.model.result.ErrorCode;
 import alfio.model.result.Result;
@@ -47,6 +49,7 @@ import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static alfio.test.util.IntegrationTestUtil.*;
 import static org.junit.Assert.*;
@@ -85,6 +88,8 @@ public class EventManagerIntegrationTest extends BaseIntegrationTest {
     private SpecialPriceTokenGenerator specialPriceTokenGenerator;
     @Autowired
     private TicketReservationManager ticketReservationManager;
+    @Autowired
+    private TicketFieldRepository ticketFieldRepository;
 
     @Test
     public void testUnboundedTicketsGeneration() {
@@ -692,6 +697,36 @@ public class EventManagerIntegrationTest extends BaseIntegrationTest {
         assertFalse(result.isSuccess());
     }
 
+    @Test
+    public void testStreamAllConfirmedTicketsForCSV() {
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", 10,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null));
+        Pair<Event, String> pair = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository);
+        Event event = pair.getKey();
+        TicketCategory category = ticketCategoryRepository.findByEventId(event.getId()).get(0);
+
+        List<Integer> ticketIds = ticketRepository.selectFreeTicketsForPreReservation(event.getId(), 3, category.getId());
+        String reservationId = UUID.randomUUID().toString();
+        ticketReservationRepository.createNewReservation(reservationId, ZonedDateTime.now(), DateUtils.addHours(new Date(), 1), null, Locale.ENGLISH.getLanguage(), event.getId(), event.getVat(), event.isVatIncluded());
+        ticketRepository.reserveTickets(reservationId, ticketIds, category.getId(), Locale.ENGLISH.getLanguage(), 0);
+        ticketRepository.updateTicketsStatusWithReservationId(reservationId, Ticket.TicketStatus.ACQUIRED.name());
+
+        int fieldId = ticketFieldRepository.insertConfiguration(event.getId(), "company", 0, "input:text", null, null, null, false,
+            TicketFieldConfiguration.Context.ATTENDEE, null, "[]").getKey();
+        ticketFieldRepository.insertValue(ticketIds.get(0), fieldId, "alf.io");
+
+        List<Pair<TicketWithReservationAndTransaction, Map<String, String>>> exported = eventManager.streamAllConfirmedTicketsForCSV(event.getShortName(), pair.getValue())
+            .collect(Collectors.toList());
+        assertEquals(3, exported.size());
+        assertEquals(new HashSet<>(ticketIds), exported.stream().map(p -> p.getLeft().getTicket().getId()).collect(Collectors.toSet()));
+        Map<Integer, Map<String, String>> valuesByTicket = exported.stream().collect(Collectors.toMap(p -> p.getLeft().getTicket().getId(), Pair::getRight));
+        assertEquals("alf.io", valuesByTicket.get(ticketIds.get(0)).get("company"));
+        assertTrue(valuesByTicket.get(ticketIds.get(1)).isEmpty());
+    }
+
     private Pair<Event, String> generateAndEditEvent(int newEventSize) {
         List<TicketCategoryModification> categories = Collections.singletonList(
             new TicketCategoryModification(null, "default", 10,
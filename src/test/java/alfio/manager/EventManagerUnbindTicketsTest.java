@@ -16,6 +16,8 @@
  */
 package alfio.manager;
 
+import alfio.manager.support.EventPageCache;
+import alfio.manager.support.OrderSummaryCache;
 import alfio.manager.user.UserManager;
 import alfio.model.Event;
 import alfio.model.Ticket;
@@ -87,7 +89,7 @@ public class EventManagerUnbindTicketsTest {
             ticketRepository, specialPriceRepository, null, null, null,
             null, null, null,
             null, null, null, organizationRepository,
-            null, null, null);
+            null, null, null, mock(EventPageCache.class), mock(OrderSummaryCache.class));
     }
 
     @Test
@@ -0,0 +1,104 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.repository.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class ExpiredReservationProcessorTest {
+
+    private ExpiredReservationProcessor processor;
+    private TicketReservationRepository ticketReservationRepository;
+    private TicketRepository ticketRepository;
+    private SpecialPriceRepository specialPriceRepository;
+    private WaitingQueueManager waitingQueueManager;
+    private ConfigurationManager configurationManager;
+
+    @BeforeEach
+    void init() {
+        ticketReservationRepository = mock(TicketReservationRepository.class);
+        ticketRepository = mock(TicketRepository.class);
+        specialPriceRepository = mock(SpecialPriceRepository.class);
+        waitingQueueManager = mock(WaitingQueueManager.class);
+        configurationManager = mock(ConfigurationManager.class);
+        when(configurationManager.getIntConfigValue(any(), anyInt())).thenReturn(2);
+        processor = new ExpiredReservationProcessor(ticketReservationRepository, ticketRepository, mock(TicketFieldRepository.class),
+            specialPriceRepository, mock(EventRepository.class), waitingQueueManager, mock(ExtensionManager.class), configurationManager,
+            mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void doNothingIfNoReservations() {
+        Date now = new Date();
+        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now), eq(2))).thenReturn(Collections.emptyList());
+        ExpiredReservationProcessor.RunResult result = processor.cleanupExpiredReservations(now);
+        verify(ticketReservationRepository).findExpiredReservationForUpdate(eq(now), eq(2));
+        verifyNoMoreInteractions(ticketReservationRepository, specialPriceRepository, ticketRepository, waitingQueueManager);
+        assertEquals(0, result.getReservationsFreed());
+    }
+
+    @Test
+    void cancelExpiredReservations() {
+        Date now = new Date();
+        List<String> reservationIds = singletonList("reservation-id");
+        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now), eq(2))).thenReturn(reservationIds);
+        when(ticketRepository.freeFromReservation(eq(reservationIds))).thenReturn(3);
+        ExpiredReservationProcessor.RunResult result = processor.cleanupExpiredReservations(now);
+        verify(ticketReservationRepository).findExpiredReservationForUpdate(eq(now), eq(2));
+        verify(specialPriceRepository).resetToFreeAndCleanupForReservation(eq(reservationIds));
+        verify(ticketRepository).resetCategoryIdForUnboundedCategories(eq(reservationIds));
+        verify(ticketRepository).freeFromReservation(eq(reservationIds));
+        verify(ticketReservationRepository).remove(eq(reservationIds));
+        verify(waitingQueueManager).cleanExpiredReservations(eq(reservationIds));
+        verify(ticketReservationRepository).getReservationIdAndEventId(eq(reservationIds));
+        verifyNoMoreInteractions(ticketReservationRepository, specialPriceRepository, ticketRepository);
+        assertEquals(1, result.getReservationsFreed());
+        assertEquals(3, result.getTicketsReleased());
+        assertEquals(1, result.getBatches());
+    }
+
+    @Test
+    void processInBatches() {
+        Date now = new Date();
+        List<String> first = Arrays.asList("r1", "r2");
+        List<String> second = Arrays.asList("r3", "r4");
+        List<String> third = singletonList("r5");
+        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now), eq(2))).thenReturn(first, second, third);
+        when(ticketRepository.freeFromReservation(anyList())).thenReturn(2, 2, 1);
+        ExpiredReservationProcessor.RunResult result = processor.cleanupExpiredReservations(now);
+        verify(ticketReservationRepository, times(3)).findExpiredReservationForUpdate(eq(now), eq(2));
+        verify(ticketReservationRepository).remove(eq(first));
+        verify(ticketReservationRepository).remove(eq(second));
+        verify(ticketReservationRepository).remove(eq(third));
+        assertEquals(5, result.getReservationsFreed());
+        assertEquals(5, result.getTicketsReleased());
+        assertEquals(3, result.getBatches());
+        assertEquals(5L, processor.getMetrics().get("totalReservationsFreed"));
+    }
+}
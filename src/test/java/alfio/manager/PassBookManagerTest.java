@@ -0,0 +1,84 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
+import alfio.model.Ticket;
+import alfio.model.system.ConfigurationKeys;
+import alfio.model.user.Organization;
+import alfio.repository.EventRepository;
+import alfio.repository.user.OrganizationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@DisplayName("Passbook generation")
+class PassBookManagerTest {
+
+    private ConfigurationManager configurationManager;
+    private Map<ConfigurationKeys, Optional<String>> configuration;
+    private Event event;
+    private Organization organization;
+    private List<Ticket> tickets;
+    private PassBookManager manager;
+
+    @BeforeEach
+    void init() {
+        configurationManager = mock(ConfigurationManager.class);
+        configuration = new EnumMap<>(ConfigurationKeys.class);
+        configuration.put(ConfigurationKeys.PASSBOOK_TYPE_IDENTIFIER, Optional.of("type"));
+        configuration.put(ConfigurationKeys.PASSBOOK_TEAM_IDENTIFIER, Optional.of("team"));
+        configuration.put(ConfigurationKeys.PASSBOOK_KEYSTORE, Optional.of(Base64.getEncoder().encodeToString("not a keystore".getBytes())));
+        configuration.put(ConfigurationKeys.PASSBOOK_KEYSTORE_PASSWORD, Optional.of("password"));
+        when(configurationManager.getStringConfigValueFrom(any(), any(), any(), any())).thenAnswer(invocation -> new EnumMap<>(configuration));
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(1);
+        organization = mock(Organization.class);
+        when(organization.getId()).thenReturn(2);
+        tickets = Collections.singletonList(mock(Ticket.class));
+        manager = new PassBookManager(mock(EventRepository.class), mock(OrganizationRepository.class), configurationManager, mock(FileUploadManager.class));
+    }
+
+    @Test
+    @DisplayName("nothing is generated if the configuration is not complete")
+    void missingConfiguration() {
+        configuration.put(ConfigurationKeys.PASSBOOK_KEYSTORE, Optional.empty());
+        assertEquals(0, manager.generatePassBooks(event, organization, tickets, (t, p) -> {}));
+        assertEquals(0L, manager.getMetrics().get("signers.misses"));
+    }
+
+    @Test
+    @DisplayName("the keystore is loaded only once for each configuration")
+    void signingMaterialIsCached() {
+        assertEquals(0, manager.generatePassBooks(event, organization, tickets, (t, p) -> {}));
+        assertEquals(0, manager.generatePassBooks(event, organization, tickets, (t, p) -> {}));
+        assertEquals(1L, manager.getMetrics().get("signers.misses"));
+        assertEquals(1L, manager.getMetrics().get("signers.hits"));
+
+        // a modification of the configuration results in a new keystore
+        configuration.put(ConfigurationKeys.PASSBOOK_KEYSTORE_PASSWORD, Optional.of("another-password"));
+        assertEquals(0, manager.generatePassBooks(event, organization, tickets, (t, p) -> {}));
+        assertEquals(2L, manager.getMetrics().get("signers.misses"));
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.*;
+import alfio.model.user.Organization;
+import alfio.repository.AdditionalServiceItemRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketFieldRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.TicketReservationRepository;
+import alfio.util.TemplateManager;
+import alfio.util.TemplateResource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("PDF rendering")
+class PdfRenderingManagerTest {
+
+    private static final int EVENT_ID = 1;
+
+    private FileUploadManager fileUploadManager;
+    private Event event;
+    private Organization organization;
+    private PdfRenderingManager manager;
+
+    @BeforeEach
+    void init() {
+        fileUploadManager = mock(FileUploadManager.class);
+        TemplateManager templateManager = mock(TemplateManager.class);
+        ConfigurationManager configurationManager = mock(ConfigurationManager.class);
+        TicketReservationRepository ticketReservationRepository = mock(TicketReservationRepository.class);
+        TicketCategoryRepository ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        TicketRepository ticketRepository = mock(TicketRepository.class);
+        event = mock(Event.class);
+        organization = mock(Organization.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(event.getFileBlobIdIsPresent()).thenReturn(true);
+        when(event.getFileBlobId()).thenReturn("logo");
+        FileBlobMetadata metadata = mock(FileBlobMetadata.class);
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(FileBlobMetadata.ATTR_IMG_WIDTH, "100");
+        attributes.put(FileBlobMetadata.ATTR_IMG_HEIGHT, "50");
+        when(metadata.getAttributes()).thenReturn(attributes);
+        when(fileUploadManager.findMetadata("logo")).thenReturn(Optional.of(metadata));
+        when(templateManager.renderTemplate(any(Event.class), eq(TemplateResource.TICKET_PDF), anyMap(), any(Locale.class)))
+            .thenReturn("<html><body><p>ticket</p></body></html>");
+        when(configurationManager.getIntConfigValue(any(), anyInt())).thenReturn(2);
+
+        TicketCategory active = category(1, TicketCategory.Status.ACTIVE);
+        TicketCategory notActive = category(2, TicketCategory.Status.NOT_ACTIVE);
+        when(ticketCategoryRepository.findByEventId(EVENT_ID)).thenReturn(Arrays.asList(active, notActive));
+        TicketReservation reservation = mock(TicketReservation.class);
+        when(reservation.getId()).thenReturn("reservation");
+        when(ticketReservationRepository.findByIds(anyCollection())).thenReturn(Collections.singletonList(reservation));
+        List<Ticket> ticketsInReservation = Collections.singletonList(ticket(1, 1));
+        when(ticketRepository.findTicketsInReservation("reservation")).thenReturn(ticketsInReservation);
+
+        manager = new PdfRenderingManager(fileUploadManager, templateManager, configurationManager, ticketReservationRepository,
+            ticketCategoryRepository, ticketRepository, mock(TicketFieldRepository.class), mock(AdditionalServiceItemRepository.class));
+    }
+
+    @Test
+    @DisplayName("tickets are rendered in bulk and the event image is loaded only once")
+    void renderTickets() {
+        List<Ticket> tickets = Arrays.asList(ticket(1, 1), ticket(2, 1), ticket(3, 1), ticket(4, 2));
+        List<byte[]> rendered = Collections.synchronizedList(new ArrayList<>());
+        int count = manager.renderTickets(event, organization, tickets, r -> rendered.add(r.getPdf()));
+        assertEquals(3, count);
+        assertEquals(3, rendered.size());
+        rendered.forEach(pdf -> assertTrue(new String(pdf, 0, 4, StandardCharsets.US_ASCII).startsWith("%PDF")));
+        verify(fileUploadManager, times(1)).findMetadata("logo");
+        assertEquals(3L, manager.getMetrics().get("rendered"));
+    }
+
+    @Test
+    @DisplayName("a failure in the consumer does not stop the batch")
+    void consumerFailure() {
+        List<Ticket> tickets = Arrays.asList(ticket(1, 1), ticket(2, 1));
+        int count = manager.renderTickets(event, organization, tickets, r -> {
+            if(r.getTicket().getId() == 1) {
+                throw new IllegalStateException("expected");
+            }
+        });
+        assertEquals(1, count);
+        assertEquals(1L, manager.getMetrics().get("failed"));
+    }
+
+    private static TicketCategory category(int id, TicketCategory.Status status) {
+        TicketCategory category = mock(TicketCategory.class);
+        when(category.getId()).thenReturn(id);
+        when(category.getStatus()).thenReturn(status);
+        return category;
+    }
+
+    private static Ticket ticket(int id, int categoryId) {
+        Ticket ticket = mock(Ticket.class);
+        when(ticket.getId()).thenReturn(id);
+        when(ticket.getCategoryId()).thenReturn(categoryId);
+        when(ticket.getEventId()).thenReturn(EVENT_ID);
+        when(ticket.getTicketsReservationId()).thenReturn("reservation");
+        when(ticket.getUserLanguage()).thenReturn("en");
+        return ticket;
+    }
+}
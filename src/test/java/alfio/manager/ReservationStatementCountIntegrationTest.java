@@ -0,0 +1,128 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.TicketCategory;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.repository.user.UserRepository;
+import alfio.test.util.IntegrationTestUtil;
+import alfio.test.util.StatementCounter;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+
+import static alfio.test.util.IntegrationTestUtil.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts the statements needed for creating a reservation. The number of statements must not depend on the
+ * number of reserved tickets. The throughput of the same path is measured by <tt>ReservationBenchmark</tt>, see src/jmh.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class, StatementCounter.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+public class ReservationStatementCountIntegrationTest {
+
+    private static final int AVAILABLE_TICKETS = 100;
+
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AuthorityRepository authorityRepository;
+    @Autowired
+    private TicketCategoryRepository ticketCategoryRepository;
+    @Autowired
+    private TicketReservationManager ticketReservationManager;
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private EventRepository eventRepository;
+
+    @Test
+    public void statementsDoNotDependOnQuantity() {
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+        initAdminUser(userRepository, authorityRepository);
+        Event event = null;
+        try {
+            List<TicketCategoryModification> categories = Arrays.asList(
+                new TicketCategoryModification(null, "bounded", AVAILABLE_TICKETS / 2,
+                    new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                    new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                    DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null),
+                new TicketCategoryModification(null, "unbounded", 0,
+                    new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                    new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                    DESCRIPTION, BigDecimal.ONE, false, "", false, null, null, null, null, null));
+            event = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository, null, AVAILABLE_TICKETS).getKey();
+            List<TicketCategory> eventCategories = ticketCategoryRepository.findByEventId(event.getId());
+
+            //the first reservation loads the configuration caches
+            countStatements(event, eventCategories, 1);
+            long small = countStatements(event, eventCategories, 1);
+            long large = countStatements(event, eventCategories, 20);
+
+            assertEquals("statements for 1 and 20 tickets per category", small, large);
+        } finally {
+            if(event != null) {
+                eventManager.deleteEvent(event.getId(), UserManager.ADMIN_USERNAME);
+            }
+            removeAdminUser(userRepository, authorityRepository);
+        }
+    }
+
+    private long countStatements(Event event, List<TicketCategory> categories, int quantity) {
+        List<TicketReservationWithOptionalCodeModification> reservations = new ArrayList<>();
+        categories.forEach(c -> {
+            TicketReservationModification trm = new TicketReservationModification();
+            trm.setAmount(quantity);
+            trm.setTicketCategoryId(c.getId());
+            reservations.add(new TicketReservationWithOptionalCodeModification(trm, Optional.empty()));
+        });
+        StatementCounter.reset();
+        ticketReservationManager.createTicketReservation(event, reservations, Collections.emptyList(), DateUtils.addDays(new Date(), 1),
+            Optional.empty(), Optional.empty(), Locale.ENGLISH, false);
+        return StatementCounter.get();
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
+import alfio.model.SpecialPrice;
+import alfio.model.TicketCategory;
+import alfio.repository.EventRepository;
+import alfio.repository.SpecialPriceRepository;
+import alfio.repository.TicketCategoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("Special price code generation")
+class SpecialPriceTokenGeneratorTest {
+
+    private static final int CATEGORY_ID = 1;
+    private static final String TEMPLATE = "update special_price";
+
+    private SpecialPriceRepository specialPriceRepository;
+    private NamedParameterJdbcTemplate jdbc;
+    private SpecialPriceTokenGenerator generator;
+
+    @BeforeEach
+    void init() {
+        specialPriceRepository = mock(SpecialPriceRepository.class);
+        TicketCategoryRepository ticketCategoryRepository = mock(TicketCategoryRepository.class);
+        EventRepository eventRepository = mock(EventRepository.class);
+        ConfigurationManager configurationManager = mock(ConfigurationManager.class);
+        jdbc = mock(NamedParameterJdbcTemplate.class);
+        TicketCategory category = mock(TicketCategory.class);
+        when(category.getId()).thenReturn(CATEGORY_ID);
+        when(category.getEventId()).thenReturn(2);
+        when(ticketCategoryRepository.getByIdAndActive(CATEGORY_ID)).thenReturn(Optional.of(category));
+        when(eventRepository.findById(2)).thenReturn(mock(Event.class));
+        when(configurationManager.getIntConfigValue(any(), anyInt())).thenReturn(6);
+        when(specialPriceRepository.batchUpdateCode()).thenReturn(TEMPLATE);
+        List<SpecialPrice> waiting = new ArrayList<>();
+        for(int i = 0; i < 3; i++) {
+            SpecialPrice sp = mock(SpecialPrice.class);
+            when(sp.getId()).thenReturn(i);
+            when(sp.getTicketCategoryId()).thenReturn(CATEGORY_ID);
+            waiting.add(sp);
+        }
+        when(specialPriceRepository.findWaitingElementsForCategory(CATEGORY_ID)).thenReturn(waiting);
+        generator = new SpecialPriceTokenGenerator(configurationManager, specialPriceRepository, ticketCategoryRepository,
+            eventRepository, jdbc, mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    @DisplayName("codes are assigned with a single batch update, skipping existing codes")
+    @SuppressWarnings("unchecked")
+    void batchUpdate() {
+        when(specialPriceRepository.findExistingCodes(anyCollection()))
+            .thenAnswer(invocation -> Collections.singletonList(((Collection<String>) invocation.getArgument(0)).iterator().next()))
+            .thenReturn(Collections.emptyList());
+        generator.generatePendingCodesForCategory(CATEGORY_ID);
+
+        ArgumentCaptor<MapSqlParameterSource[]> captor = ArgumentCaptor.forClass(MapSqlParameterSource[].class);
+        verify(jdbc).batchUpdate(eq(TEMPLATE), captor.capture());
+        Set<String> codes = Arrays.stream(captor.getValue()).map(p -> (String) p.getValue("code")).collect(Collectors.toSet());
+        assertEquals(3, codes.size());
+        assertTrue(codes.stream().allMatch(c -> c.length() == 6));
+        verify(specialPriceRepository, never()).updateCode(anyString(), anyInt());
+        assertEquals(3L, generator.getMetrics().get("generated"));
+        assertEquals(1L, generator.getMetrics().get("collisions"));
+        assertEquals(3L, generator.getMetrics().get("lastRunCodes"));
+    }
+
+    @Test
+    @DisplayName("codes are assigned one by one if the batch update fails")
+    void fallback() {
+        when(specialPriceRepository.findExistingCodes(anyCollection())).thenReturn(Collections.emptyList());
+        when(jdbc.batchUpdate(eq(TEMPLATE), any(MapSqlParameterSource[].class))).thenThrow(new DuplicateKeyException("duplicate"));
+        generator.generatePendingCodesForCategory(CATEGORY_ID);
+
+        verify(specialPriceRepository, times(3)).updateCode(anyString(), anyInt());
+        assertEquals(1L, generator.getMetrics().get("fallbacks"));
+        assertEquals(3L, generator.getMetrics().get("generated"));
+    }
+}
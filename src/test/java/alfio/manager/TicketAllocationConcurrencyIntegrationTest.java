@@ -0,0 +1,175 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.system.ConfigurationManager;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.TicketCategory;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.model.system.ConfigurationKeys;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.repository.user.UserRepository;
+import alfio.test.util.IntegrationTestUtil;
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static alfio.test.util.IntegrationTestUtil.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Simulates an on-sale spike: {@link #BUYERS} concurrent buyers try to reserve one ticket each from a category
+ * which is smaller than the demand. Exactly the available tickets must be sold, in both allocation modes.
+ * The throughput is measured by TicketAllocationBenchmark (see src/jmh).
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+public class TicketAllocationConcurrencyIntegrationTest {
+
+    private static final int BUYERS = 500;
+    private static final int AVAILABLE_TICKETS = 450;
+    private static final int CONNECTIONS = 50;
+
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private AuthorityRepository authorityRepository;
+    @Autowired
+    private TicketRepository ticketRepository;
+    @Autowired
+    private TicketCategoryRepository ticketCategoryRepository;
+    @Autowired
+    private TicketReservationManager ticketReservationManager;
+    @Autowired
+    private ConfigurationManager configurationManager;
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    public void testBlockingAllocation() throws InterruptedException, SQLException {
+        reserveConcurrently(false);
+    }
+
+    @Test
+    public void testSkipLockedAllocation() throws InterruptedException, SQLException {
+        reserveConcurrently(true);
+    }
+
+    private void reserveConcurrently(boolean skipLocked) throws InterruptedException, SQLException {
+        //the buyers must compete for the tickets, not for the connections
+        HikariConfigMXBean pool = dataSource.unwrap(HikariDataSource.class).getHikariConfigMXBean();
+        int maxConnections = pool.getMaximumPoolSize();
+        pool.setMaximumPoolSize(CONNECTIONS);
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+        configurationManager.saveSystemConfiguration(ConfigurationKeys.SKIP_LOCKED_TICKET_ALLOCATION, Boolean.toString(skipLocked));
+        initAdminUser(userRepository, authorityRepository);
+        Event event = null;
+        try {
+            List<TicketCategoryModification> categories = Collections.singletonList(
+                new TicketCategoryModification(null, "default", AVAILABLE_TICKETS,
+                    new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                    new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                    DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null));
+            event = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository, null, BUYERS).getKey();
+            TicketCategory category = ticketCategoryRepository.findByEventId(event.getId()).get(0);
+
+            AtomicInteger successful = new AtomicInteger();
+            AtomicInteger soldOut = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(BUYERS);
+            List<Callable<Void>> calls = new ArrayList<>(BUYERS);
+            final Event eventF = event;
+            for (int i = 0; i < BUYERS; i++) {
+                calls.add(() -> {
+                    start.await();
+                    TicketReservationModification trm = new TicketReservationModification();
+                    trm.setAmount(1);
+                    trm.setTicketCategoryId(category.getId());
+                    try {
+                        ticketReservationManager.createTicketReservation(eventF, Collections.singletonList(new TicketReservationWithOptionalCodeModification(trm, Optional.empty())),
+                            Collections.emptyList(), DateUtils.addDays(new Date(), 1), Optional.empty(), Optional.empty(), Locale.ENGLISH, false);
+                        successful.incrementAndGet();
+                    } catch (TicketReservationManager.NotEnoughTicketsException e) {
+                        soldOut.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+
+            List<Future<Void>> futures = new ArrayList<>(BUYERS);
+            calls.forEach(c -> futures.add(executor.submit(c)));
+            start.countDown();
+            for (Future<Void> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            executor.shutdown();
+
+            assertEquals(AVAILABLE_TICKETS, successful.get());
+            assertEquals(BUYERS - AVAILABLE_TICKETS, soldOut.get());
+            assertEquals(AVAILABLE_TICKETS, ticketRepository.findPendingTicketsInCategories(Collections.singletonList(category.getId())).size());
+        } finally {
+            if(event != null) {
+                eventManager.deleteEvent(event.getId(), UserManager.ADMIN_USERNAME);
+            }
+            configurationManager.deleteKey(ConfigurationKeys.SKIP_LOCKED_TICKET_ALLOCATION.name());
+            removeAdminUser(userRepository, authorityRepository);
+            pool.setMaximumPoolSize(maxConnections);
+        }
+    }
+}
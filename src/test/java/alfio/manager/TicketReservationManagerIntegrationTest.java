@@ -29,6 +29,7 @@ import alfio.repository.system.ConfigurationRepository;
 import alfio.repository.user.OrganizationRepository;
 import alfio.test.util.IntegrationTestUtil;
 import alfio.util.BaseIntegrationTest;
+import alfio.util.PageToken;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Assert;
@@ -51,6 +52,7 @@ import java.util.stream.Collectors;
 import static alfio.test.util.IntegrationTestUtil.AVAILABLE_SEATS;
 import static alfio.test.util.IntegrationTestUtil.initEvent;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -191,6 +193,22 @@ public class TicketReservationManagerIntegrationTest extends BaseIntegrationTest
         assertEquals(9, eventStatisticsManager.loadModifiedTickets(event.getId(), unbounded.getId(), 0, null).size());
         assertEquals(Integer.valueOf(9), eventStatisticsManager.countModifiedTicket(event.getId(), unbounded.getId(), null));
 
+        // search is case insensitive and matches both reservation and ticket data
+        assertEquals(1, ticketReservationManager.findAllReservationsInEvent(event.getId(), 0, "EMAIL@example", null).getKey().size());
+        assertEquals(0, ticketReservationManager.findAllReservationsInEvent(event.getId(), 0, "not-existing", null).getKey().size());
+        String ticketUuid = ticketRepository.findTicketsInReservation(reservationId).get(0).getUuid();
+        assertEquals(1, ticketReservationManager.findAllReservationsInEvent(event.getId(), 0, ticketUuid.toUpperCase(), null).getKey().size());
+        assertEquals(10, eventStatisticsManager.loadModifiedTickets(event.getId(), bounded.getId(), 0, "Full Name").size());
+        assertEquals(Integer.valueOf(0), eventStatisticsManager.countModifiedTicket(event.getId(), bounded.getId(), "not-existing"));
+
+        // keyset pagination
+        KeysetPage<TicketReservation> firstPage = ticketReservationManager.findReservationsInEvent(event.getId(), null, null, false, null, null);
+        assertEquals(1, firstPage.getContent().size());
+        assertNull(firstPage.getCount());
+        assertNull(firstPage.getNextPageToken());
+        String afterFirst = PageToken.encode(TicketSearchRepository.sortKey(firstPage.getContent().get(0)));
+        assertTrue(ticketReservationManager.findReservationsInEvent(event.getId(), null, afterFirst, true, null, null).getContent().isEmpty());
+
         assertEquals(TicketReservation.TicketReservationStatus.COMPLETE, ticketReservationManager.findById(reservationId).get().getStatus());
 
 
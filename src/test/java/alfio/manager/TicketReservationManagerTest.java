@@ -17,6 +17,7 @@
 package alfio.manager;
 
 import alfio.controller.form.UpdateTicketOwnerForm;
+import alfio.manager.support.OrderSummaryCache;
 import alfio.manager.support.PartialTicketTextGenerator;
 import alfio.manager.support.PaymentResult;
 import alfio.manager.support.TextTemplateGenerator;
@@ -40,7 +41,9 @@ import alfio.util.TemplateManager;
 import alfio.util.WorkingDaysAdjusters;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.springframework.context.MessageSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -100,6 +103,8 @@ class TicketReservationManagerTest {
     private SpecialPriceRepository specialPriceRepository;
     private TransactionRepository transactionRepository;
     private WaitingQueueManager waitingQueueManager;
+    private PlatformTransactionManager transactionManager;
+    private InvoiceSequencesRepository invoiceSequencesRepository;
     private Event event;
     private SpecialPrice specialPrice;
     private TicketCategory ticketCategory;
@@ -125,12 +130,12 @@ class TicketReservationManagerTest {
         specialPriceRepository = mock(SpecialPriceRepository.class);
         transactionRepository = mock(TransactionRepository.class);
         TemplateManager templateManager = mock(TemplateManager.class);
-        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        transactionManager = mock(PlatformTransactionManager.class);
         waitingQueueManager = mock(WaitingQueueManager.class);
         AdditionalServiceRepository additionalServiceRepository = mock(AdditionalServiceRepository.class);
         AdditionalServiceTextRepository additionalServiceTextRepository = mock(AdditionalServiceTextRepository.class);
         AdditionalServiceItemRepository additionalServiceItemRepository = mock(AdditionalServiceItemRepository.class);
-        InvoiceSequencesRepository invoiceSequencesRepository = mock(InvoiceSequencesRepository.class);
+        invoiceSequencesRepository = mock(InvoiceSequencesRepository.class);
         AuditingRepository auditingRepository = mock(AuditingRepository.class);
         event = mock(Event.class);
         specialPrice = mock(SpecialPrice.class);
@@ -167,7 +172,7 @@ class TicketReservationManagerTest {
             invoiceSequencesRepository,
             auditingRepository,
             userRepository,
-            extensionManager, ticketSearchRepository, groupManager);
+            extensionManager, ticketSearchRepository, groupManager, mock(NamedParameterJdbcTemplate.class), new OrderSummaryCache(0));
 
         when(event.getId()).thenReturn(EVENT_ID);
         when(event.getOrganizationId()).thenReturn(ORGANIZATION_ID);
@@ -468,7 +473,7 @@ class TicketReservationManagerTest {
     @Test
     void doNothingIfPrerequisitesAreNotSatisfied() {
         //do nothing if the category is not restricted
-        assertFalse(trm.fixToken(Optional.empty(), TICKET_CATEGORY_ID, EVENT_ID, Optional.empty(), mock(TicketReservationWithOptionalCodeModification.class)).isPresent());
+        assertFalse(trm.fixToken(Optional.empty(), ticketCategory, Optional.empty(), mock(TicketReservationWithOptionalCodeModification.class)).isPresent());
         //do nothing if special price status is pending and sessionId don't match
         assertFalse(trm.renewSpecialPrice(Optional.of(specialPrice), Optional.empty()).isPresent());
         //do nothing if special price status is pending and sessionId don't match
@@ -525,9 +530,8 @@ class TicketReservationManagerTest {
         when(ticketRepository.selectTicketInCategoryForUpdate(eq(EVENT_ID), eq(TICKET_CATEGORY_ID), eq(1), eq(singletonList(Ticket.TicketStatus.FREE.name())))).thenReturn(ids);
         when(reservationModification.getAmount()).thenReturn(1);
         when(reservationModification.getTicketCategoryId()).thenReturn(TICKET_CATEGORY_ID);
-        when(ticketRepository.findById(1, TICKET_CATEGORY_ID)).thenReturn(ticket);
         trm.reserveTicketsForCategory(event, Optional.empty(), "trid", reservationModification, Locale.ENGLISH, false, null);
-        verify(ticketRepository).reserveTickets("trid", ids, TICKET_CATEGORY_ID, Locale.ENGLISH.getLanguage(), 0);
+        verify(ticketRepository).reserveTicketsWithPrice("trid", ids, null, TICKET_CATEGORY_ID, Locale.ENGLISH.getLanguage(), 0, 0, 0, 0);
     }
 
     @Test
@@ -537,9 +541,8 @@ class TicketReservationManagerTest {
         when(ticketRepository.selectTicketInCategoryForUpdate(eq(EVENT_ID), eq(TICKET_CATEGORY_ID), eq(1), eq(asList(TicketStatus.RELEASED.name(), TicketStatus.PRE_RESERVED.name())))).thenReturn(ids);
         when(reservationModification.getAmount()).thenReturn(1);
         when(reservationModification.getTicketCategoryId()).thenReturn(TICKET_CATEGORY_ID);
-        when(ticketRepository.findById(1, TICKET_CATEGORY_ID)).thenReturn(ticket);
         trm.reserveTicketsForCategory(event, Optional.empty(), "trid", reservationModification, Locale.ENGLISH, true, null);
-        verify(ticketRepository).reserveTickets("trid", ids, TICKET_CATEGORY_ID, Locale.ENGLISH.getLanguage(), 0);
+        verify(ticketRepository).reserveTicketsWithPrice("trid", ids, null, TICKET_CATEGORY_ID, Locale.ENGLISH.getLanguage(), 0, 0, 0, 0);
     }
 
     @Test
@@ -549,9 +552,8 @@ class TicketReservationManagerTest {
         when(ticketRepository.selectNotAllocatedTicketsForUpdate(eq(EVENT_ID), eq(1), eq(singletonList(Ticket.TicketStatus.FREE.name())))).thenReturn(ids);
         when(reservationModification.getAmount()).thenReturn(1);
         when(reservationModification.getTicketCategoryId()).thenReturn(TICKET_CATEGORY_ID);
-        when(ticketRepository.findById(1, TICKET_CATEGORY_ID)).thenReturn(ticket);
         trm.reserveTicketsForCategory(event, Optional.empty(), "trid", reservationModification, Locale.ENGLISH, false, null);
-        verify(ticketRepository).reserveTickets("trid", ids, TICKET_CATEGORY_ID, Locale.ENGLISH.getLanguage(), 0);
+        verify(ticketRepository).reserveTicketsWithPrice("trid", ids, null, TICKET_CATEGORY_ID, Locale.ENGLISH.getLanguage(), 0, 0, 0, 0);
     }
 
     @Test
@@ -561,36 +563,8 @@ class TicketReservationManagerTest {
         when(ticketRepository.selectNotAllocatedTicketsForUpdate(eq(EVENT_ID), eq(1), eq(asList(TicketStatus.RELEASED.name(), TicketStatus.PRE_RESERVED.name())))).thenReturn(ids);
         when(reservationModification.getAmount()).thenReturn(1);
         when(reservationModification.getTicketCategoryId()).thenReturn(TICKET_CATEGORY_ID);
-        when(ticketRepository.findById(1, TICKET_CATEGORY_ID)).thenReturn(ticket);
         trm.reserveTicketsForCategory(event, Optional.empty(), "trid", reservationModification, Locale.ENGLISH, true, null);
-        verify(ticketRepository).reserveTickets("trid", ids, TICKET_CATEGORY_ID, Locale.ENGLISH.getLanguage(), 0);
-    }
-
-    //cleanup expired reservations
-
-    @Test
-    void doNothingIfNoReservations() {
-        Date now = new Date();
-        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now))).thenReturn(Collections.emptyList());
-        trm.cleanupExpiredReservations(now);
-        verify(ticketReservationRepository).findExpiredReservationForUpdate(eq(now));
-        verifyNoMoreInteractions(ticketReservationRepository, specialPriceRepository, ticketRepository, waitingQueueManager);
-    }
-
-    @Test
-    void cancelExpiredReservations() {
-        Date now = new Date();
-        List<String> reservationIds = singletonList("reservation-id");
-        when(ticketReservationRepository.findExpiredReservationForUpdate(eq(now))).thenReturn(reservationIds);
-        trm.cleanupExpiredReservations(now);
-        verify(ticketReservationRepository).findExpiredReservationForUpdate(eq(now));
-        verify(specialPriceRepository).resetToFreeAndCleanupForReservation(eq(reservationIds));
-        verify(ticketRepository).resetCategoryIdForUnboundedCategories(eq(reservationIds));
-        verify(ticketRepository).freeFromReservation(eq(reservationIds));
-        verify(ticketReservationRepository).remove(eq(reservationIds));
-        verify(waitingQueueManager).cleanExpiredReservations(eq(reservationIds));
-        verify(ticketReservationRepository).getReservationIdAndEventId(eq(reservationIds));
-        verifyNoMoreInteractions(ticketReservationRepository, specialPriceRepository, ticketRepository);
+        verify(ticketRepository).reserveTicketsWithPrice("trid", ids, null, TICKET_CATEGORY_ID, Locale.ENGLISH.getLanguage(), 0, 0, 0, 0);
     }
 
     @Test
@@ -687,6 +661,8 @@ class TicketReservationManagerTest {
     private void initConfirmReservation() {
         when(event.getZoneId()).thenReturn(ZoneId.systemDefault());
         when(event.getBegin()).thenReturn(ZonedDateTime.now().plusDays(5));
+        when(ticketReservationRepository.updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(PENDING.name()), eq(IN_PAYMENT.name()))).thenReturn(1);
+        when(ticketReservationRepository.lockReservationStatusForUpdate(eq(RESERVATION_ID))).thenReturn(IN_PAYMENT.name());
     }
 
     @Test
@@ -706,7 +682,7 @@ class TicketReservationManagerTest {
         assertTrue(result.isSuccessful());
         assertEquals(Optional.of(TRANSACTION_ID), result.getGatewayId());
         verify(ticketReservationRepository).updateTicketReservation(eq(RESERVATION_ID), eq(TicketReservationStatus.IN_PAYMENT.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), anyString(), any(), eq(PaymentProxy.STRIPE.toString()), isNull());
-        verify(ticketReservationRepository).lockReservationForUpdate(eq(RESERVATION_ID));
+        verify(ticketReservationRepository).updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(PENDING.name()), eq(IN_PAYMENT.name()));
         verify(ticketRepository).updateTicketsStatusWithReservationId(eq(RESERVATION_ID), eq(TicketStatus.ACQUIRED.toString()));
         verify(specialPriceRepository).updateStatusForReservation(eq(singletonList(RESERVATION_ID)), eq(SpecialPrice.Status.TAKEN.toString()));
         verify(ticketReservationRepository).updateTicketReservation(eq(RESERVATION_ID), eq(TicketReservationStatus.COMPLETE.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), anyString(), any(), eq(PaymentProxy.STRIPE.toString()), isNull());
@@ -717,11 +693,58 @@ class TicketReservationManagerTest {
         verify(ticketRepository, atLeastOnce()).findTicketsInReservation(anyString());
     }
 
+    @Test
+    void callPaymentProviderOutsideOfTransactions() {
+        initConfirmReservation();
+        when(ticketReservationRepository.updateTicketReservation(eq(RESERVATION_ID), eq(TicketReservationStatus.COMPLETE.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), anyString(), any(), eq(PaymentProxy.STRIPE.toString()), isNull())).thenReturn(1);
+        when(ticketRepository.updateTicketsStatusWithReservationId(eq(RESERVATION_ID), eq(TicketStatus.ACQUIRED.toString()))).thenReturn(1);
+        when(ticketReservation.getPromoCodeDiscountId()).thenReturn(null);
+        when(ticketReservation.getHasInvoiceNumber()).thenReturn(false);
+        when(ticketReservationRepository.updateTicketReservation(eq(RESERVATION_ID), eq(IN_PAYMENT.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), anyString(), isNull(), eq(PaymentProxy.STRIPE.toString()), isNull())).thenReturn(1);
+        when(configurationManager.hasAllConfigurationsForInvoice(eq(event))).thenReturn(true);
+        when(configurationManager.getStringConfigValue(any(), eq("%d"))).thenReturn("INV-%d");
+        when(invoiceSequencesRepository.allocateSequenceFor(anyInt())).thenReturn(7);
+        StripeCreditCardManager stripeCreditCardManager = mock(StripeCreditCardManager.class);
+        when(paymentManager.lookupProviderByMethod(eq(PaymentMethod.CREDIT_CARD), any())).thenReturn(Optional.of(stripeCreditCardManager));
+        when(stripeCreditCardManager.getTokenAndPay(any())).thenReturn(PaymentResult.successful(TRANSACTION_ID));
+        PaymentSpecification spec = new PaymentSpecification(RESERVATION_ID, new StripeCreditCardToken(GATEWAY_TOKEN), 100, event, "test@email",
+            new CustomerName("Full Name", null, null, event), "", null, Locale.ENGLISH,
+            true, false, null, "IT", "123456", PriceContainer.VatStatus.INCLUDED, true, false);
+        PaymentResult result = trm.performPayment(spec, new TotalPrice(100, 0, 0, 0), Optional.empty(), Optional.of(PaymentProxy.STRIPE));
+        assertTrue(result.isSuccessful());
+        InOrder inOrder = inOrder(transactionManager, ticketReservationRepository, stripeCreditCardManager, invoiceSequencesRepository);
+        inOrder.verify(transactionManager).getTransaction(any());
+        inOrder.verify(ticketReservationRepository).updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(PENDING.name()), eq(IN_PAYMENT.name()));
+        inOrder.verify(transactionManager).commit(any());
+        inOrder.verify(stripeCreditCardManager).getTokenAndPay(any());
+        inOrder.verify(transactionManager).getTransaction(any());
+        inOrder.verify(invoiceSequencesRepository).allocateSequenceFor(anyInt());
+        inOrder.verify(ticketReservationRepository).setInvoiceNumber(eq(RESERVATION_ID), eq("INV-7"));
+        inOrder.verify(transactionManager).commit(any());
+    }
+
+    @Test
+    void doNotAssignInvoiceNumberIfPaymentNotSuccessful() {
+        initConfirmReservation();
+        when(ticketReservationRepository.updateTicketReservation(eq(RESERVATION_ID), eq(IN_PAYMENT.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), isNull(), isNull(), eq(PaymentProxy.STRIPE.toString()), isNull())).thenReturn(1);
+        when(ticketReservationRepository.updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(IN_PAYMENT.name()), eq(PENDING.name()))).thenReturn(1);
+        when(ticketReservation.getPromoCodeDiscountId()).thenReturn(null);
+        when(configurationManager.hasAllConfigurationsForInvoice(eq(event))).thenReturn(true);
+        StripeCreditCardManager stripeCreditCardManager = mock(StripeCreditCardManager.class);
+        when(paymentManager.lookupProviderByMethod(eq(PaymentMethod.CREDIT_CARD), any())).thenReturn(Optional.of(stripeCreditCardManager));
+        when(stripeCreditCardManager.getTokenAndPay(any())).thenReturn(PaymentResult.failed("error-code"));
+        PaymentSpecification spec = new PaymentSpecification(RESERVATION_ID, new StripeCreditCardToken(GATEWAY_TOKEN), 100, event, "email@user", new CustomerName("Full Name", null, null, event), null, null, Locale.ENGLISH, true, false, null, "IT", "12345", PriceContainer.VatStatus.INCLUDED, true, false);
+        PaymentResult result = trm.performPayment(spec, new TotalPrice(100, 0, 0, 0), Optional.empty(), Optional.of(PaymentProxy.STRIPE));
+        assertFalse(result.isSuccessful());
+        verify(invoiceSequencesRepository, never()).allocateSequenceFor(anyInt());
+        verify(ticketReservationRepository, never()).setInvoiceNumber(anyString(), anyString());
+    }
+
     @Test
     void returnFailureCodeIfPaymentNotSuccessful() {
         initConfirmReservation();
         when(ticketReservationRepository.updateTicketReservation(eq(RESERVATION_ID), eq(IN_PAYMENT.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), isNull(), isNull(), eq(PaymentProxy.STRIPE.toString()), isNull())).thenReturn(1);
-        when(ticketReservationRepository.updateReservationStatus(eq(RESERVATION_ID), eq(TicketReservationStatus.PENDING.toString()))).thenReturn(1);
+        when(ticketReservationRepository.updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(IN_PAYMENT.name()), eq(PENDING.name()))).thenReturn(1);
         when(ticketReservation.getPromoCodeDiscountId()).thenReturn(null);
         StripeCreditCardManager stripeCreditCardManager = mock(StripeCreditCardManager.class);
         when(paymentManager.lookupProviderByMethod(eq(PaymentMethod.CREDIT_CARD), any())).thenReturn(Optional.of(stripeCreditCardManager));
@@ -732,12 +755,42 @@ class TicketReservationManagerTest {
         assertFalse(result.getGatewayId().isPresent());
         assertEquals(Optional.of("error-code"), result.getErrorCode());
         verify(ticketReservationRepository).updateTicketReservation(eq(RESERVATION_ID), eq(TicketReservationStatus.IN_PAYMENT.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), isNull(), isNull(), eq(PaymentProxy.STRIPE.toString()), isNull());
-        verify(ticketReservationRepository).lockReservationForUpdate(eq(RESERVATION_ID));
-        verify(ticketReservationRepository).updateReservationStatus(eq(RESERVATION_ID), eq(TicketReservationStatus.PENDING.toString()));
+        verify(ticketReservationRepository).updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(PENDING.name()), eq(IN_PAYMENT.name()));
+        verify(ticketReservationRepository).updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(IN_PAYMENT.name()), eq(PENDING.name()));
         verify(configurationManager).hasAllConfigurationsForInvoice(eq(event));
         verify(ticketReservationRepository).updateBillingData(eq(PriceContainer.VatStatus.INCLUDED), eq("12345"), eq("IT"), eq(true), eq(RESERVATION_ID));
     }
 
+    @Test
+    void doNotCallPaymentProviderIfReservationAlreadyClaimed() {
+        initConfirmReservation();
+        when(ticketReservationRepository.updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(PENDING.name()), eq(IN_PAYMENT.name()))).thenReturn(0);
+        StripeCreditCardManager stripeCreditCardManager = mock(StripeCreditCardManager.class);
+        when(paymentManager.lookupProviderByMethod(eq(PaymentMethod.CREDIT_CARD), any())).thenReturn(Optional.of(stripeCreditCardManager));
+        PaymentSpecification spec = new PaymentSpecification(RESERVATION_ID, new StripeCreditCardToken(GATEWAY_TOKEN), 100, event, "email@user", new CustomerName("Full Name", null, null, event), null, null, Locale.ENGLISH, true, false, null, "IT", "12345", PriceContainer.VatStatus.INCLUDED, true, false);
+        PaymentResult result = trm.performPayment(spec, new TotalPrice(100, 0, 0, 0), Optional.empty(), Optional.of(PaymentProxy.STRIPE));
+        assertFalse(result.isSuccessful());
+        assertEquals(Optional.of("error.STEP2_UNABLE_TO_TRANSITION"), result.getErrorCode());
+        verify(stripeCreditCardManager, never()).getTokenAndPay(any());
+        verify(ticketReservationRepository, never()).updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(IN_PAYMENT.name()), eq(PENDING.name()));
+    }
+
+    @Test
+    void doNotCompleteReservationIfNotInPaymentAnymore() {
+        initConfirmReservation();
+        when(ticketReservationRepository.updateTicketReservation(eq(RESERVATION_ID), eq(IN_PAYMENT.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), isNull(), isNull(), eq(PaymentProxy.STRIPE.toString()), isNull())).thenReturn(1);
+        when(ticketReservationRepository.lockReservationStatusForUpdate(eq(RESERVATION_ID))).thenReturn(COMPLETE.name());
+        when(ticketReservation.getPromoCodeDiscountId()).thenReturn(null);
+        StripeCreditCardManager stripeCreditCardManager = mock(StripeCreditCardManager.class);
+        when(paymentManager.lookupProviderByMethod(eq(PaymentMethod.CREDIT_CARD), any())).thenReturn(Optional.of(stripeCreditCardManager));
+        when(stripeCreditCardManager.getTokenAndPay(any())).thenReturn(PaymentResult.successful(TRANSACTION_ID));
+        PaymentSpecification spec = new PaymentSpecification(RESERVATION_ID, new StripeCreditCardToken(GATEWAY_TOKEN), 100, event, "email@user", new CustomerName("Full Name", null, null, event), null, null, Locale.ENGLISH, true, false, null, "IT", "12345", PriceContainer.VatStatus.INCLUDED, true, false);
+        PaymentResult result = trm.performPayment(spec, new TotalPrice(100, 0, 0, 0), Optional.empty(), Optional.of(PaymentProxy.STRIPE));
+        assertFalse(result.isSuccessful());
+        verify(ticketRepository, never()).updateTicketsStatusWithReservationId(anyString(), anyString());
+        verify(ticketReservationRepository, never()).updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(IN_PAYMENT.name()), eq(PENDING.name()));
+    }
+
     @Test
     void handleOnSitePaymentMethod() {
         initConfirmReservation();
@@ -755,7 +808,7 @@ class TicketReservationManagerTest {
         assertTrue(result.isSuccessful());
         assertEquals(Optional.of(TicketReservationManager.NOT_YET_PAID_TRANSACTION_ID), result.getGatewayId());
         verify(ticketReservationRepository).updateTicketReservation(eq(RESERVATION_ID), eq(TicketReservationStatus.COMPLETE.toString()), anyString(), anyString(), isNull(), isNull(), anyString(), anyString(), any(), eq(PaymentProxy.ON_SITE.toString()), isNull());
-        verify(ticketReservationRepository).lockReservationForUpdate(eq(RESERVATION_ID));
+        verify(ticketReservationRepository).updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(PENDING.name()), eq(IN_PAYMENT.name()));
         verify(ticketRepository).updateTicketsStatusWithReservationId(eq(RESERVATION_ID), eq(TicketStatus.TO_BE_PAID.toString()));
         verify(specialPriceRepository).updateStatusForReservation(eq(singletonList(RESERVATION_ID)), eq(SpecialPrice.Status.TAKEN.toString()));
         verify(waitingQueueManager).fireReservationConfirmed(eq(RESERVATION_ID));
@@ -773,6 +826,7 @@ class TicketReservationManagerTest {
         BankTransferManager bankTransferManager = mock(BankTransferManager.class);
         when(paymentManager.lookupProviderByMethod(eq(PaymentMethod.BANK_TRANSFER), any())).thenReturn(Optional.of(bankTransferManager));
         when(bankTransferManager.getTokenAndPay(any())).thenReturn(PaymentResult.successful(TicketReservationManager.NOT_YET_PAID_TRANSACTION_ID));
+        when(ticketReservationRepository.lockReservationStatusForUpdate(eq(RESERVATION_ID))).thenReturn(OFFLINE_PAYMENT.name());
         PaymentSpecification spec = new PaymentSpecification(RESERVATION_ID, new StripeCreditCardToken(GATEWAY_TOKEN), 100, event, "test@email",
             new CustomerName("Full Name", null, null, event),
             "", null, Locale.ENGLISH, true, false, null, "IT", "123456", PriceContainer.VatStatus.INCLUDED, true, false);
@@ -780,7 +834,7 @@ class TicketReservationManagerTest {
         assertTrue(result.isSuccessful());
         assertEquals(Optional.of(TicketReservationManager.NOT_YET_PAID_TRANSACTION_ID), result.getGatewayId());
         verify(waitingQueueManager, never()).fireReservationConfirmed(eq(RESERVATION_ID));
-        verify(ticketReservationRepository).lockReservationForUpdate(eq(RESERVATION_ID));
+        verify(ticketReservationRepository).updateReservationStatusIfCurrent(eq(RESERVATION_ID), eq(PENDING.name()), eq(IN_PAYMENT.name()));
         verify(configurationManager).hasAllConfigurationsForInvoice(eq(event));
         verify(ticketReservationRepository).updateBillingData(eq(PriceContainer.VatStatus.INCLUDED), eq("123456"), eq("IT"), eq(true), eq(RESERVATION_ID));
     }
@@ -16,6 +16,7 @@
  */
 package alfio.manager;
 
+import alfio.manager.support.OrderSummaryCache;
 import alfio.manager.system.ConfigurationManager;
 import alfio.model.*;
 import alfio.repository.*;
@@ -25,6 +26,7 @@ import alfio.util.TemplateManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.context.MessageSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.transaction.PlatformTransactionManager;
 
 import java.math.BigDecimal;
@@ -107,7 +109,12 @@ public class TicketReservationManagerUnitTest {
         extensionManager = mock(ExtensionManager.class);
         groupManager = mock(GroupManager.class);
 
-        manager = new TicketReservationManager(eventRepository,
+        manager = createManager(new OrderSummaryCache(0));
+
+    }
+
+    private TicketReservationManager createManager(OrderSummaryCache orderSummaryCache) {
+        return new TicketReservationManager(eventRepository,
             organizationRepository,
             ticketRepository,
             ticketReservationRepository,
@@ -132,8 +139,9 @@ public class TicketReservationManagerUnitTest {
             userRepository,
             extensionManager,
             mock(TicketSearchRepository.class),
-            groupManager);
-
+            groupManager,
+            mock(NamedParameterJdbcTemplate.class),
+            orderSummaryCache);
     }
 
     @Test
@@ -157,6 +165,25 @@ public class TicketReservationManagerUnitTest {
         assertEquals(1, notIncluded.getVAT());
     }
 
+    @Test
+    public void calcReservationCostForPaymentIsNotCached() {
+        manager = createManager(new OrderSummaryCache(60));
+        when(event.isVatIncluded()).thenReturn(true);
+        when(event.getVatStatus()).thenReturn(PriceContainer.VatStatus.INCLUDED);
+        when(event.getVat()).thenReturn(BigDecimal.TEN);
+        when(eventRepository.findByReservationId(eq(TICKET_RESERVATION_ID))).thenReturn(event);
+        when(ticketReservationRepository.findReservationById(eq(TICKET_RESERVATION_ID))).thenReturn(reservation);
+        when(ticket.getSrcPriceCts()).thenReturn(10);
+        when(ticketRepository.findTicketsInReservation(eq(TICKET_RESERVATION_ID))).thenReturn(Collections.singletonList(ticket));
+
+        assertEquals(10, manager.totalReservationCostWithVAT(TICKET_RESERVATION_ID).getPriceWithVAT());
+        // e.g. the VAT has been modified on another node
+        when(event.isVatIncluded()).thenReturn(false);
+        when(event.getVatStatus()).thenReturn(PriceContainer.VatStatus.NOT_INCLUDED);
+        assertEquals(10, manager.totalReservationCostWithVAT(TICKET_RESERVATION_ID).getPriceWithVAT());
+        assertEquals(11, manager.totalReservationCostWithVATForPayment(TICKET_RESERVATION_ID).getPriceWithVAT());
+    }
+
     @Test
     public void calcReservationCostWithASVatIncludedInherited() {
         initReservationWithAdditionalServices(true, AdditionalService.VatType.INHERITED, 10, 10);
@@ -0,0 +1,180 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager;
+
+import alfio.TestConfiguration;
+import alfio.config.DataSourceConfiguration;
+import alfio.config.Initializer;
+import alfio.manager.user.UserManager;
+import alfio.model.Event;
+import alfio.model.EventStatisticView;
+import alfio.model.TicketCategory;
+import alfio.model.TicketCategoryStatisticView;
+import alfio.model.TicketStatusCounterDifference;
+import alfio.model.modification.DateTimeModification;
+import alfio.model.modification.TicketCategoryModification;
+import alfio.model.modification.TicketReservationModification;
+import alfio.model.modification.TicketReservationWithOptionalCodeModification;
+import alfio.repository.EventRepository;
+import alfio.repository.TicketCategoryRepository;
+import alfio.repository.TicketRepository;
+import alfio.repository.system.ConfigurationRepository;
+import alfio.repository.user.OrganizationRepository;
+import alfio.test.util.IntegrationTestUtil;
+import alfio.util.BaseIntegrationTest;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+
+import static alfio.test.util.IntegrationTestUtil.AVAILABLE_SEATS;
+import static alfio.test.util.IntegrationTestUtil.DESCRIPTION;
+import static alfio.test.util.IntegrationTestUtil.initEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {DataSourceConfiguration.class, TestConfiguration.class})
+@ActiveProfiles({Initializer.PROFILE_DEV, Initializer.PROFILE_DISABLE_JOBS, Initializer.PROFILE_INTEGRATION_TEST})
+@Transactional
+public class TicketStatusCounterIntegrationTest extends BaseIntegrationTest {
+
+    @Autowired
+    private EventManager eventManager;
+    @Autowired
+    private OrganizationRepository organizationRepository;
+    @Autowired
+    private UserManager userManager;
+    @Autowired
+    private TicketRepository ticketRepository;
+    @Autowired
+    private TicketCategoryRepository ticketCategoryRepository;
+    @Autowired
+    private TicketReservationManager ticketReservationManager;
+    @Autowired
+    private TicketStatusCounterManager ticketStatusCounterManager;
+    @Autowired
+    private ConfigurationRepository configurationRepository;
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+
+    @Before
+    public void ensureConfiguration() {
+        IntegrationTestUtil.ensureMinimalConfiguration(configurationRepository);
+    }
+
+    @Test
+    public void testCountersFollowTicketStatus() {
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", 10,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null));
+        Event event = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository).getKey();
+        TicketCategory category = ticketCategoryRepository.findByEventId(event.getId()).get(0);
+
+        assertCountersMatch(event, category);
+        assertEquals(10, ticketRepository.countFreeTickets(event.getId(), category.getId()).intValue());
+        assertEquals(AVAILABLE_SEATS - 10, ticketRepository.countFreeTicketsForUnbounded(event.getId()).intValue());
+
+        TicketReservationModification tr = new TicketReservationModification();
+        tr.setAmount(2);
+        tr.setTicketCategoryId(category.getId());
+        ticketReservationManager.createTicketReservation(event, Collections.singletonList(new TicketReservationWithOptionalCodeModification(tr, Optional.empty())),
+            Collections.emptyList(), DateUtils.addDays(new Date(), 1), Optional.empty(), Optional.empty(), Locale.ENGLISH, false);
+
+        assertCountersMatch(event, category);
+        assertEquals(8, ticketReservationManager.countAvailableTickets(event, category));
+        assertEquals(2, ticketRepository.countPendingOrReleasedForCategory(event.getId(), category.getId()).intValue());
+
+        //the deltas are folded into slot 0 without changing the totals
+        assertTrue(ticketStatusCounterManager.compact() > 0);
+        assertEquals(0, jdbc.queryForObject("select count(*) from ticket_status_counter where event_id = :eventId and slot <> 0",
+            new MapSqlParameterSource("eventId", event.getId()), Integer.class).intValue());
+        assertCountersMatch(event, category);
+        assertEquals(8, ticketReservationManager.countAvailableTickets(event, category));
+
+        //simulate a drift and check that the reconciliation fixes it
+        jdbc.update("update ticket_status_counter set counter = counter + 5 where event_id = :eventId and category_id = :categoryId and status = 'FREE'",
+            new MapSqlParameterSource("eventId", event.getId()).addValue("categoryId", category.getId()));
+        assertTrue(ticketStatusCounterManager.reconcile(Collections.singletonList(event.getId())) > 0);
+        assertCountersMatch(event, category);
+        assertEquals(0, ticketStatusCounterManager.reconcile(Collections.singletonList(event.getId())));
+    }
+
+    @Test
+    public void testCheckAndRebuild() {
+        List<TicketCategoryModification> categories = Collections.singletonList(
+            new TicketCategoryModification(null, "default", 10,
+                new DateTimeModification(LocalDate.now(), LocalTime.now()),
+                new DateTimeModification(LocalDate.now().plusDays(1), LocalTime.now()),
+                DESCRIPTION, BigDecimal.TEN, false, "", true, null, null, null, null, null));
+        Event event = initEvent(categories, organizationRepository, userManager, eventManager, eventRepository).getKey();
+        TicketCategory category = ticketCategoryRepository.findByEventId(event.getId()).get(0);
+
+        TicketReservationModification tr = new TicketReservationModification();
+        tr.setAmount(3);
+        tr.setTicketCategoryId(category.getId());
+        ticketReservationManager.createTicketReservation(event, Collections.singletonList(new TicketReservationWithOptionalCodeModification(tr, Optional.empty())),
+            Collections.emptyList(), DateUtils.addDays(new Date(), 1), Optional.empty(), Optional.empty(), Locale.ENGLISH, false);
+
+        assertTrue(ticketStatusCounterManager.check(event.getId()).isEmpty());
+        TicketCategoryStatisticView categoryStatistics = ticketCategoryRepository.findStatisticWithId(category.getId(), event.getId());
+        assertEquals(3, categoryStatistics.getPendingCount());
+        assertEquals(7, categoryStatistics.getNotSoldTicketsCount());
+        EventStatisticView eventStatistics = eventRepository.findStatisticsFor(event.getId());
+        assertEquals(AVAILABLE_SEATS, eventStatistics.getAvailableSeats());
+
+        //corrupt the counters, the checker must report the difference without fixing it
+        jdbc.update("update ticket_status_counter set counter = counter + 2 where event_id = :eventId and category_id = :categoryId and status = 'PENDING'",
+            new MapSqlParameterSource("eventId", event.getId()).addValue("categoryId", category.getId()));
+        List<TicketStatusCounterDifference> differences = ticketStatusCounterManager.check(event.getId());
+        assertEquals(1, differences.size());
+        assertEquals("PENDING", differences.get(0).getStatus());
+        assertEquals(3, differences.get(0).getExpected());
+        assertEquals(5, differences.get(0).getActual());
+        assertEquals(5, ticketCategoryRepository.findStatisticWithId(category.getId(), event.getId()).getPendingCount());
+
+        assertTrue(ticketStatusCounterManager.rebuild(event.getId()) > 0);
+        assertTrue(ticketStatusCounterManager.check(event.getId()).isEmpty());
+        assertEquals(3, ticketCategoryRepository.findStatisticWithId(category.getId(), event.getId()).getPendingCount());
+        assertCountersMatch(event, category);
+    }
+
+    private void assertCountersMatch(Event event, TicketCategory category) {
+        MapSqlParameterSource params = new MapSqlParameterSource("eventId", event.getId()).addValue("categoryId", category.getId());
+        Integer free = jdbc.queryForObject("select count(*) from ticket where status = 'FREE' and category_id = :categoryId and event_id = :eventId", params, Integer.class);
+        Integer pending = jdbc.queryForObject("select count(*) from ticket where status = 'PENDING' and category_id = :categoryId and event_id = :eventId", params, Integer.class);
+        assertEquals(free, ticketRepository.countFreeTickets(event.getId(), category.getId()));
+        assertEquals(pending, Integer.valueOf(ticketRepository.countPendingOrReleasedForCategory(event.getId(), category.getId())
+            - ticketRepository.countReleasedTicketInCategory(event.getId(), category.getId())));
+    }
+}
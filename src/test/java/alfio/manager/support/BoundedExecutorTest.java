@@ -0,0 +1,79 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Bounded executor")
+class BoundedExecutorTest {
+
+    private final AtomicInteger parallelism = new AtomicInteger(2);
+    private final BoundedExecutor executor = new BoundedExecutor("test", parallelism::get, 10);
+
+    @Test
+    @DisplayName("the pool is resized when the parallelism changes")
+    void resize() {
+        ThreadPoolExecutor pool = executor.get();
+        assertEquals(2, pool.getMaximumPoolSize());
+
+        parallelism.set(4);
+        assertSame(pool, executor.get());
+        assertEquals(4, pool.getCorePoolSize());
+        assertEquals(4, pool.getMaximumPoolSize());
+
+        parallelism.set(0);
+        assertSame(pool, executor.get());
+        assertEquals(1, pool.getCorePoolSize());
+        assertEquals(1, pool.getMaximumPoolSize());
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("the pool is created again after a shutdown")
+    void rebuildAfterShutdown() {
+        ThreadPoolExecutor pool = executor.get();
+        executor.shutdown();
+        assertTrue(pool.isShutdown());
+
+        ThreadPoolExecutor rebuilt = executor.get();
+        assertNotSame(pool, rebuilt);
+        assertFalse(rebuilt.isShutdown());
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("no pool is created if the parallelism cannot be read")
+    void failedFirstCall() {
+        AtomicInteger calls = new AtomicInteger();
+        BoundedExecutor failing = new BoundedExecutor("test", () -> {
+            if(calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("configuration not available");
+            }
+            return 3;
+        }, 10);
+        assertThrows(IllegalStateException.class, failing::get);
+        assertEquals(0, failing.getActiveCount());
+        assertEquals(3, failing.get().getMaximumPoolSize());
+        failing.shutdown();
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import alfio.manager.EmailAttachmentCacheManager;
+import alfio.manager.EventManager;
+import alfio.manager.NotificationManager;
+import alfio.manager.PassBookManager;
+import alfio.manager.PdfRenderingManager;
+import alfio.manager.TicketReservationManager;
+import alfio.model.Event;
+import alfio.model.Ticket;
+import alfio.model.modification.MessageModification;
+import alfio.model.user.Organization;
+import alfio.repository.TicketRepository;
+import alfio.util.TemplateManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("Custom messages")
+class CustomMessageManagerTest {
+
+    private static final int EVENT_ID = 1;
+
+    private EventManager eventManager;
+    private TicketRepository ticketRepository;
+    private NotificationManager notificationManager;
+    private PdfRenderingManager pdfRenderingManager;
+    private Event event;
+    private CustomMessageManager customMessageManager;
+
+    @BeforeEach
+    void init() {
+        TemplateManager templateManager = mock(TemplateManager.class);
+        eventManager = mock(EventManager.class);
+        ticketRepository = mock(TicketRepository.class);
+        notificationManager = mock(NotificationManager.class);
+        pdfRenderingManager = mock(PdfRenderingManager.class);
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(EVENT_ID);
+        when(eventManager.getSingleEvent("event", "user")).thenReturn(event);
+        when(eventManager.loadOrganizer(event, "user")).thenReturn(mock(Organization.class));
+        when(templateManager.renderString(eq(event), anyString(), anyMap(), any(), any())).thenReturn("text");
+        customMessageManager = new CustomMessageManager(templateManager, eventManager, ticketRepository, mock(TicketReservationManager.class),
+            notificationManager, pdfRenderingManager, mock(EmailAttachmentCacheManager.class), mock(PassBookManager.class));
+    }
+
+    @Test
+    @DisplayName("the message is sent even if the ticket attachment could not be prepared")
+    void sendWithoutPreparedAttachment() {
+        Ticket ticket = mock(Ticket.class);
+        when(ticket.getId()).thenReturn(1);
+        when(ticket.getFullName()).thenReturn("John Doe");
+        when(ticket.getEmail()).thenReturn("john@example.org");
+        when(ticket.getUserLanguage()).thenReturn("en");
+        when(ticket.getCategoryId()).thenReturn(2);
+        when(ticketRepository.findAllConfirmed(EVENT_ID)).thenReturn(Collections.singletonList(ticket));
+        // the category is not active anymore, therefore the PDF cannot be rendered
+        when(eventManager.loadTicketCategories(event)).thenReturn(Collections.emptyList());
+        when(pdfRenderingManager.renderTickets(eq(event), any(), anyList(), any())).thenReturn(0);
+
+        MessageModification message = new MessageModification(Locale.ENGLISH, "subject", "text", null, null, true);
+        customMessageManager.sendMessages("event", Optional.empty(), Collections.singletonList(message), "user");
+
+        verify(notificationManager, timeout(5000)).sendSimpleEmail(eq(event), eq("john@example.org"), eq("text"), any(), eq(Collections.emptyList()));
+    }
+}
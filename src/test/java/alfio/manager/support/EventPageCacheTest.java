@@ -0,0 +1,86 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("EventPageCache")
+public class EventPageCacheTest {
+
+    private final EventPageCache.Key key = new EventPageCache.Key(1, "en", null, null);
+    private AtomicInteger loads;
+    private Supplier<Pair<Map<String, Object>, Object>> loader;
+
+    @BeforeEach
+    void init() {
+        loads = new AtomicInteger();
+        loader = () -> {
+            loads.incrementAndGet();
+            return Pair.of(Collections.singletonMap("event", "test"), Collections.singletonList("fingerprint"));
+        };
+    }
+
+    @Test
+    @DisplayName("the model is built only once while the entry is valid")
+    void modelIsCached() {
+        EventPageCache cache = new EventPageCache(60);
+        EventPageCache.PageModel first = cache.get(key, loader);
+        EventPageCache.PageModel second = cache.get(key, loader);
+        assertEquals(1, loads.get());
+        assertSame(first, second);
+        assertEquals("test", second.getModel().get("event"));
+        assertEquals(1L, cache.getMetrics().get("hits"));
+    }
+
+    @Test
+    @DisplayName("invalidation evicts only the entries of the given event")
+    void invalidateEvent() {
+        EventPageCache cache = new EventPageCache(60);
+        EventPageCache.Key otherEvent = new EventPageCache.Key(2, "en", null, null);
+        cache.get(key, loader);
+        cache.get(otherEvent, loader);
+        cache.invalidate(1);
+        cache.get(key, loader);
+        cache.get(otherEvent, loader);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    @DisplayName("last modified and ETag do not change if the content is the same")
+    void stableValidators() {
+        EventPageCache cache = new EventPageCache(0);
+        EventPageCache.PageModel first = cache.get(key, loader);
+        EventPageCache.PageModel second = cache.get(key, loader);
+        assertEquals(2, loads.get());
+        assertEquals(first.getLastModified(), second.getLastModified());
+        assertEquals(first.etag("token"), second.etag("token"));
+        assertNotEquals(first.etag("token"), first.etag("another-token"));
+
+        EventPageCache.PageModel modified = cache.get(key, () -> Pair.of(Collections.emptyMap(), Collections.singletonList("modified")));
+        assertNotEquals(first.getFingerprint(), modified.getFingerprint());
+    }
+}
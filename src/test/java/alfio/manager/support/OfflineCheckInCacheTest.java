@@ -0,0 +1,55 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DisplayName("Offline check-in cache")
+class OfflineCheckInCacheTest {
+
+    private final AtomicInteger encryptions = new AtomicInteger();
+    private final BinaryOperator<String> encrypter = (key, payload) -> key + ":" + payload + ":" + encryptions.incrementAndGet();
+
+    @Test
+    @DisplayName("the payload is encrypted again only if it has been modified")
+    void encryptOnlyIfModified() {
+        OfflineCheckInCache cache = new OfflineCheckInCache(10);
+        String first = cache.getEncryptedPayload(1, "key", "payload", encrypter);
+        assertEquals(first, cache.getEncryptedPayload(1, "key", "payload", encrypter));
+        assertEquals(1, encryptions.get());
+
+        assertEquals("key:modified:2", cache.getEncryptedPayload(1, "key", "modified", encrypter));
+        assertEquals("another-key:modified:3", cache.getEncryptedPayload(1, "another-key", "modified", encrypter));
+        assertEquals("key:payload:4", cache.getEncryptedPayload(2, "key", "payload", encrypter));
+        assertEquals(1L, cache.getMetrics().get("hits"));
+    }
+
+    @Test
+    @DisplayName("nothing is cached if the cache is disabled")
+    void disabled() {
+        OfflineCheckInCache cache = new OfflineCheckInCache(0);
+        cache.getEncryptedPayload(1, "key", "payload", encrypter);
+        cache.getEncryptedPayload(1, "key", "payload", encrypter);
+        assertEquals(2, encryptions.get());
+    }
+}
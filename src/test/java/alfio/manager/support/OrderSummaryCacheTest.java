@@ -0,0 +1,89 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.support;
+
+import alfio.model.TotalPrice;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("OrderSummaryCache")
+class OrderSummaryCacheTest {
+
+    private static final String RESERVATION_ID = "reservation";
+    private AtomicInteger loads;
+    private Supplier<TotalPrice> loader;
+
+    @BeforeEach
+    void init() {
+        loads = new AtomicInteger();
+        loader = () -> new TotalPrice(1000 + loads.incrementAndGet(), 0, 0, 0);
+    }
+
+    @Test
+    @DisplayName("the total price is computed only once until the reservation is modified")
+    void totalPriceIsCached() {
+        OrderSummaryCache cache = new OrderSummaryCache(60);
+        TotalPrice first = cache.getTotalPrice(RESERVATION_ID, loader);
+        assertSame(first, cache.getTotalPrice(RESERVATION_ID, loader));
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.getMetrics().get("hits"));
+
+        cache.invalidate(RESERVATION_ID);
+        TotalPrice second = cache.getTotalPrice(RESERVATION_ID, loader);
+        assertEquals(2, loads.get());
+        assertNotEquals(first.getPriceWithVAT(), second.getPriceWithVAT());
+    }
+
+    @Test
+    @DisplayName("a value computed while the reservation is being modified is discarded")
+    void concurrentModification() {
+        OrderSummaryCache cache = new OrderSummaryCache(60);
+        cache.getTotalPrice(RESERVATION_ID, () -> {
+            cache.invalidate(RESERVATION_ID);
+            return loader.get();
+        });
+        cache.getTotalPrice(RESERVATION_ID, loader);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    @DisplayName("invalidateAll evicts every reservation")
+    void invalidateAll() {
+        OrderSummaryCache cache = new OrderSummaryCache(60);
+        cache.getTotalPrice(RESERVATION_ID, loader);
+        cache.getTotalPrice("another", loader);
+        cache.invalidateAll();
+        cache.getTotalPrice(RESERVATION_ID, loader);
+        cache.getTotalPrice("another", loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    @DisplayName("nothing is cached if the TTL is 0")
+    void disabled() {
+        OrderSummaryCache cache = new OrderSummaryCache(0);
+        cache.getTotalPrice(RESERVATION_ID, loader);
+        cache.getTotalPrice(RESERVATION_ID, loader);
+        assertEquals(2, loads.get());
+    }
+}
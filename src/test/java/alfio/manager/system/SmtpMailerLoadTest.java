@@ -0,0 +1,216 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.system;
+
+import alfio.model.Event;
+import alfio.model.system.Configuration.ConfigurationPathKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+
+import javax.mail.Message;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sends a burst of messages through {@link SmtpMailer} against a local fake SMTP server, in order to verify
+ * that every message is delivered and that the SMTP sessions are reused. The throughput is measured by
+ * <tt>SmtpMailerBenchmark</tt>, see src/jmh.
+ */
+public class SmtpMailerLoadTest {
+
+    private static final int SENDERS = 8;
+    private static final int MESSAGES_PER_SENDER = 250;
+
+    private FakeSmtpServer server;
+    private SmtpMailer mailer;
+    private Event event;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FakeSmtpServer();
+        ConfigurationManager configurationManager = mock(ConfigurationManager.class);
+        when(configurationManager.getRequiredValue(any())).thenAnswer(invocation -> {
+            ConfigurationPathKey key = invocation.getArgument(0);
+            switch (key.getKey()) {
+                case SMTP_HOST: return "localhost";
+                case SMTP_PORT: return String.valueOf(server.getPort());
+                case SMTP_PROTOCOL: return "smtp";
+                case SMTP_FROM_EMAIL: return "noreply@example.com";
+                default: throw new IllegalArgumentException("unexpected key " + key.getKey());
+            }
+        });
+        when(configurationManager.getStringConfigValue(any(), isNull())).thenReturn(null);
+        when(configurationManager.getStringConfigValue(any(), any(String.class))).thenReturn("");
+        mailer = new SmtpMailer(configurationManager);
+        event = mock(Event.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(1);
+        when(event.getDisplayName()).thenReturn("Load test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void sendWithPooledTransports() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(SENDERS);
+        List<Callable<Void>> calls = new ArrayList<>();
+        for (int i = 0; i < SENDERS; i++) {
+            int sender = i;
+            calls.add(() -> {
+                for (int j = 0; j < MESSAGES_PER_SENDER; j++) {
+                    mailer.send(event, "attendee-" + sender + "-" + j + "@example.com", Collections.emptyList(), "subject", "text", Optional.empty());
+                }
+                return null;
+            });
+        }
+        for (Future<Void> result : executor.invokeAll(calls)) {
+            result.get();
+        }
+        executor.shutdown();
+
+        int total = SENDERS * MESSAGES_PER_SENDER;
+        assertEquals(total, server.messages.get());
+        assertTrue(server.connections.get() <= SENDERS, "SMTP sessions must be reused");
+    }
+
+    @Test
+    void transportsAreClosedWithTheSender() throws Exception {
+        SmtpMailer.PooledJavaMailSenderImpl sender = new SmtpMailer.PooledJavaMailSenderImpl();
+        sender.setHost("localhost");
+        sender.setPort(server.getPort());
+        MimeMessagePreparator preparator = message -> {
+            message.setFrom("noreply@example.com");
+            message.setRecipients(Message.RecipientType.TO, "attendee@example.com");
+            message.setText("text");
+        };
+        sender.send(preparator);
+        assertEquals(0, server.quits.get());
+
+        sender.close();
+        awaitQuits(1);
+
+        //a transport released after the eviction of its sender must not be kept open
+        sender.send(preparator);
+        awaitQuits(2);
+        assertEquals(2, server.connections.get());
+    }
+
+    private void awaitQuits(int expected) throws InterruptedException {
+        for (int i = 0; i < 50 && server.quits.get() < expected; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(expected, server.quits.get());
+    }
+
+    private static class FakeSmtpServer implements Closeable {
+
+        private final ServerSocket serverSocket;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger messages = new AtomicInteger();
+        private final AtomicInteger quits = new AtomicInteger();
+
+        FakeSmtpServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            executor.submit(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        executor.submit(() -> handle(socket));
+                    } catch (IOException e) {
+                        //server closed
+                    }
+                }
+            });
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private Void handle(Socket socket) throws IOException {
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+                 Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII)) {
+                reply(out, "220 localhost ESMTP fake");
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                    switch (command) {
+                        case "EHLO":
+                        case "HELO":
+                            reply(out, "250 localhost");
+                            break;
+                        case "DATA":
+                            reply(out, "354 end data with <CR><LF>.<CR><LF>");
+                            while ((line = in.readLine()) != null && !line.equals(".")) {
+                                //discard message content
+                            }
+                            messages.incrementAndGet();
+                            reply(out, "250 OK");
+                            break;
+                        case "QUIT":
+                            quits.incrementAndGet();
+                            reply(out, "221 bye");
+                            return null;
+                        case "MAIL":
+                        case "RCPT":
+                        case "RSET":
+                        case "NOOP":
+                            reply(out, "250 OK");
+                            break;
+                        default:
+                            reply(out, "502 command not implemented");
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static void reply(Writer out, String line) throws IOException {
+            out.write(line + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            executor.shutdownNow();
+        }
+    }
+}
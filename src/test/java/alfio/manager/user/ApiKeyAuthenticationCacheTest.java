@@ -0,0 +1,113 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.manager.user;
+
+import alfio.model.user.User;
+import alfio.repository.user.AuthorityRepository;
+import alfio.repository.user.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@DisplayName("API key authentication cache")
+class ApiKeyAuthenticationCacheTest {
+
+    private static final String API_KEY = "api-key";
+
+    private UserRepository userRepository;
+    private AuthorityRepository authorityRepository;
+
+    @BeforeEach
+    void init() {
+        userRepository = mock(UserRepository.class);
+        authorityRepository = mock(AuthorityRepository.class);
+        User user = new User(1, API_KEY, "apikey", "", "", true, User.Type.API_KEY, null, null);
+        when(userRepository.findByUsername(API_KEY)).thenReturn(Optional.of(user));
+        when(authorityRepository.findRoles(API_KEY)).thenReturn(Collections.singletonList("ROLE_OPERATOR"));
+    }
+
+    @Test
+    @DisplayName("user and roles are loaded only once")
+    void cached() {
+        ApiKeyAuthenticationCache cache = new ApiKeyAuthenticationCache(userRepository, authorityRepository, 60);
+        for (int i = 0; i < 5; i++) {
+            ApiKeyAuthenticationCache.ApiKey key = cache.get(API_KEY).orElseThrow(IllegalStateException::new);
+            assertEquals(1, key.getUser().getId());
+            assertEquals("ROLE_OPERATOR", key.getAuthorities().get(0).getAuthority());
+        }
+        assertFalse(cache.get("unknown").isPresent());
+        assertFalse(cache.get("unknown").isPresent());
+        verify(userRepository, times(1)).findByUsername(API_KEY);
+        verify(authorityRepository, times(1)).findRoles(API_KEY);
+        verify(userRepository, times(2)).findByUsername("unknown");
+        assertEquals(4L, cache.getMetrics().get("hits"));
+    }
+
+    @Test
+    @DisplayName("modified users are loaded again")
+    void invalidation() {
+        ApiKeyAuthenticationCache cache = new ApiKeyAuthenticationCache(userRepository, authorityRepository, 60);
+        cache.get(API_KEY);
+        cache.invalidate(Collections.singletonList(2));
+        cache.get(API_KEY);
+        verify(userRepository, times(1)).findByUsername(API_KEY);
+
+        cache.invalidate(Collections.singletonList(1));
+        cache.get(API_KEY);
+        verify(userRepository, times(2)).findByUsername(API_KEY);
+
+        cache.invalidate(API_KEY);
+        cache.get(API_KEY);
+        verify(userRepository, times(3)).findByUsername(API_KEY);
+    }
+
+    @Test
+    @DisplayName("entries are evicted again after the completion of the transaction")
+    void invalidationAfterCompletion() {
+        ApiKeyAuthenticationCache cache = new ApiKeyAuthenticationCache(userRepository, authorityRepository, 60);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.invalidate(API_KEY);
+            //a concurrent request loads the data before the commit
+            cache.get(API_KEY);
+            cache.get(API_KEY);
+            verify(userRepository, times(1)).findByUsername(API_KEY);
+            TransactionSynchronizationManager.getSynchronizations().forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        cache.get(API_KEY);
+        verify(userRepository, times(2)).findByUsername(API_KEY);
+    }
+
+    @Test
+    @DisplayName("nothing is cached if the ttl is 0")
+    void disabled() {
+        ApiKeyAuthenticationCache cache = new ApiKeyAuthenticationCache(userRepository, authorityRepository, 0);
+        cache.get(API_KEY);
+        cache.get(API_KEY);
+        verify(userRepository, times(2)).findByUsername(API_KEY);
+    }
+}
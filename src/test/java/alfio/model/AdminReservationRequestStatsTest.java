@@ -0,0 +1,56 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Admin reservation request stats")
+class AdminReservationRequestStatsTest {
+
+    @Test
+    @DisplayName("no estimate is available before the first request has been processed")
+    void notStarted() {
+        AdminReservationRequestStats stats = new AdminReservationRequestStats("id", 1, 1, 0, 100, 0, null, null);
+        assertEquals(0d, stats.getThroughput());
+        assertNull(stats.getEstimatedSecondsRemaining());
+    }
+
+    @Test
+    @DisplayName("throughput and remaining time are measured until now while there are pending requests")
+    void inProgress() {
+        ZonedDateTime start = ZonedDateTime.now().minusSeconds(10);
+        AdminReservationRequestStats stats = new AdminReservationRequestStats("id", 1, 1, 90, 100, 10, start, start.plusSeconds(5));
+        double throughput = stats.getThroughput();
+        assertTrue(throughput > 9 && throughput <= 10, "throughput was " + throughput);
+        long remaining = stats.getEstimatedSecondsRemaining();
+        assertTrue(remaining >= 10 && remaining <= 12, "remaining was " + remaining);
+    }
+
+    @Test
+    @DisplayName("completed requests report the overall throughput")
+    void completed() {
+        ZonedDateTime start = ZonedDateTime.now().minusMinutes(5);
+        AdminReservationRequestStats stats = new AdminReservationRequestStats("id", 1, 1, 200, 0, 0, start, start.plusSeconds(20));
+        assertEquals(10d, stats.getThroughput());
+        assertEquals(0L, (long) stats.getEstimatedSecondsRemaining());
+    }
+}
@@ -92,6 +92,16 @@ public class IntegrationTestUtil {
                                                 EventManager eventManager,
                                                 EventRepository eventRepository,
                                                 List<EventModification.AdditionalService> additionalServices) {
+        return initEvent(categories, organizationRepository, userManager, eventManager, eventRepository, additionalServices, AVAILABLE_SEATS);
+    }
+
+    public static Pair<Event, String> initEvent(List<TicketCategoryModification> categories,
+                                                OrganizationRepository organizationRepository,
+                                                UserManager userManager,
+                                                EventManager eventManager,
+                                                EventRepository eventRepository,
+                                                List<EventModification.AdditionalService> additionalServices,
+                                                int availableSeats) {
 
         String organizationName = UUID.randomUUID().toString();
         String username = UUID.randomUUID().toString();
@@ -114,10 +124,10 @@ public class IntegrationTestUtil {
                 "muh location", "0.0", "0.0", ZoneId.systemDefault().getId(), desc,
                 new DateTimeModification(LocalDate.now().plusDays(5), LocalTime.now()),
                 new DateTimeModification(expiration.toLocalDate(), expiration.toLocalTime()),
-                BigDecimal.TEN, "CHF", AVAILABLE_SEATS, BigDecimal.ONE, true, Collections.singletonList(PaymentProxy.OFFLINE), categories, false, new LocationDescriptor("","","",""), 7, null, additionalServices);
+                BigDecimal.TEN, "CHF", availableSeats, BigDecimal.ONE, true, Collections.singletonList(PaymentProxy.OFFLINE), categories, false, new LocationDescriptor("","","",""), 7, null, additionalServices);
         eventManager.createEvent(em);
         Event event = eventManager.getSingleEvent(eventName, username);
-        Assert.assertEquals(AVAILABLE_SEATS, eventRepository.countExistingTickets(event.getId()).intValue());
+        Assert.assertEquals(availableSeats, eventRepository.countExistingTickets(event.getId()).intValue());
         return Pair.of(event, username);
     }
 
@@ -0,0 +1,75 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.test.util;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ClassUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the statements sent to the database. Add it to the context configuration of a test in order
+ * to wrap the {@link DataSource}.
+ */
+public class StatementCounter implements BeanPostProcessor {
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    public static long get() {
+        return COUNTER.get();
+    }
+
+    public static void reset() {
+        COUNTER.set(0);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if(bean instanceof DataSource) {
+            return proxy(bean, (method, result) -> method.getName().equals("getConnection") ? proxy(result, this::countStatements) : result);
+        }
+        return bean;
+    }
+
+    private Object countStatements(Method method, Object result) {
+        String name = method.getName();
+        if(name.equals("prepareStatement") || name.equals("createStatement") || name.equals("prepareCall")) {
+            COUNTER.incrementAndGet();
+        }
+        return result;
+    }
+
+    private static Object proxy(Object target, ResultHandler handler) {
+        Class<?>[] interfaces = target instanceof Connection ? new Class<?>[] {Connection.class} : ClassUtils.getAllInterfaces(target);
+        return Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), interfaces, (p, method, args) -> {
+            try {
+                return handler.handle(method, method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private interface ResultHandler {
+        Object handle(Method method, Object result);
+    }
+}
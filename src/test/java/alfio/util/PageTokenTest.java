@@ -0,0 +1,67 @@
+/**
+ * This file is part of alf.io.
+ *
+ * alf.io is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * alf.io is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with alf.io.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package alfio.util;
+
+import alfio.model.KeysetPage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("PageToken")
+class PageTokenTest {
+
+    @Test
+    @DisplayName("sort keys are encoded without losing precision")
+    void roundTrip() {
+        ZonedDateTime timestamp = ZonedDateTime.of(2019, 3, 1, 10, 15, 30, 123_456_000, ZoneId.of("Europe/Zurich"));
+        Date validity = new Date(1551431730123L);
+        String token = PageToken.encode(timestamp, validity, "reservation-id", 42);
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+        PageToken decoded = PageToken.decode(token);
+        assertTrue(timestamp.isEqual(decoded.getTimestamp(0)));
+        assertEquals(validity, decoded.getDate(1));
+        assertEquals("reservation-id", decoded.getString(2));
+        assertEquals(42, decoded.getInt(3));
+    }
+
+    @Test
+    @DisplayName("invalid tokens are rejected")
+    void invalidToken() {
+        assertThrows(IllegalArgumentException.class, () -> PageToken.decode("not a token"));
+        assertThrows(IllegalArgumentException.class, () -> PageToken.decode(PageToken.encode(1)).getInt(1));
+        assertThrows(IllegalArgumentException.class, () -> PageToken.decode(PageToken.encode("a")).getInt(0));
+    }
+
+    @Test
+    @DisplayName("the next page token is generated only for full pages")
+    void nextPageToken() {
+        List<Integer> content = Arrays.asList(1, 2, 3);
+        KeysetPage<Integer> full = KeysetPage.of(content, 3, null, i -> PageToken.encode(i));
+        assertEquals(3, PageToken.decode(full.getNextPageToken()).getInt(0));
+        assertNull(full.getCount());
+        KeysetPage<Integer> last = KeysetPage.of(content, 50, 3, i -> PageToken.encode(i));
+        assertNull(last.getNextPageToken());
+        assertEquals(Integer.valueOf(3), last.getCount());
+    }
+}
@@ -17,11 +17,23 @@
 package alfio.util;
 
 
+import alfio.manager.UploadedResourceManager;
+import alfio.manager.system.ConfigurationManager;
+import alfio.model.Event;
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
 import org.springframework.context.support.StaticMessageSource;
+import org.springframework.web.servlet.view.mustache.jmustache.JMustacheTemplateLoader;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
 
 public class TemplateManagerTest {
 
@@ -81,4 +93,63 @@ public class TemplateManagerTest {
     public void simpleParams() {
         Assert.assertEquals("3-2-1", TemplateManager.translate("{{#i18n}}parameter [1] [2] [3]{{/i18n}}", Locale.ENGLISH, messageSource));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void overridesAreCachedUntilResourcesAreModified() {
+        UploadedResourceManager uploadedResourceManager = mock(UploadedResourceManager.class);
+        TemplateManager templateManager = templateManager(uploadedResourceManager, true);
+        Event event = mock(Event.class);
+        when(event.getId()).thenReturn(1);
+        when(event.getOrganizationId()).thenReturn(2);
+        when(uploadedResourceManager.findCascading(anyInt(), anyInt(), anyString()))
+            .thenReturn(Optional.of("hello {{name}}".getBytes(StandardCharsets.UTF_8)));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("hello world", templateManager.renderTemplate(event, TemplateResource.TICKET_HAS_BEEN_CANCELLED, Collections.singletonMap("name", "world"), Locale.ENGLISH));
+        }
+        verify(uploadedResourceManager, times(1)).findCascading(eq(2), eq(1), anyString());
+
+        when(uploadedResourceManager.getVersion()).thenReturn(1L);
+        when(uploadedResourceManager.findCascading(anyInt(), anyInt(), anyString()))
+            .thenReturn(Optional.of("bye {{name}}".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("bye world", templateManager.renderTemplate(event, TemplateResource.TICKET_HAS_BEEN_CANCELLED, Collections.singletonMap("name", "world"), Locale.ENGLISH));
+        verify(uploadedResourceManager, times(2)).findCascading(eq(2), eq(1), anyString());
+    }
+
+    @Test
+    public void missingOverridesAreCached() {
+        UploadedResourceManager uploadedResourceManager = mock(UploadedResourceManager.class);
+        TemplateManager templateManager = templateManager(uploadedResourceManager, true);
+        Event event = mock(Event.class);
+        when(uploadedResourceManager.findCascading(anyInt(), anyInt(), anyString())).thenReturn(Optional.empty());
+
+        String first = templateManager.renderTemplate(event, TemplateResource.TICKET_HAS_BEEN_CANCELLED, Collections.emptyMap(), Locale.ENGLISH);
+        String second = templateManager.renderTemplate(event, TemplateResource.TICKET_HAS_BEEN_CANCELLED, Collections.emptyMap(), Locale.ENGLISH);
+        Assert.assertEquals(first, second);
+        verify(uploadedResourceManager, times(1)).findCascading(anyInt(), anyInt(), anyString());
+    }
+
+    @Test
+    public void templatesAreCompiledAgainOutsideLive() {
+        TemplateManager cached = templateManager(mock(UploadedResourceManager.class), true);
+        TemplateManager notCached = templateManager(mock(UploadedResourceManager.class), false);
+        for (int i = 0; i < 2; i++) {
+            cached.renderTemplate(Optional.empty(), TemplateResource.TICKET_HAS_BEEN_CANCELLED, Collections.emptyMap(), Locale.ENGLISH);
+            notCached.renderTemplate(Optional.empty(), TemplateResource.TICKET_HAS_BEEN_CANCELLED, Collections.emptyMap(), Locale.ENGLISH);
+        }
+        Assert.assertEquals(1L, templateMetrics(cached).get("entries"));
+        Assert.assertEquals(0L, templateMetrics(notCached).get("entries"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> templateMetrics(TemplateManager templateManager) {
+        return (Map<String, Object>) templateManager.getMetrics().get("templates");
+    }
+
+    private static TemplateManager templateManager(UploadedResourceManager uploadedResourceManager, boolean cacheTemplates) {
+        StaticMessageSource source = new StaticMessageSource();
+        source.setUseCodeAsDefaultMessage(true);
+        source.addMessage("locale", Locale.ENGLISH, "en");
+        return new TemplateManager(new JMustacheTemplateLoader(), source, uploadedResourceManager, mock(ConfigurationManager.class), cacheTemplates);
+    }
+}